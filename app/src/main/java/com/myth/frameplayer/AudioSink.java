@@ -0,0 +1,34 @@
+package com.myth.frameplayer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Where decoded 16 bit PCM is played, the part of {@code AudioTrack} the player uses.
+ */
+interface AudioSink {
+
+    /**
+     * Writes the remaining bytes of {@code pcm}, blocking while the sink is full.
+     *
+     * @return bytes written, negative on error
+     */
+    int write(ByteBuffer pcm);
+
+    void play();
+
+    void pause();
+
+    /**
+     * Drops what was written and not played yet, while paused.
+     */
+    void flush();
+
+    boolean isPlaying();
+
+    /**
+     * @return frames played since the last flush
+     */
+    long getPlaybackHeadPosition();
+
+    void release();
+}
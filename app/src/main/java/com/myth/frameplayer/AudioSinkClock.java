@@ -0,0 +1,49 @@
+package com.myth.frameplayer;
+
+/**
+ * Media position of an {@link AudioSink}, derived from its playback head and the timestamp
+ * of the first sample written to it.
+ */
+class AudioSinkClock implements AvSyncController.MasterClock {
+
+    private final AudioSink mSink;
+    private final int mSampleRate;
+    private final float mSpeed;
+    private volatile long mBasePtsUs = -1;
+
+    /**
+     * @param speed media time advanced per second of audio played, i.e. the time-stretch
+     *              speed applied before the sink
+     */
+    AudioSinkClock(AudioSink sink, int sampleRate, float speed) {
+        mSink = sink;
+        mSampleRate = sampleRate;
+        mSpeed = speed;
+    }
+
+    /**
+     * Records the timestamp of the first sample written, later calls are ignored.
+     */
+    void onFirstSample(long ptsUs) {
+        if (mBasePtsUs < 0) {
+            mBasePtsUs = ptsUs;
+        }
+    }
+
+    /**
+     * Forgets the first sample after the sink was flushed, e.g. for a seek.
+     */
+    void reset() {
+        mBasePtsUs = -1;
+    }
+
+    @Override
+    public boolean isValid() {
+        return mBasePtsUs >= 0 && mSink.isPlaying() && mSink.getPlaybackHeadPosition() != 0;
+    }
+
+    @Override
+    public long getPositionUs() {
+        return mBasePtsUs + (long) (mSink.getPlaybackHeadPosition() * 1000000.0 * mSpeed / mSampleRate);
+    }
+}
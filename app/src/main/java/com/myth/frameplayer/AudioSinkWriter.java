@@ -0,0 +1,72 @@
+package com.myth.frameplayer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Drains a {@link PcmRingBuffer} into an {@link AudioSink} on its own thread, so sink
+ * backpressure never blocks the audio decoder.
+ */
+class AudioSinkWriter implements Runnable {
+
+    private static final int CHUNK_SIZE = 8192;
+
+    private final AudioSink mSink;
+    private final PcmRingBuffer mRingBuffer;
+    private Thread mThread;
+    private volatile boolean mStopped;
+
+    AudioSinkWriter(AudioSink sink, PcmRingBuffer ringBuffer) {
+        mSink = sink;
+        mRingBuffer = ringBuffer;
+    }
+
+    void start() {
+        mThread = new Thread(this, "Audio Writer");
+        mThread.start();
+    }
+
+    /**
+     * Lets the writer play out everything buffered, then waits for it to exit.
+     */
+    void finish() {
+        mRingBuffer.endOfStream();
+        join();
+    }
+
+    /**
+     * Drops whatever is buffered and waits for the writer to exit.
+     */
+    void stop() {
+        mStopped = true;
+        mRingBuffer.close();
+        mSink.pause();
+        mSink.flush();
+        join();
+    }
+
+    private void join() {
+        if (mThread == null) {
+            return;
+        }
+        try {
+            mThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mThread = null;
+    }
+
+    @Override
+    public void run() {
+        ByteBuffer region;
+        while (!mStopped && (region = mRingBuffer.awaitReadable(CHUNK_SIZE)) != null) {
+            int size = region.remaining();
+            int written = mSink.write(region);
+            if (written < 0) {
+                break;
+            }
+            // a partial write leaves the rest readable for the next round
+            mRingBuffer.commitRead(Math.min(written, size));
+        }
+    }
+}
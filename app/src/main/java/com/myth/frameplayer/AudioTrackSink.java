@@ -0,0 +1,90 @@
+package com.myth.frameplayer;
+
+import android.annotation.TargetApi;
+import android.media.AudioTrack;
+import android.os.Build;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link AudioSink} playing through a streaming {@link AudioTrack}. Uses
+ * {@code write(ByteBuffer, ...)} on API 21+ and a preallocated chunk before that; neither
+ * allocates per write.
+ */
+class AudioTrackSink implements AudioSink {
+    private static final String TAG = AudioTrackSink.class.getSimpleName();
+
+    private static final int CHUNK_SIZE = 8192;
+
+    private final AudioTrack mAudioTrack;
+    private final byte[] mChunk;
+
+    AudioTrackSink(AudioTrack audioTrack) {
+        mAudioTrack = audioTrack;
+        mChunk = Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP ? null : new byte[CHUNK_SIZE];
+    }
+
+    @Override
+    public int write(ByteBuffer pcm) {
+        int written;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            written = writeDirect(pcm);
+        } else {
+            written = 0;
+            while (pcm.hasRemaining()) {
+                int size = Math.min(pcm.remaining(), CHUNK_SIZE);
+                pcm.get(mChunk, 0, size);
+                int result = mAudioTrack.write(mChunk, 0, size);
+                if (result < 0) {
+                    written = result;
+                    break;
+                }
+                written += result;
+            }
+        }
+        if (written < 0) {
+            Log.e(TAG, "AudioTrack write error " + written);
+        }
+        return written;
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private int writeDirect(ByteBuffer pcm) {
+        return mAudioTrack.write(pcm, pcm.remaining(), AudioTrack.WRITE_BLOCKING);
+    }
+
+    @Override
+    public void play() {
+        mAudioTrack.play();
+    }
+
+    @Override
+    public void pause() {
+        try {
+            mAudioTrack.pause();
+        } catch (IllegalStateException e) {
+            Log.w(TAG, "pause audio track", e);
+        }
+    }
+
+    @Override
+    public void flush() {
+        mAudioTrack.flush();
+    }
+
+    @Override
+    public boolean isPlaying() {
+        return mAudioTrack.getPlayState() == AudioTrack.PLAYSTATE_PLAYING;
+    }
+
+    @Override
+    public long getPlaybackHeadPosition() {
+        return mAudioTrack.getPlaybackHeadPosition() & 0xFFFFFFFFL;
+    }
+
+    @Override
+    public void release() {
+        mAudioTrack.release();
+    }
+}
@@ -0,0 +1,230 @@
+package com.myth.frameplayer;
+
+/**
+ * Decides when a video frame is due, following the audio playback position when there is
+ * one and the {@link FrameClock} otherwise.
+ * <p>
+ * The frame clock stays the single scheduling reference: while an audio master is running
+ * the clock is re-anchored on it whenever the two drift apart by more than
+ * {@link #SYNC_TOLERANCE_US}, which keeps the coarse AudioTrack position from adding jitter
+ * to every frame. Frames later than the configured threshold are reported as droppable.
+ * <p>
+ * Used on the playback thread. The statistics are recorded under a lock and can be read from
+ * any thread, all of them consistent through {@link #snapshot()}.
+ */
+public class AvSyncController {
+
+    /**
+     * Media position of the master stream.
+     */
+    public interface MasterClock {
+        /**
+         * @return false while the position is not meaningful yet, e.g. before the first
+         * sample was played
+         */
+        boolean isValid();
+
+        long getPositionUs();
+    }
+
+    public static final long DEFAULT_LATE_THRESHOLD_US = 50000;
+
+    /**
+     * offset between frame clock and audio that is corrected by re-anchoring the frame clock
+     */
+    static final long SYNC_TOLERANCE_US = 15000;
+
+    private final FrameClock mFrameClock;
+    private MasterClock mMasterClock;
+    private volatile long mLateThresholdUs = DEFAULT_LATE_THRESHOLD_US;
+
+    private final Object mStatsLock = new Object();
+    private long mOffsetCount;
+    private long mOffsetSumUs;
+    private long mMaxOffsetUs;
+    private long mLastOffsetUs;
+    private long mCorrectionCount;
+    private long mRenderedCount;
+    private long mDroppedCount;
+
+    public AvSyncController(FrameClock frameClock) {
+        mFrameClock = frameClock;
+    }
+
+    /**
+     * Sets the audio master, or null to pace video by the frame clock alone.
+     */
+    public void setMasterClock(MasterClock masterClock) {
+        mMasterClock = masterClock;
+    }
+
+    public void setLateThresholdUs(long thresholdUs) {
+        if (thresholdUs < 0) {
+            throw new IllegalArgumentException("threshold must not be negative");
+        }
+        mLateThresholdUs = thresholdUs;
+    }
+
+    public long getLateThresholdUs() {
+        return mLateThresholdUs;
+    }
+
+    /**
+     * Returns the wall time until the frame is due, negative when it is late.
+     */
+    public long frameDelayNanos(long ptsUs) {
+        MasterClock master = mMasterClock;
+        if (master != null && master.isValid() && !mFrameClock.isPaused()) {
+            long masterUs = master.getPositionUs();
+            long offsetUs = mFrameClock.currentPtsUs() - masterUs;
+            boolean correct = Math.abs(offsetUs) > SYNC_TOLERANCE_US;
+            recordOffset(offsetUs, correct);
+            if (correct) {
+                mFrameClock.rebase(masterUs);
+            }
+        }
+        return mFrameClock.delayNanos(ptsUs);
+    }
+
+    /**
+     * Returns true if a frame with the given delay is past the lateness threshold.
+     */
+    public boolean isTooLate(long delayNs) {
+        return -delayNs > mLateThresholdUs * 1000L;
+    }
+
+    public void onFrameRendered(long ptsUs) {
+        synchronized (mStatsLock) {
+            mRenderedCount++;
+        }
+        mFrameClock.onFramePresented(ptsUs);
+    }
+
+    public void onFrameDropped() {
+        synchronized (mStatsLock) {
+            mDroppedCount++;
+        }
+    }
+
+    private void recordOffset(long offsetUs, boolean corrected) {
+        synchronized (mStatsLock) {
+            mOffsetCount++;
+            long abs = Math.abs(offsetUs);
+            mOffsetSumUs += abs;
+            if (abs > mMaxOffsetUs) {
+                mMaxOffsetUs = abs;
+            }
+            mLastOffsetUs = offsetUs;
+            if (corrected) {
+                mCorrectionCount++;
+            }
+        }
+    }
+
+    public void resetStats() {
+        synchronized (mStatsLock) {
+            mOffsetCount = 0;
+            mOffsetSumUs = 0;
+            mMaxOffsetUs = 0;
+            mLastOffsetUs = 0;
+            mCorrectionCount = 0;
+            mRenderedCount = 0;
+            mDroppedCount = 0;
+        }
+    }
+
+    public Snapshot snapshot() {
+        synchronized (mStatsLock) {
+            return new Snapshot(mOffsetCount == 0 ? 0 : mOffsetSumUs / mOffsetCount, mMaxOffsetUs,
+                    mLastOffsetUs, mCorrectionCount, mRenderedCount, mDroppedCount);
+        }
+    }
+
+    /**
+     * Mean absolute A/V offset measured before corrections.
+     */
+    public long getMeanOffsetUs() {
+        return snapshot().getMeanOffsetUs();
+    }
+
+    public long getMaxOffsetUs() {
+        return snapshot().getMaxOffsetUs();
+    }
+
+    /**
+     * Last measured offset, positive when video is ahead of audio.
+     */
+    public long getLastOffsetUs() {
+        return snapshot().getLastOffsetUs();
+    }
+
+    /**
+     * Number of times the frame clock was re-anchored on the audio position.
+     */
+    public long getCorrectionCount() {
+        return snapshot().getCorrectionCount();
+    }
+
+    public long getRenderedCount() {
+        return snapshot().getRenderedCount();
+    }
+
+    public long getDroppedCount() {
+        return snapshot().getDroppedCount();
+    }
+
+    /**
+     * Immutable copy of the statistics at one point in time.
+     */
+    public static final class Snapshot {
+        private final long mMeanOffsetUs;
+        private final long mMaxOffsetUs;
+        private final long mLastOffsetUs;
+        private final long mCorrectionCount;
+        private final long mRenderedCount;
+        private final long mDroppedCount;
+
+        Snapshot(long meanOffsetUs, long maxOffsetUs, long lastOffsetUs, long correctionCount,
+                 long renderedCount, long droppedCount) {
+            mMeanOffsetUs = meanOffsetUs;
+            mMaxOffsetUs = maxOffsetUs;
+            mLastOffsetUs = lastOffsetUs;
+            mCorrectionCount = correctionCount;
+            mRenderedCount = renderedCount;
+            mDroppedCount = droppedCount;
+        }
+
+        /**
+         * Mean absolute A/V offset measured before corrections.
+         */
+        public long getMeanOffsetUs() {
+            return mMeanOffsetUs;
+        }
+
+        public long getMaxOffsetUs() {
+            return mMaxOffsetUs;
+        }
+
+        /**
+         * Last measured offset, positive when video is ahead of audio.
+         */
+        public long getLastOffsetUs() {
+            return mLastOffsetUs;
+        }
+
+        /**
+         * Number of times the frame clock was re-anchored on the audio position.
+         */
+        public long getCorrectionCount() {
+            return mCorrectionCount;
+        }
+
+        public long getRenderedCount() {
+            return mRenderedCount;
+        }
+
+        public long getDroppedCount() {
+            return mDroppedCount;
+        }
+    }
+}
@@ -0,0 +1,350 @@
+package com.myth.frameplayer;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reads another {@link DataSource} in fixed size blocks and keeps them within a budget, least
+ * recently used first out. After each read a background thread loads the blocks that follow,
+ * so sequential demuxing from slow or seek-expensive storage is mostly served from memory
+ * instead of waiting on it in {@code readSampleData}.
+ * <p>
+ * Reads of the upstream source are serialized. Closing this source closes the upstream one.
+ */
+public class CachedDataSource extends DataSource {
+    private static final String TAG = CachedDataSource.class.getSimpleName();
+
+    public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+    public static final int DEFAULT_READ_AHEAD_BLOCKS = 4;
+
+    private static final class Block {
+        final byte[] data;
+        int length;
+
+        Block(int size) {
+            data = new byte[size];
+        }
+    }
+
+    private final DataSource mUpstream;
+    private final int mBlockSize;
+    private final int mMaxBlocks;
+    private final Object mUpstreamLock = new Object();
+
+    // guarded by this
+    private final LinkedHashMap<Long, Block> mBlocks = new LinkedHashMap<>(16, 0.75f, true);
+    private final ArrayDeque<Block> mFreeBlocks = new ArrayDeque<>();
+    private final HashSet<Long> mLoading = new HashSet<>();
+    private final ArrayDeque<Long> mPending = new ArrayDeque<>();
+    private Thread mReadAheadThread;
+    private int mReadAheadBlocks;
+    private long mLastBlock = -1;
+    private long mSize = -1;
+    private long mHitCount;
+    private long mMissCount;
+    private long mBytesRead;
+    private boolean mClosed;
+
+    public CachedDataSource(DataSource upstream, long cacheBytes) {
+        this(upstream, cacheBytes, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * @param cacheBytes budget for cached blocks, at least two blocks are kept
+     */
+    public CachedDataSource(DataSource upstream, long cacheBytes, int blockSize) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("blockSize must be positive");
+        }
+        mUpstream = upstream;
+        mBlockSize = blockSize;
+        mMaxBlocks = (int) Math.max(2, Math.min(Integer.MAX_VALUE, cacheBytes / blockSize));
+        setReadAheadBlocks(DEFAULT_READ_AHEAD_BLOCKS);
+    }
+
+    /**
+     * Sets how many blocks after the last one read are loaded in the background, 0 to load
+     * only on demand. At most half the cache is used for it, so read ahead does not evict the
+     * blocks being read.
+     */
+    public synchronized void setReadAheadBlocks(int blocks) {
+        mReadAheadBlocks = Math.max(0, Math.min(blocks, mMaxBlocks / 2));
+    }
+
+    @Override
+    public int readAt(long position, byte[] buffer, int offset, int size) throws IOException {
+        int total = 0;
+        long index = position / mBlockSize;
+        boolean counted = false;
+        while (total < size) {
+            index = (position + total) / mBlockSize;
+            int start = (int) (position + total - index * mBlockSize);
+            int count = copy(index, start, buffer, offset + total, size - total, !counted);
+            counted = true;
+            if (count == -2) {
+                // not cached, and not being loaded by now
+                load(index);
+                continue;
+            }
+            counted = false;
+            if (count <= 0) {
+                break;
+            }
+            total += count;
+            if (start + count < mBlockSize) {
+                // short block, the end of the data
+                break;
+            }
+        }
+        synchronized (this) {
+            scheduleReadAhead(index);
+        }
+        return total > 0 || size == 0 ? total : -1;
+    }
+
+    /**
+     * Copies from a cached block, waiting for it if it is being loaded. A block that is not
+     * cached is marked as loading for the caller.
+     *
+     * @param count whether to count the lookup as a hit or miss
+     * @return bytes copied, -1 past the end of the block, -2 if the caller must load it
+     */
+    private synchronized int copy(long index, int start, byte[] buffer, int offset, int size,
+                                  boolean count) throws IOException {
+        while (true) {
+            if (mClosed) {
+                throw new IOException("Data source closed");
+            }
+            Block block = mBlocks.get(index);
+            if (block != null) {
+                if (count) {
+                    mHitCount++;
+                }
+                if (start >= block.length) {
+                    return -1;
+                }
+                int length = Math.min(size, block.length - start);
+                System.arraycopy(block.data, start, buffer, offset, length);
+                return length;
+            }
+            if (count) {
+                mMissCount++;
+                count = false;
+            }
+            if (!mLoading.contains(index)) {
+                mLoading.add(index);
+                return -2;
+            }
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                throw new IOException("Interrupted waiting for block " + index, e);
+            }
+        }
+    }
+
+    /**
+     * Reads a block marked as loading from upstream into the cache.
+     */
+    private void load(long index) throws IOException {
+        Block block;
+        synchronized (this) {
+            block = mFreeBlocks.poll();
+        }
+        if (block == null) {
+            block = new Block(mBlockSize);
+        }
+        int length = 0;
+        try {
+            synchronized (mUpstreamLock) {
+                long position = index * mBlockSize;
+                while (length < mBlockSize) {
+                    int read = mUpstream.readAt(position + length, block.data, length, mBlockSize - length);
+                    if (read <= 0) {
+                        break;
+                    }
+                    length += read;
+                }
+            }
+        } catch (IOException e) {
+            synchronized (this) {
+                mLoading.remove(index);
+                mFreeBlocks.add(block);
+                notifyAll();
+            }
+            throw e;
+        }
+        block.length = length;
+        synchronized (this) {
+            mLoading.remove(index);
+            mBytesRead += length;
+            mBlocks.put(index, block);
+            Iterator<Map.Entry<Long, Block>> iterator = mBlocks.entrySet().iterator();
+            while (mBlocks.size() > mMaxBlocks) {
+                mFreeBlocks.add(iterator.next().getValue());
+                iterator.remove();
+            }
+            notifyAll();
+        }
+    }
+
+    /**
+     * Queues the blocks after {@code index} for the read ahead thread, dropping those queued
+     * for an earlier position.
+     */
+    private void scheduleReadAhead(long index) {
+        if (mReadAheadBlocks == 0 || index == mLastBlock || mClosed) {
+            return;
+        }
+        mLastBlock = index;
+        mPending.clear();
+        for (long i = index + 1; i <= index + mReadAheadBlocks; i++) {
+            if (mSize >= 0 && i * mBlockSize >= mSize) {
+                break;
+            }
+            if (!mBlocks.containsKey(i) && !mLoading.contains(i)) {
+                mPending.add(i);
+            }
+        }
+        if (mPending.isEmpty()) {
+            return;
+        }
+        if (mReadAheadThread == null) {
+            mReadAheadThread = new Thread(mReadAhead, "Read Ahead");
+            mReadAheadThread.setDaemon(true);
+            mReadAheadThread.start();
+        }
+        notifyAll();
+    }
+
+    private final Runnable mReadAhead = new Runnable() {
+        @Override
+        public void run() {
+            while (true) {
+                long index;
+                synchronized (CachedDataSource.this) {
+                    while (mPending.isEmpty() && !mClosed) {
+                        try {
+                            CachedDataSource.this.wait();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                    if (mClosed) {
+                        return;
+                    }
+                    index = mPending.poll();
+                    if (mBlocks.containsKey(index) || mLoading.contains(index)) {
+                        continue;
+                    }
+                    mLoading.add(index);
+                }
+                try {
+                    load(index);
+                } catch (IOException e) {
+                    // left to the reader, which gets the error if it needs the block
+                    Log.w(TAG, "Read ahead of block " + index + " failed", e);
+                }
+            }
+        }
+    };
+
+    @Override
+    public long getSize() throws IOException {
+        synchronized (this) {
+            if (mSize >= 0) {
+                return mSize;
+            }
+        }
+        long size;
+        synchronized (mUpstreamLock) {
+            size = mUpstream.getSize();
+        }
+        synchronized (this) {
+            mSize = size;
+        }
+        return size;
+    }
+
+    /**
+     * Drops the cached blocks, stops the read ahead thread and closes the upstream source once
+     * a read in progress is done.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            mClosed = true;
+            mBlocks.clear();
+            mFreeBlocks.clear();
+            mPending.clear();
+            notifyAll();
+        }
+        synchronized (mUpstreamLock) {
+            mUpstream.close();
+        }
+    }
+
+    @Override
+    boolean canRead() {
+        return mUpstream.canRead();
+    }
+
+    @Override
+    long getVersion() {
+        return mUpstream.getVersion();
+    }
+
+    @Override
+    File getFile() {
+        return mUpstream.getFile();
+    }
+
+    public int getBlockSize() {
+        return mBlockSize;
+    }
+
+    public synchronized int getCachedBlockCount() {
+        return mBlocks.size();
+    }
+
+    /**
+     * @return blocks found in the cache when read, including those the read ahead loaded
+     */
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * @return blocks a read had to wait for
+     */
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * @return share of block reads served from the cache, 0 before the first read
+     */
+    public synchronized float getHitRatio() {
+        long total = mHitCount + mMissCount;
+        return total == 0 ? 0 : (float) mHitCount / total;
+    }
+
+    /**
+     * @return bytes read from the upstream source
+     */
+    public synchronized long getBytesRead() {
+        return mBytesRead;
+    }
+
+    @Override
+    public String toString() {
+        return "cached " + mUpstream;
+    }
+}
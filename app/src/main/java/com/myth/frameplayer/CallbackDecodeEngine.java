@@ -0,0 +1,116 @@
+package com.myth.frameplayer;
+
+import android.annotation.TargetApi;
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.view.Surface;
+
+import java.util.ArrayDeque;
+
+/**
+ * Asynchronous {@link DecodeEngine} using {@link MediaCodec.Callback}. Callbacks arrive on
+ * the looper of the thread that created the codec, which is the player thread.
+ * <p>
+ * The callbacks never block on the sample source: an input buffer whose sample is not read
+ * yet waits, in order, until the source calls back, so the looper goes on with other work.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+class CallbackDecodeEngine extends DecodeEngine {
+    private static final String TAG = CallbackDecodeEngine.class.getSimpleName();
+
+    /**
+     * input buffers handed out by the codec and not queued yet, on the looper only
+     */
+    private final ArrayDeque<Integer> mWaitingInputs = new ArrayDeque<>();
+    private final Runnable mFeedWaitingInputs = new Runnable() {
+        @Override
+        public void run() {
+            feedWaitingInputs();
+        }
+    };
+    private Handler mHandler;
+
+    CallbackDecodeEngine(MediaCodec codec, SampleSource source) {
+        super(codec, source);
+    }
+
+    @Override
+    void start(MediaFormat format, Surface surface) {
+        // the looper the codec picks for its callbacks
+        Looper looper = Looper.myLooper();
+        mHandler = new Handler(looper != null ? looper : Looper.getMainLooper());
+        mSource.setListener(new SampleSource.Listener() {
+            @Override
+            public void onSampleReady() {
+                mHandler.post(mFeedWaitingInputs);
+            }
+        });
+        mCodec.setCallback(new MediaCodec.Callback() {
+            @Override
+            public void onInputBufferAvailable(MediaCodec codec, int index) {
+                if (!mInputDone) {
+                    mWaitingInputs.addLast(index);
+                    feedWaitingInputs();
+                }
+            }
+
+            @Override
+            public void onOutputBufferAvailable(MediaCodec codec, int index, MediaCodec.BufferInfo info) {
+                onOutputBuffer(index, info);
+            }
+
+            @Override
+            public void onError(MediaCodec codec, MediaCodec.CodecException e) {
+                Log.e(TAG, "decoder error", e);
+                reportError(e);
+            }
+
+            @Override
+            public void onOutputFormatChanged(MediaCodec codec, MediaFormat format) {
+                Log.d(TAG, "output format changed: " + format);
+            }
+        });
+        configure(format, surface);
+        mCodec.start();
+    }
+
+    @Override
+    public void seekTo(long syncTimeUs) {
+        // a flush takes back all input buffers
+        mWaitingInputs.clear();
+        mCodec.flush();
+        clearPending();
+        mInputDone = false;
+        mSource.seekTo(syncTimeUs);
+        // a flushed codec in asynchronous mode only requests input again after start()
+        mCodec.start();
+    }
+
+    @Override
+    public void release() {
+        mSource.setListener(null);
+        mWaitingInputs.clear();
+        if (mHandler != null) {
+            mHandler.removeCallbacks(mFeedWaitingInputs);
+        }
+        super.release();
+    }
+
+    /**
+     * Fills the waiting input buffers for as long as the source has samples ready.
+     */
+    private void feedWaitingInputs() {
+        while (!mInputDone && !mWaitingInputs.isEmpty()) {
+            int index = mWaitingInputs.peekFirst();
+            if (!queueSample(index, mCodec.getInputBuffer(index), false)) {
+                // the source calls back once the next sample is read
+                return;
+            }
+            mWaitingInputs.pollFirst();
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.myth.frameplayer;
+
+/**
+ * Steps and seeks requested from any thread, waiting for the player thread. Requests are
+ * merged into one target as they arrive: a step adds to the pending step, a seek replaces
+ * whatever is pending and keeps later steps relative to it. However fast a slider or a
+ * button is worked, at most one command waits, and the player thread goes straight to the
+ * latest position instead of through every one on the way.
+ */
+final class CommandQueue {
+
+    /**
+     * the command only steps from the frame on screen, or from the seek in progress
+     */
+    static final int SEEK_NONE = 0;
+    static final int SEEK_FRAME = 1;
+    static final int SEEK_TIME = 2;
+
+    /**
+     * The merged requests, to run on the player thread.
+     */
+    static final class Command {
+        /**
+         * one of SEEK_NONE, SEEK_FRAME and SEEK_TIME
+         */
+        final int seek;
+        /**
+         * whether decoding restarts at the keyframe even if the target is cached or on the
+         * way, as for {@link FramePlayer#seekToFrame}
+         */
+        final boolean exact;
+        final int frame;
+        /**
+         * within the item, for SEEK_TIME
+         */
+        final long timeUs;
+        /**
+         * frames to step from the seek target, or from the frame on screen
+         */
+        final int delta;
+        /**
+         * number of requests merged into this command
+         */
+        final int requests;
+        /**
+         * {@link System#nanoTime()} of the first of them
+         */
+        final long queuedNanos;
+
+        Command(int seek, boolean exact, int frame, long timeUs, int delta, int requests,
+                long queuedNanos) {
+            this.seek = seek;
+            this.exact = exact;
+            this.frame = frame;
+            this.timeUs = timeUs;
+            this.delta = delta;
+            this.requests = requests;
+            this.queuedNanos = queuedNanos;
+        }
+    }
+
+    private int mSeek;
+    private boolean mExact;
+    private int mFrame;
+    private long mTimeUs;
+    private int mDelta;
+    private int mRequests;
+    private long mQueuedNanos;
+    private long mCoalescedCount;
+    private int mMaxDepth;
+
+    /**
+     * @return true if nothing was pending, so the player thread has to be told
+     */
+    synchronized boolean step(int delta, long nowNanos) {
+        boolean wake = onRequest(nowNanos);
+        mDelta += delta;
+        return wake;
+    }
+
+    /**
+     * @return true if nothing was pending, so the player thread has to be told
+     */
+    synchronized boolean seekToFrame(int frame, boolean exact, long nowNanos) {
+        boolean wake = onRequest(nowNanos);
+        mSeek = SEEK_FRAME;
+        mExact = exact;
+        mFrame = frame;
+        mDelta = 0;
+        return wake;
+    }
+
+    /**
+     * @return true if nothing was pending, so the player thread has to be told
+     */
+    synchronized boolean seekToTime(long timeUs, boolean exact, long nowNanos) {
+        boolean wake = onRequest(nowNanos);
+        mSeek = SEEK_TIME;
+        mExact = exact;
+        mTimeUs = timeUs;
+        mDelta = 0;
+        return wake;
+    }
+
+    /**
+     * @return the pending command, or null if there is none
+     */
+    synchronized Command poll() {
+        if (mRequests == 0) {
+            return null;
+        }
+        Command command = new Command(mSeek, mExact, mFrame, mTimeUs, mDelta, mRequests,
+                mQueuedNanos);
+        mSeek = SEEK_NONE;
+        mExact = false;
+        mDelta = 0;
+        mRequests = 0;
+        return command;
+    }
+
+    /**
+     * @return requests waiting for the player thread, all merged into one command
+     */
+    synchronized int getDepth() {
+        return mRequests;
+    }
+
+    /**
+     * @return the most requests that were waiting at once
+     */
+    synchronized int getMaxDepth() {
+        return mMaxDepth;
+    }
+
+    /**
+     * @return requests merged into an earlier one instead of being run on their own
+     */
+    synchronized long getCoalescedCount() {
+        return mCoalescedCount;
+    }
+
+    private boolean onRequest(long nowNanos) {
+        if (mRequests == 0) {
+            mQueuedNanos = nowNanos;
+        } else {
+            mCoalescedCount++;
+        }
+        mRequests++;
+        mMaxDepth = Math.max(mMaxDepth, mRequests);
+        return mRequests == 1;
+    }
+}
@@ -0,0 +1,323 @@
+package com.myth.frameplayer;
+
+import android.annotation.TargetApi;
+import android.media.MediaDataSource;
+import android.media.MediaExtractor;
+import android.os.Build;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Where the bytes of a clip come from: a file, a file descriptor, a buffer in memory or any
+ * {@link MediaDataSource}, read at random positions.
+ * <p>
+ * Files, descriptors and buffers are handed to {@link MediaExtractor} directly or mapped for
+ * {@link Mp4Demuxer}; other sources are read through {@link #readAt}, which needs API 23 for
+ * MediaExtractor. Wrap slow storage in a {@link CachedDataSource} so the demux thread does
+ * not wait for it on every sample.
+ */
+public abstract class DataSource implements Closeable {
+
+    public static DataSource fromFile(File file) {
+        return new FileSource(file);
+    }
+
+    /**
+     * @param length bytes from {@code offset}, e.g. those of an asset
+     */
+    public static DataSource fromFileDescriptor(FileDescriptor fd, long offset, long length) {
+        return new FileDescriptorSource(fd, offset, length);
+    }
+
+    /**
+     * Plays the remaining bytes of {@code data}, which must not change while in use.
+     */
+    public static DataSource fromBuffer(ByteBuffer data) {
+        return new BufferSource(data);
+    }
+
+    /**
+     * Reads through {@code source}, e.g. one backed by remote storage.
+     */
+    @TargetApi(Build.VERSION_CODES.M)
+    public static DataSource fromMediaDataSource(MediaDataSource source) {
+        return new MediaDataSourceSource(source);
+    }
+
+    /**
+     * Reads up to {@code size} bytes at {@code position}.
+     *
+     * @return bytes read, -1 at the end of the data
+     */
+    public abstract int readAt(long position, byte[] buffer, int offset, int size) throws IOException;
+
+    /**
+     * @return size in bytes, -1 if unknown
+     */
+    public abstract long getSize() throws IOException;
+
+    @Override
+    public void close() throws IOException {
+    }
+
+    /**
+     * @return false if the data is known to be unreadable
+     */
+    boolean canRead() {
+        return true;
+    }
+
+    /**
+     * @return a value that changes with the content, so an index or prepared codecs of the
+     * old content are not reused
+     */
+    long getVersion() {
+        return 0;
+    }
+
+    /**
+     * @return the file the data is read from, or null if it does not come from a file
+     */
+    File getFile() {
+        return null;
+    }
+
+    /**
+     * @return all of the data as a buffer, or null if it can only be read piecewise
+     */
+    ByteBuffer map() throws IOException {
+        return null;
+    }
+
+    /**
+     * Makes {@code extractor} read this source.
+     */
+    void setOn(MediaExtractor extractor) throws IOException {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            throw new IOException(this + " needs API 23 to be read by MediaExtractor");
+        }
+        extractor.setDataSource(new ExtractorAdapter(this));
+    }
+
+    /**
+     * Lets MediaExtractor read a {@link DataSource}. Several extractors share one source, so
+     * releasing an extractor does not close it.
+     */
+    @TargetApi(Build.VERSION_CODES.M)
+    private static final class ExtractorAdapter extends MediaDataSource {
+        private final DataSource mSource;
+
+        ExtractorAdapter(DataSource source) {
+            mSource = source;
+        }
+
+        @Override
+        public int readAt(long position, byte[] buffer, int offset, int size) throws IOException {
+            return mSource.readAt(position, buffer, offset, size);
+        }
+
+        @Override
+        public long getSize() throws IOException {
+            return mSource.getSize();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static final class FileSource extends DataSource {
+        private final File mFile;
+        private RandomAccessFile mRandomAccessFile;
+
+        FileSource(File file) {
+            mFile = file;
+        }
+
+        @Override
+        public synchronized int readAt(long position, byte[] buffer, int offset, int size) throws IOException {
+            if (mRandomAccessFile == null) {
+                mRandomAccessFile = new RandomAccessFile(mFile, "r");
+            }
+            mRandomAccessFile.seek(position);
+            return mRandomAccessFile.read(buffer, offset, size);
+        }
+
+        @Override
+        public long getSize() {
+            return mFile.length();
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if (mRandomAccessFile != null) {
+                mRandomAccessFile.close();
+                mRandomAccessFile = null;
+            }
+        }
+
+        @Override
+        boolean canRead() {
+            return mFile.canRead();
+        }
+
+        @Override
+        long getVersion() {
+            return mFile.lastModified();
+        }
+
+        @Override
+        File getFile() {
+            return mFile;
+        }
+
+        @Override
+        ByteBuffer map() throws IOException {
+            return MappedFile.map(mFile);
+        }
+
+        @Override
+        void setOn(MediaExtractor extractor) throws IOException {
+            extractor.setDataSource(mFile.toString());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof FileSource && mFile.equals(((FileSource) o).mFile);
+        }
+
+        @Override
+        public int hashCode() {
+            return mFile.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return mFile.toString();
+        }
+    }
+
+    private static final class FileDescriptorSource extends DataSource {
+        private final FileDescriptor mFd;
+        private final long mOffset;
+        private final long mLength;
+        // not closed, that would close the descriptor of the caller
+        private FileChannel mChannel;
+
+        FileDescriptorSource(FileDescriptor fd, long offset, long length) {
+            mFd = fd;
+            mOffset = offset;
+            mLength = length;
+        }
+
+        private synchronized FileChannel getChannel() {
+            if (mChannel == null) {
+                mChannel = new FileInputStream(mFd).getChannel();
+            }
+            return mChannel;
+        }
+
+        @Override
+        public int readAt(long position, byte[] buffer, int offset, int size) throws IOException {
+            if (position >= mLength) {
+                return -1;
+            }
+            int count = (int) Math.min(size, mLength - position);
+            return getChannel().read(ByteBuffer.wrap(buffer, offset, count), mOffset + position);
+        }
+
+        @Override
+        public long getSize() {
+            return mLength;
+        }
+
+        @Override
+        ByteBuffer map() throws IOException {
+            if (mLength > Integer.MAX_VALUE) {
+                throw new IOException("Too large to map: " + this);
+            }
+            return getChannel().map(FileChannel.MapMode.READ_ONLY, mOffset, mLength);
+        }
+
+        @Override
+        void setOn(MediaExtractor extractor) throws IOException {
+            extractor.setDataSource(mFd, mOffset, mLength);
+        }
+
+        @Override
+        public String toString() {
+            return "fd " + mFd + " at " + mOffset + ", " + mLength + " bytes";
+        }
+    }
+
+    private static final class BufferSource extends DataSource {
+        private final ByteBuffer mData;
+
+        BufferSource(ByteBuffer data) {
+            mData = data.slice();
+        }
+
+        @Override
+        public int readAt(long position, byte[] buffer, int offset, int size) {
+            if (position >= mData.capacity()) {
+                return -1;
+            }
+            ByteBuffer view = mData.duplicate();
+            view.position((int) position);
+            int count = Math.min(size, view.remaining());
+            view.get(buffer, offset, count);
+            return count;
+        }
+
+        @Override
+        public long getSize() {
+            return mData.capacity();
+        }
+
+        @Override
+        ByteBuffer map() {
+            return mData.duplicate();
+        }
+
+        @Override
+        public String toString() {
+            return "buffer of " + mData.capacity() + " bytes";
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.M)
+    private static final class MediaDataSourceSource extends DataSource {
+        private final MediaDataSource mSource;
+
+        MediaDataSourceSource(MediaDataSource source) {
+            mSource = source;
+        }
+
+        @Override
+        public int readAt(long position, byte[] buffer, int offset, int size) throws IOException {
+            return mSource.readAt(position, buffer, offset, size);
+        }
+
+        @Override
+        public long getSize() throws IOException {
+            return mSource.getSize();
+        }
+
+        @Override
+        public void close() throws IOException {
+            mSource.close();
+        }
+
+        @Override
+        public String toString() {
+            return mSource.toString();
+        }
+    }
+}
@@ -0,0 +1,359 @@
+package com.myth.frameplayer;
+
+import android.annotation.TargetApi;
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.util.Log;
+import android.view.Surface;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * Keeps a video decoder fed ahead of the display clock.
+ * <p>
+ * Input is read from the sample source as soon as the codec has a free input buffer, decoded
+ * output buffers are queued and held until the player releases them at their deadline.
+ * On API 21+ this is driven by {@link MediaCodec#setCallback}, older devices use a feeder
+ * thread, see {@link #create}.
+ */
+abstract class DecodeEngine implements FrameDecoder {
+    private static final String TAG = DecodeEngine.class.getSimpleName();
+
+    /**
+     * samples in flight tracked for the decode latency
+     */
+    private static final int LATENCY_SLOTS = 32;
+    /**
+     * samples in flight tracked for dropping the frames of decode-only ones, more than a
+     * codec holds
+     */
+    private static final int IN_FLIGHT_SLOTS = 64;
+
+    protected final MediaCodec mCodec;
+    protected final SampleSource mSource;
+    private final ArrayDeque<DecodedFrame> mPending = new ArrayDeque<>();
+    private final ArrayDeque<DecodedFrame> mRecycled = new ArrayDeque<>();
+    protected final Object mLock = new Object();
+    private Listener mListener;
+    private PlayerMetrics mMetrics;
+    private final long[] mQueuedTimesUs = new long[LATENCY_SLOTS];
+    private final long[] mQueuedNanos = new long[LATENCY_SLOTS];
+    private int mNextSlot;
+    /**
+     * presentation times of the samples in flight in queueing order, flagged decode-only or
+     * not, so a frame with the time of both an earlier shown and a decode-only sample, as
+     * across a loop point, goes to the one queued first
+     */
+    private final long[] mInFlightTimesUs = new long[IN_FLIGHT_SLOTS];
+    private final boolean[] mInFlightDecodeOnly = new boolean[IN_FLIGHT_SLOTS];
+    private int mInFlightStart;
+    private int mInFlightCount;
+    protected volatile boolean mInputDone;
+    private boolean mAvc;
+    private boolean mFailed;
+    private volatile boolean mSkipNonReference;
+
+    DecodeEngine(MediaCodec codec, SampleSource source) {
+        mCodec = codec;
+        mSource = source;
+    }
+
+    /**
+     * Picks the engine for the running API level.
+     */
+    static DecodeEngine create(MediaCodec codec, SampleSource source) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            return new CallbackDecodeEngine(codec, source);
+        }
+        return new FeederDecodeEngine(codec, source);
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Records decode latency and dequeue timeouts into {@code metrics}.
+     */
+    void setMetrics(PlayerMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    /**
+     * Configures and starts the codec and begins feeding it.
+     */
+    abstract void start(MediaFormat format, Surface surface);
+
+    protected void configure(MediaFormat format, Surface surface) {
+        mAvc = "video/avc".equals(format.getString(MediaFormat.KEY_MIME));
+        mCodec.configure(format, surface, null, 0);
+    }
+
+    /**
+     * Only H.264 samples are told apart, by the {@code nal_ref_idc} of their slices.
+     */
+    @Override
+    public void setSkipNonReferenceFrames(boolean skip) {
+        mSkipNonReference = skip;
+    }
+
+
+    /**
+     * Forgets the queued frames after a codec flush, their buffers are already reclaimed.
+     */
+    protected void clearPending() {
+        synchronized (mLock) {
+            mRecycled.addAll(mPending);
+            mPending.clear();
+            Arrays.fill(mQueuedNanos, 0);
+            mInFlightCount = 0;
+            mLock.notifyAll();
+        }
+    }
+
+    @Override
+    public void release() {
+        synchronized (mLock) {
+            mPending.clear();
+        }
+        try {
+            mCodec.stop();
+        } catch (IllegalStateException e) {
+            Log.w(TAG, "stop codec", e);
+        }
+        mCodec.release();
+    }
+
+    @Override
+    public int getPendingCount() {
+        synchronized (mLock) {
+            return mPending.size();
+        }
+    }
+
+    @Override
+    public DecodedFrame peekFrame() {
+        synchronized (mLock) {
+            return mPending.peekFirst();
+        }
+    }
+
+    @Override
+    public void releaseFrame(DecodedFrame frame, boolean render) {
+        int index = takeFrame(frame);
+        if (index >= 0) {
+            mCodec.releaseOutputBuffer(index, render);
+        }
+    }
+
+    /**
+     * Needs API 21, the compositor then times the presentation.
+     */
+    @Override
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    public void releaseFrame(DecodedFrame frame, long renderTimeNs) {
+        int index = takeFrame(frame);
+        if (index >= 0) {
+            mCodec.releaseOutputBuffer(index, renderTimeNs);
+        }
+    }
+
+    /**
+     * Returns the decoded data of {@code frame} when the codec was started without a surface,
+     * positioned on the frame. Valid until the frame is released.
+     */
+    @SuppressWarnings("deprecation")
+    ByteBuffer getOutputBuffer(DecodedFrame frame) {
+        ByteBuffer buffer;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            buffer = mCodec.getOutputBuffer(frame.index);
+        } else {
+            buffer = mCodec.getOutputBuffers()[frame.index];
+        }
+        buffer.limit(frame.offset + frame.size);
+        buffer.position(frame.offset);
+        return buffer;
+    }
+
+    /**
+     * @return the layout of the decoded frames: color format, size, stride and slice height
+     */
+    MediaFormat getOutputFormat() {
+        return mCodec.getOutputFormat();
+    }
+
+    /**
+     * Removes {@code frame} from the queue and recycles it.
+     *
+     * @return the codec buffer index it held
+     */
+    private int takeFrame(DecodedFrame frame) {
+        synchronized (mLock) {
+            mPending.remove(frame);
+            mRecycled.add(frame);
+            mLock.notifyAll();
+            return frame.index;
+        }
+    }
+
+    /**
+     * Reads the next sample into the codec input buffer {@code index}.
+     *
+     * @param wait whether to block until the source has the sample
+     * @return false if not waiting and the source has no sample ready, the buffer is then
+     * left to the caller
+     */
+    protected boolean queueSample(int index, ByteBuffer buffer, boolean wait) {
+        if (!wait && !mSource.isSampleReady()) {
+            return false;
+        }
+        int size = buffer == null ? -1 : mSource.readSampleData(buffer, 0);
+        while (size > 0 && mSkipNonReference && mAvc && NalUnits.isNonReferenceAvc(buffer, 0, size)) {
+            mSource.advance();
+            PlayerMetrics metrics = mMetrics;
+            if (metrics != null) {
+                metrics.increment(PlayerMetrics.FRAMES_SKIPPED_NON_REFERENCE);
+            }
+            if (!wait && !mSource.isSampleReady()) {
+                return false;
+            }
+            size = mSource.readSampleData(buffer, 0);
+        }
+        if (size < 0) {
+            mCodec.queueInputBuffer(index, 0, 0, 0L, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+            mInputDone = true;
+        } else {
+            int sampleFlags = mSource.getSampleFlags();
+            int flags = (sampleFlags & SampleSource.SAMPLE_FLAG_CODEC_CONFIG) != 0
+                    ? MediaCodec.BUFFER_FLAG_CODEC_CONFIG : 0;
+            long timeUs = mSource.getSampleTime();
+            if (flags == 0) {
+                trackInFlight(timeUs, (sampleFlags & SampleSource.SAMPLE_FLAG_DECODE_ONLY) != 0);
+            }
+            mCodec.queueInputBuffer(index, 0, size, timeUs, flags);
+            mSource.advance();
+            if (flags == 0 && mMetrics != null) {
+                synchronized (mLock) {
+                    int slot = mNextSlot;
+                    mNextSlot = (slot + 1) % LATENCY_SLOTS;
+                    mQueuedTimesUs[slot] = timeUs;
+                    mQueuedNanos[slot] = System.nanoTime();
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Notes a sample going into the codec. When the codec dropped frames, the oldest entries
+     * make room.
+     */
+    private void trackInFlight(long timeUs, boolean decodeOnly) {
+        synchronized (mLock) {
+            if (mInFlightCount == IN_FLIGHT_SLOTS) {
+                mInFlightStart = (mInFlightStart + 1) % IN_FLIGHT_SLOTS;
+                mInFlightCount--;
+            }
+            int slot = (mInFlightStart + mInFlightCount) % IN_FLIGHT_SLOTS;
+            mInFlightTimesUs[slot] = timeUs;
+            mInFlightDecodeOnly[slot] = decodeOnly;
+            mInFlightCount++;
+        }
+    }
+
+    /**
+     * Matches a decoded frame with the sample queued first at its time and forgets the
+     * sample. Holds mLock.
+     *
+     * @return whether the frame is of a decode-only sample
+     */
+    private boolean takeInFlight(long timeUs) {
+        for (int i = 0; i < mInFlightCount; i++) {
+            int slot = (mInFlightStart + i) % IN_FLIGHT_SLOTS;
+            if (mInFlightTimesUs[slot] != timeUs) {
+                continue;
+            }
+            boolean decodeOnly = mInFlightDecodeOnly[slot];
+            // samples queued before it may still come out later, in presentation order
+            for (int j = i; j > 0; j--) {
+                int from = (mInFlightStart + j - 1) % IN_FLIGHT_SLOTS;
+                int to = (mInFlightStart + j) % IN_FLIGHT_SLOTS;
+                mInFlightTimesUs[to] = mInFlightTimesUs[from];
+                mInFlightDecodeOnly[to] = mInFlightDecodeOnly[from];
+            }
+            mInFlightStart = (mInFlightStart + 1) % IN_FLIGHT_SLOTS;
+            mInFlightCount--;
+            return decodeOnly;
+        }
+        return false;
+    }
+
+    /**
+     * Tells the listener the codec failed, once.
+     */
+    protected void reportError(Exception e) {
+        Listener listener;
+        synchronized (mLock) {
+            if (mFailed) {
+                return;
+            }
+            mFailed = true;
+            listener = mListener;
+        }
+        if (listener != null) {
+            listener.onError(e);
+        }
+    }
+
+    /**
+     * Counts a dequeue call that returned no buffer.
+     */
+    protected void onDequeueTimeout() {
+        PlayerMetrics metrics = mMetrics;
+        if (metrics != null) {
+            metrics.increment(PlayerMetrics.DEQUEUE_TIMEOUTS);
+        }
+    }
+
+    protected void onOutputBuffer(int index, MediaCodec.BufferInfo info) {
+        boolean wasEmpty;
+        long queuedNanos = 0;
+        synchronized (mLock) {
+            if ((info.flags & FLAG_END_OF_STREAM) == 0 && takeInFlight(info.presentationTimeUs)) {
+                // decoded only for the frames after it
+                mCodec.releaseOutputBuffer(index, false);
+                return;
+            }
+            for (int i = 0; i < LATENCY_SLOTS; i++) {
+                if (mQueuedNanos[i] != 0 && mQueuedTimesUs[i] == info.presentationTimeUs) {
+                    queuedNanos = mQueuedNanos[i];
+                    mQueuedNanos[i] = 0;
+                    break;
+                }
+            }
+            DecodedFrame frame = mRecycled.pollFirst();
+            if (frame == null) {
+                frame = new DecodedFrame();
+            }
+            frame.index = index;
+            frame.presentationTimeUs = info.presentationTimeUs;
+            frame.flags = info.flags;
+            frame.offset = info.offset;
+            frame.size = info.size;
+            wasEmpty = mPending.isEmpty();
+            mPending.addLast(frame);
+        }
+        PlayerMetrics metrics = mMetrics;
+        if (queuedNanos != 0 && metrics != null) {
+            metrics.record(PlayerMetrics.DECODE_LATENCY, System.nanoTime() - queuedNanos);
+        }
+        Listener listener = mListener;
+        if (wasEmpty && listener != null) {
+            listener.onFrameAvailable();
+        }
+    }
+}
@@ -0,0 +1,334 @@
+package com.myth.frameplayer;
+
+import android.annotation.TargetApi;
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.os.Build;
+import android.util.Range;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Picks the video decoder for a format instead of leaving it to
+ * {@code MediaCodec.createDecoderByType}, which may pick a slow software decoder, or a
+ * hardware decoder that cannot keep up at the clip's size and the requested frame rate.
+ * <p>
+ * The decoders of the {@link CodecList} are ranked by whether they support the size,
+ * whether they achieve the frame rate, hardware acceleration and the rate they achieve, in
+ * that order, ties keeping the platform's order. The ranking is kept per format. A decoder
+ * that fails to configure or keeps missing deadlines moves behind the others, and is not
+ * offered again for that format in this process. With a profile file the rankings outlive
+ * the process, for as long as the device's build stays the same.
+ * <p>
+ * Only {@link PlatformCodecList} and {@link #getDefault()} touch the platform, the ranking
+ * and fallback run on plain Java.
+ */
+final class DecoderSelector {
+    private static final String KEY_DEVICE = "device";
+
+    /**
+     * A decoder as the codec list describes it for one format.
+     */
+    static final class Candidate {
+        final String name;
+        final boolean hardware;
+        final boolean sizeSupported;
+        /**
+         * frames per second it achieves at the size, 0 if not known
+         */
+        final double maxFrameRate;
+
+        Candidate(String name, boolean hardware, boolean sizeSupported, double maxFrameRate) {
+            this.name = name;
+            this.hardware = hardware;
+            this.sizeSupported = sizeSupported;
+            this.maxFrameRate = maxFrameRate;
+        }
+    }
+
+    /**
+     * The decoders of the device.
+     */
+    interface CodecList {
+        /**
+         * @return the decoders of {@code mime} in the platform's order of preference, with
+         * their capabilities at the given size
+         */
+        List<Candidate> getDecoders(String mime, int width, int height);
+    }
+
+    private static DecoderSelector sDefault;
+
+    private final CodecList mCodecList;
+    private final String mDevice;
+    private final File mProfileFile;
+    /**
+     * decoder names by format, best first
+     */
+    private final Map<String, List<String>> mRankings = new HashMap<>();
+    /**
+     * decoders that failed in this process, by format
+     */
+    private final Map<String, Set<String>> mFailed = new HashMap<>();
+
+    /**
+     * @param device      identifies the device and its build, stored rankings of another
+     *                    are dropped
+     * @param profileFile where the rankings are kept, or null to keep them in memory only
+     */
+    DecoderSelector(CodecList codecList, String device, File profileFile) {
+        mCodecList = codecList;
+        mDevice = device;
+        mProfileFile = profileFile;
+        load();
+    }
+
+    /**
+     * @return the selector players share unless given a profile file
+     */
+    static synchronized DecoderSelector getDefault() {
+        if (sDefault == null) {
+            sDefault = new DecoderSelector(new PlatformCodecList(), Build.FINGERPRINT, null);
+        }
+        return sDefault;
+    }
+
+    /**
+     * @param frameRate frames per second the decoder has to deliver
+     * @return names of the decoders for the format, best first, empty if the codec list
+     * knows none
+     */
+    synchronized List<String> select(String mime, int width, int height, int frameRate) {
+        String key = key(mime, width, height, frameRate);
+        List<String> ranking = mRankings.get(key);
+        if (ranking == null) {
+            ranking = rank(mCodecList.getDecoders(mime, width, height), frameRate);
+            mRankings.put(key, ranking);
+            save();
+        }
+        return new ArrayList<>(ranking);
+    }
+
+    /**
+     * Moves {@code name} behind the other decoders for the format, after it failed to
+     * configure or kept missing deadlines.
+     *
+     * @return the decoders left to fall back to, best first, none of them failed before
+     */
+    synchronized List<String> reportFailure(String mime, int width, int height, int frameRate,
+                                            String name) {
+        String key = key(mime, width, height, frameRate);
+        List<String> ranking = mRankings.get(key);
+        if (ranking == null) {
+            ranking = rank(mCodecList.getDecoders(mime, width, height), frameRate);
+            mRankings.put(key, ranking);
+        }
+        if (ranking.remove(name)) {
+            ranking.add(name);
+            save();
+        }
+        Set<String> failed = mFailed.get(key);
+        if (failed == null) {
+            failed = new HashSet<>();
+            mFailed.put(key, failed);
+        }
+        failed.add(name);
+        List<String> left = new ArrayList<>(ranking);
+        left.removeAll(failed);
+        return left;
+    }
+
+    /**
+     * Orders {@code candidates} best first, see the class comment.
+     */
+    static List<String> rank(List<Candidate> candidates, final int frameRate) {
+        List<Candidate> sorted = new ArrayList<>(candidates);
+        // stable, ties stay in the platform's order
+        Collections.sort(sorted, new Comparator<Candidate>() {
+            @Override
+            public int compare(Candidate a, Candidate b) {
+                if (a.sizeSupported != b.sizeSupported) {
+                    return a.sizeSupported ? -1 : 1;
+                }
+                boolean keepsUpA = keepsUp(a, frameRate);
+                if (keepsUpA != keepsUp(b, frameRate)) {
+                    return keepsUpA ? -1 : 1;
+                }
+                if (a.hardware != b.hardware) {
+                    return a.hardware ? -1 : 1;
+                }
+                return Double.compare(b.maxFrameRate, a.maxFrameRate);
+            }
+        });
+        List<String> names = new ArrayList<>(sorted.size());
+        for (Candidate candidate : sorted) {
+            names.add(candidate.name);
+        }
+        return names;
+    }
+
+    /**
+     * Tells software decoders by their name, the platform only says so from API 29.
+     */
+    static boolean isHardware(String name) {
+        String lower = name.toLowerCase();
+        return !(lower.startsWith("omx.google.") || lower.startsWith("c2.android.")
+                || lower.startsWith("c2.google.") || lower.startsWith("omx.ffmpeg.")
+                || lower.contains(".sw.") || lower.endsWith(".sw"));
+    }
+
+    private static boolean keepsUp(Candidate candidate, int frameRate) {
+        return candidate.maxFrameRate == 0 || candidate.maxFrameRate >= frameRate;
+    }
+
+    private static String key(String mime, int width, int height, int frameRate) {
+        return mime + " " + width + "x" + height + "@" + frameRate;
+    }
+
+    private void load() {
+        if (mProfileFile == null || !mProfileFile.isFile()) {
+            return;
+        }
+        Properties properties = new Properties();
+        try {
+            InputStream in = new FileInputStream(mProfileFile);
+            try {
+                properties.load(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            // ranks the decoders again
+            return;
+        }
+        if (!mDevice.equals(properties.getProperty(KEY_DEVICE))) {
+            // another build may come with other decoders
+            return;
+        }
+        for (String key : properties.stringPropertyNames()) {
+            String value = properties.getProperty(key);
+            if (!key.equals(KEY_DEVICE) && !value.isEmpty()) {
+                mRankings.put(key, new ArrayList<>(Arrays.asList(value.split(","))));
+            }
+        }
+    }
+
+    private void save() {
+        if (mProfileFile == null) {
+            return;
+        }
+        Properties properties = new Properties();
+        properties.setProperty(KEY_DEVICE, mDevice);
+        for (Map.Entry<String, List<String>> ranking : mRankings.entrySet()) {
+            StringBuilder names = new StringBuilder();
+            for (String name : ranking.getValue()) {
+                if (names.length() > 0) {
+                    names.append(',');
+                }
+                names.append(name);
+            }
+            properties.setProperty(ranking.getKey(), names.toString());
+        }
+        File temp = new File(mProfileFile.getPath() + ".tmp");
+        try {
+            OutputStream out = new FileOutputStream(temp);
+            try {
+                properties.store(out, "decoder rankings");
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(mProfileFile)) {
+                throw new IOException("Can not rename " + temp);
+            }
+        } catch (IOException e) {
+            // the rankings still hold for this process
+            temp.delete();
+        }
+    }
+
+    /**
+     * The decoders of {@link MediaCodecList}, with sizes and frame rates from API 21.
+     */
+    static final class PlatformCodecList implements CodecList {
+
+        @Override
+        public List<Candidate> getDecoders(String mime, int width, int height) {
+            List<Candidate> candidates = new ArrayList<>();
+            for (MediaCodecInfo info : getCodecInfos()) {
+                if (info.isEncoder()) {
+                    continue;
+                }
+                for (String type : info.getSupportedTypes()) {
+                    if (type.equalsIgnoreCase(mime)) {
+                        candidates.add(describe(info, type, width, height));
+                        break;
+                    }
+                }
+            }
+            return candidates;
+        }
+
+        @SuppressWarnings("deprecation")
+        private static List<MediaCodecInfo> getCodecInfos() {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                return Arrays.asList(new MediaCodecList(MediaCodecList.REGULAR_CODECS).getCodecInfos());
+            }
+            List<MediaCodecInfo> infos = new ArrayList<>();
+            for (int i = 0; i < MediaCodecList.getCodecCount(); i++) {
+                infos.add(MediaCodecList.getCodecInfoAt(i));
+            }
+            return infos;
+        }
+
+        private static Candidate describe(MediaCodecInfo info, String type, int width, int height) {
+            boolean hardware = isHardware(info.getName());
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+                return new Candidate(info.getName(), hardware, true, 0);
+            }
+            MediaCodecInfo.VideoCapabilities video =
+                    info.getCapabilitiesForType(type).getVideoCapabilities();
+            if (video == null) {
+                return new Candidate(info.getName(), hardware, true, 0);
+            }
+            boolean sizeSupported = video.isSizeSupported(width, height);
+            double maxFrameRate = sizeSupported ? getMaxFrameRate(video, width, height) : 0;
+            return new Candidate(info.getName(), hardware, sizeSupported, maxFrameRate);
+        }
+
+        /**
+         * @return the rate measured by the vendor from API 23, otherwise the most the
+         * decoder claims to support, 0 if neither is known
+         */
+        @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+        private static double getMaxFrameRate(MediaCodecInfo.VideoCapabilities video,
+                                              int width, int height) {
+            try {
+                Range<Double> rates = null;
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                    rates = video.getAchievableFrameRatesFor(width, height);
+                }
+                if (rates == null) {
+                    rates = video.getSupportedFrameRatesFor(width, height);
+                }
+                return rates == null ? 0 : rates.getUpper();
+            } catch (IllegalArgumentException e) {
+                return 0;
+            }
+        }
+    }
+}
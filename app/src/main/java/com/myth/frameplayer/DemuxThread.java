@@ -0,0 +1,479 @@
+package com.myth.frameplayer;
+
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Reads the samples of all tracks of a source on one thread, ahead of the decoders.
+ * <p>
+ * Each track added becomes a {@link SampleSource} backed by a bounded queue of packets, so
+ * decoders only copy from memory. The thread always tops up the track that is furthest
+ * behind, until every queue holds {@link #setReadAheadUs read-ahead} worth of media or its
+ * byte limit. Seeks are handed to the thread, which owns the upstream sources, and the thread
+ * exits and releases them once every track has been released.
+ * <p>
+ * A {@link #DemuxThread(boolean) shared} thread serves the tracks of several players: it tops
+ * up the track with the least media queued, releases the upstream of each track as soon as
+ * the track is released, and keeps running for new tracks until {@link #quit()}.
+ * <p>
+ * Reading an empty queue blocks, for decoders on threads of their own. A decoder on a looper
+ * checks {@link Track#isSampleReady()} first and is called back once the packet is there.
+ */
+class DemuxThread implements Runnable {
+    private static final String TAG = DemuxThread.class.getSimpleName();
+
+    static final long DEFAULT_READ_AHEAD_US = 500000;
+
+    /**
+     * upper bound of the bytes queued per track, whatever the read-ahead
+     */
+    private static final int MAX_QUEUED_BYTES = 8 * 1024 * 1024;
+
+    private static final int MAX_PACKET_SIZE = 32 * 1024 * 1024;
+
+    private static final class Packet {
+        ByteBuffer data;
+        int size;
+        long timeUs;
+        int flags;
+    }
+
+    /**
+     * One track as seen by its decoder. All state is guarded by {@link #mLock}.
+     */
+    final class Track implements SampleSource {
+        private final SampleSource mUpstream;
+        private final ArrayDeque<Packet> mQueue = new ArrayDeque<>();
+        private final ArrayDeque<Packet> mFree = new ArrayDeque<>();
+        private int mPacketCapacity;
+        private long mReadAheadUs;
+        private int mQueuedBytes;
+        private long mLastReadUs = Long.MIN_VALUE;
+        private boolean mEnded;
+        private boolean mReleased;
+        private long mSeekTimeUs = -1;
+        private int mGeneration;
+        private long mStallNanos;
+        private int mStallCount;
+        private Listener mListener;
+        /**
+         * when isSampleReady() found the queue empty, 0 when no one is waiting for a callback
+         */
+        private long mWaitStartNanos;
+
+        Track(SampleSource upstream, int packetCapacity, long readAheadUs) {
+            mUpstream = upstream;
+            mPacketCapacity = packetCapacity;
+            mReadAheadUs = readAheadUs;
+        }
+
+        @Override
+        public int readSampleData(ByteBuffer buffer, int offset) {
+            synchronized (mLock) {
+                Packet packet = awaitPacket();
+                if (packet == null) {
+                    return -1;
+                }
+                ByteBuffer data = packet.data.duplicate();
+                data.limit(packet.size);
+                data.position(0);
+                buffer.clear();
+                buffer.position(offset);
+                buffer.put(data);
+                buffer.flip();
+                buffer.position(offset);
+                return packet.size;
+            }
+        }
+
+        @Override
+        public long getSampleTime() {
+            synchronized (mLock) {
+                Packet packet = awaitPacket();
+                return packet == null ? -1 : packet.timeUs;
+            }
+        }
+
+        @Override
+        public int getSampleFlags() {
+            synchronized (mLock) {
+                Packet packet = awaitPacket();
+                return packet == null ? 0 : packet.flags;
+            }
+        }
+
+        @Override
+        public boolean advance() {
+            synchronized (mLock) {
+                Packet packet = mQueue.pollFirst();
+                if (packet != null) {
+                    recycle(packet);
+                    mLock.notifyAll();
+                }
+                return !mQueue.isEmpty() || !mEnded;
+            }
+        }
+
+        @Override
+        public void seekTo(long timeUs) {
+            synchronized (mLock) {
+                clear();
+                mGeneration++;
+                mSeekTimeUs = Math.max(0, timeUs);
+                mLastReadUs = mSeekTimeUs;
+                mEnded = false;
+                mLock.notifyAll();
+            }
+        }
+
+        @Override
+        public boolean isSampleReady() {
+            synchronized (mLock) {
+                if (!mQueue.isEmpty() || mEnded || mReleased) {
+                    return true;
+                }
+                if (mWaitStartNanos == 0) {
+                    mWaitStartNanos = System.nanoTime();
+                    mStallCount++;
+                }
+                return false;
+            }
+        }
+
+        @Override
+        public void setListener(Listener listener) {
+            synchronized (mLock) {
+                mListener = listener;
+            }
+        }
+
+        /**
+         * Stops reading this track. The upstream source is released by the demux thread.
+         */
+        @Override
+        public void release() {
+            synchronized (mLock) {
+                mReleased = true;
+                clear();
+                mFree.clear();
+                mLock.notifyAll();
+            }
+        }
+
+        /**
+         * Sets how much media, in presentation time, is read ahead of this track's decoder.
+         */
+        void setReadAheadUs(long readAheadUs) {
+            synchronized (mLock) {
+                mReadAheadUs = readAheadUs;
+                mLock.notifyAll();
+            }
+        }
+
+        int getQueuedPackets() {
+            synchronized (mLock) {
+                return mQueue.size();
+            }
+        }
+
+        long getQueuedDurationUs() {
+            synchronized (mLock) {
+                return queuedDurationUs();
+            }
+        }
+
+        /**
+         * @return total time the decoder waited for an empty queue
+         */
+        long getStallNanos() {
+            synchronized (mLock) {
+                return mStallNanos;
+            }
+        }
+
+        int getStallCount() {
+            synchronized (mLock) {
+                return mStallCount;
+            }
+        }
+
+        private Packet awaitPacket() {
+            Packet packet = mQueue.peekFirst();
+            if (packet != null || mEnded || mReleased) {
+                return packet;
+            }
+            long start = System.nanoTime();
+            try {
+                while ((packet = mQueue.peekFirst()) == null && !mEnded && !mReleased) {
+                    mLock.wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            mStallNanos += System.nanoTime() - start;
+            mStallCount++;
+            return packet;
+        }
+
+        /**
+         * Ends a wait started by isSampleReady(), once the queue has a packet or the end.
+         *
+         * @return the listener to call outside the lock, null if no one was waiting
+         */
+        private Listener onReady() {
+            if (mWaitStartNanos == 0) {
+                return null;
+            }
+            mStallNanos += System.nanoTime() - mWaitStartNanos;
+            mWaitStartNanos = 0;
+            return mListener;
+        }
+
+        private long queuedDurationUs() {
+            return mQueue.isEmpty() ? 0 : mQueue.peekLast().timeUs - mQueue.peekFirst().timeUs;
+        }
+
+        private boolean needsInput() {
+            if (mReleased) {
+                return false;
+            }
+            if (mSeekTimeUs >= 0) {
+                return true;
+            }
+            return !mEnded && (mQueue.isEmpty()
+                    || mQueuedBytes < MAX_QUEUED_BYTES && queuedDurationUs() < mReadAheadUs);
+        }
+
+        private Packet obtainPacket() {
+            Packet packet = mFree.pollFirst();
+            if (packet == null || packet.data.capacity() < mPacketCapacity) {
+                packet = new Packet();
+                packet.data = ByteBuffer.allocateDirect(mPacketCapacity);
+            }
+            return packet;
+        }
+
+        private void recycle(Packet packet) {
+            mQueuedBytes -= packet.size;
+            if (!mReleased) {
+                mFree.addLast(packet);
+            }
+        }
+
+        private void clear() {
+            Packet packet;
+            while ((packet = mQueue.pollFirst()) != null) {
+                recycle(packet);
+            }
+        }
+    }
+
+    private final Object mLock = new Object();
+    private final List<Track> mTracks = new ArrayList<>();
+    private final boolean mShared;
+    private long mReadAheadUs = DEFAULT_READ_AHEAD_US;
+    private boolean mQuit;
+    private Thread mThread;
+
+    DemuxThread() {
+        this(false);
+    }
+
+    /**
+     * @param shared whether the thread serves several players and outlives their tracks
+     */
+    DemuxThread(boolean shared) {
+        mShared = shared;
+    }
+
+    /**
+     * Queues the samples of {@code upstream}, which is owned by the demux thread from now on.
+     *
+     * @param packetCapacity initial size of a packet buffer, grown when a sample does not fit
+     * @return the source the decoder reads from
+     */
+    Track addTrack(SampleSource upstream, int packetCapacity) {
+        synchronized (mLock) {
+            Track track = new Track(upstream, packetCapacity, mReadAheadUs);
+            mTracks.add(track);
+            return track;
+        }
+    }
+
+    /**
+     * Sets how much media, in presentation time, is read ahead of each decoder, for the tracks
+     * added so far and later ones.
+     */
+    void setReadAheadUs(long readAheadUs) {
+        synchronized (mLock) {
+            mReadAheadUs = readAheadUs;
+            for (Track track : mTracks) {
+                track.mReadAheadUs = readAheadUs;
+            }
+            mLock.notifyAll();
+        }
+    }
+
+    void start() {
+        mThread = new Thread(this, "Demux");
+        mThread.start();
+    }
+
+    /**
+     * Stops a shared thread, releasing the upstream of every track left.
+     */
+    void quit() {
+        synchronized (mLock) {
+            mQuit = true;
+            mLock.notifyAll();
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            Track track;
+            while ((track = awaitTrack()) != null) {
+                if (track.mReleased) {
+                    track.mUpstream.release();
+                } else {
+                    readSample(track);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            List<Track> tracks;
+            synchronized (mLock) {
+                tracks = new ArrayList<>(mTracks);
+            }
+            for (Track each : tracks) {
+                each.mUpstream.release();
+            }
+        }
+    }
+
+    /**
+     * Waits until a track needs input, preferring the one that was read least far, or on a
+     * shared thread the one with the least queued. A shared thread also returns released
+     * tracks, removed, for their upstream to be released.
+     *
+     * @return the track, or null once all tracks are released or a shared thread quit
+     */
+    private Track awaitTrack() throws InterruptedException {
+        synchronized (mLock) {
+            while (true) {
+                if (mQuit) {
+                    return null;
+                }
+                Track next = null;
+                boolean live = false;
+                for (Iterator<Track> it = mTracks.iterator(); it.hasNext(); ) {
+                    Track track = it.next();
+                    if (track.mReleased && mShared) {
+                        it.remove();
+                        return track;
+                    }
+                    live |= !track.mReleased;
+                    if (track.needsInput() && (next == null || isBehind(track, next))) {
+                        next = track;
+                    }
+                }
+                if (!live && !mShared) {
+                    return null;
+                }
+                if (next != null) {
+                    return next;
+                }
+                mLock.wait();
+            }
+        }
+    }
+
+    private boolean isBehind(Track track, Track other) {
+        if (mShared) {
+            // timestamps of different sources do not compare
+            return track.queuedDurationUs() < other.queuedDurationUs();
+        }
+        return track.mLastReadUs < other.mLastReadUs;
+    }
+
+    /**
+     * Reads one sample of {@code track} outside the lock, applying a pending seek first.
+     */
+    private void readSample(Track track) {
+        long seekTimeUs;
+        int generation;
+        Packet packet;
+        synchronized (mLock) {
+            seekTimeUs = track.mSeekTimeUs;
+            track.mSeekTimeUs = -1;
+            generation = track.mGeneration;
+            packet = track.obtainPacket();
+        }
+        SampleSource upstream = track.mUpstream;
+        int size;
+        try {
+            if (seekTimeUs >= 0) {
+                upstream.seekTo(seekTimeUs);
+            }
+            size = read(upstream, packet);
+            if (size >= 0) {
+                packet.timeUs = upstream.getSampleTime();
+                packet.flags = upstream.getSampleFlags();
+                upstream.advance();
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "read failed, ending track", e);
+            size = -1;
+        }
+        SampleSource.Listener listener;
+        synchronized (mLock) {
+            if (generation != track.mGeneration || track.mReleased) {
+                // seeked or released while reading
+                if (!track.mReleased) {
+                    track.mFree.addLast(packet);
+                }
+                return;
+            }
+            if (size < 0) {
+                track.mEnded = true;
+                track.mFree.addLast(packet);
+            } else {
+                packet.size = size;
+                track.mQueue.addLast(packet);
+                track.mQueuedBytes += size;
+                track.mLastReadUs = packet.timeUs;
+                // pick up a grown capacity for the next packets
+                track.mPacketCapacity = Math.max(track.mPacketCapacity, packet.data.capacity());
+            }
+            listener = track.onReady();
+            mLock.notifyAll();
+        }
+        if (listener != null) {
+            listener.onSampleReady();
+        }
+    }
+
+    /**
+     * Reads the current sample, growing the packet until it fits.
+     */
+    private static int read(SampleSource upstream, Packet packet) {
+        while (true) {
+            try {
+                return upstream.readSampleData(packet.data, 0);
+            } catch (IllegalArgumentException e) {
+                // MediaExtractor rejects buffers that are too small
+                if (packet.data.capacity() >= MAX_PACKET_SIZE) {
+                    throw e;
+                }
+                packet.data = ByteBuffer.allocateDirect(packet.data.capacity() * 2);
+            }
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.myth.frameplayer;
+
+import android.media.MediaExtractor;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link SampleSource} over a {@link MediaExtractor} with one selected track.
+ */
+class ExtractorSampleSource implements SampleSource {
+
+    private final MediaExtractor mExtractor;
+
+    ExtractorSampleSource(MediaExtractor extractor) {
+        mExtractor = extractor;
+    }
+
+    @Override
+    public int readSampleData(ByteBuffer buffer, int offset) {
+        return mExtractor.readSampleData(buffer, offset);
+    }
+
+    @Override
+    public long getSampleTime() {
+        return mExtractor.getSampleTime();
+    }
+
+    @Override
+    public int getSampleFlags() {
+        return mExtractor.getSampleFlags();
+    }
+
+    @Override
+    public boolean advance() {
+        return mExtractor.advance();
+    }
+
+    @Override
+    public void seekTo(long timeUs) {
+        mExtractor.seekTo(timeUs, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+    }
+
+    @Override
+    public boolean isSampleReady() {
+        return true;
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+    }
+
+    @Override
+    public void release() {
+        mExtractor.release();
+    }
+}
@@ -0,0 +1,115 @@
+package com.myth.frameplayer;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.util.Log;
+import android.view.Surface;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link DecodeEngine} for devices without {@link MediaCodec.Callback}. A dedicated thread
+ * keeps the input queue full and collects output buffers, parking once enough decoded frames
+ * are waiting for their deadline.
+ */
+class FeederDecodeEngine extends DecodeEngine implements Runnable {
+    private static final String TAG = FeederDecodeEngine.class.getSimpleName();
+
+    private static final long INPUT_TIMEOUT_USEC = 2000;
+    private static final long OUTPUT_TIMEOUT_USEC = 10000;
+
+    /**
+     * decoded frames held before the feeder stops pulling output
+     */
+    private static final int MAX_PENDING_FRAMES = 4;
+
+    private final MediaCodec.BufferInfo mBufferInfo = new MediaCodec.BufferInfo();
+    private Thread mThread;
+    private volatile boolean mRunning;
+
+    FeederDecodeEngine(MediaCodec codec, SampleSource source) {
+        super(codec, source);
+    }
+
+    @Override
+    void start(MediaFormat format, Surface surface) {
+        configure(format, surface);
+        mCodec.start();
+        startFeeder();
+    }
+
+    @Override
+    public void seekTo(long syncTimeUs) {
+        stopFeeder();
+        mCodec.flush();
+        clearPending();
+        mInputDone = false;
+        mSource.seekTo(syncTimeUs);
+        startFeeder();
+    }
+
+    @Override
+    public void release() {
+        stopFeeder();
+        super.release();
+    }
+
+    private void startFeeder() {
+        mRunning = true;
+        mThread = new Thread(this, "Decode Feeder");
+        mThread.start();
+    }
+
+    private void stopFeeder() {
+        mRunning = false;
+        synchronized (mLock) {
+            mLock.notifyAll();
+        }
+        if (mThread != null) {
+            try {
+                mThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            mThread = null;
+        }
+    }
+
+    @Override
+    public void run() {
+        final ByteBuffer[] inputBuffers = mCodec.getInputBuffers();
+        boolean outputDone = false;
+        try {
+            while (mRunning && !outputDone) {
+                if (!mInputDone) {
+                    int index = mCodec.dequeueInputBuffer(INPUT_TIMEOUT_USEC);
+                    if (index >= 0) {
+                        queueSample(index, inputBuffers[index], true);
+                    } else if (index == MediaCodec.INFO_TRY_AGAIN_LATER) {
+                        onDequeueTimeout();
+                    }
+                }
+                synchronized (mLock) {
+                    while (mRunning && getPendingCount() >= MAX_PENDING_FRAMES) {
+                        mLock.wait();
+                    }
+                }
+                if (!mRunning) {
+                    break;
+                }
+                int index = mCodec.dequeueOutputBuffer(mBufferInfo, OUTPUT_TIMEOUT_USEC);
+                if (index >= 0) {
+                    onOutputBuffer(index, mBufferInfo);
+                    outputDone = (mBufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+                } else if (index == MediaCodec.INFO_TRY_AGAIN_LATER) {
+                    onDequeueTimeout();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IllegalStateException e) {
+            Log.e(TAG, "feeder stopped", e);
+            reportError(e);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.myth.frameplayer;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Decoded frames kept by presentation timestamp within a memory budget, least recently used
+ * first out. A frame is an opaque int handle (a GL texture for {@link GlFrameRenderer}) that
+ * is handed back for reuse or to the {@link EvictionListener} when it drops out.
+ */
+class FrameCache {
+
+    interface EvictionListener {
+        void onEvicted(int handle);
+    }
+
+    private static final class Entry {
+        final int handle;
+        final long size;
+
+        Entry(int handle, long size) {
+            this.handle = handle;
+            this.size = size;
+        }
+    }
+
+    private final LinkedHashMap<Long, Entry> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private final long mBudgetBytes;
+    private final EvictionListener mEvictionListener;
+    private long mSizeBytes;
+    /**
+     * written on the player thread only, read from any
+     */
+    private volatile long mHitCount;
+    private volatile long mMissCount;
+
+    FrameCache(long budgetBytes, EvictionListener evictionListener) {
+        mBudgetBytes = budgetBytes;
+        mEvictionListener = evictionListener;
+    }
+
+    /**
+     * Looks up a frame and marks it as recently used, counting a hit or a miss.
+     *
+     * @return the frame handle, or -1
+     */
+    int get(long presentationTimeUs) {
+        Entry entry = mEntries.get(presentationTimeUs);
+        if (entry == null) {
+            mMissCount++;
+            return -1;
+        }
+        mHitCount++;
+        return entry.handle;
+    }
+
+    boolean contains(long presentationTimeUs) {
+        return mEntries.containsKey(presentationTimeUs);
+    }
+
+    /**
+     * Makes room for a frame of {@code size} bytes. Evicted handles go to the listener,
+     * except for the last one of matching size, which is returned for reuse.
+     *
+     * @return a handle the caller may overwrite, or -1 to allocate a new one
+     */
+    int reclaim(long size) {
+        int reusable = -1;
+        Iterator<Map.Entry<Long, Entry>> iterator = mEntries.entrySet().iterator();
+        while (mSizeBytes + size > mBudgetBytes && iterator.hasNext()) {
+            Entry entry = iterator.next().getValue();
+            iterator.remove();
+            mSizeBytes -= entry.size;
+            if (reusable >= 0) {
+                mEvictionListener.onEvicted(reusable);
+            }
+            if (entry.size == size) {
+                reusable = entry.handle;
+            } else {
+                reusable = -1;
+                mEvictionListener.onEvicted(entry.handle);
+            }
+        }
+        return reusable;
+    }
+
+    /**
+     * Adds a frame, evicting older ones if it does not fit. A frame larger than the whole
+     * budget is not kept and goes straight to the listener.
+     */
+    void put(long presentationTimeUs, int handle, long size) {
+        if (size > mBudgetBytes) {
+            mEvictionListener.onEvicted(handle);
+            return;
+        }
+        int reusable = reclaim(size);
+        if (reusable >= 0) {
+            mEvictionListener.onEvicted(reusable);
+        }
+        Entry previous = mEntries.put(presentationTimeUs, new Entry(handle, size));
+        mSizeBytes += size;
+        if (previous != null) {
+            mSizeBytes -= previous.size;
+            if (previous.handle != handle) {
+                mEvictionListener.onEvicted(previous.handle);
+            }
+        }
+    }
+
+    /**
+     * Evicts one frame, if it is cached.
+     */
+    void remove(long presentationTimeUs) {
+        Entry entry = mEntries.remove(presentationTimeUs);
+        if (entry != null) {
+            mSizeBytes -= entry.size;
+            mEvictionListener.onEvicted(entry.handle);
+        }
+    }
+
+    /**
+     * Evicts every frame.
+     */
+    void clear() {
+        for (Entry entry : mEntries.values()) {
+            mEvictionListener.onEvicted(entry.handle);
+        }
+        mEntries.clear();
+        mSizeBytes = 0;
+    }
+
+    int getFrameCount() {
+        return mEntries.size();
+    }
+
+    long getSizeBytes() {
+        return mSizeBytes;
+    }
+
+    long getBudgetBytes() {
+        return mBudgetBytes;
+    }
+
+    long getHitCount() {
+        return mHitCount;
+    }
+
+    long getMissCount() {
+        return mMissCount;
+    }
+}
@@ -0,0 +1,291 @@
+package com.myth.frameplayer;
+
+/**
+ * Maps presentation timestamps onto absolute deadlines of a monotonic nanosecond clock.
+ * <p>
+ * Every frame is scheduled against {@code anchor + (pts - anchorPts) / speed}, so rounding
+ * of a single wait never accumulates: a frame that is handled late simply makes the next
+ * deadline come sooner. The clock also keeps track of how far each frame was from its
+ * deadline, which is reported as jitter and drift.
+ * <p>
+ * Not thread safe, it is owned by the playback thread. The statistics are recorded under a
+ * lock and can be read from any thread, all of them consistent through {@link #snapshot()}.
+ */
+public class FrameClock {
+
+    /**
+     * Source of monotonic time, replaceable for tests.
+     */
+    public interface TimeSource {
+        long nanoTime();
+    }
+
+    public static final TimeSource SYSTEM_TIME = new TimeSource() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    };
+
+    /**
+     * A frame later than this is not caught up any more, the clock is re-anchored on it instead.
+     */
+    private static final long DEFAULT_RESYNC_THRESHOLD_NS = 1000000000L;
+
+    private final TimeSource mTimeSource;
+
+    private double mSpeed = 1.0;
+    private long mAnchorNanos;
+    private long mAnchorPtsUs;
+    private boolean mStarted;
+    private long mPausedAtNanos = -1;
+    private long mResyncThresholdNs = DEFAULT_RESYNC_THRESHOLD_NS;
+
+    private final Object mStatsLock = new Object();
+    private long mFrameCount;
+    private long mJitterSumNs;
+    private long mMaxJitterNs;
+    private long mDriftNs;
+    private long mResyncCount;
+
+    public FrameClock() {
+        this(SYSTEM_TIME);
+    }
+
+    public FrameClock(TimeSource timeSource) {
+        mTimeSource = timeSource;
+    }
+
+    public long nanoTime() {
+        return mTimeSource.nanoTime();
+    }
+
+    /**
+     * Sets the playback speed as the ratio between the requested and the native frame rate,
+     * e.g. a 30 fps clip played at 60 fps runs at speed 2. Takes effect from the current
+     * position without a jump.
+     */
+    public void setFrameRate(float nativeFrameRate, float targetFrameRate) {
+        if (nativeFrameRate <= 0 || targetFrameRate <= 0) {
+            throw new IllegalArgumentException("frame rate must be positive");
+        }
+        double speed = (double) targetFrameRate / nativeFrameRate;
+        if (mStarted && mPausedAtNanos < 0) {
+            long now = mTimeSource.nanoTime();
+            mAnchorPtsUs = mediaTimeUs(now);
+            mAnchorNanos = now;
+        }
+        mSpeed = speed;
+    }
+
+    public double getSpeed() {
+        return mSpeed;
+    }
+
+    public void setResyncThresholdNanos(long thresholdNs) {
+        mResyncThresholdNs = thresholdNs;
+    }
+
+    /**
+     * Anchors {@code ptsUs} at the current instant and clears the statistics.
+     */
+    public void start(long ptsUs) {
+        mAnchorNanos = mTimeSource.nanoTime();
+        mAnchorPtsUs = ptsUs;
+        mStarted = true;
+        mPausedAtNanos = -1;
+        resetStats();
+    }
+
+    /**
+     * Re-anchors {@code ptsUs} at the current instant, keeping the statistics.
+     */
+    public void rebase(long ptsUs) {
+        mAnchorNanos = mTimeSource.nanoTime();
+        mAnchorPtsUs = ptsUs;
+        if (mPausedAtNanos >= 0) {
+            mPausedAtNanos = mAnchorNanos;
+        }
+    }
+
+    public boolean isStarted() {
+        return mStarted;
+    }
+
+    public boolean isPaused() {
+        return mPausedAtNanos >= 0;
+    }
+
+    public void pause() {
+        if (mStarted && mPausedAtNanos < 0) {
+            mPausedAtNanos = mTimeSource.nanoTime();
+        }
+    }
+
+    /**
+     * Shifts every deadline by the time spent paused.
+     */
+    public void resume() {
+        if (mPausedAtNanos >= 0) {
+            mAnchorNanos += mTimeSource.nanoTime() - mPausedAtNanos;
+            mPausedAtNanos = -1;
+        }
+    }
+
+    public void stop() {
+        mStarted = false;
+        mPausedAtNanos = -1;
+    }
+
+    /**
+     * Returns the absolute {@link TimeSource#nanoTime()} at which the frame with the given
+     * presentation timestamp is due.
+     */
+    public long deadlineNanos(long ptsUs) {
+        return mAnchorNanos + (long) ((ptsUs - mAnchorPtsUs) * 1000L / mSpeed);
+    }
+
+    /**
+     * Returns how long to wait until the frame is due, negative when it is already late.
+     */
+    public long delayNanos(long ptsUs) {
+        long now = mPausedAtNanos >= 0 ? mPausedAtNanos : mTimeSource.nanoTime();
+        return deadlineNanos(ptsUs) - now;
+    }
+
+    /**
+     * Returns the presentation time that is due at the current instant.
+     */
+    public long currentPtsUs() {
+        long now = mPausedAtNanos >= 0 ? mPausedAtNanos : mTimeSource.nanoTime();
+        return mediaTimeUs(now);
+    }
+
+    private long mediaTimeUs(long nanos) {
+        return mAnchorPtsUs + (long) ((nanos - mAnchorNanos) * mSpeed / 1000L);
+    }
+
+    /**
+     * Records that the frame with the given timestamp has just been presented.
+     *
+     * @return the lateness of the frame in nanoseconds, negative when it was early
+     */
+    public long onFramePresented(long ptsUs) {
+        long now = mTimeSource.nanoTime();
+        long lateness = now - deadlineNanos(ptsUs);
+        boolean resync = lateness > mResyncThresholdNs;
+        synchronized (mStatsLock) {
+            mFrameCount++;
+            long abs = Math.abs(lateness);
+            mJitterSumNs += abs;
+            if (abs > mMaxJitterNs) {
+                mMaxJitterNs = abs;
+            }
+            mDriftNs = lateness;
+            if (resync) {
+                mResyncCount++;
+            }
+        }
+        if (resync) {
+            mAnchorNanos = now;
+            mAnchorPtsUs = ptsUs;
+        }
+        return lateness;
+    }
+
+    public void resetStats() {
+        synchronized (mStatsLock) {
+            mFrameCount = 0;
+            mJitterSumNs = 0;
+            mMaxJitterNs = 0;
+            mDriftNs = 0;
+            mResyncCount = 0;
+        }
+    }
+
+    public Snapshot snapshot() {
+        synchronized (mStatsLock) {
+            return new Snapshot(mFrameCount, mFrameCount == 0 ? 0 : mJitterSumNs / mFrameCount,
+                    mMaxJitterNs, mDriftNs, mResyncCount);
+        }
+    }
+
+    public long getFrameCount() {
+        return snapshot().getFrameCount();
+    }
+
+    /**
+     * Mean absolute distance between presentation and deadline.
+     */
+    public long getMeanJitterNanos() {
+        return snapshot().getMeanJitterNanos();
+    }
+
+    public long getMaxJitterNanos() {
+        return snapshot().getMaxJitterNanos();
+    }
+
+    /**
+     * Signed lateness of the last presented frame, positive when playback is behind schedule.
+     */
+    public long getDriftNanos() {
+        return snapshot().getDriftNanos();
+    }
+
+    /**
+     * Number of times the clock gave up catching up and re-anchored on a late frame.
+     */
+    public long getResyncCount() {
+        return snapshot().getResyncCount();
+    }
+
+    /**
+     * Immutable copy of the statistics at one point in time.
+     */
+    public static final class Snapshot {
+        private final long mFrameCount;
+        private final long mMeanJitterNs;
+        private final long mMaxJitterNs;
+        private final long mDriftNs;
+        private final long mResyncCount;
+
+        Snapshot(long frameCount, long meanJitterNs, long maxJitterNs, long driftNs,
+                 long resyncCount) {
+            mFrameCount = frameCount;
+            mMeanJitterNs = meanJitterNs;
+            mMaxJitterNs = maxJitterNs;
+            mDriftNs = driftNs;
+            mResyncCount = resyncCount;
+        }
+
+        public long getFrameCount() {
+            return mFrameCount;
+        }
+
+        /**
+         * Mean absolute distance between presentation and deadline.
+         */
+        public long getMeanJitterNanos() {
+            return mMeanJitterNs;
+        }
+
+        public long getMaxJitterNanos() {
+            return mMaxJitterNs;
+        }
+
+        /**
+         * Signed lateness of the last presented frame, positive when playback is behind
+         * schedule.
+         */
+        public long getDriftNanos() {
+            return mDriftNs;
+        }
+
+        /**
+         * Number of times the clock gave up catching up and re-anchored on a late frame.
+         */
+        public long getResyncCount() {
+            return mResyncCount;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.myth.frameplayer;
+
+/**
+ * A video decoder as the render loop sees it: decoded frames queue up in presentation order
+ * and are released one by one, rendered or not, from the head of the queue.
+ */
+interface FrameDecoder {
+
+    /**
+     * same value as {@code MediaCodec.BUFFER_FLAG_END_OF_STREAM}
+     */
+    int FLAG_END_OF_STREAM = 4;
+
+    /**
+     * Notified when a decoded frame becomes available, or when the decoder failed and will
+     * not produce any more. May be called from any thread.
+     */
+    interface Listener {
+        void onFrameAvailable();
+
+        void onError(Exception e);
+    }
+
+    /**
+     * A decoded output buffer waiting to be rendered.
+     */
+    final class DecodedFrame {
+        int index;
+        long presentationTimeUs;
+        int flags;
+        /**
+         * where the data lies in the output buffer, when decoding without a surface
+         */
+        int offset;
+        int size;
+
+        boolean isEndOfStream() {
+            return (flags & FLAG_END_OF_STREAM) != 0;
+        }
+    }
+
+    void setListener(Listener listener);
+
+    /**
+     * Drops all queued and in-flight frames and continues decoding from the sync sample at
+     * or before {@code syncTimeUs}.
+     */
+    void seekTo(long syncTimeUs);
+
+    /**
+     * @return the oldest decoded frame, null if there is none yet
+     */
+    DecodedFrame peekFrame();
+
+    int getPendingCount();
+
+    /**
+     * Leaves out samples no other frame refers to before they are decoded, for catching up
+     * when decoding falls behind. Decoders that cannot tell them apart ignore it.
+     */
+    void setSkipNonReferenceFrames(boolean skip);
+
+    /**
+     * Gives the head {@code frame} back to the decoder, rendering it right away if
+     * {@code render} is set.
+     */
+    void releaseFrame(DecodedFrame frame, boolean render);
+
+    /**
+     * Gives the head {@code frame} back to the decoder for display at {@code renderTimeNs}, a
+     * {@link System#nanoTime()} instant.
+     */
+    void releaseFrame(DecodedFrame frame, long renderTimeNs);
+
+    /**
+     * Stops decoding and releases the decoder. The sample source is left to the caller.
+     */
+    void release();
+}
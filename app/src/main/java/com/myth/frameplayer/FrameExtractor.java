@@ -0,0 +1,307 @@
+package com.myth.frameplayer;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.util.Log;
+import android.view.Surface;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Pulls frames out of a clip as fast as the decoder goes, for thumbnails and analysis.
+ * <p>
+ * Opens the source and decoder the way {@link FramePlayer} does, but nothing is paced: frames
+ * that are not wanted are released unrendered, and when the next wanted frame lies in a later
+ * GOP the decoder seeks straight to its sync sample instead of decoding up to it. Wanted
+ * frames go to a {@link FrameSink}, either as decoded YUV or rendered into an
+ * {@link #setOutputSurface output surface} such as the one of an ImageReader.
+ * <p>
+ * Extraction blocks the calling thread, call it from a worker thread. {@link #cancel()} may
+ * be called from any thread, also before the extraction starts, and holds until
+ * {@link #reset()}.
+ */
+public class FrameExtractor {
+    private static final String TAG = FrameExtractor.class.getSimpleName();
+
+    /**
+     * how long to wait for the decoder before checking for cancellation again
+     */
+    private static final long FRAME_WAIT_MS = 100;
+
+    /**
+     * Receives the extracted frames on the extracting thread.
+     */
+    public interface FrameSink {
+        /**
+         * @param frame  the decoded frame laid out as {@code format} describes, only valid
+         *               during the call; null when frames are rendered to the output surface
+         * @param format output format of the decoder with color format, size, stride and
+         *               slice height
+         */
+        void onFrame(long presentationTimeUs, ByteBuffer frame, MediaFormat format);
+    }
+
+    private final DataSource mSource;
+    private boolean mMp4DemuxerEnabled;
+    private MediaProbeCache mProbeCache;
+    private Surface mOutputSurface;
+    private SampleIndex mSampleIndex;
+    private final Object mFrameLock = new Object();
+    private volatile boolean mCancelled;
+    private boolean mDecodeFailed;
+    private volatile int mDecodedCount;
+    private volatile int mExtractedCount;
+    private volatile long mElapsedNanos;
+
+    public FrameExtractor(File sourceFile) {
+        this(DataSource.fromFile(sourceFile));
+    }
+
+    public FrameExtractor(DataSource source) {
+        mSource = source;
+    }
+
+    /**
+     * Reads MP4 files with {@link Mp4Demuxer}, see {@link FramePlayer#setMp4DemuxerEnabled}.
+     */
+    public void setMp4DemuxerEnabled(boolean enabled) {
+        mMp4DemuxerEnabled = enabled;
+    }
+
+    /**
+     * Reuses the tracks and sample index stored by an earlier open of the same file, see
+     * {@link FramePlayer#setProbeCache}.
+     */
+    public void setProbeCache(MediaProbeCache cache) {
+        mProbeCache = cache;
+    }
+
+    /**
+     * Reuses the frame index of the source instead of scanning it on every extraction.
+     */
+    void setSampleIndex(SampleIndex index) {
+        mSampleIndex = index;
+    }
+
+    /**
+     * Renders wanted frames into {@code surface}, e.g. {@code ImageReader.getSurface()},
+     * instead of passing them to the sink as YUV buffers. The images are timestamped with the
+     * presentation time in nanoseconds; acquire and close them promptly, a full reader makes
+     * the decoder drop frames.
+     */
+    public void setOutputSurface(Surface surface) {
+        mOutputSurface = surface;
+    }
+
+    /**
+     * Extracts frames 0, n, 2n and so on.
+     *
+     * @return number of frames delivered to {@code sink}
+     */
+    public int extractEveryNthFrame(int n, FrameSink sink) throws IOException {
+        if (n <= 0) {
+            throw new IllegalArgumentException("n must be positive");
+        }
+        SourceItem item = open();
+        try {
+            return extract(item, everyNthFrame(item.index, n), sink);
+        } finally {
+            item.release();
+        }
+    }
+
+    /**
+     * Extracts the frames shown at each of {@code timesUs}, in presentation order and each
+     * frame once.
+     *
+     * @return number of frames delivered to {@code sink}
+     */
+    public int extractFramesAt(long[] timesUs, FrameSink sink) throws IOException {
+        SourceItem item = open();
+        try {
+            return extract(item, framesAt(item.index, timesUs), sink);
+        } finally {
+            item.release();
+        }
+    }
+
+    /**
+     * Stops a running extraction after the frame at hand, and the ones started later until
+     * {@link #reset()}.
+     */
+    public void cancel() {
+        mCancelled = true;
+        synchronized (mFrameLock) {
+            mFrameLock.notifyAll();
+        }
+    }
+
+    /**
+     * Lets extractions run again after {@link #cancel()}.
+     */
+    public void reset() {
+        mCancelled = false;
+    }
+
+    /**
+     * @return frames delivered per second of the last extraction
+     */
+    public float getFramesPerSecond() {
+        long elapsedNanos = mElapsedNanos;
+        return elapsedNanos == 0 ? 0 : mExtractedCount * 1e9f / elapsedNanos;
+    }
+
+    /**
+     * @return frames delivered by the last extraction
+     */
+    public int getExtractedFrameCount() {
+        return mExtractedCount;
+    }
+
+    /**
+     * @return frames the last extraction decoded, the wanted ones included
+     */
+    public int getDecodedFrameCount() {
+        return mDecodedCount;
+    }
+
+    private SourceItem open() throws IOException {
+        mDecodedCount = 0;
+        mExtractedCount = 0;
+        mElapsedNanos = 0;
+        return SourceItem.open(mSource, 0, mSampleIndex, mMp4DemuxerEnabled, false, mProbeCache);
+    }
+
+    private int extract(SourceItem item, long[] frameTimesUs, FrameSink sink) throws IOException {
+        if (frameTimesUs.length == 0 || mCancelled) {
+            return 0;
+        }
+        long startNanos = System.nanoTime();
+        mDecodeFailed = false;
+        MediaFormat format = item.videoFormat;
+        MediaCodec codec = MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME));
+        // decodes on its own thread without a looper, so it works from any calling thread
+        DecodeEngine engine = new FeederDecodeEngine(codec, item.sources[0]);
+        engine.setListener(new FrameDecoder.Listener() {
+            @Override
+            public void onFrameAvailable() {
+                synchronized (mFrameLock) {
+                    mFrameLock.notifyAll();
+                }
+            }
+
+            @Override
+            public void onError(Exception e) {
+                synchronized (mFrameLock) {
+                    mDecodeFailed = true;
+                    mFrameLock.notifyAll();
+                }
+            }
+        });
+        Surface surface = mOutputSurface;
+        engine.start(format, surface);
+        try {
+            SampleIndex index = item.index;
+            long lastDecodedUs = -1;
+            int target = 0;
+            if (index.syncTimeAtOrBefore(frameTimesUs[0]) > 0) {
+                engine.seekTo(index.syncTimeAtOrBefore(frameTimesUs[0]));
+            }
+            while (target < frameTimesUs.length) {
+                FrameDecoder.DecodedFrame frame = awaitFrame(engine);
+                if (frame == null || frame.isEndOfStream()) {
+                    break;
+                }
+                long presentationTimeUs = frame.presentationTimeUs;
+                mDecodedCount++;
+                if (presentationTimeUs < frameTimesUs[target]) {
+                    engine.releaseFrame(frame, false);
+                    lastDecodedUs = presentationTimeUs;
+                    continue;
+                }
+                if (surface != null) {
+                    engine.releaseFrame(frame, true);
+                    sink.onFrame(presentationTimeUs, null, engine.getOutputFormat());
+                } else {
+                    sink.onFrame(presentationTimeUs, engine.getOutputBuffer(frame), engine.getOutputFormat());
+                    engine.releaseFrame(frame, false);
+                }
+                mExtractedCount++;
+                lastDecodedUs = presentationTimeUs;
+                while (target < frameTimesUs.length && frameTimesUs[target] <= presentationTimeUs) {
+                    target++;
+                }
+                if (target < frameTimesUs.length && needsSeek(index, frameTimesUs[target], lastDecodedUs)) {
+                    engine.seekTo(index.syncTimeAtOrBefore(frameTimesUs[target]));
+                }
+            }
+        } finally {
+            engine.release();
+            mElapsedNanos = System.nanoTime() - startNanos;
+        }
+        Log.i(TAG, "Extracted " + mExtractedCount + " of " + mDecodedCount + " decoded frames in "
+                + mElapsedNanos / 1000000 + " ms, " + getFramesPerSecond() + " fps");
+        return mExtractedCount;
+    }
+
+    /**
+     * @return the head frame of {@code decoder}, null if cancelled or the decoder failed
+     */
+    private FrameDecoder.DecodedFrame awaitFrame(FrameDecoder decoder) {
+        synchronized (mFrameLock) {
+            FrameDecoder.DecodedFrame frame;
+            while ((frame = decoder.peekFrame()) == null && !mCancelled && !mDecodeFailed) {
+                try {
+                    mFrameLock.wait(FRAME_WAIT_MS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+            }
+            return mCancelled ? null : frame;
+        }
+    }
+
+    /**
+     * Whether decoding on from {@code lastDecodedUs} to {@code targetUs} passes a sync sample,
+     * so seeking there skips frames.
+     */
+    static boolean needsSeek(SampleIndex index, long targetUs, long lastDecodedUs) {
+        return index.syncTimeAtOrBefore(targetUs) > lastDecodedUs;
+    }
+
+    /**
+     * @return timestamps of frames 0, n, 2n and so on
+     */
+    static long[] everyNthFrame(SampleIndex index, int n) {
+        long[] timesUs = new long[(index.getFrameCount() + n - 1) / n];
+        for (int i = 0; i < timesUs.length; i++) {
+            timesUs[i] = index.getPresentationTimeUs(i * n);
+        }
+        return timesUs;
+    }
+
+    /**
+     * @return sorted timestamps of the frames shown at {@code timesUs}, without duplicates
+     */
+    static long[] framesAt(SampleIndex index, long[] timesUs) {
+        if (index.getFrameCount() == 0) {
+            return new long[0];
+        }
+        long[] frameTimesUs = new long[timesUs.length];
+        for (int i = 0; i < timesUs.length; i++) {
+            frameTimesUs[i] = index.getPresentationTimeUs(index.frameAt(timesUs[i]));
+        }
+        Arrays.sort(frameTimesUs);
+        int count = 0;
+        for (int i = 0; i < frameTimesUs.length; i++) {
+            if (count == 0 || frameTimesUs[i] != frameTimesUs[count - 1]) {
+                frameTimesUs[count++] = frameTimesUs[i];
+            }
+        }
+        return Arrays.copyOf(frameTimesUs, count);
+    }
+}
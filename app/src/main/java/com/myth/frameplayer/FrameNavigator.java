@@ -0,0 +1,82 @@
+package com.myth.frameplayer;
+
+/**
+ * Decides how a step or scrub gets to its frame, the fastest way that still leaves video and
+ * audio at the frame together.
+ * <p>
+ * A cached frame is drawn right away. While paused, the decoder runs on to the frame when it is
+ * already inside the frame's GOP, and audio seeks to it. During playback both pipelines seek,
+ * a cached frame only being shown before the decoder catches up, and a paused player whose
+ * decoder was left behind by a cached frame seeks once it resumes. Backwards the frames come
+ * from the reverse chunks and audio is muted, so a cached frame is all it takes.
+ * <p>
+ * Holds no state or Android types, the player carries the steps out through {@link Output}.
+ */
+final class FrameNavigator {
+
+    /**
+     * How the player gets to the frame.
+     */
+    interface Output {
+        /**
+         * Draws the cached {@code texture} of the frame at {@code timeUs}.
+         */
+        void showCached(int texture, long timeUs);
+
+        /**
+         * Restarts video and audio at {@code timeUs}.
+         */
+        void seek(long timeUs);
+
+        /**
+         * Lets the decoder run on to {@code timeUs}, dropping the frames before it, and
+         * moves audio there.
+         */
+        void decodeTo(long timeUs);
+
+        /**
+         * The frame on screen moved without the decoder, video and audio seek to it once
+         * playback resumes.
+         */
+        void seekOnResume();
+    }
+
+    private FrameNavigator() {
+    }
+
+    /**
+     * Gets to {@code target}, a frame of the item starting at {@code startUs} on the timeline.
+     *
+     * @param texture          cached copy of the frame, -1 if none
+     * @param decodePositionUs timestamp of the last frame taken from the decoder, -1 right
+     *                         after a seek
+     * @param seekTargetUs     target of the seek in progress, -1 if none
+     * @param playing          whether playback is running
+     */
+    static void show(SampleIndex index, long startUs, int target, int texture,
+                     long decodePositionUs, long seekTargetUs, boolean playing, boolean reverse,
+                     Output output) {
+        long targetUs = startUs + index.getPresentationTimeUs(target);
+        if (texture >= 0) {
+            output.showCached(texture, targetUs);
+            if (reverse) {
+                return;
+            }
+            if (playing) {
+                output.seek(targetUs);
+            } else {
+                output.seekOnResume();
+            }
+            return;
+        }
+        long keyframeUs = startUs + index.syncTimeAtOrBefore(targetUs - startUs);
+        boolean onTheWay = seekTargetUs >= 0
+                ? targetUs >= seekTargetUs && keyframeUs == startUs + index.syncTimeAtOrBefore(seekTargetUs - startUs)
+                : targetUs > decodePositionUs && keyframeUs <= decodePositionUs;
+        if (onTheWay && !reverse && !playing) {
+            output.decodeTo(targetUs);
+        } else {
+            output.seek(targetUs);
+        }
+    }
+}
@@ -22,11 +22,12 @@ import android.media.AudioTrack;
 import android.media.MediaCodec;
 import android.media.MediaExtractor;
 import android.media.MediaFormat;
-import android.os.AsyncTask;
 import android.os.Build;
+import android.os.Debug;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.Surface;
 
@@ -34,10 +35,9 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.Timer;
-import java.util.TimerTask;
-
-import static android.media.MediaExtractor.SEEK_TO_PREVIOUS_SYNC;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 
 public class FramePlayer implements Runnable {
@@ -46,34 +46,219 @@ public class FramePlayer implements Runnable {
 
     private static final int MSG_PLAY_START = 0;
 
-    private static final int MSG_PLAY_PROGRESS = 1;
+    private static final int MSG_COMMAND = 1;
+
+    private static final int MSG_FRAME_TICK = 2;
+
+    private static final int MSG_METRICS = 4;
+
+    private static final int MSG_PREPARE = 5;
+
+    private static final int MSG_DECODE_ERROR = 6;
+
+    private static final int MSG_RENDERER_FRAME = 7;
+
+    /**
+     * a frame due within this window is rendered right away instead of waiting another tick
+     */
+    private static final long RENDER_TOLERANCE_NS = 1000000L;
+
+    /**
+     * with render timestamps (API 21+) frames are handed to the compositor this early
+     */
+    private static final long RENDER_AHEAD_NS = 10000000L;
+
+    /**
+     * a frame tick handled later than this after it was due counts as a missed deadline
+     */
+    private static final long MISSED_DEADLINE_MS = RENDER_AHEAD_NS / 1000000L;
+
+    /**
+     * a frame released into the GL renderer that has not arrived after this is given up on
+     */
+    private static final long RENDERER_FRAME_TIMEOUT_MS = 500;
+
+    /**
+     * longest side of a frame copied into the frame cache
+     */
+    private static final int MAX_CACHED_FRAME_SIZE = 1280;
+
+    /**
+     * rendered frames after which the decoder's missed frames are counted up, a window
+     * where at least one in DEADLINE_MISS_DIVISOR frames missed is a strike, and the
+     * decoder is swapped after DEADLINE_STRIKES strikes in a row
+     */
+    private static final int DEADLINE_WINDOW_FRAMES = 120;
+    private static final int DEADLINE_MISS_DIVISOR = 4;
+    private static final int DEADLINE_STRIKES = 2;
 
+    /**
+     * initial packet buffer sizes when the format has no maximum input size
+     */
+    private static final int VIDEO_PACKET_SIZE = 256 * 1024;
+    private static final int AUDIO_PACKET_SIZE = 16 * 1024;
 
-    private static final boolean VERBOSE = true;
+    /**
+     * lower bound of the decoded PCM buffered ahead of the AudioTrack
+     */
+    private static final int PCM_BUFFER_MIN_SIZE = 64 * 1024;
 
-    private MediaCodec.BufferInfo mBufferInfo = new MediaCodec.BufferInfo();
-    private ByteBuffer inputBuffer;
+    /**
+     * track numbers of the {@link Timeline} items
+     */
+    private static final int TRACK_VIDEO = 0;
+    private static final int TRACK_AUDIO = 1;
 
     final int TIMEOUT_USEC = 10000;
-    private AudioTrack audioTrack;
+    private AudioSink mAudioSink;
+    private PcmRingBuffer mPcmBuffer;
+    private AudioSinkWriter mAudioWriter;
+    private TimeStretcher mTimeStretcher;
+    private final ByteBuffer mStretchBuffer = ByteBuffer.allocateDirect(16 * 1024);
+    private int mAudioSampleRate;
+    private int mAudioFrameBytes;
+    /**
+     * audio decoded before this timestamp after a seek is discarded, -1 when not seeking
+     */
+    private long mAudioSeekTargetUs = -1;
+    /**
+     * timeline position up to which PCM was written, later PCM before it is discarded
+     */
+    private long mAudioWrittenUs;
 
     public void setSourceFile(File sourceFile) {
-        this.sourceFile = sourceFile;
+        setDataSource(DataSource.fromFile(sourceFile));
+    }
+
+    /**
+     * Plays {@code source} from the next {@link #start()}, e.g. a file descriptor, a buffer or
+     * a {@link CachedDataSource} in front of slow storage. The source stays open until the
+     * caller closes it after {@link #release()}.
+     */
+    public void setDataSource(DataSource source) {
+        this.source = source;
     }
 
-    private File sourceFile;
+    private DataSource source;
     private Surface mOutputSurface;
     private int mVideoWidth;
     private int mVideoHeight;
 
-    private MediaExtractor mAudioExtractor;
-    private MediaExtractor mMediaExtractor;
+    private boolean mMp4DemuxerEnabled;
+    private volatile MediaProbeCache mProbeCache;
+    private SampleSource mAudioSource;
+    private SampleSource mVideoSource;
+    private MediaFormat mAudioFormat;
+    private MediaFormat mVideoFormat;
+    private Timeline mTimeline;
+    /**
+     * the item and timeline segment of the frame on screen
+     */
+    private SourceItem mItem;
+    private Timeline.Segment mSegment;
+    /**
+     * added to the item's presentation times on the timeline, see
+     * {@link Timeline.Segment#getOffsetUs()}
+     */
+    private long mSegmentOffsetUs;
+    private volatile long mRangeStartUs;
+    private volatile long mRangeEndUs = Long.MAX_VALUE;
+    private long mPreparedRangeStartUs;
+    private long mPreparedRangeEndUs;
+    private volatile List<DataSource> mPlaylist = Collections.emptyList();
+    private volatile int mPlaylistIndex;
+    private volatile boolean mLooping;
+    private DemuxThread.Track mAudioPackets;
+    private DemuxThread.Track mVideoPackets;
+    private long mReadAheadUs = DemuxThread.DEFAULT_READ_AHEAD_US;
     private MediaCodec mAudioCodec;
     private MediaCodec mMediaCodec;
-    private int mTrackIndex;
-    private int mAudioTrackIndex;
+    /**
+     * name the video decoder was created by, null if the platform picked it
+     */
+    private String mMediaCodecName;
+    private DecodeEngine mDecodeEngine;
+    private FrameScheduler mScheduler;
+    private volatile DecoderSelector mDecoderSelector;
+    /**
+     * the selector, surface and frame rate the video decoder was picked with
+     */
+    private DecoderSelector mPreparedSelector;
+    private Surface mDecoderSurface;
+    private int mDecoderFrameRate;
+    /**
+     * frames rendered and missed up to the window checked by checkDecoderDeadlines()
+     */
+    private int mDeadlineFrames;
+    private long mDeadlineMissed;
+    private int mDeadlineStrikes;
+    private GlFrameRenderer mRenderer;
+    /**
+     * the frame released into the renderer and not latched yet, -1 if there is none, with
+     * the time to draw it at, 0 to only cache it. Frame ticks wait for it.
+     */
+    private long mRendererPendingUs = -1;
+    private long mRendererPendingNs;
+    private long mRendererPendingSinceMs;
+    private FrameCache mFrameCache;
+    private long mFrameCacheBudget;
+    /**
+     * frame number on screen, -1 before the first one
+     */
+    private int mCurrentFrame = -1;
+    /**
+     * timestamp of the last frame taken from the decoder, -1 right after a seek
+     */
+    private long mDecodePositionUs = -1;
+    private volatile SampleIndex mSampleIndex;
+    private DataSource mIndexedSource;
+    private long mIndexedSourceVersion;
+    /**
+     * video decoded before this timestamp after a seek is not rendered, -1 when not seeking
+     */
+    private long mSeekTargetUs = -1;
+    /**
+     * a cached frame was shown while paused, video and audio are still where they were
+     */
+    private boolean mSeekOnResume;
+    private final FrameNavigator.Output mNavigatorOutput = new FrameNavigator.Output() {
+        @Override
+        public void showCached(int texture, long timeUs) {
+            mSeekTargetUs = -1;
+            // a decoded frame still on its way to the renderer is only cached
+            mRendererPendingNs = 0;
+            mRenderer.drawTexture(texture, mFrameClock.nanoTime());
+            if (mFrameClock.isStarted()) {
+                mFrameClock.rebase(mReverse ? -timeUs : timeUs);
+            }
+            onFramePresented(timeUs);
+        }
+
+        @Override
+        public void seek(long timeUs) {
+            doSeek(timeUs);
+        }
+
+        @Override
+        public void decodeTo(long timeUs) {
+            mSeekTargetUs = timeUs;
+            mSeekOnResume = false;
+            seekOffset = timeUs;
+            seekOffsetFlag = true;
+            postFrameTick();
+        }
+
+        @Override
+        public void seekOnResume() {
+            mSeekOnResume = true;
+        }
+    };
     private Thread mThread;
     private LocalHandler mLocalHandler;
+    private PlaybackScheduler mPlaybackScheduler;
+    private PlaybackScheduler.Lane mLane;
+    private volatile boolean mAudioEnabled = true;
+    private boolean mPreparedWithAudio;
 
     public void setPlayListener(PlayListener playListener) {
         this.playListener = playListener;
@@ -85,287 +270,1938 @@ public class FramePlayer implements Runnable {
         if (frameRate < 1 || frameRate > 100) {
             throw new IllegalArgumentException("frame rate must between 1 to 100");
         }
-        this.mFrameInterval = 1000 / frameRate;
+        this.mFrameRate = frameRate;
     }
 
-    private int mFrameInterval;
+    /**
+     * requested frame rate, 0 means the native rate of the video
+     */
+    private int mFrameRate;
     private int videoFrameRate;
+    private long mLastPresentationTimeUs;
+
+    private final PlayerMetrics mMetrics = new PlayerMetrics();
+    private final CommandQueue mCommands = new CommandQueue();
+    private volatile PlayerMetrics.MetricsListener mMetricsListener;
+    private volatile long mMetricsIntervalMs;
+
+    private final FrameClock mFrameClock = new FrameClock();
+    private final AvSyncController mAvSync = new AvSyncController(mFrameClock);
+    private AudioSinkClock mAudioClock;
 
 
     public FramePlayer(Surface outputSurface) {
         mOutputSurface = outputSurface;
     }
 
-    private int frame;
-    private Timer timer;
-    private TimerTask timerTask;
+    private long duration;
+    private volatile boolean seekOffsetFlag = false;
+    private volatile long seekOffset = 0;
+    private Thread mAudioThread;
+    /**
+     * orders playing and pausing the AudioTrack between the player and the audio thread
+     */
+    private final Object mAudioOutputLock = new Object();
+    private DataSource mPreparedSource;
+    private long mPreparedSourceVersion;
+    private boolean mPreparedWithMp4Demuxer;
+    private boolean mCodecsReused;
+    /**
+     * {@link System#nanoTime()} of the last {@link #start()}, 0 once its first frame is shown
+     */
+    private volatile long mStartTimeNs;
+    private volatile long mTimeToFirstFrameNs = -1;
+    /**
+     * {@link System#nanoTime()} of the last {@link #resume()}, 0 once the next frame is shown
+     */
+    private volatile long mResumeTimeNs;
+    /**
+     * {@link System#nanoTime()} of the last {@link #prepareAsync()}, 0 once it is prepared
+     */
+    private volatile long mPrepareTimeNs;
+    private volatile PrepareListener mPrepareListener;
+    /**
+     * prepared by {@link #prepareAsync()}, waiting for the first decoded frame
+     */
+    private boolean mPrerendering;
+    /**
+     * the decoders wait at the start of the source, with its first frame on screen if
+     * {@link #mPrerenderedUs} is set, so start() need not rewind them
+     */
+    private boolean mPreparedAhead;
+    /**
+     * timestamp of the first frame shown ahead of {@link #start()}, -1 if none is
+     */
+    private long mPrerenderedUs = -1;
+    /**
+     * playing backwards, changed on the player thread only
+     */
+    private volatile boolean mReverse;
+    /**
+     * first and last frame of the chunk decoded into the frame cache for reverse playback, -1
+     * while the decoder is idle
+     */
+    private int mReverseChunkStart = -1;
+    private int mReverseChunkEnd = -1;
+    /**
+     * the frames from this one up to the one on screen are in the frame cache
+     */
+    private int mReverseCachedFrom = Integer.MAX_VALUE;
+    /**
+     * reverse playback waits for the decoder, the clock is anchored again on the next frame
+     */
+    private boolean mReverseStalled;
+
+    private final PlayerState mState = new PlayerState();
+
+    public void nextFrame() {
+        stepFrames(1);
+    }
+
+    public void previousFrame() {
+        stepFrames(-1);
+    }
+
+    /**
+     * Moves {@code delta} frames away from the frame on screen, in either direction. Frames
+     * recently shown or decoded come from the frame cache when it is enabled, see
+     * {@link #setFrameCacheBudget(long)}. Steps requested faster than they are shown add up
+     * to one step to the last target, see {@link #getCommandQueueDepth()}.
+     */
+    public void stepFrames(int delta) {
+        wakeForCommand(mCommands.step(delta, System.nanoTime()));
+    }
+
+    /**
+     * Shows the frame at {@code positionUs} within the item on screen, for following a slider.
+     * Unlike {@link #seekToTimeUs} it takes the frame from the cache, or decodes on towards it
+     * when it lies ahead in the GOP being decoded, instead of restarting at the keyframe every
+     * time. Positions requested while the last one is still on its way merge into the latest.
+     */
+    public void scrubTo(long positionUs) {
+        wakeForCommand(mCommands.seekToTime(positionUs, false, System.nanoTime()));
+    }
+
+    /**
+     * Plays backwards from the frame on screen, or forwards again. Going backwards, each GOP
+     * is decoded forward into the frame cache while the frames of the GOP after it are shown
+     * in reverse, in chunks of at most half the cache, so {@link #setFrameCacheBudget} must be
+     * set and caps the memory used. Audio is silent while playing backwards.
+     */
+    public void setReverse(final boolean reverse) {
+        if (mLocalHandler == null) {
+            return;
+        }
+        mLocalHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (reverse) {
+                    enterReverse();
+                } else {
+                    exitReverse();
+                }
+            }
+        });
+    }
+
+    public boolean isReverse() {
+        return mReverse;
+    }
+
+    /**
+     * Plays the source again from its start when it ends, without stopping the decoders: the
+     * samples of the next pass follow those of the last on one timeline, so there is no gap.
+     */
+    public void setLooping(boolean looping) {
+        mLooping = looping;
+        Timeline timeline = mTimeline;
+        if (timeline != null) {
+            timeline.setLooping(looping);
+        }
+    }
+
+    public boolean isLooping() {
+        return mLooping;
+    }
+
+    /**
+     * Plays only the frames and audio from {@code startUs} up to {@code endUs} of the source,
+     * in its presentation times; with {@link #setLooping looping} this is an A-B loop. Decoding
+     * starts at the sync sample before the in point with the frames before it left out, and at
+     * the out point the decoder has already gone through that GOP again, so the loop point
+     * shows no stall. Audio is cut to the sample at both points. Pass 0 and
+     * {@link Long#MAX_VALUE} for the whole source. Takes effect on the next {@link #start()}
+     * or {@link #prepareAsync()}, for the first playlist item only.
+     */
+    public void setPlaybackRange(long startUs, long endUs) {
+        if (startUs < 0 || endUs <= startUs) {
+            throw new IllegalArgumentException("invalid range " + startUs + " - " + endUs);
+        }
+        mRangeStartUs = startUs;
+        mRangeEndUs = endUs;
+    }
+
+    /**
+     * Plays {@code files} one after the other from the next {@link #start()}, instead of the
+     * {@link #setSourceFile source file}. While an item plays, the next one is opened and
+     * indexed in the background. When its codecs and formats match, it is read on after the
+     * current item by the same decoders without a gap; otherwise the decoders are set up
+     * again once the current item has ended. {@link PlayListener#onCompleted()} is called
+     * after the last item.
+     */
+    public void setPlaylist(List<File> files) {
+        List<DataSource> sources = new ArrayList<>(files.size());
+        for (File file : files) {
+            sources.add(DataSource.fromFile(file));
+        }
+        mPlaylist = Collections.unmodifiableList(sources);
+    }
+
+    /**
+     * Like {@link #setPlaylist(List)}, for sources other than files.
+     */
+    public void setPlaylistSources(List<DataSource> sources) {
+        mPlaylist = Collections.unmodifiableList(new ArrayList<>(sources));
+    }
+
+    /**
+     * @return position in the playlist of the item on screen
+     */
+    public int getPlaylistIndex() {
+        return mPlaylistIndex;
+    }
+
+    /**
+     * Reads MP4 files with {@link Mp4Demuxer} instead of {@link MediaExtractor}: the file is
+     * mapped and parsed once for both tracks. Files it does not support still go through
+     * MediaExtractor. Takes effect on the next {@link #start()}.
+     */
+    public void setMp4DemuxerEnabled(boolean enabled) {
+        mMp4DemuxerEnabled = enabled;
+    }
+
+    /**
+     * Stores the track formats and sample index of every opened file in {@code cache}, so
+     * reopening an unchanged file skips the container scan. One cache can be shared by
+     * players, extractors and thumbnail generators. Pass null to probe every time.
+     */
+    public void setProbeCache(MediaProbeCache cache) {
+        mProbeCache = cache;
+    }
+
+    /**
+     * Keeps the decoder rankings of {@link DecoderSelector} in {@code file}, so the decoders
+     * that failed or fell behind on this device are not tried first again after a restart.
+     * Pass null to keep them for the running process only, the default. Takes effect on the
+     * next {@link #start()}.
+     */
+    public void setDecoderProfileFile(File file) {
+        mDecoderSelector = file == null ? null : new DecoderSelector(
+                new DecoderSelector.PlatformCodecList(), Build.FINGERPRINT, file);
+    }
+
+    /**
+     * Plays without audio when disabled, e.g. for muted previews, which then need no audio
+     * decoder or threads at all. Takes effect on the next {@link #start()}.
+     */
+    public void setAudioEnabled(boolean enabled) {
+        mAudioEnabled = enabled;
+    }
+
+    /**
+     * Runs the player on the threads of {@code scheduler} instead of threads of its own.
+     * Must be called before {@link #execute()}.
+     */
+    public void setPlaybackScheduler(PlaybackScheduler scheduler) {
+        if (mLocalHandler != null) {
+            throw new IllegalStateException("player already executing");
+        }
+        mPlaybackScheduler = scheduler;
+    }
+
+    /**
+     * Sets the memory decoded frames may take to be shown again without decoding, 0 (the
+     * default) disables the cache. Needs API 18, as frames then go through GLES, and takes
+     * effect on the next {@link #start()}.
+     */
+    public void setFrameCacheBudget(long bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("budget must not be negative");
+        }
+        mFrameCacheBudget = bytes;
+    }
+
+    public long getFrameCacheHitCount() {
+        FrameCache cache = mFrameCache;
+        return cache == null ? 0 : cache.getHitCount();
+    }
+
+    public long getFrameCacheMissCount() {
+        FrameCache cache = mFrameCache;
+        return cache == null ? 0 : cache.getMissCount();
+    }
+
+    /**
+     * Sets how much media, in presentation time, the demux thread keeps queued ahead of
+     * each decoder.
+     */
+    public void setReadAheadUs(long readAheadUs) {
+        mReadAheadUs = readAheadUs;
+        DemuxThread.Track video = mVideoPackets;
+        DemuxThread.Track audio = mAudioPackets;
+        if (video != null) {
+            video.setReadAheadUs(readAheadUs);
+        }
+        if (audio != null) {
+            audio.setReadAheadUs(readAheadUs);
+        }
+    }
+
+    /**
+     * @return compressed video samples queued ahead of the decoder
+     */
+    public int getVideoPacketQueueDepth() {
+        DemuxThread.Track packets = mVideoPackets;
+        return packets == null ? 0 : packets.getQueuedPackets();
+    }
+
+    /**
+     * @return compressed audio samples queued ahead of the decoder
+     */
+    public int getAudioPacketQueueDepth() {
+        DemuxThread.Track packets = mAudioPackets;
+        return packets == null ? 0 : packets.getQueuedPackets();
+    }
+
+    /**
+     * @return total time the decoders waited for the demux thread since the last start
+     */
+    public long getDemuxStallNanos() {
+        DemuxThread.Track video = mVideoPackets;
+        DemuxThread.Track audio = mAudioPackets;
+        return (video == null ? 0 : video.getStallNanos()) + (audio == null ? 0 : audio.getStallNanos());
+    }
+
+    /**
+     * Seeks to the frame with the given number in presentation order. Decoding restarts at
+     * the preceding keyframe and runs forward without rendering up to the exact frame, which
+     * is then shown even while paused.
+     */
+    public void seekToFrame(int frame) {
+        wakeForCommand(mCommands.seekToFrame(frame, true, System.nanoTime()));
+    }
+
+    /**
+     * Seeks to the last frame presented at or before {@code timeUs}, see {@link #seekToFrame}.
+     */
+    public void seekToTimeUs(long timeUs) {
+        wakeForCommand(mCommands.seekToTime(timeUs, true, System.nanoTime()));
+    }
+
+    /**
+     * @return steps and seeks waiting for the player thread. They are merged into a single
+     * target as they come in, the merged ones are counted in
+     * {@link PlayerMetrics#COMMANDS_COALESCED}.
+     */
+    public int getCommandQueueDepth() {
+        return mCommands.getDepth();
+    }
+
+    private void wakeForCommand(boolean wake) {
+        Handler handler = mLocalHandler;
+        if (wake && handler != null) {
+            handler.sendEmptyMessage(MSG_COMMAND);
+        }
+    }
+
+    /**
+     * Returns the number of video frames of the current source, 0 before it was opened.
+     */
+    public int getFrameCount() {
+        SampleIndex index = mSampleIndex;
+        return index == null ? 0 : index.getFrameCount();
+    }
+
+    /**
+     * Returns the pipeline metrics, recorded across starts until reset.
+     */
+    public PlayerMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * Delivers a snapshot of the {@link #getMetrics() metrics} to {@code listener} on the
+     * player thread every {@code intervalMs}, or stops doing so for a null listener.
+     */
+    public void setMetricsListener(PlayerMetrics.MetricsListener listener, long intervalMs) {
+        if (listener != null && intervalMs <= 0) {
+            throw new IllegalArgumentException("interval must be positive");
+        }
+        mMetricsListener = listener;
+        mMetricsIntervalMs = intervalMs;
+        LocalHandler handler = mLocalHandler;
+        if (handler != null) {
+            handler.removeMessages(MSG_METRICS);
+            if (listener != null && mState.get() != PlayerState.PAUSED) {
+                handler.sendEmptyMessageDelayed(MSG_METRICS, intervalMs);
+            }
+        }
+    }
+
+    /**
+     * Returns the clock pacing the video frames, for jitter and drift statistics.
+     */
+    public FrameClock getFrameClock() {
+        return mFrameClock;
+    }
+
+    /**
+     * Returns the A/V sync controller, for offset and dropped frame statistics.
+     */
+    public AvSyncController getAvSync() {
+        return mAvSync;
+    }
+
+    /**
+     * Sets how late a video frame may be before it is dropped instead of rendered.
+     */
+    public void setLateFrameThreshold(long thresholdUs) {
+        mAvSync.setLateThresholdUs(thresholdUs);
+    }
+
+    /**
+     * Returns how often the AudioTrack writer ran out of decoded PCM.
+     */
+    public long getAudioUnderrunCount() {
+        PcmRingBuffer buffer = mPcmBuffer;
+        return buffer == null ? 0 : buffer.getUnderrunCount();
+    }
+
+    /**
+     * Returns how often the audio decoder had to wait for the AudioTrack to catch up.
+     */
+    public long getAudioOverrunCount() {
+        PcmRingBuffer buffer = mPcmBuffer;
+        return buffer == null ? 0 : buffer.getOverrunCount();
+    }
+
+    /**
+     * Returns the fill level of the PCM buffer between 0 and 1.
+     */
+    public float getAudioBufferFill() {
+        PcmRingBuffer buffer = mPcmBuffer;
+        return buffer == null ? 0 : buffer.getFillLevel() * 1f / buffer.getCapacity();
+    }
+
+
+    @Override
+    public void run() {
+        // Establish a Looper for this thread, and define a Handler for it.
+        Looper.prepare();
+        mLocalHandler = new LocalHandler();
+        if (mMetricsListener != null) {
+            mLocalHandler.sendEmptyMessageDelayed(MSG_METRICS, mMetricsIntervalMs);
+        }
+        wakeForCommand(mCommands.getDepth() > 0);
+        Looper.loop();
+    }
+
+    private class LocalHandler extends Handler {
+        LocalHandler() {
+        }
+
+        LocalHandler(Looper looper) {
+            super(looper);
+        }
+
+        /**
+         * Charges the CPU time of each message to this player, and counts frame ticks that
+         * had to wait past their deadline.
+         */
+        @Override
+        public void dispatchMessage(Message msg) {
+            if (msg.what == MSG_FRAME_TICK && msg.getCallback() == null
+                    && SystemClock.uptimeMillis() - msg.getWhen() > MISSED_DEADLINE_MS) {
+                mMetrics.increment(PlayerMetrics.MISSED_DEADLINES);
+            }
+            long cpuStartNs = Debug.threadCpuTimeNanos();
+            super.dispatchMessage(msg);
+            mMetrics.add(PlayerMetrics.PLAYER_CPU_TIME, Debug.threadCpuTimeNanos() - cpuStartNs);
+        }
+
+        @Override
+        public void handleMessage(Message msg) {
+            int what = msg.what;
+            switch (what) {
+                case MSG_PLAY_START:
+                    try {
+                        play();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                    break;
+                case MSG_PREPARE:
+                    prepareAhead();
+                    break;
+                case MSG_COMMAND:
+                    runCommand(mCommands.poll());
+                    break;
+                case MSG_FRAME_TICK:
+                    if (mRendererPendingUs >= 0) {
+                        // ticks again once the renderer has the frame
+                        break;
+                    }
+                    if (mSeekTargetUs >= 0) {
+                        presentSeekTarget();
+                    } else if (isRunning()) {
+                        if (mReverse) {
+                            presentReverseFrame();
+                        } else {
+                            presentDueFrame();
+                        }
+                    } else if (mPrerendering) {
+                        presentFirstFrame();
+                    }
+                    break;
+                case MSG_RENDERER_FRAME:
+                    presentRendererFrame();
+                    break;
+                case MSG_DECODE_ERROR:
+                    // errors of a decoder already swapped out are stale
+                    if (msg.obj == mDecodeEngine && mDecodeEngine != null) {
+                        fallBackDecoder("failed");
+                    }
+                    break;
+                case MSG_METRICS:
+                    PlayerMetrics.MetricsListener listener = mMetricsListener;
+                    if (listener != null) {
+                        listener.onMetrics(mMetrics.snapshot());
+                        sendEmptyMessageDelayed(MSG_METRICS, mMetricsIntervalMs);
+                    }
+                    break;
+                default:
+                    throw new RuntimeException("Unknown msg " + what);
+            }
+        }
+    }
+
+
+    /**
+     * Creates a new thread, or joins the threads of the {@link #setPlaybackScheduler
+     * scheduler}, and starts execution of the player.
+     */
+    public void execute() {
+        PlaybackScheduler scheduler = mPlaybackScheduler;
+        if (scheduler == null) {
+            mThread = new Thread(this, "Movie Player");
+            mThread.start();
+            return;
+        }
+        mLane = scheduler.attach();
+        mLocalHandler = new LocalHandler(mLane.getLooper());
+        if (mMetricsListener != null) {
+            mLocalHandler.sendEmptyMessageDelayed(MSG_METRICS, mMetricsIntervalMs);
+        }
+        wakeForCommand(mCommands.getDepth() > 0);
+    }
+
+
+    /**
+     * Opens the source, configures the codecs and shows the first frame in the background,
+     * then calls {@link PrepareListener#onPrepared()}. The next {@link #start()} only starts
+     * the clocks. The time this takes goes into {@link PlayerMetrics#PREPARE_LATENCY}.
+     */
+    public void prepareAsync() {
+        stop();
+        mStartTimeNs = 0;
+        mPrepareTimeNs = System.nanoTime();
+        mLocalHandler.sendEmptyMessage(MSG_PREPARE);
+    }
+
+    /**
+     * @param listener called on the player thread
+     */
+    public void setPrepareListener(PrepareListener listener) {
+        mPrepareListener = listener;
+    }
+
+    public void start() {
+        stop();
+        mStartTimeNs = System.nanoTime();
+        mLocalHandler.sendEmptyMessage(MSG_PLAY_START);
+    }
+
+    /**
+     * Stops playback, keeping the codecs for the next {@link #start()}.
+     */
+    public void stop() {
+        if (mLocalHandler != null) {
+            mLocalHandler.removeMessages(MSG_FRAME_TICK);
+            mLocalHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    stopPlayback();
+                }
+            });
+        }
+    }
+
+
+    /**
+     * Stops playback and releases the codecs, the AudioTrack and the player thread. Codecs are
+     * otherwise kept across {@link #start()} calls for the same source.
+     */
+    public void release() {
+        stop();
+        if (mLocalHandler != null) {
+            mLocalHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    joinAudioThread();
+                    destroyExtractor();
+                    relaxResources(true);
+                    mState.moveTo(PlayerState.RELEASED);
+                    if (mLane != null) {
+                        // the thread goes on with the other players
+                        mLocalHandler.removeCallbacksAndMessages(null);
+                        mPlaybackScheduler.detach(mLane);
+                        mLane = null;
+                    } else {
+                        Looper.myLooper().quit();
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * @return time from the last {@link #start()} to its first frame on screen, -1 before
+     * that frame
+     */
+    public long getTimeToFirstFrameNanos() {
+        return mTimeToFirstFrameNs;
+    }
+
+    public boolean isRunning() {
+        int state = mState.get();
+        return state == PlayerState.PLAYING || state == PlayerState.SEEKING;
+    }
+
+    /**
+     * @return one of the {@link PlayerState} constants. Calls take effect on the player
+     * thread in the order they were made, so the state follows them shortly after.
+     */
+    public int getState() {
+        return mState.get();
+    }
+
+    /**
+     * Stops the clocks and parks the decoding and audio threads, with no timers left running
+     * until {@link #resume()}.
+     */
+    public void pause() {
+        if (mLocalHandler == null) {
+            return;
+        }
+        mLocalHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mState.compareAndMove(PlayerState.PLAYING, PlayerState.PAUSED)
+                        || mState.compareAndMove(PlayerState.SEEKING, PlayerState.PAUSED)) {
+                    suspendPlayback();
+                }
+            }
+        });
+    }
+
+    /**
+     * Plays on from the frame on screen. The time until the next frame is shown goes into
+     * {@link PlayerMetrics#RESUME_LATENCY}.
+     */
+    public void resume() {
+        if (mLocalHandler == null) {
+            return;
+        }
+        mResumeTimeNs = System.nanoTime();
+        mLocalHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                resumePlayback();
+            }
+        });
+    }
+
+    private void suspendPlayback() {
+        mLocalHandler.removeMessages(MSG_FRAME_TICK);
+        mLocalHandler.removeMessages(MSG_METRICS);
+        if (mSeekTargetUs >= 0) {
+            // the seek target is still shown while paused
+            postFrameTick();
+        }
+        mFrameClock.pause();
+        if (mScheduler != null) {
+            mScheduler.resetTiming();
+        }
+        if (mAudioSink != null) {
+            mPcmBuffer.setPaused(true);
+            synchronized (mAudioOutputLock) {
+                mAudioSink.pause();
+            }
+        }
+    }
+
+    private void resumePlayback() {
+        int state = mSeekTargetUs >= 0 ? PlayerState.SEEKING : PlayerState.PLAYING;
+        if (!mState.compareAndMove(PlayerState.PAUSED, state)) {
+            mResumeTimeNs = 0;
+            return;
+        }
+        if (mAudioSink != null) {
+            synchronized (mAudioOutputLock) {
+                mAudioSink.play();
+            }
+            mPcmBuffer.setPaused(false);
+        }
+        SampleIndex index = mSampleIndex;
+        if (mSeekOnResume && !mReverse && index != null && mCurrentFrame >= 0) {
+            doSeek(mSegmentOffsetUs + index.getPresentationTimeUs(mCurrentFrame));
+        }
+        if (mFrameClock.isStarted()) {
+            mFrameClock.resume();
+            postFrameTick();
+        }
+        if (mMetricsListener != null) {
+            mLocalHandler.sendEmptyMessageDelayed(MSG_METRICS, mMetricsIntervalMs);
+        }
+    }
+
+    /**
+     * Ends the run on the player thread. The audio thread is woken wherever it waits and
+     * joined before its writer is stopped, so only one thread at a time touches the audio
+     * output.
+     */
+    private void stopPlayback() {
+        mLocalHandler.removeMessages(MSG_FRAME_TICK);
+        mResumeTimeNs = 0;
+        boolean paused = mState.get() == PlayerState.PAUSED;
+        mState.moveTo(PlayerState.PREPARED);
+        if (mPcmBuffer != null) {
+            mPcmBuffer.setPaused(false);
+            mPcmBuffer.close();
+        }
+        joinAudioThread();
+        if (mAudioWriter != null) {
+            mAudioWriter.stop();
+            mAudioWriter = null;
+        }
+        if (paused && mMetricsListener != null) {
+            mLocalHandler.removeMessages(MSG_METRICS);
+            mLocalHandler.sendEmptyMessageDelayed(MSG_METRICS, mMetricsIntervalMs);
+        }
+    }
+
+    /**
+     * Lets the {@link FrameScheduler} render or drop the oldest decoded frame and posts a tick
+     * for the next deadline. When nothing is decoded yet the engine listener posts the tick.
+     */
+    private void presentDueFrame() {
+        if (mScheduler == null) {
+            return;
+        }
+        mLocalHandler.removeMessages(MSG_FRAME_TICK);
+        long waitNs = mScheduler.tick();
+        if (checkDecoderDeadlines()) {
+            return;
+        }
+        if (waitNs > 0) {
+            mLocalHandler.sendEmptyMessageDelayed(MSG_FRAME_TICK, (waitNs + 500000L) / 1000000L);
+        } else if (waitNs == 0) {
+            postFrameTick();
+        }
+    }
+
+    private void enterReverse() {
+        if (mReverse || mDecodeEngine == null || mCurrentFrame < 0) {
+            return;
+        }
+        if (mRenderer == null || mFrameCache.getBudgetBytes() < 2 * mRenderer.getCaptureSizeBytes()) {
+            Log.w(TAG, "reverse playback needs room for two frames in the frame cache, see setFrameCacheBudget()");
+            return;
+        }
+        // playing on from the end shows the frames before it
+        if (mState.compareAndMove(PlayerState.ENDED, PlayerState.PAUSED)) {
+            mState.compareAndMove(PlayerState.PAUSED, PlayerState.PLAYING);
+        }
+        mReverse = true;
+        resetReverseChunks();
+        if (mAudioSink != null) {
+            mPcmBuffer.setPaused(true);
+            synchronized (mAudioOutputLock) {
+                mAudioSink.pause();
+            }
+        }
+        mAvSync.setMasterClock(null);
+        mScheduler.resetTiming();
+        if (mSeekTargetUs < 0) {
+            postFrameTick();
+        }
+    }
+
+    /**
+     * Decodes forward again from the frame on screen, with the audio thread seeking along.
+     */
+    private void exitReverse() {
+        if (!mReverse) {
+            return;
+        }
+        mReverse = false;
+        resetReverseChunks();
+        mAvSync.setMasterClock(mAudioClock);
+        if (mAudioSink != null) {
+            mPcmBuffer.setPaused(mState.get() == PlayerState.PAUSED);
+        }
+        SampleIndex index = mSampleIndex;
+        if (index != null && mCurrentFrame >= 0) {
+            doSeek(mSegmentOffsetUs + index.getPresentationTimeUs(mCurrentFrame));
+        }
+    }
+
+    private void resetReverseChunks() {
+        mReverseChunkStart = -1;
+        mReverseChunkEnd = -1;
+        mReverseCachedFrom = Integer.MAX_VALUE;
+        mReverseStalled = true;
+    }
+
+    /**
+     * Shows the frame before the one on screen from the frame cache once it is due, leaving
+     * out frames to keep pace when the one before is due already. A frame not decoded yet
+     * holds playback until it is, and the clock is anchored on it then.
+     */
+    private void presentReverseFrame() {
+        mLocalHandler.removeMessages(MSG_FRAME_TICK);
+        SampleIndex index = mSampleIndex;
+        long startUs = mSegmentOffsetUs;
+        cacheReverseChunk();
+        int frame = mCurrentFrame;
+        if (frame <= getFirstFrame(index)) {
+            mState.moveTo(PlayerState.ENDED);
+            if (playListener != null) {
+                playListener.onCompleted();
+            }
+            return;
+        }
+        int next = frame - 1;
+        while (!mReverseStalled && next > mReverseCachedFrom
+                && mFrameClock.delayNanos(-(startUs + index.getPresentationTimeUs(next - 1))) <= 0) {
+            mMetrics.increment(PlayerMetrics.FRAMES_DROPPED);
+            mAvSync.onFrameDropped();
+            next--;
+        }
+        long ptsUs = startUs + index.getPresentationTimeUs(next);
+        long delayNs = mReverseStalled ? 0 : mFrameClock.delayNanos(-ptsUs);
+        if (delayNs > RENDER_TOLERANCE_NS) {
+            mLocalHandler.sendEmptyMessageDelayed(MSG_FRAME_TICK, (delayNs + 500000L) / 1000000L);
+            return;
+        }
+        int texture = next >= mReverseCachedFrom ? mFrameCache.get(ptsUs) : -1;
+        if (texture < 0) {
+            mReverseStalled = true;
+            if (mReverseChunkStart < 0) {
+                // evicted, decoded again
+                mReverseCachedFrom = Integer.MAX_VALUE;
+                decodeReverseChunk(next);
+            }
+            // the engine listener ticks as frames come in
+            return;
+        }
+        if (mReverseStalled) {
+            mReverseStalled = false;
+            mFrameClock.rebase(-ptsUs);
+            delayNs = 0;
+        }
+        mRenderer.drawTexture(texture, mFrameClock.nanoTime() + Math.max(0, delayNs));
+        // shown backwards, the frames after this one are not needed again
+        for (int shown = next + 1; shown <= frame; shown++) {
+            mFrameCache.remove(startUs + index.getPresentationTimeUs(shown));
+        }
+        onFramePresented(ptsUs);
+        cacheReverseChunk();
+        postFrameTick();
+    }
+
+    /**
+     * Copies the frames of the reverse chunk decoded so far into the frame cache, throwing
+     * away those decoded on the way from the keyframe, and starts on the chunk before once
+     * no more than a chunk is left to show. Frames past the chunk stay queued, which stalls
+     * the decoder until the next chunk is sought to.
+     */
+    private void cacheReverseChunk() {
+        SampleIndex index = mSampleIndex;
+        long startUs = mSegmentOffsetUs;
+        FrameDecoder.DecodedFrame frame;
+        while (mReverseChunkStart >= 0 && mRendererPendingUs < 0
+                && (frame = mDecodeEngine.peekFrame()) != null) {
+            int decoded = frame.isEndOfStream()
+                    ? mReverseChunkEnd : index.frameAt(frame.presentationTimeUs - startUs);
+            if (frame.isEndOfStream()) {
+                mDecodeEngine.releaseFrame(frame, false);
+            } else if (decoded < mReverseChunkStart) {
+                mDecodePositionUs = frame.presentationTimeUs;
+                mDecodeEngine.releaseFrame(frame, false);
+            } else {
+                skipFrame(frame);
+            }
+            if (decoded >= mReverseChunkEnd) {
+                mReverseCachedFrom = mReverseChunkStart;
+                mReverseChunkStart = -1;
+                mReverseChunkEnd = -1;
+            }
+        }
+        int end = Math.min(mReverseCachedFrom, mCurrentFrame) - 1;
+        if (mReverseChunkStart < 0 && end >= getFirstFrame(index)
+                && mCurrentFrame - end - 1 <= getReverseChunkFrames()) {
+            decodeReverseChunk(end);
+        }
+    }
+
+    private void decodeReverseChunk(int endFrame) {
+        SampleIndex index = mSampleIndex;
+        mReverseChunkStart = index.reverseChunkStart(endFrame, getReverseChunkFrames());
+        mReverseChunkEnd = endFrame;
+        // the track goes back to the sync sample, within the segment of the chunk
+        mDecodeEngine.seekTo(mSegmentOffsetUs + index.getPresentationTimeUs(mReverseChunkStart));
+        mDecodePositionUs = -1;
+    }
+
+    /**
+     * @return frames decoded at a time for reverse playback, half the cache so the next chunk
+     * fits next to the one on screen
+     */
+    private int getReverseChunkFrames() {
+        long frames = mFrameCache.getBudgetBytes() / Math.max(1, mRenderer.getCaptureSizeBytes());
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, frames / 2));
+    }
+
+    /**
+     * @return the first frame of the segment on screen, the one at or after the in point of
+     * a {@link #setPlaybackRange playback range}
+     */
+    private int getFirstFrame(SampleIndex index) {
+        Timeline.Segment segment = mSegment;
+        if (segment == null || segment.rangeStartUs == 0) {
+            return 0;
+        }
+        int frame = index.frameAt(segment.rangeStartUs);
+        if (index.getPresentationTimeUs(frame) < segment.rangeStartUs) {
+            frame++;
+        }
+        return Math.min(frame, index.getFrameCount() - 1);
+    }
+
+    /**
+     * @return the last frame of the segment on screen, the one before the out point of a
+     * playback range
+     */
+    private int getLastFrame(SampleIndex index) {
+        Timeline.Segment segment = mSegment;
+        int last = index.getFrameCount() - 1;
+        return segment == null ? last : Math.min(last, index.frameAt(segment.rangeEndUs - 1));
+    }
+
+    /**
+     * Asks for a tick right away in place of any still queued. A tick handles whatever is
+     * due when it runs, so a backlog of ticks collapses into one.
+     */
+    private void postFrameTick() {
+        mLocalHandler.removeMessages(MSG_FRAME_TICK);
+        mLocalHandler.sendEmptyMessage(MSG_FRAME_TICK);
+    }
+
+    /**
+     * Decodes on from the first sync sample after {@code positionUs} when the decoder has
+     * fallen that far behind, see {@link FrameScheduler}. Audio plays on untouched.
+     *
+     * @return number of frames jumped over
+     */
+    private int skipToSyncSample(long positionUs) {
+        SampleIndex index = mSampleIndex;
+        if (mDecodeEngine == null || index == null || mSeekTargetUs >= 0) {
+            return 0;
+        }
+        long startUs = mSegmentOffsetUs;
+        long syncUs = index.syncTimeAfter(positionUs - startUs);
+        Timeline.Segment segment = mSegment;
+        if (syncUs < 0 || startUs + syncUs <= mDecodePositionUs
+                || segment != null && syncUs >= segment.rangeEndUs) {
+            // nothing to skip to before the end of the segment
+            return 0;
+        }
+        int from = mDecodePositionUs >= 0 ? index.frameAt(mDecodePositionUs - startUs) : mCurrentFrame;
+        int skipped = index.frameAt(syncUs) - from - 1;
+        if (skipped <= 0) {
+            return 0;
+        }
+        Log.i(TAG, "decoder behind the clock at " + positionUs / 1000 + " ms, skipping " + skipped
+                + " frames to the sync sample at " + (startUs + syncUs) / 1000 + " ms");
+        mDecodeEngine.seekTo(startUs + syncUs);
+        mDecodePositionUs = -1;
+        return skipped;
+    }
+
+    /**
+     * Runs the steps and seeks merged into {@code command}: the seek picks the frame, or the
+     * one on screen or the target of a seek in progress when there is none, and the steps
+     * move on from there.
+     */
+    private void runCommand(CommandQueue.Command command) {
+        if (command == null) {
+            return;
+        }
+        mMetrics.add(PlayerMetrics.COMMANDS_COALESCED, command.requests - 1);
+        mMetrics.record(PlayerMetrics.COMMAND_LATENCY, System.nanoTime() - command.queuedNanos);
+        SampleIndex index = mSampleIndex;
+        if (mDecodeEngine == null || index == null || index.getFrameCount() == 0) {
+            return;
+        }
+        long startUs = mSegmentOffsetUs;
+        int frame;
+        if (command.seek == CommandQueue.SEEK_FRAME) {
+            frame = command.frame;
+        } else if (command.seek == CommandQueue.SEEK_TIME) {
+            frame = index.frameAt(command.timeUs);
+        } else {
+            frame = mSeekTargetUs >= 0 ? index.frameAt(mSeekTargetUs - startUs) : mCurrentFrame;
+        }
+        frame = Math.max(getFirstFrame(index), Math.min(frame + command.delta, getLastFrame(index)));
+        if (command.exact) {
+            doSeek(startUs + index.getPresentationTimeUs(frame));
+        } else {
+            showFrame(frame);
+        }
+    }
+
+    /**
+     * Shows {@code target}, coming from the frame on screen or from the target of a seek
+     * still in progress, the way {@link FrameNavigator} picks.
+     */
+    private void showFrame(int target) {
+        mPreparedAhead = false;
+        int texture = mRenderer != null ? mFrameCache.get(mSegmentOffsetUs
+                + mSampleIndex.getPresentationTimeUs(target)) : -1;
+        FrameNavigator.show(mSampleIndex, mSegmentOffsetUs, target, texture, mDecodePositionUs,
+                mSeekTargetUs, isRunning(), mReverse, mNavigatorOutput);
+    }
+
+    /**
+     * Restarts decoding at the keyframe before {@code timeUs}, on the timeline and within the
+     * item on screen. The frames up to the exact target are dropped by
+     * {@link #presentSeekTarget()}. The audio thread seeks on its own.
+     */
+    private void doSeek(long timeUs) {
+        SampleIndex index = mSampleIndex;
+        if (mDecodeEngine == null || index == null || index.getFrameCount() == 0) {
+            return;
+        }
+        mPreparedAhead = false;
+        if (mReverse) {
+            resetReverseChunks();
+        }
+        long startUs = mSegmentOffsetUs;
+        long targetUs = startUs + index.getPresentationTimeUs(index.frameAt(timeUs - startUs));
+        mLocalHandler.removeMessages(MSG_FRAME_TICK);
+        // the track goes back to the sync sample, within the segment of the target
+        mDecodeEngine.seekTo(targetUs);
+        mDecodePositionUs = -1;
+        mScheduler.resetTiming();
+        resetDeadlineWindow();
+        mSeekTargetUs = targetUs;
+        mSeekOnResume = false;
+        seekOffset = targetUs;
+        seekOffsetFlag = true;
+        if (!mState.compareAndMove(PlayerState.PLAYING, PlayerState.SEEKING)
+                && mState.compareAndMove(PlayerState.ENDED, PlayerState.PAUSED)) {
+            suspendPlayback();
+        }
+    }
+
+    /**
+     * Skips the frames decoded on the way from the keyframe to the seek target and renders
+     * the target itself right away, re-anchoring the clock on it.
+     */
+    private void presentSeekTarget() {
+        FrameDecoder.DecodedFrame frame;
+        while (mDecodeEngine != null && mRendererPendingUs < 0
+                && (frame = mDecodeEngine.peekFrame()) != null) {
+            if (!frame.isEndOfStream() && frame.presentationTimeUs < mSeekTargetUs) {
+                skipFrame(frame);
+                continue;
+            }
+            mSeekTargetUs = -1;
+            mState.compareAndMove(PlayerState.SEEKING, PlayerState.PLAYING);
+            if (frame.isEndOfStream()) {
+                completePlayback(frame);
+                return;
+            }
+            // backwards the clock runs on negated timestamps
+            long clockUs = mReverse ? -frame.presentationTimeUs : frame.presentationTimeUs;
+            if (mFrameClock.isStarted()) {
+                mFrameClock.rebase(clockUs);
+            } else {
+                mFrameClock.start(clockUs);
+            }
+            renderFrame(frame, mFrameClock.nanoTime());
+            postFrameTick();
+            return;
+        }
+    }
+
+    /**
+     * Renders a decoded frame for display at {@code renderTimeNs}. Going through the GL
+     * renderer, the frame is also copied into the frame cache.
+     */
+    private void renderFrame(FrameDecoder.DecodedFrame frame, long renderTimeNs) {
+        long presentationTimeUs = frame.presentationTimeUs;
+        mDecodePositionUs = presentationTimeUs;
+        if (mRenderer != null) {
+            mDecodeEngine.releaseFrame(frame, true);
+            awaitRendererFrame(presentationTimeUs, Math.max(1, renderTimeNs));
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            mDecodeEngine.releaseFrame(frame, renderTimeNs);
+        } else {
+            mDecodeEngine.releaseFrame(frame, true);
+        }
+        onFramePresented(presentationTimeUs);
+    }
+
+    /**
+     * Consumes a decoded frame without showing it, keeping a copy in the frame cache if
+     * there is one.
+     */
+    private void skipFrame(FrameDecoder.DecodedFrame frame) {
+        long presentationTimeUs = frame.presentationTimeUs;
+        mDecodePositionUs = presentationTimeUs;
+        if (mRenderer != null) {
+            mDecodeEngine.releaseFrame(frame, true);
+            awaitRendererFrame(presentationTimeUs, 0);
+        } else {
+            mDecodeEngine.releaseFrame(frame, false);
+        }
+    }
+
+    /**
+     * Notes the frame just released into the renderer, to be cached and drawn at
+     * {@code renderTimeNs}, or only cached if 0, once it arrives. Until then no other frame
+     * is released into it.
+     */
+    private void awaitRendererFrame(long presentationTimeUs, long renderTimeNs) {
+        mRendererPendingUs = presentationTimeUs;
+        mRendererPendingNs = renderTimeNs;
+        mRendererPendingSinceMs = SystemClock.uptimeMillis();
+        mLocalHandler.sendEmptyMessageDelayed(MSG_RENDERER_FRAME, RENDERER_FRAME_TIMEOUT_MS);
+    }
+
+    /**
+     * Caches and draws the frame released into the renderer once it has arrived, or gives up
+     * on it after {@link #RENDERER_FRAME_TIMEOUT_MS}, and lets the frame ticks go on.
+     */
+    private void presentRendererFrame() {
+        if (mRendererPendingUs < 0 || mRenderer == null) {
+            return;
+        }
+        if (mRenderer.latchFrame()) {
+            cacheFrame(mRendererPendingUs);
+            if (mRendererPendingNs != 0) {
+                mRenderer.drawFrame(mRendererPendingNs);
+            }
+        } else if (SystemClock.uptimeMillis() - mRendererPendingSinceMs < RENDERER_FRAME_TIMEOUT_MS) {
+            return;
+        } else {
+            Log.w(TAG, "decoded frame did not arrive");
+        }
+        mRendererPendingUs = -1;
+        mLocalHandler.removeMessages(MSG_RENDERER_FRAME);
+        postFrameTick();
+    }
+
+    private void cacheFrame(long presentationTimeUs) {
+        if (!mFrameCache.contains(presentationTimeUs)) {
+            long size = mRenderer.getCaptureSizeBytes();
+            int texture = mRenderer.captureFrame(mFrameCache.reclaim(size));
+            mFrameCache.put(presentationTimeUs, texture, size);
+        }
+    }
+
+    /**
+     * Ends playback at the end of the stream, or starts the next playlist item that could not
+     * be read on without setting up the decoders again.
+     */
+    private void completePlayback(FrameDecoder.DecodedFrame frame) {
+        mDecodeEngine.releaseFrame(frame, false);
+        List<DataSource> playlist = mPlaylist;
+        int next = mPlaylistIndex + 1;
+        if (isRunning() && next < playlist.size()) {
+            mPlaylistIndex = next;
+            source = playlist.get(next);
+            try {
+                playItem();
+            } catch (IOException e) {
+                Log.e(TAG, e.toString());
+            }
+            return;
+        }
+        mState.moveTo(PlayerState.ENDED);
+        if (playListener != null) {
+            playListener.onCompleted();
+        }
+    }
+
+    private void onFramePresented(long presentationTimeUs) {
+        recordTimeToFirstFrame();
+        Timeline timeline = mTimeline;
+        if (timeline != null) {
+            Timeline.Segment segment = timeline.segmentAt(presentationTimeUs);
+            if (segment != mSegment) {
+                enterSegment(segment);
+            }
+        }
+        SampleIndex index = mSampleIndex;
+        if (index != null) {
+            mCurrentFrame = index.frameAt(presentationTimeUs - mSegmentOffsetUs);
+        }
+        mLastPresentationTimeUs = presentationTimeUs;
+        mMetrics.increment(PlayerMetrics.FRAMES_RENDERED);
+        mDeadlineFrames++;
+        if (isRunning()) {
+            mAvSync.onFrameRendered(mReverse ? -presentationTimeUs : presentationTimeUs);
+        }
+        long resumeTimeNs = mResumeTimeNs;
+        if (resumeTimeNs != 0 && mState.get() == PlayerState.PLAYING) {
+            mResumeTimeNs = 0;
+            mMetrics.record(PlayerMetrics.RESUME_LATENCY, System.nanoTime() - resumeTimeNs);
+        }
+        if (playListener != null) {
+            playListener.onProgress((presentationTimeUs - mSegmentOffsetUs) * 1f / duration);
+        }
+    }
+
+    private void recordTimeToFirstFrame() {
+        long startTimeNs = mStartTimeNs;
+        if (startTimeNs != 0) {
+            mStartTimeNs = 0;
+            mTimeToFirstFrameNs = System.nanoTime() - startTimeNs;
+            mMetrics.record(PlayerMetrics.TIME_TO_FIRST_FRAME, mTimeToFirstFrameNs);
+            Log.i(TAG, "first frame after " + mTimeToFirstFrameNs / 1000000 + " ms, codecs "
+                    + (mPrerenderedUs >= 0 ? "prepared ahead" : mCodecsReused ? "reused" : "created"));
+        }
+    }
+
+    /**
+     * Switches frame numbers, progress and seeks over to the timeline segment now on screen,
+     * and starts opening the playlist item after it when the item changed.
+     */
+    private void enterSegment(Timeline.Segment segment) {
+        mSegment = segment;
+        mSegmentOffsetUs = segment.getOffsetUs();
+        Timeline timeline = mTimeline;
+        if (timeline != null) {
+            // seeks stay within the segment on screen, the passes before it can go
+            timeline.discardBefore(segment.startUs);
+        }
+        SourceItem item = (SourceItem) segment.item;
+        if (item == mItem) {
+            return;
+        }
+        mItem = item;
+        mSampleIndex = item.index;
+        mIndexedSource = item.source;
+        mIndexedSourceVersion = item.sourceVersion;
+        duration = item.durationUs;
+        source = item.source;
+        mPlaylistIndex = item.playlistIndex;
+        // the decoders have moved on, a restart prepares the first item again
+        mPreparedSource = null;
+        preloadNextItem(item);
+    }
+
+
+    /**
+     * Returns the width, in pixels, of the video.
+     */
+    public int getVideoWidth() {
+        return mVideoWidth;
+    }
 
-    private long duration;
-    private boolean seekOffsetFlag = false;
-    private boolean isLoop = false;
-    private boolean hadPlay = false;
-    private int seekOffset = 0;
-    private boolean doStop = false;
-    private AudioPlayTask mAudioPlayTask;
+    /**
+     * Returns the height, in pixels, of the video.
+     */
+    public int getVideoHeight() {
+        return mVideoHeight;
+    }
 
-    private volatile boolean isRunning;
 
-    public void nextFrame() {
-        mLocalHandler.sendMessage(mLocalHandler.obtainMessage(MSG_PLAY_PROGRESS, frame++, 0));
+    private void play() throws IOException {
+        if (!isPreparedAhead()) {
+            selectFirstItem();
+        }
+        playItem();
     }
 
-    private class ProgressTimerTask extends java.util.TimerTask {
-        @Override
-        public void run() {
-            if (isRunning) {
-                mLocalHandler.sendMessage(mLocalHandler.obtainMessage(MSG_PLAY_PROGRESS, frame++, 0));
-            }
+    private void selectFirstItem() {
+        List<DataSource> playlist = mPlaylist;
+        if (!playlist.isEmpty()) {
+            mPlaylistIndex = 0;
+            source = playlist.get(0);
         }
     }
 
+    /**
+     * Plays {@link #source}, with the codecs of the last run if they are still set up
+     * for it, right from the first frame if {@link #prepareAsync()} got the decoders there.
+     */
+    private void playItem() throws IOException {
+        joinAudioThread();
+        mLocalHandler.removeMessages(MSG_FRAME_TICK);
+        if (!isPreparedAhead() && !prepareItem()) {
+            return;
+        }
+        try {
+            startPlayback();
+        } catch (Exception e) {
+            Log.e(TAG, e.toString());
+            destroyExtractor();
+            relaxResources(true);
+            mState.moveTo(PlayerState.IDLE);
+        }
+    }
 
-    @Override
-    public void run() {
-        // Establish a Looper for this thread, and define a Handler for it.
-        Looper.prepare();
-        mLocalHandler = new LocalHandler();
-        Looper.loop();
+    /**
+     * Whether {@link #prepareAsync()} left the decoders at the start of the source and
+     * nothing has changed since.
+     */
+    private boolean isPreparedAhead() {
+        return (mPreparedAhead || mPrerendering) && canRestart()
+                && mPreparedRangeStartUs == mRangeStartUs && mPreparedRangeEndUs == mRangeEndUs;
     }
 
-    private class LocalHandler extends Handler {
-        @Override
-        public void handleMessage(Message msg) {
-            int what = msg.what;
-            Log.d(TAG, "handleMessage:" + what);
-            switch (what) {
-                case MSG_PLAY_START:
-                    try {
-                        play();
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                    break;
-                case MSG_PLAY_PROGRESS:
-                    doExtract(msg.arg1);
-                    break;
-                default:
-                    throw new RuntimeException("Unknown msg " + what);
+    /**
+     * Gets the codecs ready at the start of {@link #source}, rewinding those of the last run
+     * if they are still set up for it.
+     *
+     * @return false if that failed, the player is then idle
+     */
+    private boolean prepareItem() throws IOException {
+        mPrerendering = false;
+        mPreparedAhead = false;
+        mPrerenderedUs = -1;
+        boolean restart = canRestart();
+        if (!restart && !source.canRead()) {
+            throw new FileNotFoundException("Unable to read " + source);
+        }
+        try {
+            if (!restart || !rewind()) {
+                prepare();
             }
+            mState.moveTo(PlayerState.PREPARED);
+            return true;
+        } catch (Exception e) {
+            Log.e(TAG, e.toString());
+            destroyExtractor();
+            relaxResources(true);
+            mState.moveTo(PlayerState.IDLE);
+            return false;
         }
     }
 
-
     /**
-     * Creates a new thread, and starts execution of the player.
+     * Prepares the first item and lets the next frame tick show its first frame, see
+     * {@link #prepareAsync()}.
      */
-    public void execute() {
-        mThread = new Thread(this, "Movie Player");
-        mThread.start();
+    private void prepareAhead() {
+        joinAudioThread();
+        mLocalHandler.removeMessages(MSG_FRAME_TICK);
+        selectFirstItem();
+        try {
+            if (!prepareItem()) {
+                return;
+            }
+        } catch (IOException e) {
+            Log.e(TAG, e.toString());
+            return;
+        }
+        mSeekTargetUs = -1;
+        mSeekOnResume = false;
+        mScheduler.resetTiming();
+        mFrameClock.stop();
+        mPrerendering = true;
+        postFrameTick();
     }
 
+    /**
+     * Renders the first decoded frame of a source prepared ahead without starting the clock,
+     * and reports the player prepared.
+     */
+    private void presentFirstFrame() {
+        FrameDecoder.DecodedFrame frame = mDecodeEngine == null ? null : mDecodeEngine.peekFrame();
+        if (frame == null) {
+            // the engine listener ticks again once it is decoded
+            return;
+        }
+        mPrerendering = false;
+        if (!frame.isEndOfStream()) {
+            renderFrame(frame, mFrameClock.nanoTime());
+            mPrerenderedUs = frame.presentationTimeUs;
+        }
+        // an end of stream stays queued for the scheduler to complete playback on start()
+        mPreparedAhead = true;
+        long prepareTimeNs = mPrepareTimeNs;
+        if (prepareTimeNs != 0) {
+            mPrepareTimeNs = 0;
+            mMetrics.record(PlayerMetrics.PREPARE_LATENCY, System.nanoTime() - prepareTimeNs);
+        }
+        PrepareListener listener = mPrepareListener;
+        if (listener != null) {
+            listener.onPrepared();
+        }
+    }
 
-    public void start() {
-        stop();
-        frame = 0;
-        isRunning = true;
-        mLocalHandler.sendEmptyMessage(MSG_PLAY_START);
+    /**
+     * Whether the codecs configured for the last run can play the source again, i.e. neither
+     * the source nor any setting that changes how it is decoded has changed.
+     */
+    private boolean canRestart() {
+        boolean useFrameCache = mFrameCacheBudget > 0
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2;
+        return mDecodeEngine != null
+                && source.equals(mPreparedSource)
+                && source.getVersion() == mPreparedSourceVersion
+                && mMp4DemuxerEnabled == mPreparedWithMp4Demuxer
+                && mAudioEnabled == mPreparedWithAudio
+                && useFrameCache == (mRenderer != null);
     }
 
-    public void stop() {
-        if (timer != null) {
-            timer.cancel();
-            timerTask.cancel();
-            timer = null;
-            timerTask = null;
-            isRunning = false;
+    /**
+     * Opens the source and creates, configures and starts the codecs, releasing those of a
+     * previous source.
+     */
+    private void prepare() throws IOException {
+        mCodecsReused = false;
+        destroyExtractor();
+        relaxResources(true);
+        SampleIndex index = null;
+        long version = source.getVersion();
+        if (source.equals(mIndexedSource) && version == mIndexedSourceVersion) {
+            index = mSampleIndex;
         }
-        if (mAudioPlayTask != null) {
-            mAudioPlayTask.cancel(true);
+        SourceItem item = SourceItem.open(source, mPlaylistIndex, index, mMp4DemuxerEnabled, mAudioEnabled,
+                mProbeCache);
+        mSampleIndex = item.index;
+        mIndexedSource = source;
+        mIndexedSourceVersion = version;
+        mItem = item;
+        mPreparedRangeStartUs = mRangeStartUs;
+        mPreparedRangeEndUs = mRangeEndUs;
+        boolean trimmed = mPlaylistIndex == 0;
+        mTimeline = new Timeline(item, trimmed ? mPreparedRangeStartUs : 0,
+                trimmed ? mPreparedRangeEndUs : Long.MAX_VALUE);
+        mTimeline.setLooping(mLooping);
+        mSegment = mTimeline.segmentAt(0);
+        mSegmentOffsetUs = mSegment.getOffsetUs();
+        mVideoFormat = item.videoFormat;
+        mVideoSource = mTimeline.getTrack(TRACK_VIDEO);
+        mAudioFormat = item.audioFormat;
+        mAudioSource = item.audioFormat == null ? null : mTimeline.getTrack(TRACK_AUDIO);
+        MediaFormat format = mVideoFormat;
+        videoFrameRate = format.getInteger(MediaFormat.KEY_FRAME_RATE);
+        if (mFrameRate == 0) {
+            mFrameRate = videoFrameRate;
         }
-        doStop = true;
-        seekOffset = 0;
-        seekOffsetFlag = false;
-    }
+        String mime = format.getString(MediaFormat.KEY_MIME);
+        duration = format.getLong(MediaFormat.KEY_DURATION);
+        mVideoWidth = format.getInteger(MediaFormat.KEY_WIDTH);
+        mVideoHeight = format.getInteger(MediaFormat.KEY_HEIGHT);
 
 
-    public boolean isRunning() {
-        return isRunning;
-    }
+        //only support pcm
+        if (mAudioSource != null) {
+            MediaFormat audioFormat = mAudioFormat;
+            String audioMime = audioFormat.getString(MediaFormat.KEY_MIME);
+            try {
+                // 实例化一个指定类型的解码器,提供数据输出
+                mAudioCodec = MediaCodec.createDecoderByType(audioMime);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
 
+            mAudioCodec.configure(audioFormat, null /* surface */, null /* crypto */, 0 /* flags */);
+            mAudioCodec.start();
 
-    public void pause() {
-        if (isRunning) {
-            isRunning = false;
+
+            int channels = audioFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+            // the track always runs at the native rate, speed changes are time-stretched
+            int sampleRate = audioFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+            if (mTimeStretcher == null || mTimeStretcher.getSampleRate() != sampleRate
+                    || mTimeStretcher.getChannelCount() != channels) {
+                mTimeStretcher = new TimeStretcher(sampleRate, channels);
+            }
+            mAudioSampleRate = sampleRate;
+            mAudioFrameBytes = 2 * channels;
+            int channelConfiguration = channels == 1 ? AudioFormat.CHANNEL_OUT_MONO : AudioFormat.CHANNEL_OUT_STEREO;
+            int minBufferSize = AudioTrack.getMinBufferSize(
+                    sampleRate,
+                    channelConfiguration,
+                    AudioFormat.ENCODING_PCM_16BIT
+            );
+            AudioTrack audioTrack = new AudioTrack(
+                    AudioManager.STREAM_MUSIC,
+                    sampleRate,
+                    channelConfiguration,
+                    AudioFormat.ENCODING_PCM_16BIT,
+                    minBufferSize,
+                    AudioTrack.MODE_STREAM
+            );
+            mAudioSink = new AudioTrackSink(audioTrack);
+
+            int pcmBufferSize = Math.max(minBufferSize * 4, PCM_BUFFER_MIN_SIZE);
+            if (mPcmBuffer == null || mPcmBuffer.getCapacity() < pcmBufferSize) {
+                mPcmBuffer = new PcmRingBuffer(pcmBufferSize);
+                mPcmBuffer.setMetrics(mMetrics);
+            }
         }
-    }
 
-    public void resume() {
-        if (!isRunning) {
-            isRunning = true;
+
+        startDemuxThread();
+        mDecoderSurface = mOutputSurface;
+        if (mFrameCacheBudget > 0 && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            mDecoderSurface = createRenderer();
         }
+        DecoderSelector selector = mDecoderSelector;
+        mPreparedSelector = selector != null ? selector : DecoderSelector.getDefault();
+        mDecoderFrameRate = mFrameRate;
+        List<String> decoders = mPreparedSelector.select(mime, mVideoWidth, mVideoHeight,
+                mDecoderFrameRate);
+        Log.i(TAG, "decoders for " + mime + " " + mVideoWidth + "x" + mVideoHeight + "@"
+                + mDecoderFrameRate + ": " + decoders);
+        startVideoDecoder(format, decoders);
+        mPreparedSource = source;
+        mPreparedSourceVersion = source.getVersion();
+        mPreparedWithMp4Demuxer = mMp4DemuxerEnabled;
+        mPreparedWithAudio = mAudioEnabled;
+        preloadNextItem(item);
     }
 
+    /**
+     * Takes the prepared codecs back to the start of the source: flushed, not reconfigured.
+     *
+     * @return false if the decoders have already moved on to the next playlist item
+     */
+    private boolean rewind() {
+        long rangeStartUs = mRangeStartUs;
+        long rangeEndUs = mRangeEndUs;
+        boolean trimmed = mPlaylistIndex == 0;
+        if (!mTimeline.rewind(trimmed ? rangeStartUs : 0, trimmed ? rangeEndUs : Long.MAX_VALUE)) {
+            return false;
+        }
+        mPreparedRangeStartUs = rangeStartUs;
+        mPreparedRangeEndUs = rangeEndUs;
+        mCodecsReused = true;
+        mSegment = mTimeline.segmentAt(0);
+        mSegmentOffsetUs = mSegment.getOffsetUs();
+        mDecodeEngine.seekTo(0);
+        mDecodePositionUs = -1;
+        if (mAudioCodec != null) {
+            mAudioCodec.flush();
+            mAudioSource.seekTo(0);
+            // drop whatever the last run left in the track
+            mAudioSink.pause();
+            mAudioSink.flush();
+        }
+        return true;
+    }
 
     /**
-     * Returns the width, in pixels, of the video.
+     * Resets the clocks and starts audio output and decoding for the prepared codecs.
      */
-    public int getVideoWidth() {
-        return mVideoWidth;
+    private void startPlayback() {
+        mSeekTargetUs = -1;
+        mSeekOnResume = false;
+        seekOffset = 0;
+        seekOffsetFlag = false;
+        mScheduler.resetTiming();
+        resetDeadlineWindow();
+        // the clock is anchored on the first decoded frame
+        mFrameClock.stop();
+        mFrameClock.setFrameRate(videoFrameRate, mFrameRate);
+        long prerenderedUs = mPreparedAhead ? mPrerenderedUs : -1;
+        mPrerendering = false;
+        mPreparedAhead = false;
+        mReverse = false;
+        resetReverseChunks();
+        mAudioClock = null;
+        if (mAudioCodec != null) {
+            float speed = 1.0f * mFrameRate / videoFrameRate;
+            mTimeStretcher.clear();
+            mTimeStretcher.setSpeed(speed);
+            mAudioSeekTargetUs = -1;
+            mAudioWrittenUs = 0;
+            mPcmBuffer.setPaused(false);
+            mPcmBuffer.reset();
+            mPcmBuffer.resetStats();
+            mAudioClock = new AudioSinkClock(mAudioSink, mAudioSampleRate, speed);
+
+            //开始play，等待write发出声音
+            mAudioSink.play();
+            mAudioWriter = new AudioSinkWriter(mAudioSink, mPcmBuffer);
+            mAudioWriter.start();
+        }
+        mAvSync.setMasterClock(mAudioClock);
+        mAvSync.resetStats();
+        mState.moveTo(PlayerState.PLAYING);
+        if (prerenderedUs >= 0) {
+            // the first frame is on screen already, the clock runs from it
+            mFrameClock.start(prerenderedUs);
+            recordTimeToFirstFrame();
+            mPrerenderedUs = -1;
+            postFrameTick();
+        }
+
+        if (mAudioCodec != null) {
+            mAudioThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    doAudio();
+                }
+            }, "Audio Decoder");
+            mAudioThread.start();
+        }
     }
 
     /**
-     * Returns the height, in pixels, of the video.
+     * Waits for the audio decoding loop of the last run to exit, at the end of the audio or
+     * after {@link #stopPlayback()}.
      */
-    public int getVideoHeight() {
-        return mVideoHeight;
+    private void joinAudioThread() {
+        if (mAudioThread == null) {
+            return;
+        }
+        try {
+            mAudioThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mAudioThread = null;
     }
 
 
-    private void play() throws IOException {
-        if (!sourceFile.canRead()) {
-            throw new FileNotFoundException("Unable to read " + sourceFile);
+    /**
+     * Opens the playlist item after {@code current} on a background thread and queues it on
+     * the timeline when the running decoders can read on into it.
+     */
+    private void preloadNextItem(final SourceItem current) {
+        final List<DataSource> playlist = mPlaylist;
+        final Timeline timeline = mTimeline;
+        final int next = current.playlistIndex + 1;
+        final boolean withAudio = mPreparedWithAudio;
+        if (timeline == null || next >= playlist.size()) {
+            return;
         }
-        try {
-            destroyExtractor();
-            mMediaExtractor = new MediaExtractor();
-            mMediaExtractor.setDataSource(sourceFile.toString());
-            mTrackIndex = selectTrack(mMediaExtractor);
-            if (mTrackIndex < 0) {
-                throw new RuntimeException("No video track found in " + sourceFile);
-            }
-            MediaFormat format = mMediaExtractor.getTrackFormat(mTrackIndex);
-            videoFrameRate = format.getInteger(MediaFormat.KEY_FRAME_RATE);
-            if (mFrameInterval == 0) {
-                mFrameInterval = 1000 / videoFrameRate;
-            }
-            String mime = format.getString(MediaFormat.KEY_MIME);
-            duration = format.getLong(MediaFormat.KEY_DURATION);
-
-
-            mAudioExtractor = new MediaExtractor();
-            mAudioExtractor.setDataSource(sourceFile.toString());
-            mAudioTrackIndex = selectAudioTrack(mAudioExtractor);
-
-            //only support pcm
-            if (mAudioTrackIndex != -1) {
-                relaxResources(true);
-                MediaFormat audioFormat = mMediaExtractor.getTrackFormat(mAudioTrackIndex);
-                String audioMime = audioFormat.getString(MediaFormat.KEY_MIME);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                DataSource nextSource = playlist.get(next);
+                SourceItem item;
                 try {
-                    // 实例化一个指定类型的解码器,提供数据输出
-                    mAudioCodec = MediaCodec.createDecoderByType(audioMime);
-                } catch (IOException e) {
-                    e.printStackTrace();
+                    item = SourceItem.open(nextSource, next, null, mMp4DemuxerEnabled, withAudio,
+                            mProbeCache);
+                } catch (Exception e) {
+                    Log.w(TAG, "Preloading " + nextSource + " failed", e);
+                    return;
                 }
+                if (!item.canFollow(current)) {
+                    Log.i(TAG, nextSource + " needs other codecs, playing it after a full prepare");
+                    item.release();
+                } else if (!timeline.setNextItem(item)) {
+                    item.release();
+                }
+            }
+        }, "Playlist Preloader").start();
+    }
 
-                mAudioCodec.configure(audioFormat, null /* surface */, null /* crypto */, 0 /* flags */);
-                mAudioCodec.start();
-
+    /**
+     * Moves all reading onto a {@link DemuxThread}, leaving the decoders to copy queued
+     * packets.
+     */
+    private void startDemuxThread() {
+        DemuxThread demuxThread = mLane != null ? mLane.demuxThread : new DemuxThread();
+        mVideoPackets = demuxThread.addTrack(mVideoSource, getMaxInputSize(mVideoFormat, VIDEO_PACKET_SIZE));
+        mVideoPackets.setReadAheadUs(mReadAheadUs);
+        mVideoSource = mVideoPackets;
+        if (mAudioSource != null) {
+            mAudioPackets = demuxThread.addTrack(mAudioSource, getMaxInputSize(mAudioFormat, AUDIO_PACKET_SIZE));
+            mAudioPackets.setReadAheadUs(mReadAheadUs);
+            mAudioSource = mAudioPackets;
+        } else {
+            mAudioPackets = null;
+        }
+        if (mLane == null) {
+            demuxThread.start();
+        }
+    }
 
-                int channels = audioFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
-                int sampleRate = (int) (1.0f * audioFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE) * (1000 / videoFrameRate) / mFrameInterval);
-                int channelConfiguration = channels == 1 ? AudioFormat.CHANNEL_OUT_MONO : AudioFormat.CHANNEL_OUT_STEREO;
-                audioTrack = new AudioTrack(
-                        AudioManager.STREAM_MUSIC,
-                        sampleRate,
-                        channelConfiguration,
-                        AudioFormat.ENCODING_PCM_16BIT,
-                        AudioTrack.getMinBufferSize(
-                                sampleRate,
-                                channelConfiguration,
-                                AudioFormat.ENCODING_PCM_16BIT
-                        ),
-                        AudioTrack.MODE_STREAM
-                );
+    private static int getMaxInputSize(MediaFormat format, int defaultSize) {
+        return format.containsKey(MediaFormat.KEY_MAX_INPUT_SIZE)
+                ? format.getInteger(MediaFormat.KEY_MAX_INPUT_SIZE) : defaultSize;
+    }
 
-                //开始play，等待write发出声音
-                audioTrack.play();
-                mAudioExtractor.selectTrack(mAudioTrackIndex);
+    /**
+     * Starts the first decoder of {@code names} that configures, best first as ranked by
+     * the {@link DecoderSelector}, which is told about the others. Without any names left
+     * the platform picks the decoder.
+     */
+    private void startVideoDecoder(MediaFormat format, List<String> names) throws IOException {
+        String mime = format.getString(MediaFormat.KEY_MIME);
+        while (!names.isEmpty()) {
+            String name = names.get(0);
+            try {
+                startVideoDecoder(format, MediaCodec.createByCodecName(name));
+                mMediaCodecName = name;
+                return;
+            } catch (IOException | RuntimeException e) {
+                Log.w(TAG, "decoder " + name + " failed to start", e);
+                names = mPreparedSelector.reportFailure(mime, mVideoWidth, mVideoHeight,
+                        mDecoderFrameRate, name);
             }
+        }
+        startVideoDecoder(format, MediaCodec.createDecoderByType(mime));
+        // MediaCodec.getName needs API 18
+        mMediaCodecName = null;
+    }
 
+    private void startVideoDecoder(MediaFormat format, MediaCodec codec) {
+        final DecodeEngine engine = DecodeEngine.create(codec, mVideoSource);
+        engine.setMetrics(mMetrics);
+        engine.setListener(new FrameDecoder.Listener() {
+            @Override
+            public void onFrameAvailable() {
+                postFrameTick();
+            }
 
-            mMediaExtractor.selectTrack(mTrackIndex);
-            mMediaCodec = MediaCodec.createDecoderByType(mime);
-            mMediaCodec.configure(format, mOutputSurface, null, 0);
-            mMediaCodec.start();
+            @Override
+            public void onError(Exception e) {
+                mLocalHandler.obtainMessage(MSG_DECODE_ERROR, engine).sendToTarget();
+            }
+        });
+        try {
+            engine.start(format, mDecoderSurface);
+        } catch (RuntimeException e) {
+            engine.release();
+            throw e;
+        }
+        mMediaCodec = codec;
+        mDecodeEngine = engine;
+        mScheduler = new FrameScheduler(engine, mFrameClock, mAvSync, mMetrics,
+                new FrameScheduler.Output() {
+                    @Override
+                    public void renderFrame(FrameDecoder.DecodedFrame frame, long renderTimeNs) {
+                        FramePlayer.this.renderFrame(frame, renderTimeNs);
+                    }
 
-            timer = new Timer();
-            timerTask = new ProgressTimerTask();
-            timer.schedule(timerTask, 0, mFrameInterval);
+                    @Override
+                    public void onFrameDropped(long presentationTimeUs) {
+                        mDecodePositionUs = presentationTimeUs;
+                    }
 
-            mAudioPlayTask = new AudioPlayTask();
-            mAudioPlayTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+                    @Override
+                    public void onEndOfStream(FrameDecoder.DecodedFrame frame) {
+                        completePlayback(frame);
+                    }
 
-        } catch (Exception e) {
-            Log.e(TAG, e.toString());
-            destroyExtractor();
-        }
+                    @Override
+                    public int skipToSyncSample(long positionUs) {
+                        return FramePlayer.this.skipToSyncSample(positionUs);
+                    }
+                });
+        mScheduler.setRenderAheadNanos(Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP
+                ? RENDER_AHEAD_NS : RENDER_TOLERANCE_NS);
+        resetDeadlineWindow();
     }
 
-
-    private void destroyExtractor() {
-        if (mMediaCodec != null) {
-            mMediaCodec.stop();
-            mMediaCodec.release();
-            mMediaCodec = null;
+    /**
+     * Counts the frames of the last {@link #DEADLINE_WINDOW_FRAMES} played forward that were
+     * dropped, late or skipped to catch up. After {@link #DEADLINE_STRIKES} windows in a row
+     * with too many, the decoder is swapped for the next one the selector ranks, restarting
+     * from the frame on screen.
+     *
+     * @return true if the decoder was swapped
+     */
+    private boolean checkDecoderDeadlines() {
+        if (mDeadlineFrames < DEADLINE_WINDOW_FRAMES || mState.get() != PlayerState.PLAYING
+                || mReverse || mSeekTargetUs >= 0 || mDecodeEngine == null) {
+            return false;
         }
-        if (mMediaExtractor != null) {
-            mMediaExtractor.release();
-            mMediaExtractor = null;
+        long missed = countMissedFrames();
+        long windowMissed = missed - mDeadlineMissed;
+        int windowFrames = mDeadlineFrames;
+        mDeadlineFrames = 0;
+        mDeadlineMissed = missed;
+        if (windowMissed < 0) {
+            // the metrics were reset
+            mDeadlineStrikes = 0;
+            return false;
         }
+        mDeadlineStrikes = windowMissed * DEADLINE_MISS_DIVISOR >= windowFrames + windowMissed
+                ? mDeadlineStrikes + 1 : 0;
+        if (mDeadlineStrikes < DEADLINE_STRIKES) {
+            return false;
+        }
+        return fallBackDecoder("keeps missing deadlines");
     }
 
-    private void relaxResources(Boolean release) {
-        if (mAudioCodec != null) {
-            if (release) {
-                mAudioCodec.stop();
-                mAudioCodec.release();
-                mAudioCodec = null;
-            }
-
+    /**
+     * Swaps the video decoder for the next one the selector ranks, after it failed or fell
+     * behind, and restarts decoding from the frame on screen.
+     *
+     * @return false if there is none left to fall back to
+     */
+    private boolean fallBackDecoder(String reason) {
+        String name = mMediaCodecName;
+        if (name == null) {
+            Log.w(TAG, "platform decoder " + reason + ", no decoder left to fall back to");
+            return false;
+        }
+        String mime = mVideoFormat.getString(MediaFormat.KEY_MIME);
+        List<String> names = mPreparedSelector.reportFailure(mime, mVideoWidth, mVideoHeight,
+                mDecoderFrameRate, name);
+        mDeadlineStrikes = 0;
+        if (names.isEmpty()) {
+            Log.w(TAG, name + " " + reason + ", no decoder left to fall back to");
+            return false;
         }
-        if (audioTrack != null) {
-            if (!doStop)
-                audioTrack.flush();
-            audioTrack.release();
-            audioTrack = null;
+        Log.w(TAG, name + " " + reason + ", falling back to " + names);
+        mLocalHandler.removeMessages(MSG_FRAME_TICK);
+        mDecodeEngine.release();
+        mDecodeEngine = null;
+        mScheduler = null;
+        mMediaCodec = null;
+        mMediaCodecName = null;
+        try {
+            startVideoDecoder(mVideoFormat, names);
+        } catch (IOException e) {
+            Log.e(TAG, "no decoder to fall back to", e);
+            return true;
+        }
+        SampleIndex index = mSampleIndex;
+        if (index != null && mCurrentFrame >= 0) {
+            doSeek(mSegmentOffsetUs + index.getPresentationTimeUs(mCurrentFrame));
+        } else {
+            doSeek(mSegmentOffsetUs);
         }
+        return true;
+    }
+
+    private void resetDeadlineWindow() {
+        mDeadlineFrames = 0;
+        mDeadlineMissed = countMissedFrames();
+        mDeadlineStrikes = 0;
     }
 
+    private long countMissedFrames() {
+        return mMetrics.getCounter(PlayerMetrics.FRAMES_DROPPED)
+                + mMetrics.getCounter(PlayerMetrics.FRAMES_LATE)
+                + mMetrics.getCounter(PlayerMetrics.FRAMES_SKIPPED_TO_SYNC);
+    }
 
     /**
-     * Selects the video track, if any.
+     * Routes video through a {@link GlFrameRenderer} and sets up the frame cache.
      *
-     * @return the track index, or -1 if no video track is found.
-     */
-    private static int selectTrack(MediaExtractor mMediaExtractor) {
-        // Select the first video track we find, ignore the rest.
-        int numTracks = mMediaExtractor.getTrackCount();
-        for (int i = 0; i < numTracks; i++) {
-            MediaFormat format = mMediaExtractor.getTrackFormat(i);
-            String mime = format.getString(MediaFormat.KEY_MIME);
-            if (mime.startsWith("video/")) {
-                if (VERBOSE) {
-                    Log.d(TAG, "Extractor selected track " + i + " (" + mime + "): " + format);
-                }
-                return i;
+     * @return the surface the decoder renders into
+     */
+    private Surface createRenderer() {
+        final GlFrameRenderer renderer = new GlFrameRenderer(mOutputSurface,
+                new GlFrameRenderer.Listener() {
+                    @Override
+                    public void onFrameAvailable() {
+                        mLocalHandler.sendEmptyMessage(MSG_RENDERER_FRAME);
+                    }
+                }, mLocalHandler);
+        float scale = Math.min(1f, MAX_CACHED_FRAME_SIZE * 1f / Math.max(mVideoWidth, mVideoHeight));
+        renderer.setCaptureSize(Math.round(mVideoWidth * scale), Math.round(mVideoHeight * scale));
+        mRenderer = renderer;
+        mFrameCache = new FrameCache(mFrameCacheBudget, new FrameCache.EvictionListener() {
+            @Override
+            public void onEvicted(int handle) {
+                renderer.deleteTexture(handle);
             }
-        }
+        });
+        return renderer.getInputSurface();
+    }
 
-        return -1;
+    private void destroyExtractor() {
+        if (mDecodeEngine != null) {
+            mDecodeEngine.release();
+            mDecodeEngine = null;
+            mScheduler = null;
+            mMediaCodec = null;
+        } else if (mMediaCodec != null) {
+            mMediaCodec.release();
+            mMediaCodec = null;
+        }
+        mMediaCodecName = null;
+        if (mRenderer != null) {
+            // the cache stays around empty for its statistics
+            mFrameCache.clear();
+            mRenderer.release();
+            mRenderer = null;
+            mRendererPendingUs = -1;
+            mLocalHandler.removeMessages(MSG_RENDERER_FRAME);
+        }
+        mCurrentFrame = -1;
+        mDecodePositionUs = -1;
+        mPreparedSource = null;
+        mPrerendering = false;
+        mPreparedAhead = false;
+        mPrerenderedUs = -1;
+        mReverse = false;
+        resetReverseChunks();
+        if (mTimeline != null) {
+            // the tracks are released with the demux thread
+            mTimeline.release();
+            mTimeline = null;
+        }
+        if (mVideoSource != null) {
+            mVideoSource.release();
+            mVideoSource = null;
+        }
     }
 
-    private int selectAudioTrack(MediaExtractor mMediaExtractor) {
-        for (int i = 0; i < mMediaExtractor.getTrackCount(); i++) {
-            MediaFormat format = mMediaExtractor.getTrackFormat(i);
-            if (format.getString(MediaFormat.KEY_MIME).startsWith("audio/")) {
-                return i;
-            }
+    /**
+     * Stops feeding the AudioTrack after playing out what is buffered, a stop has already
+     * dropped it. With {@code release} the audio decoder, its source and the AudioTrack are
+     * released too. Only called with the audio thread joined.
+     */
+    private void relaxResources(boolean release) {
+        if (mAudioWriter != null) {
+            mAudioWriter.finish();
+            mAudioWriter = null;
+        }
+        if (!release) {
+            return;
+        }
+        if (mAudioCodec != null) {
+            mAudioCodec.stop();
+            mAudioCodec.release();
+            mAudioCodec = null;
+        }
+        if (mAudioSource != null) {
+            mAudioSource.release();
+            mAudioSource = null;
+        }
+        if (mAudioSink != null) {
+            mAudioSink.release();
+            mAudioSink = null;
         }
-        return -1;
     }
 
-    private long curPosition;
 
     private void doAudio() {
 
@@ -386,33 +2222,40 @@ public class FramePlayer implements Runnable {
         int noOutputCounterLimit = 50;
 
         int inputBufIndex;
-        doStop = false;
-        while (!sawOutputEOS && noOutputCounter < noOutputCounterLimit && !doStop) {
+        while (!sawOutputEOS && noOutputCounter < noOutputCounterLimit) {
 
-            if (!isRunning) {
-                try {
-                    //防止死循环ANR
-                    Thread.sleep(500);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
-                continue;
+            int state;
+            try {
+                // parked without a timeout for as long as the player is paused
+                state = mState.awaitNotPaused();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            if (state != PlayerState.PLAYING && state != PlayerState.SEEKING
+                    && state != PlayerState.ENDED) {
+                break;
             }
 
             noOutputCounter++;
+            if (seekOffsetFlag) {
+                seekOffsetFlag = false;
+                long targetUs = seekOffset;
+                mAudioSource.seekTo(targetUs);
+                mAudioCodec.flush();
+                sawInputEOS = false;
+                mAudioSeekTargetUs = targetUs;
+                mAudioWrittenUs = targetUs;
+                restartAudioOutput();
+            }
             if (!sawInputEOS) {
-                if (seekOffsetFlag) {
-                    seekOffsetFlag = false;
-                    mAudioExtractor.seekTo(seekOffset, SEEK_TO_PREVIOUS_SYNC);
-                }
-
                 inputBufIndex = mAudioCodec.dequeueInputBuffer(TIMEOUT_USEC);
 
                 if (inputBufIndex >= 0) {
                     ByteBuffer dstBuf = codecInputBuffers[inputBufIndex];
 
                     int sampleSize =
-                            mAudioExtractor.readSampleData(dstBuf, 0 /* offset */);
+                            mAudioSource.readSampleData(dstBuf, 0 /* offset */);
 
                     long presentationTimeUs = 0;
 
@@ -420,9 +2263,8 @@ public class FramePlayer implements Runnable {
                         sawInputEOS = true;
                         sampleSize = 0;
                     } else {
-                        presentationTimeUs = mAudioExtractor.getSampleTime();
+                        presentationTimeUs = mAudioSource.getSampleTime();
                     }
-                    curPosition = presentationTimeUs;
                     mAudioCodec.queueInputBuffer(
                             inputBufIndex,
                             0 /* offset */,
@@ -432,10 +2274,10 @@ public class FramePlayer implements Runnable {
 
 
                     if (!sawInputEOS) {
-                        mAudioExtractor.advance();
+                        mAudioSource.advance();
                     }
-                } else {
-                    Log.e(TAG, "inputBufIndex " + inputBufIndex);
+                } else if (inputBufIndex == MediaCodec.INFO_TRY_AGAIN_LATER) {
+                    mMetrics.increment(PlayerMetrics.DEQUEUE_TIMEOUTS);
                 }
             }
 
@@ -450,114 +2292,137 @@ public class FramePlayer implements Runnable {
                 int outputBufIndex = res;
                 ByteBuffer buf = codecOutputBuffers[outputBufIndex];
 
-                final byte[] chunk = new byte[info.size];
-                buf.get(chunk);
-                buf.clear();
-                if (chunk.length > 0 && audioTrack != null && !doStop) {
+                if (info.size > 0 && mAudioWriter != null) {
                     //播放
-                    audioTrack.write(chunk, 0, chunk.length);
-                    hadPlay = true;
+                    buf.limit(info.offset + info.size);
+                    buf.position(info.offset);
+                    long presentationTimeUs = skipToSeekTarget(buf, info.presentationTimeUs);
+                    presentationTimeUs = trimToTimeline(buf, presentationTimeUs);
+                    if (buf.hasRemaining()) {
+                        mAudioClock.onFirstSample(presentationTimeUs);
+                        writePcm(buf);
+                    }
                 }
+                buf.clear();
                 //释放
                 mAudioCodec.releaseOutputBuffer(outputBufIndex, false /* render */);
                 if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
                     sawOutputEOS = true;
+                    mTimeStretcher.flush();
+                    drainTimeStretcher();
                 }
             } else if (res == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
                 codecOutputBuffers = mAudioCodec.getOutputBuffers();
             } else if (res == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
                 MediaFormat oformat = mAudioCodec.getOutputFormat();
-            } else {
+            } else if (res == MediaCodec.INFO_TRY_AGAIN_LATER) {
+                mMetrics.increment(PlayerMetrics.DEQUEUE_TIMEOUTS);
             }
         }
 
-        relaxResources(true);
-
-        doStop = true;
-
-        if (sawOutputEOS) {
-            try {
-                if (isLoop || !hadPlay) {
-                    doAudio();
-                    return;
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-        }
+        // the writer plays out what is left and exits, the codec and the track stay
+        // configured for the next start()
+        mPcmBuffer.endOfStream();
     }
 
 
     /**
-     * AsyncTask that takes care of running the decode/playback loop
+     * Drops the PCM before the audio seek target, so audio resumes at the exact sample.
+     *
+     * @return timestamp of the first remaining sample
      */
-    private class AudioPlayTask extends AsyncTask<Void, Void, Void> {
-
-        @Override
-        protected Void doInBackground(Void... values) {
-            doAudio();
-            return null;
+    private long skipToSeekTarget(ByteBuffer pcm, long presentationTimeUs) {
+        long targetUs = mAudioSeekTargetUs;
+        if (targetUs < 0) {
+            return presentationTimeUs;
         }
-
-        @Override
-        protected void onPreExecute() {
+        if (targetUs <= presentationTimeUs) {
+            mAudioSeekTargetUs = -1;
+            return presentationTimeUs;
         }
-
-        @Override
-        protected void onProgressUpdate(Void... values) {
+        long skipFrames = (targetUs - presentationTimeUs) * mAudioSampleRate / 1000000L;
+        int skipBytes = (int) Math.min(pcm.remaining(), skipFrames * mAudioFrameBytes);
+        pcm.position(pcm.position() + skipBytes);
+        if (pcm.hasRemaining()) {
+            mAudioSeekTargetUs = -1;
         }
+        return targetUs;
     }
 
+    /**
+     * Cuts the PCM to the timeline segment it belongs to: the part already written, as the
+     * first sample of a segment starts before the loop point, and the part past the end of
+     * the segment, so audio switches at the exact sample along with the frames.
+     *
+     * @return timestamp of the first remaining sample
+     */
+    private long trimToTimeline(ByteBuffer pcm, long presentationTimeUs) {
+        long writtenUs = mAudioWrittenUs;
+        if (presentationTimeUs < writtenUs) {
+            long skipFrames = (writtenUs - presentationTimeUs) * mAudioSampleRate / 1000000L;
+            int skipBytes = (int) Math.min(pcm.remaining(), skipFrames * mAudioFrameBytes);
+            pcm.position(pcm.position() + skipBytes);
+            presentationTimeUs = writtenUs;
+        }
+        Timeline timeline = mTimeline;
+        if (timeline != null && pcm.hasRemaining()) {
+            long endUs = timeline.segmentAt(presentationTimeUs).getEndUs();
+            long keepFrames = Math.max(0, (endUs - presentationTimeUs) * mAudioSampleRate / 1000000L);
+            if (keepFrames * mAudioFrameBytes < pcm.remaining()) {
+                pcm.limit(pcm.position() + (int) keepFrames * mAudioFrameBytes);
+            }
+        }
+        long frames = pcm.remaining() / mAudioFrameBytes;
+        mAudioWrittenUs = presentationTimeUs + frames * 1000000L / mAudioSampleRate;
+        return presentationTimeUs;
+    }
 
-    private void doExtract(int frame) {
-
-        if (mMediaCodec == null) {
+    /**
+     * Throws away everything queued for the AudioTrack and starts writing afresh.
+     */
+    private void restartAudioOutput() {
+        if (mAudioWriter == null) {
             return;
         }
-        int inputBufferIndex = 0;
-        try {
-            inputBufferIndex = mMediaCodec.dequeueInputBuffer(TIMEOUT_USEC);
-        } catch (Exception e) {
-            // TODO: 17-3-21 error after onResume,in none exxcuting state
-            return;
+        mAudioWriter.stop();
+        mPcmBuffer.reset();
+        mTimeStretcher.clear();
+        mAudioClock.reset();
+        synchronized (mAudioOutputLock) {
+            // a pause that came in meanwhile keeps the track paused
+            if (mState.get() != PlayerState.PAUSED) {
+                mAudioSink.play();
+            }
         }
-        if (inputBufferIndex >= 0) {
-            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
-                // 从输入队列里去空闲outputBufferfer
-                inputBuffer = mMediaCodec.getInputBuffers()[inputBufferIndex];
-            } else {
-                // SDK_INT > LOLLIPOP
-                inputBuffer = mMediaCodec.getInputBuffer(inputBufferIndex);
-            }
-            if (null != inputBuffer) {
-                int chunkSize = mMediaExtractor.readSampleData(inputBuffer, 0);
-                if (chunkSize < 0) {
-                    if (isRunning && playListener != null) {
-                        playListener.onCompleted();
-                        isRunning = false;
-                        destroyExtractor();
-                        return;
-                    }
-                    mMediaCodec.queueInputBuffer(inputBufferIndex, 0, 0, 0L,
-                            MediaCodec.BUFFER_FLAG_END_OF_STREAM);
-                    if (VERBOSE) Log.d(TAG, "sent input EOS");
-                } else {
-                    mMediaCodec.queueInputBuffer(inputBufferIndex, 0, chunkSize, 0, 0);
-                    mMediaExtractor.advance();
-                }
+        mAudioWriter = new AudioSinkWriter(mAudioSink, mPcmBuffer);
+        mAudioWriter.start();
+    }
+
+    /**
+     * Time-stretches decoded PCM to the playback speed and queues it for the AudioTrack.
+     */
+    private void writePcm(ByteBuffer pcm) {
+        while (pcm.hasRemaining()) {
+            mTimeStretcher.write(pcm);
+            if (!drainTimeStretcher()) {
+                return;
             }
+        }
+    }
 
-            int outputBufferIndex = mMediaCodec.dequeueOutputBuffer(mBufferInfo, TIMEOUT_USEC);
-            Log.d(TAG, outputBufferIndex + ":outputBufferIndex");
-            if (outputBufferIndex >= 0) {
-                mMediaCodec.releaseOutputBuffer(outputBufferIndex, true);
-                if (playListener != null) {
-                    playListener.onProgress((frame + 1) * mFrameInterval * 1f / duration);
-                }
-            } else {
-                Log.d(TAG, "Reached EOS, looping");
+    /**
+     * @return false if the PCM buffer was closed by a stop
+     */
+    private boolean drainTimeStretcher() {
+        while (mTimeStretcher.read(mStretchBuffer) > 0) {
+            mStretchBuffer.flip();
+            boolean written = mPcmBuffer.writeFully(mStretchBuffer);
+            mStretchBuffer.clear();
+            if (!written) {
+                return false;
             }
         }
+        return true;
     }
 
     public interface PlayListener {
@@ -567,5 +2432,13 @@ public class FramePlayer implements Runnable {
         void onProgress(float progress);
     }
 
+    public interface PrepareListener {
+
+        /**
+         * The first frame is on screen and {@link #start()} plays on from it.
+         */
+        void onPrepared();
+    }
+
 
 }
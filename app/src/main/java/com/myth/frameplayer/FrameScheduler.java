@@ -0,0 +1,229 @@
+package com.myth.frameplayer;
+
+/**
+ * Paces the frames of a {@link FrameDecoder}: the head frame is rendered once its deadline on
+ * the {@link FrameClock} has come, or dropped when it is too late, with the deadline following
+ * the master clock through {@link AvSyncController}. Deadlines are absolute, so a late tick is
+ * caught up by the next one.
+ * <p>
+ * When frames keep coming out too late, because the decoder cannot keep up, the scheduler
+ * lightens its load step by step: first the decoder leaves out non-reference frames, then,
+ * past {@link #setSkipToSyncLagNanos a larger lag}, decoding jumps ahead to the next sync
+ * sample. Once frames are on time again for a while the decoder gets every frame again.
+ * <p>
+ * Holds no threads or Android types: the player thread calls {@link #tick()} and schedules
+ * the next call for the time it returns.
+ */
+final class FrameScheduler {
+
+    /**
+     * returned by {@link #tick()} when nothing is decoded, the decoder listener asks for the
+     * next tick
+     */
+    static final long WAIT_FOR_FRAME = -1;
+
+    /**
+     * a frame shown less than this after its deadline still counts as on time
+     */
+    private static final long LATE_TOLERANCE_NS = 1000000L;
+
+    /**
+     * frames dropped for lateness, without one on time in between, before the decoder skips
+     * non-reference frames
+     */
+    private static final int DROPS_BEFORE_SKIPPING = 3;
+
+    /**
+     * frames on time in a row before the decoder gets every frame again
+     */
+    private static final int ON_TIME_FRAMES_TO_RECOVER = 30;
+
+    /**
+     * lag past which decoding jumps to the next sync sample, by default
+     */
+    static final long DEFAULT_SKIP_TO_SYNC_LAG_NS = 500000000L;
+
+    /**
+     * What happens to the frames the scheduler lets go.
+     */
+    interface Output {
+        /**
+         * Renders the head frame of the decoder for display at {@code renderTimeNs}.
+         */
+        void renderFrame(FrameDecoder.DecodedFrame frame, long renderTimeNs);
+
+        /**
+         * Called after a late frame was released without rendering.
+         */
+        void onFrameDropped(long presentationTimeUs);
+
+        /**
+         * The head frame of the decoder marks the end of the stream.
+         */
+        void onEndOfStream(FrameDecoder.DecodedFrame frame);
+
+        /**
+         * Restarts decoding at the first sync sample after {@code positionUs}, the position
+         * of the clock, if there is one ahead of what was decoded.
+         *
+         * @return number of frames jumped over, 0 if decoding went on as it was
+         */
+        int skipToSyncSample(long positionUs);
+    }
+
+    private final FrameDecoder mDecoder;
+    private final FrameClock mClock;
+    private final AvSyncController mSync;
+    private final PlayerMetrics mMetrics;
+    private final Output mOutput;
+    private long mRenderAheadNs;
+    /**
+     * how late the last frame rendered on schedule was shown, -1 when there is none to compare
+     */
+    private long mLastLatenessNs = -1;
+    private long mSkipToSyncLagNs = DEFAULT_SKIP_TO_SYNC_LAG_NS;
+    private int mLateDrops;
+    private int mOnTimeFrames;
+    private boolean mSkippingNonReference;
+    /**
+     * set after a jump to a sync sample until the next frame is rendered
+     */
+    private boolean mSkippedToSync;
+
+    FrameScheduler(FrameDecoder decoder, FrameClock clock, AvSyncController sync,
+                   PlayerMetrics metrics, Output output) {
+        mDecoder = decoder;
+        mClock = clock;
+        mSync = sync;
+        mMetrics = metrics;
+        mOutput = output;
+    }
+
+    /**
+     * Sets how long before its deadline a frame is handed over, with its render time, to be
+     * timed by the display. Frames due within this window are rendered right away.
+     */
+    void setRenderAheadNanos(long renderAheadNs) {
+        mRenderAheadNs = renderAheadNs;
+    }
+
+    /**
+     * Sets how far behind the clock the decoded frames may fall before decoding jumps ahead
+     * to the next sync sample.
+     */
+    void setSkipToSyncLagNanos(long lagNs) {
+        mSkipToSyncLagNs = lagNs;
+    }
+
+    /**
+     * Forgets the last rendered frame after a seek or pause, so the gap is not taken for
+     * jitter, and lets the decoder catch up with every frame again.
+     */
+    void resetTiming() {
+        mLastLatenessNs = -1;
+        mLateDrops = 0;
+        mOnTimeFrames = 0;
+        mSkippedToSync = false;
+        setSkipNonReference(false);
+    }
+
+    /**
+     * @return whether the decoder currently leaves out non-reference frames
+     */
+    boolean isSkippingNonReference() {
+        return mSkippingNonReference;
+    }
+
+    /**
+     * Renders or drops the head frame if it is due.
+     *
+     * @return nanoseconds until the head frame is due, 0 to tick again right away, or
+     * {@link #WAIT_FOR_FRAME}
+     */
+    long tick() {
+        FrameDecoder.DecodedFrame frame = mDecoder.peekFrame();
+        if (frame == null) {
+            return WAIT_FOR_FRAME;
+        }
+        if (frame.isEndOfStream()) {
+            mOutput.onEndOfStream(frame);
+            return WAIT_FOR_FRAME;
+        }
+        long presentationTimeUs = frame.presentationTimeUs;
+        if (!mClock.isStarted()) {
+            mClock.start(presentationTimeUs);
+        }
+        long delayNs = mSync.frameDelayNanos(presentationTimeUs);
+        if (delayNs > mRenderAheadNs) {
+            return delayNs - mRenderAheadNs;
+        }
+        if (mSync.isTooLate(delayNs)) {
+            mDecoder.releaseFrame(frame, false);
+            mSync.onFrameDropped();
+            mMetrics.increment(PlayerMetrics.FRAMES_DROPPED);
+            mLastLatenessNs = -1;
+            mOutput.onFrameDropped(presentationTimeUs);
+            catchUp(-delayNs);
+            return 0;
+        }
+        recordFrameTiming(delayNs);
+        recover(delayNs);
+        mOutput.renderFrame(frame, mClock.nanoTime() + Math.max(0, delayNs));
+        return 0;
+    }
+
+    /**
+     * Lightens the decoder's load after a frame had to be dropped {@code lagNs} late.
+     */
+    private void catchUp(long lagNs) {
+        mOnTimeFrames = 0;
+        if (++mLateDrops >= DROPS_BEFORE_SKIPPING) {
+            setSkipNonReference(true);
+        }
+        if (lagNs > mSkipToSyncLagNs && !mSkippedToSync) {
+            int skipped = mOutput.skipToSyncSample(mClock.currentPtsUs());
+            if (skipped > 0) {
+                mSkippedToSync = true;
+                mMetrics.add(PlayerMetrics.FRAMES_SKIPPED_TO_SYNC, skipped);
+            }
+        }
+    }
+
+    /**
+     * Gives the decoder every frame again once enough frames in a row were on time.
+     */
+    private void recover(long delayNs) {
+        mSkippedToSync = false;
+        if (-delayNs > LATE_TOLERANCE_NS) {
+            mOnTimeFrames = 0;
+            return;
+        }
+        mLateDrops = 0;
+        if (mSkippingNonReference && ++mOnTimeFrames >= ON_TIME_FRAMES_TO_RECOVER) {
+            setSkipNonReference(false);
+        }
+    }
+
+    private void setSkipNonReference(boolean skip) {
+        if (mSkippingNonReference != skip) {
+            mSkippingNonReference = skip;
+            mOnTimeFrames = 0;
+            mDecoder.setSkipNonReferenceFrames(skip);
+        }
+    }
+
+    /**
+     * Counts a frame shown after its deadline, and records how far the interval since the
+     * previous frame was off. A frame handed over ahead with a render time is shown on time.
+     */
+    private void recordFrameTiming(long delayNs) {
+        long latenessNs = Math.max(0, -delayNs);
+        if (latenessNs > LATE_TOLERANCE_NS) {
+            mMetrics.increment(PlayerMetrics.FRAMES_LATE);
+        }
+        if (mLastLatenessNs >= 0) {
+            mMetrics.record(PlayerMetrics.FRAME_JITTER, Math.abs(latenessNs - mLastLatenessNs));
+        }
+        mLastLatenessNs = latenessNs;
+    }
+}
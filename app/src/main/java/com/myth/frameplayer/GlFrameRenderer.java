@@ -0,0 +1,399 @@
+package com.myth.frameplayer;
+
+import android.annotation.TargetApi;
+import android.graphics.SurfaceTexture;
+import android.opengl.EGL14;
+import android.opengl.EGLConfig;
+import android.opengl.EGLContext;
+import android.opengl.EGLDisplay;
+import android.opengl.EGLExt;
+import android.opengl.EGLSurface;
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+import android.view.Surface;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Puts decoded frames on the output surface through GLES, so they can also be copied into
+ * textures and shown again later without decoding.
+ * <p>
+ * The decoder renders into a {@link SurfaceTexture}; once the {@link Listener} hears of the
+ * frame, {@link #latchFrame()} latches it, {@link #captureFrame} copies it into an RGBA
+ * texture and {@link #drawFrame} or {@link #drawTexture} present onto the window surface with
+ * a presentation timestamp. All calls happen on the thread that created the renderer, which
+ * may be shared with other renderers: each call makes the renderer's own context current.
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+class GlFrameRenderer implements SurfaceTexture.OnFrameAvailableListener {
+    private static final String TAG = GlFrameRenderer.class.getSimpleName();
+
+    /**
+     * Notified when the decoder's frame has arrived and can be latched: on the handler given
+     * to the renderer from API 21, before that on a thread of the renderer's own.
+     */
+    interface Listener {
+        void onFrameAvailable();
+    }
+
+    private static final String VERTEX_SHADER = ""
+            + "uniform mat4 uTexMatrix;\n"
+            + "attribute vec4 aPosition;\n"
+            + "attribute vec4 aTextureCoord;\n"
+            + "varying vec2 vTextureCoord;\n"
+            + "void main() {\n"
+            + "    gl_Position = aPosition;\n"
+            + "    vTextureCoord = (uTexMatrix * aTextureCoord).xy;\n"
+            + "}\n";
+
+    private static final String FRAGMENT_SHADER_EXTERNAL = ""
+            + "#extension GL_OES_EGL_image_external : require\n"
+            + "precision mediump float;\n"
+            + "varying vec2 vTextureCoord;\n"
+            + "uniform samplerExternalOES sTexture;\n"
+            + "void main() {\n"
+            + "    gl_FragColor = texture2D(sTexture, vTextureCoord);\n"
+            + "}\n";
+
+    private static final String FRAGMENT_SHADER_2D = ""
+            + "precision mediump float;\n"
+            + "varying vec2 vTextureCoord;\n"
+            + "uniform sampler2D sTexture;\n"
+            + "void main() {\n"
+            + "    gl_FragColor = texture2D(sTexture, vTextureCoord);\n"
+            + "}\n";
+
+    private static final float[] RECTANGLE = {-1, -1, 1, -1, -1, 1, 1, 1};
+    private static final float[] RECTANGLE_TEX = {0, 0, 1, 0, 0, 1, 1, 1};
+    private static final float[] IDENTITY = {1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1};
+
+    private EGLDisplay mEglDisplay = EGL14.EGL_NO_DISPLAY;
+    private EGLContext mEglContext = EGL14.EGL_NO_CONTEXT;
+    private EGLSurface mEglSurface = EGL14.EGL_NO_SURFACE;
+
+    private final FloatBuffer mVertices = floatBuffer(RECTANGLE);
+    private final FloatBuffer mTexCoords = floatBuffer(RECTANGLE_TEX);
+    private final float[] mTexMatrix = new float[16];
+    private final int mExternalProgram;
+    private final int m2dProgram;
+    private final int mExternalTexture;
+    private final int[] mFramebuffer = new int[1];
+
+    /**
+     * delivers the frame callbacks before API 21, null from then on
+     */
+    private final HandlerThread mListenerThread;
+    private SurfaceTexture mSurfaceTexture;
+    private final Surface mInputSurface;
+    private final Listener mListener;
+    private final Object mFrameLock = new Object();
+    private boolean mFrameAvailable;
+
+    private int mCaptureWidth;
+    private int mCaptureHeight;
+
+    /**
+     * @param handler where the listener is called from API 21, e.g. the one of the thread
+     *                creating the renderer
+     */
+    GlFrameRenderer(Surface outputSurface, Listener listener, Handler handler) {
+        mListener = listener;
+        setUpEgl(outputSurface);
+        mExternalProgram = createProgram(VERTEX_SHADER, FRAGMENT_SHADER_EXTERNAL);
+        m2dProgram = createProgram(VERTEX_SHADER, FRAGMENT_SHADER_2D);
+        mExternalTexture = createTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES);
+        GLES20.glGenFramebuffers(1, mFramebuffer, 0);
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            mListenerThread = null;
+            mSurfaceTexture = new SurfaceTexture(mExternalTexture);
+            setListener(mSurfaceTexture, handler);
+            mInputSurface = new Surface(mSurfaceTexture);
+            return;
+        }
+        // before API 21 frame callbacks go to the looper of the thread creating the
+        // SurfaceTexture, or the main looper if it has none
+        mListenerThread = new HandlerThread("Frame Listener");
+        mListenerThread.start();
+        final Object created = new Object();
+        synchronized (created) {
+            new Handler(mListenerThread.getLooper()).post(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (created) {
+                        mSurfaceTexture = new SurfaceTexture(mExternalTexture);
+                        mSurfaceTexture.setOnFrameAvailableListener(GlFrameRenderer.this);
+                        created.notifyAll();
+                    }
+                }
+            });
+            while (mSurfaceTexture == null) {
+                try {
+                    created.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("interrupted creating SurfaceTexture");
+                }
+            }
+        }
+        mInputSurface = new Surface(mSurfaceTexture);
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private void setListener(SurfaceTexture surfaceTexture, Handler handler) {
+        surfaceTexture.setOnFrameAvailableListener(this, handler);
+    }
+
+    /**
+     * Returns the surface the decoder should render into.
+     */
+    Surface getInputSurface() {
+        return mInputSurface;
+    }
+
+    /**
+     * Sets the size of the textures made by {@link #captureFrame}.
+     */
+    void setCaptureSize(int width, int height) {
+        mCaptureWidth = width;
+        mCaptureHeight = height;
+    }
+
+    /**
+     * Returns the memory taken by one captured frame.
+     */
+    long getCaptureSizeBytes() {
+        return 4L * mCaptureWidth * mCaptureHeight;
+    }
+
+    @Override
+    public void onFrameAvailable(SurfaceTexture surfaceTexture) {
+        synchronized (mFrameLock) {
+            mFrameAvailable = true;
+        }
+        mListener.onFrameAvailable();
+    }
+
+    /**
+     * Latches the frame released by the decoder, without waiting for it.
+     *
+     * @return false if it has not arrived yet
+     */
+    boolean latchFrame() {
+        synchronized (mFrameLock) {
+            if (!mFrameAvailable) {
+                return false;
+            }
+            mFrameAvailable = false;
+        }
+        makeCurrent();
+        mSurfaceTexture.updateTexImage();
+        mSurfaceTexture.getTransformMatrix(mTexMatrix);
+        return true;
+    }
+
+    /**
+     * Copies the latched frame into an RGBA texture of the capture size.
+     *
+     * @param texture a texture from an earlier capture to overwrite, or -1 for a new one
+     * @return the texture holding the copy
+     */
+    int captureFrame(int texture) {
+        makeCurrent();
+        if (texture < 0) {
+            texture = createTexture(GLES20.GL_TEXTURE_2D);
+            GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, mCaptureWidth, mCaptureHeight, 0,
+                    GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null);
+        }
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFramebuffer[0]);
+        GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
+                GLES20.GL_TEXTURE_2D, texture, 0);
+        GLES20.glViewport(0, 0, mCaptureWidth, mCaptureHeight);
+        draw(mExternalProgram, GLES11Ext.GL_TEXTURE_EXTERNAL_OES, mExternalTexture, mTexMatrix);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        return texture;
+    }
+
+    /**
+     * Presents the latched frame at {@code presentationTimeNs}, a {@link System#nanoTime()}
+     * instant.
+     */
+    void drawFrame(long presentationTimeNs) {
+        makeCurrent();
+        setWindowViewport();
+        draw(mExternalProgram, GLES11Ext.GL_TEXTURE_EXTERNAL_OES, mExternalTexture, mTexMatrix);
+        swap(presentationTimeNs);
+    }
+
+    /**
+     * Presents a captured frame at {@code presentationTimeNs}.
+     */
+    void drawTexture(int texture, long presentationTimeNs) {
+        makeCurrent();
+        setWindowViewport();
+        draw(m2dProgram, GLES20.GL_TEXTURE_2D, texture, IDENTITY);
+        swap(presentationTimeNs);
+    }
+
+    void deleteTexture(int texture) {
+        makeCurrent();
+        GLES20.glDeleteTextures(1, new int[]{texture}, 0);
+    }
+
+    void release() {
+        makeCurrent();
+        mInputSurface.release();
+        mSurfaceTexture.release();
+        if (mListenerThread != null) {
+            mListenerThread.quit();
+        }
+        GLES20.glDeleteFramebuffers(1, mFramebuffer, 0);
+        GLES20.glDeleteTextures(1, new int[]{mExternalTexture}, 0);
+        GLES20.glDeleteProgram(mExternalProgram);
+        GLES20.glDeleteProgram(m2dProgram);
+        if (mEglDisplay != EGL14.EGL_NO_DISPLAY) {
+            EGL14.eglMakeCurrent(mEglDisplay, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_CONTEXT);
+            EGL14.eglDestroySurface(mEglDisplay, mEglSurface);
+            EGL14.eglDestroyContext(mEglDisplay, mEglContext);
+            EGL14.eglTerminate(mEglDisplay);
+        }
+        mEglDisplay = EGL14.EGL_NO_DISPLAY;
+        mEglContext = EGL14.EGL_NO_CONTEXT;
+        mEglSurface = EGL14.EGL_NO_SURFACE;
+    }
+
+    private void setUpEgl(Surface outputSurface) {
+        mEglDisplay = EGL14.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY);
+        int[] version = new int[2];
+        if (!EGL14.eglInitialize(mEglDisplay, version, 0, version, 1)) {
+            throw new RuntimeException("unable to initialize EGL14");
+        }
+        int[] attributes = {
+                EGL14.EGL_RED_SIZE, 8,
+                EGL14.EGL_GREEN_SIZE, 8,
+                EGL14.EGL_BLUE_SIZE, 8,
+                EGL14.EGL_RENDERABLE_TYPE, EGL14.EGL_OPENGL_ES2_BIT,
+                EGL14.EGL_NONE
+        };
+        EGLConfig[] configs = new EGLConfig[1];
+        int[] numConfigs = new int[1];
+        if (!EGL14.eglChooseConfig(mEglDisplay, attributes, 0, configs, 0, 1, numConfigs, 0)
+                || numConfigs[0] == 0) {
+            throw new RuntimeException("no EGL config for GLES2");
+        }
+        int[] contextAttributes = {EGL14.EGL_CONTEXT_CLIENT_VERSION, 2, EGL14.EGL_NONE};
+        mEglContext = EGL14.eglCreateContext(mEglDisplay, configs[0], EGL14.EGL_NO_CONTEXT, contextAttributes, 0);
+        checkEgl("eglCreateContext");
+        mEglSurface = EGL14.eglCreateWindowSurface(mEglDisplay, configs[0], outputSurface,
+                new int[]{EGL14.EGL_NONE}, 0);
+        checkEgl("eglCreateWindowSurface");
+        if (!EGL14.eglMakeCurrent(mEglDisplay, mEglSurface, mEglSurface, mEglContext)) {
+            throw new RuntimeException("eglMakeCurrent failed");
+        }
+    }
+
+    /**
+     * Makes this renderer's context and window surface current, another renderer on the same
+     * thread may have taken over since the last call.
+     */
+    private void makeCurrent() {
+        if (mEglContext.equals(EGL14.eglGetCurrentContext())
+                && mEglSurface.equals(EGL14.eglGetCurrentSurface(EGL14.EGL_DRAW))) {
+            return;
+        }
+        if (!EGL14.eglMakeCurrent(mEglDisplay, mEglSurface, mEglSurface, mEglContext)) {
+            throw new RuntimeException("eglMakeCurrent failed: 0x" + Integer.toHexString(EGL14.eglGetError()));
+        }
+    }
+
+    private void setWindowViewport() {
+        int[] size = new int[2];
+        EGL14.eglQuerySurface(mEglDisplay, mEglSurface, EGL14.EGL_WIDTH, size, 0);
+        EGL14.eglQuerySurface(mEglDisplay, mEglSurface, EGL14.EGL_HEIGHT, size, 1);
+        GLES20.glViewport(0, 0, size[0], size[1]);
+    }
+
+    private void swap(long presentationTimeNs) {
+        EGLExt.eglPresentationTimeANDROID(mEglDisplay, mEglSurface, presentationTimeNs);
+        if (!EGL14.eglSwapBuffers(mEglDisplay, mEglSurface)) {
+            Log.w(TAG, "eglSwapBuffers failed: 0x" + Integer.toHexString(EGL14.eglGetError()));
+        }
+    }
+
+    private void draw(int program, int target, int texture, float[] texMatrix) {
+        GLES20.glUseProgram(program);
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        GLES20.glBindTexture(target, texture);
+        int position = GLES20.glGetAttribLocation(program, "aPosition");
+        int texCoord = GLES20.glGetAttribLocation(program, "aTextureCoord");
+        GLES20.glUniformMatrix4fv(GLES20.glGetUniformLocation(program, "uTexMatrix"), 1, false, texMatrix, 0);
+        GLES20.glEnableVertexAttribArray(position);
+        GLES20.glVertexAttribPointer(position, 2, GLES20.GL_FLOAT, false, 8, mVertices);
+        GLES20.glEnableVertexAttribArray(texCoord);
+        GLES20.glVertexAttribPointer(texCoord, 2, GLES20.GL_FLOAT, false, 8, mTexCoords);
+        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+        GLES20.glDisableVertexAttribArray(position);
+        GLES20.glDisableVertexAttribArray(texCoord);
+        GLES20.glBindTexture(target, 0);
+    }
+
+    private static int createTexture(int target) {
+        int[] textures = new int[1];
+        GLES20.glGenTextures(1, textures, 0);
+        GLES20.glBindTexture(target, textures[0]);
+        GLES20.glTexParameteri(target, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(target, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(target, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(target, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        return textures[0];
+    }
+
+    private static int createProgram(String vertexSource, String fragmentSource) {
+        int program = GLES20.glCreateProgram();
+        GLES20.glAttachShader(program, loadShader(GLES20.GL_VERTEX_SHADER, vertexSource));
+        GLES20.glAttachShader(program, loadShader(GLES20.GL_FRAGMENT_SHADER, fragmentSource));
+        GLES20.glLinkProgram(program);
+        int[] status = new int[1];
+        GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, status, 0);
+        if (status[0] != GLES20.GL_TRUE) {
+            String log = GLES20.glGetProgramInfoLog(program);
+            GLES20.glDeleteProgram(program);
+            throw new RuntimeException("could not link program: " + log);
+        }
+        return program;
+    }
+
+    private static int loadShader(int type, String source) {
+        int shader = GLES20.glCreateShader(type);
+        GLES20.glShaderSource(shader, source);
+        GLES20.glCompileShader(shader);
+        int[] status = new int[1];
+        GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, status, 0);
+        if (status[0] == 0) {
+            String log = GLES20.glGetShaderInfoLog(shader);
+            GLES20.glDeleteShader(shader);
+            throw new RuntimeException("could not compile shader " + type + ": " + log);
+        }
+        return shader;
+    }
+
+    private static void checkEgl(String operation) {
+        int error = EGL14.eglGetError();
+        if (error != EGL14.EGL_SUCCESS) {
+            throw new RuntimeException(operation + ": EGL error 0x" + Integer.toHexString(error));
+        }
+    }
+
+    private static FloatBuffer floatBuffer(float[] values) {
+        FloatBuffer buffer = ByteBuffer.allocateDirect(values.length * 4)
+                .order(ByteOrder.nativeOrder()).asFloatBuffer();
+        buffer.put(values).position(0);
+        return buffer;
+    }
+}
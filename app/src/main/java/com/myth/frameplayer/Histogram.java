@@ -0,0 +1,154 @@
+package com.myth.frameplayer;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts values into fixed buckets. Recording is lock-free and allocates nothing, so it can
+ * run on the decoder and render paths; values above the last bound go to an overflow bucket.
+ */
+public final class Histogram {
+
+    /**
+     * bucket bounds for durations in nanoseconds: 250 us doubling up to about 1 s
+     */
+    public static final long[] DURATION_BOUNDS_NS = {
+            250000L, 500000L, 1000000L, 2000000L, 4000000L, 8000000L, 16000000L, 33000000L,
+            66000000L, 133000000L, 266000000L, 533000000L, 1066000000L
+    };
+
+    private final long[] mBounds;
+    private final AtomicLongArray mBuckets;
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * @param upperBounds inclusive upper bound of each bucket, ascending
+     */
+    public Histogram(long[] upperBounds) {
+        for (int i = 1; i < upperBounds.length; i++) {
+            if (upperBounds[i] <= upperBounds[i - 1]) {
+                throw new IllegalArgumentException("bounds must be ascending");
+            }
+        }
+        mBounds = upperBounds.clone();
+        mBuckets = new AtomicLongArray(upperBounds.length + 1);
+    }
+
+    public void record(long value) {
+        int low = 0;
+        int high = mBounds.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mBounds[mid] < value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        mBuckets.incrementAndGet(low);
+        mSum.addAndGet(value);
+        long max;
+        while (value > (max = mMax.get()) && !mMax.compareAndSet(max, value)) {
+            // raced with another recorder, retry
+        }
+    }
+
+    public void reset() {
+        for (int i = 0; i < mBuckets.length(); i++) {
+            mBuckets.set(i, 0);
+        }
+        mSum.set(0);
+        mMax.set(Long.MIN_VALUE);
+    }
+
+    /**
+     * Copies the current counts. Values recorded meanwhile may be in some fields and not yet
+     * in others.
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[mBuckets.length()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = mBuckets.get(i);
+        }
+        return new Snapshot(mBounds, counts, mSum.get(), mMax.get());
+    }
+
+    /**
+     * Immutable copy of a histogram.
+     */
+    public static final class Snapshot {
+        private final long[] mBounds;
+        private final long[] mCounts;
+        private final long mCount;
+        private final long mSum;
+        private final long mMax;
+
+        Snapshot(long[] bounds, long[] counts, long sum, long max) {
+            mBounds = bounds;
+            mCounts = counts;
+            long count = 0;
+            for (long each : counts) {
+                count += each;
+            }
+            mCount = count;
+            mSum = sum;
+            mMax = count == 0 ? 0 : max;
+        }
+
+        public long getCount() {
+            return mCount;
+        }
+
+        public long getSum() {
+            return mSum;
+        }
+
+        public long getMean() {
+            return mCount == 0 ? 0 : mSum / mCount;
+        }
+
+        public long getMax() {
+            return mMax;
+        }
+
+        /**
+         * @return number of buckets, including the overflow bucket
+         */
+        public int getBucketCount() {
+            return mCounts.length;
+        }
+
+        public long getBucketValue(int bucket) {
+            return mCounts[bucket];
+        }
+
+        /**
+         * @return inclusive upper bound of {@code bucket}, {@link Long#MAX_VALUE} for overflow
+         */
+        public long getUpperBound(int bucket) {
+            return bucket < mBounds.length ? mBounds[bucket] : Long.MAX_VALUE;
+        }
+
+        /**
+         * Estimates a percentile as the upper bound of the bucket it falls into, capped at
+         * the largest value recorded.
+         *
+         * @param percentile between 0 and 100
+         */
+        public long getPercentile(double percentile) {
+            if (mCount == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(mCount * percentile / 100));
+            long seen = 0;
+            for (int i = 0; i < mCounts.length; i++) {
+                seen += mCounts[i];
+                if (seen >= rank) {
+                    return Math.min(getUpperBound(i), mMax);
+                }
+            }
+            return mMax;
+        }
+    }
+}
@@ -83,6 +83,22 @@ public class MainActivity extends AppCompatActivity implements SurfaceHolder.Cal
                 framePlayer.nextFrame();
             }
         });
+
+        findViewById(R.id.prev).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                framePlayer.previousFrame();
+            }
+        });
+
+        final TextView loop = (TextView) findViewById(R.id.loop);
+        findViewById(R.id.loop).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                framePlayer.setLooping(!framePlayer.isLooping());
+                loop.setText(framePlayer.isLooping() ? "LOOP ON" : "LOOP");
+            }
+        });
     }
 
     @Override
@@ -94,12 +110,23 @@ public class MainActivity extends AppCompatActivity implements SurfaceHolder.Cal
 
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (framePlayer != null) {
+            framePlayer.release();
+            framePlayer = null;
+        }
+    }
+
     @Override
     public void surfaceCreated(SurfaceHolder holder) {
         if (framePlayer == null) {
             Surface surface = holder.getSurface();
             framePlayer = new FramePlayer(surface);
             framePlayer.setSourceFile(new File(videoPath));
+            framePlayer.setFrameCacheBudget(64 * 1024 * 1024);
+            framePlayer.setMp4DemuxerEnabled(true);
             framePlayer.execute();
             framePlayer.setPlayListener(new FramePlayer.PlayListener() {
                 @Override
@@ -109,9 +136,14 @@ public class MainActivity extends AppCompatActivity implements SurfaceHolder.Cal
 
                 @Override
                 public void onProgress(float progress) {
-                    Log.d("PlayListener", "onProgress" + progress);
                 }
             });
+            framePlayer.setMetricsListener(new PlayerMetrics.MetricsListener() {
+                @Override
+                public void onMetrics(PlayerMetrics.Snapshot snapshot) {
+                    Log.i("PlayerMetrics", snapshot.toString());
+                }
+            }, 5000);
         }
     }
 
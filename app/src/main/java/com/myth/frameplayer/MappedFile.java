@@ -0,0 +1,35 @@
+package com.myth.frameplayer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Maps whole files read-only. Kept apart from {@link DataSource} so that code running on a
+ * plain JVM, such as {@link Mp4Demuxer}, can map files too.
+ */
+final class MappedFile {
+
+    private MappedFile() {
+    }
+
+    /**
+     * @throws IOException if the file can not be read or is too large for one buffer
+     */
+    static ByteBuffer map(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("File too large to map: " + file);
+            }
+            // the mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+}
@@ -0,0 +1,496 @@
+package com.myth.frameplayer;
+
+import android.media.MediaFormat;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * What opening a file found out about it, kept on disk so the file is not scanned again:
+ * track numbers and formats of the video and audio track and the {@link SampleIndex} of the
+ * video. One small binary file per source, keyed by path and checked against the size and
+ * modification time of the file. Files least recently used are deleted beyond a total size.
+ * <p>
+ * One cache can be shared by any number of players and thumbnail generators.
+ */
+public class MediaProbeCache {
+    private static final String TAG = MediaProbeCache.class.getSimpleName();
+
+    private static final int MAGIC = 0x46505043;
+    private static final int VERSION = 1;
+    private static final String SUFFIX = ".probe";
+
+    private static final byte TYPE_INT = 0;
+    private static final byte TYPE_LONG = 1;
+    private static final byte TYPE_STRING = 2;
+    private static final byte TYPE_BUFFER = 3;
+
+    /**
+     * format keys kept, with their types, as MediaFormat can not list its keys before API 29
+     */
+    private static final Map<String, Byte> FORMAT_KEYS = new LinkedHashMap<>();
+
+    static {
+        FORMAT_KEYS.put(MediaFormat.KEY_MIME, TYPE_STRING);
+        FORMAT_KEYS.put(MediaFormat.KEY_WIDTH, TYPE_INT);
+        FORMAT_KEYS.put(MediaFormat.KEY_HEIGHT, TYPE_INT);
+        FORMAT_KEYS.put(MediaFormat.KEY_FRAME_RATE, TYPE_INT);
+        FORMAT_KEYS.put(MediaFormat.KEY_DURATION, TYPE_LONG);
+        FORMAT_KEYS.put(MediaFormat.KEY_MAX_INPUT_SIZE, TYPE_INT);
+        FORMAT_KEYS.put(MediaFormat.KEY_SAMPLE_RATE, TYPE_INT);
+        FORMAT_KEYS.put(MediaFormat.KEY_CHANNEL_COUNT, TYPE_INT);
+        FORMAT_KEYS.put("rotation-degrees", TYPE_INT);
+        FORMAT_KEYS.put("is-adts", TYPE_INT);
+        FORMAT_KEYS.put("csd-0", TYPE_BUFFER);
+        FORMAT_KEYS.put("csd-1", TYPE_BUFFER);
+        FORMAT_KEYS.put("csd-2", TYPE_BUFFER);
+    }
+
+    /**
+     * Values of a track format, independent of {@link MediaFormat}.
+     */
+    static final class TrackFormat {
+        final LinkedHashMap<String, Object> values = new LinkedHashMap<>();
+
+        static TrackFormat from(MediaFormat format) {
+            TrackFormat trackFormat = new TrackFormat();
+            for (Map.Entry<String, Byte> key : FORMAT_KEYS.entrySet()) {
+                String name = key.getKey();
+                if (!format.containsKey(name)) {
+                    continue;
+                }
+                switch (key.getValue()) {
+                    case TYPE_INT:
+                        trackFormat.values.put(name, format.getInteger(name));
+                        break;
+                    case TYPE_LONG:
+                        trackFormat.values.put(name, format.getLong(name));
+                        break;
+                    case TYPE_STRING:
+                        trackFormat.values.put(name, format.getString(name));
+                        break;
+                    default:
+                        ByteBuffer buffer = format.getByteBuffer(name).duplicate();
+                        byte[] bytes = new byte[buffer.remaining()];
+                        buffer.get(bytes);
+                        trackFormat.values.put(name, bytes);
+                        break;
+                }
+            }
+            return trackFormat;
+        }
+
+        MediaFormat toMediaFormat() {
+            MediaFormat format = new MediaFormat();
+            for (Map.Entry<String, Object> entry : values.entrySet()) {
+                Object value = entry.getValue();
+                if (value instanceof Integer) {
+                    format.setInteger(entry.getKey(), (Integer) value);
+                } else if (value instanceof Long) {
+                    format.setLong(entry.getKey(), (Long) value);
+                } else if (value instanceof String) {
+                    format.setString(entry.getKey(), (String) value);
+                } else {
+                    format.setByteBuffer(entry.getKey(), ByteBuffer.wrap((byte[]) value));
+                }
+            }
+            return format;
+        }
+    }
+
+    /**
+     * What was found out about one source.
+     */
+    static final class Probe {
+        /**
+         * MediaExtractor track numbers, -1 if not known, e.g. when read by Mp4Demuxer
+         */
+        final int videoTrack;
+        final int audioTrack;
+        /**
+         * whether the source was looked at for an audio track, audioFormat is null otherwise
+         */
+        final boolean audioProbed;
+        final TrackFormat videoFormat;
+        final TrackFormat audioFormat;
+        final SampleIndex index;
+        /**
+         * nanoseconds opening the source took without the probe
+         */
+        final long probeNanos;
+
+        Probe(int videoTrack, int audioTrack, boolean audioProbed, TrackFormat videoFormat,
+              TrackFormat audioFormat, SampleIndex index, long probeNanos) {
+            this.videoTrack = videoTrack;
+            this.audioTrack = audioTrack;
+            this.audioProbed = audioProbed;
+            this.videoFormat = videoFormat;
+            this.audioFormat = audioFormat;
+            this.index = index;
+            this.probeNanos = probeNanos;
+        }
+    }
+
+    private final File mDirectory;
+    private final long mMaxBytes;
+    private long mHitCount;
+    private long mMissCount;
+    private long mTimeSavedNanos;
+
+    /**
+     * @param maxBytes total size of the probe files, beyond which the least recently used
+     *                 are deleted
+     */
+    public MediaProbeCache(File directory, long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be positive");
+        }
+        mDirectory = directory;
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * @param withAudio whether the probe must know about audio
+     * @return the probe of {@code source} if one was stored for its current size and
+     * modification time, otherwise null; sources other than files are never cached
+     */
+    synchronized Probe get(DataSource source, boolean withAudio) {
+        File file = source.getFile();
+        if (file == null) {
+            return null;
+        }
+        File entry = entryFile(file);
+        Probe probe = null;
+        if (entry.exists()) {
+            try {
+                probe = read(entry, file);
+            } catch (IOException e) {
+                Log.w(TAG, "Dropping unreadable " + entry, e);
+            }
+            if (probe == null) {
+                // stale or damaged
+                entry.delete();
+            } else if (withAudio && !probe.audioProbed) {
+                // overwritten by a probe with audio
+                probe = null;
+            } else {
+                entry.setLastModified(System.currentTimeMillis());
+            }
+        }
+        if (probe == null) {
+            mMissCount++;
+        }
+        return probe;
+    }
+
+    /**
+     * Stores {@code probe} for {@code source}, evicting the least recently used probes when
+     * the cache grows past its size.
+     */
+    synchronized void put(DataSource source, Probe probe) {
+        File file = source.getFile();
+        if (file == null || (!mDirectory.isDirectory() && !mDirectory.mkdirs())) {
+            return;
+        }
+        File entry = entryFile(file);
+        File temp = new File(mDirectory, entry.getName() + ".tmp");
+        try {
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(temp)));
+            try {
+                write(out, file, probe);
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(entry)) {
+                throw new IOException("Can not rename " + temp);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Can not store the probe of " + file, e);
+            temp.delete();
+            return;
+        }
+        trim();
+    }
+
+    /**
+     * Counts a probe found in the cache.
+     *
+     * @param openNanos what opening the source took with it
+     */
+    synchronized void onHit(Probe probe, long openNanos) {
+        mHitCount++;
+        mTimeSavedNanos += Math.max(0, probe.probeNanos - openNanos);
+    }
+
+    /**
+     * Deletes all probes.
+     */
+    public synchronized void clear() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(SUFFIX)) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * @return share of the sources opened with a stored probe, 0 before the first
+     */
+    public synchronized float getHitRatio() {
+        long total = mHitCount + mMissCount;
+        return total == 0 ? 0 : (float) mHitCount / total;
+    }
+
+    /**
+     * @return nanoseconds the stored probes saved opening sources, compared to opening them
+     * the first time
+     */
+    public synchronized long getTimeSavedNanos() {
+        return mTimeSavedNanos;
+    }
+
+    /**
+     * @return bytes taken by the probe files
+     */
+    public synchronized long getSizeBytes() {
+        long size = 0;
+        for (File file : listEntries()) {
+            size += file.length();
+        }
+        return size;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "probe cache hits " + mHitCount + ", misses " + mMissCount
+                + ", saved " + mTimeSavedNanos / 1000000 + " ms";
+    }
+
+    private File entryFile(File file) {
+        String path = file.getAbsolutePath();
+        // collisions only cost a miss, the path is checked on reading
+        return new File(mDirectory, Integer.toHexString(path.hashCode()) + SUFFIX);
+    }
+
+    private File[] listEntries() {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return new File[0];
+        }
+        int count = 0;
+        for (File file : files) {
+            if (file.getName().endsWith(SUFFIX)) {
+                files[count++] = file;
+            }
+        }
+        return Arrays.copyOf(files, count);
+    }
+
+    private void trim() {
+        File[] entries = listEntries();
+        long size = 0;
+        for (int i = 0; i < entries.length; i++) {
+            size += entries[i].length();
+        }
+        if (size <= mMaxBytes) {
+            return;
+        }
+        final Map<File, Long> times = new LinkedHashMap<>();
+        for (File entry : entries) {
+            times.put(entry, entry.lastModified());
+        }
+        Arrays.sort(entries, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long timeA = times.get(a);
+                long timeB = times.get(b);
+                return timeA < timeB ? -1 : timeA == timeB ? 0 : 1;
+            }
+        });
+        for (int i = 0; i < entries.length && size > mMaxBytes; i++) {
+            size -= entries[i].length();
+            entries[i].delete();
+        }
+    }
+
+    private static void write(DataOutputStream out, File file, Probe probe) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeUTF(file.getAbsolutePath());
+        out.writeLong(file.length());
+        out.writeLong(file.lastModified());
+        out.writeLong(probe.probeNanos);
+        out.writeInt(probe.videoTrack);
+        out.writeInt(probe.audioTrack);
+        out.writeBoolean(probe.audioProbed);
+        writeFormat(out, probe.videoFormat);
+        out.writeBoolean(probe.audioFormat != null);
+        if (probe.audioFormat != null) {
+            writeFormat(out, probe.audioFormat);
+        }
+        SampleIndex index = probe.index;
+        long[] times = new long[index.getFrameCount()];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = index.getPresentationTimeUs(i);
+        }
+        writeTimes(out, times);
+        long[] syncTimes = new long[index.getSyncFrameCount()];
+        for (int i = 0; i < syncTimes.length; i++) {
+            syncTimes[i] = index.getSyncTimeUs(i);
+        }
+        writeTimes(out, syncTimes);
+    }
+
+    /**
+     * @return null if the probe is of another file or of an older version of it
+     */
+    private static Probe read(File entry, File file) throws IOException {
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(entry)));
+        try {
+            if (in.readInt() != MAGIC || in.readByte() != VERSION
+                    || !in.readUTF().equals(file.getAbsolutePath())
+                    || in.readLong() != file.length()
+                    || in.readLong() != file.lastModified()) {
+                return null;
+            }
+            long probeNanos = in.readLong();
+            int videoTrack = in.readInt();
+            int audioTrack = in.readInt();
+            boolean audioProbed = in.readBoolean();
+            TrackFormat videoFormat = readFormat(in);
+            TrackFormat audioFormat = in.readBoolean() ? readFormat(in) : null;
+            long[] times = readTimes(in);
+            long[] syncTimes = readTimes(in);
+            return new Probe(videoTrack, audioTrack, audioProbed, videoFormat, audioFormat,
+                    new SampleIndex(times, syncTimes), probeNanos);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void writeFormat(DataOutputStream out, TrackFormat format) throws IOException {
+        out.writeByte(format.values.size());
+        for (Map.Entry<String, Object> entry : format.values.entrySet()) {
+            out.writeUTF(entry.getKey());
+            Object value = entry.getValue();
+            if (value instanceof Integer) {
+                out.writeByte(TYPE_INT);
+                out.writeInt((Integer) value);
+            } else if (value instanceof Long) {
+                out.writeByte(TYPE_LONG);
+                out.writeLong((Long) value);
+            } else if (value instanceof String) {
+                out.writeByte(TYPE_STRING);
+                out.writeUTF((String) value);
+            } else {
+                byte[] bytes = (byte[]) value;
+                out.writeByte(TYPE_BUFFER);
+                writeVarLong(out, bytes.length);
+                out.write(bytes);
+            }
+        }
+    }
+
+    private static TrackFormat readFormat(DataInputStream in) throws IOException {
+        TrackFormat format = new TrackFormat();
+        int count = in.readUnsignedByte();
+        for (int i = 0; i < count; i++) {
+            String key = in.readUTF();
+            byte type = in.readByte();
+            switch (type) {
+                case TYPE_INT:
+                    format.values.put(key, in.readInt());
+                    break;
+                case TYPE_LONG:
+                    format.values.put(key, in.readLong());
+                    break;
+                case TYPE_STRING:
+                    format.values.put(key, in.readUTF());
+                    break;
+                case TYPE_BUFFER:
+                    byte[] bytes = new byte[(int) readVarLong(in)];
+                    in.readFully(bytes);
+                    format.values.put(key, bytes);
+                    break;
+                default:
+                    throw new IOException("Unknown value type " + type);
+            }
+        }
+        return format;
+    }
+
+    /**
+     * Writes sorted timestamps as the differences between them, a byte or two each at
+     * common frame rates.
+     */
+    private static void writeTimes(DataOutputStream out, long[] times) throws IOException {
+        writeVarLong(out, times.length);
+        long previous = 0;
+        for (long time : times) {
+            long delta = time - previous;
+            // zigzag, the first timestamp may be negative
+            writeVarLong(out, (delta << 1) ^ (delta >> 63));
+            previous = time;
+        }
+    }
+
+    private static long[] readTimes(DataInputStream in) throws IOException {
+        long count = readVarLong(in);
+        if (count > Integer.MAX_VALUE) {
+            throw new IOException("Bad timestamp count " + count);
+        }
+        long[] times = new long[(int) count];
+        long previous = 0;
+        for (int i = 0; i < times.length; i++) {
+            long zigzag = readVarLong(in);
+            previous += (zigzag >>> 1) ^ -(zigzag & 1);
+            times[i] = previous;
+        }
+        return times;
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            out.writeByte((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Bad variable length number");
+    }
+}
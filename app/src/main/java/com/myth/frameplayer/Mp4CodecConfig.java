@@ -0,0 +1,146 @@
+package com.myth.frameplayer;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Turns MP4 decoder configuration boxes and length-prefixed samples into what
+ * {@code MediaCodec} expects: parameter sets and NAL units behind Annex B start codes, and
+ * the AAC AudioSpecificConfig.
+ */
+final class Mp4CodecConfig {
+
+    private static final byte[] START_CODE = {0, 0, 0, 1};
+
+    private static final int TAG_ES_DESCRIPTOR = 3;
+    private static final int TAG_DECODER_CONFIG = 4;
+    private static final int TAG_DECODER_SPECIFIC_INFO = 5;
+
+    private Mp4CodecConfig() {
+    }
+
+    /**
+     * @return bytes of the NAL unit length fields in samples of an {@code avcC} or
+     * {@code hvcC} track, 0 for other configurations
+     */
+    static int getNalLengthSize(String configType, ByteBuffer config) {
+        if ("avcC".equals(configType)) {
+            return (config.get(config.position() + 4) & 0x3) + 1;
+        }
+        if ("hvcC".equals(configType)) {
+            return (config.get(config.position() + 21) & 0x3) + 1;
+        }
+        return 0;
+    }
+
+    /**
+     * Splits an {@code avcC} payload into sequence and picture parameter sets.
+     *
+     * @return {SPS, PPS}, each behind start codes
+     */
+    static byte[][] getAvcParameterSets(ByteBuffer avcC) {
+        ByteBuffer buffer = avcC.duplicate();
+        buffer.position(buffer.position() + 5);
+        ByteArrayOutputStream sps = new ByteArrayOutputStream();
+        copyNalUnits(buffer, buffer.get() & 0x1F, sps);
+        ByteArrayOutputStream pps = new ByteArrayOutputStream();
+        copyNalUnits(buffer, buffer.get() & 0xFF, pps);
+        return new byte[][]{sps.toByteArray(), pps.toByteArray()};
+    }
+
+    /**
+     * @return the VPS, SPS and PPS of an {@code hvcC} payload, each behind a start code
+     */
+    static byte[] getHevcParameterSets(ByteBuffer hvcC) {
+        ByteBuffer buffer = hvcC.duplicate();
+        buffer.position(buffer.position() + 22);
+        int arrays = buffer.get() & 0xFF;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < arrays; i++) {
+            buffer.get();
+            copyNalUnits(buffer, buffer.getShort() & 0xFFFF, out);
+        }
+        return out.toByteArray();
+    }
+
+    private static void copyNalUnits(ByteBuffer buffer, int count, ByteArrayOutputStream out) {
+        for (int i = 0; i < count; i++) {
+            int length = buffer.getShort() & 0xFFFF;
+            out.write(START_CODE, 0, START_CODE.length);
+            byte[] unit = new byte[length];
+            buffer.get(unit);
+            out.write(unit, 0, length);
+        }
+    }
+
+    /**
+     * Finds the DecoderSpecificInfo of an {@code esds} payload, the AudioSpecificConfig
+     * for AAC.
+     *
+     * @return the bytes, or null if there is none
+     */
+    static byte[] getDecoderSpecificInfo(ByteBuffer esds) {
+        ByteBuffer buffer = esds.duplicate();
+        // version and flags
+        buffer.position(buffer.position() + 4);
+        if (buffer.get() != TAG_ES_DESCRIPTOR) {
+            return null;
+        }
+        readDescriptorLength(buffer);
+        buffer.position(buffer.position() + 2);
+        int flags = buffer.get() & 0xFF;
+        if ((flags & 0x80) != 0) {
+            buffer.position(buffer.position() + 2);
+        }
+        if ((flags & 0x40) != 0) {
+            buffer.position(buffer.position() + (buffer.get() & 0xFF));
+        }
+        if ((flags & 0x20) != 0) {
+            buffer.position(buffer.position() + 2);
+        }
+        if (buffer.get() != TAG_DECODER_CONFIG) {
+            return null;
+        }
+        readDescriptorLength(buffer);
+        // object type, stream type, buffer size and bitrates
+        buffer.position(buffer.position() + 13);
+        if (!buffer.hasRemaining() || buffer.get() != TAG_DECODER_SPECIFIC_INFO) {
+            return null;
+        }
+        byte[] info = new byte[readDescriptorLength(buffer)];
+        buffer.get(info);
+        return info;
+    }
+
+    private static int readDescriptorLength(ByteBuffer buffer) {
+        int length = 0;
+        int b;
+        do {
+            b = buffer.get() & 0xFF;
+            length = (length << 7) | (b & 0x7F);
+        } while ((b & 0x80) != 0);
+        return length;
+    }
+
+    /**
+     * Replaces the 3 or 4 byte NAL unit length fields of a sample in place with start codes.
+     *
+     * @return false if the sample is malformed
+     */
+    static boolean toAnnexB(ByteBuffer buffer, int offset, int size, int nalLengthSize) {
+        int position = offset;
+        int end = offset + size;
+        while (position + nalLengthSize <= end) {
+            int length = 0;
+            for (int i = 0; i < nalLengthSize; i++) {
+                length = (length << 8) | (buffer.get(position + i) & 0xFF);
+            }
+            for (int i = 0; i < nalLengthSize - 1; i++) {
+                buffer.put(position + i, (byte) 0);
+            }
+            buffer.put(position + nalLengthSize - 1, (byte) 1);
+            position += nalLengthSize + length;
+        }
+        return position == end;
+    }
+}
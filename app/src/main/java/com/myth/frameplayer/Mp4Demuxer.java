@@ -0,0 +1,663 @@
+package com.myth.frameplayer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Demuxes MP4 (ISO base media) files without {@code MediaExtractor}.
+ * <p>
+ * The file is memory-mapped once and the sample tables of every track are expanded into
+ * primitive arrays, so sample data is handed out as slices of the mapping and any number of
+ * readers can share one parse. Fragmented files and files over 2 GB are not supported.
+ */
+class Mp4Demuxer {
+
+    static final int TRACK_TYPE_UNKNOWN = 0;
+    static final int TRACK_TYPE_VIDEO = 1;
+    static final int TRACK_TYPE_AUDIO = 2;
+
+    private static final int TYPE_MOOV = fourcc("moov");
+    private static final int TYPE_MVHD = fourcc("mvhd");
+    private static final int TYPE_TRAK = fourcc("trak");
+    private static final int TYPE_TKHD = fourcc("tkhd");
+    private static final int TYPE_EDTS = fourcc("edts");
+    private static final int TYPE_ELST = fourcc("elst");
+    private static final int TYPE_MDIA = fourcc("mdia");
+    private static final int TYPE_MDHD = fourcc("mdhd");
+    private static final int TYPE_HDLR = fourcc("hdlr");
+    private static final int TYPE_MINF = fourcc("minf");
+    private static final int TYPE_STBL = fourcc("stbl");
+    private static final int TYPE_STSD = fourcc("stsd");
+    private static final int TYPE_STTS = fourcc("stts");
+    private static final int TYPE_CTTS = fourcc("ctts");
+    private static final int TYPE_STSS = fourcc("stss");
+    private static final int TYPE_STSC = fourcc("stsc");
+    private static final int TYPE_STSZ = fourcc("stsz");
+    private static final int TYPE_STCO = fourcc("stco");
+    private static final int TYPE_CO64 = fourcc("co64");
+    private static final int TYPE_MVEX = fourcc("mvex");
+    private static final int HANDLER_VIDE = fourcc("vide");
+    private static final int HANDLER_SOUN = fourcc("soun");
+
+    /**
+     * child boxes of a sample entry that carry the decoder configuration
+     */
+    private static final int[] CODEC_CONFIG_TYPES = {
+            fourcc("avcC"), fourcc("hvcC"), fourcc("esds"), fourcc("dOps"), fourcc("vpcC"), fourcc("av1C")
+    };
+
+    /**
+     * One track with its sample table. Samples are numbered in decode order.
+     */
+    static final class Track {
+        private final ByteBuffer mData;
+        int id;
+        int type = TRACK_TYPE_UNKNOWN;
+        String codec;
+        int timescale;
+        long durationUs;
+        int width;
+        int height;
+        int channelCount;
+        int sampleRate;
+        ByteBuffer codecConfig;
+        String codecConfigType;
+        long[] offsets;
+        int[] sizes;
+        long[] timesUs;
+        /**
+         * sync samples in decode order, null if every sample is a sync sample
+         */
+        int[] syncSamples;
+
+        Track(ByteBuffer data) {
+            mData = data;
+        }
+
+        int getId() {
+            return id;
+        }
+
+        int getType() {
+            return type;
+        }
+
+        /**
+         * @return the sample entry type, e.g. {@code avc1} or {@code mp4a}
+         */
+        String getCodec() {
+            return codec;
+        }
+
+        long getDurationUs() {
+            return durationUs;
+        }
+
+        int getWidth() {
+            return width;
+        }
+
+        int getHeight() {
+            return height;
+        }
+
+        int getChannelCount() {
+            return channelCount;
+        }
+
+        int getSampleRate() {
+            return sampleRate;
+        }
+
+        /**
+         * @return mean samples per second
+         */
+        float getFrameRate() {
+            return durationUs > 0 ? sizes.length * 1000000f / durationUs : 0;
+        }
+
+        /**
+         * @return payload of the decoder configuration box, e.g. {@code avcC}, or null
+         */
+        ByteBuffer getCodecConfig() {
+            return codecConfig == null ? null : codecConfig.duplicate();
+        }
+
+        /**
+         * @return type of the box {@link #getCodecConfig()} came from, or null
+         */
+        String getCodecConfigType() {
+            return codecConfigType;
+        }
+
+        int getSampleCount() {
+            return sizes.length;
+        }
+
+        long getSampleOffset(int sample) {
+            return offsets[sample];
+        }
+
+        int getSampleSize(int sample) {
+            return sizes[sample];
+        }
+
+        int getMaxSampleSize() {
+            int max = 0;
+            for (int size : sizes) {
+                max = Math.max(max, size);
+            }
+            return max;
+        }
+
+        long getPresentationTimeUs(int sample) {
+            return timesUs[sample];
+        }
+
+        boolean isSyncSample(int sample) {
+            return syncSamples == null || Arrays.binarySearch(syncSamples, sample) >= 0;
+        }
+
+        /**
+         * Returns the last sync sample presented at or before {@code timeUs}, the first sync
+         * sample for earlier times.
+         */
+        int getSyncSampleAtOrBefore(long timeUs) {
+            int count = syncSamples == null ? timesUs.length : syncSamples.length;
+            if (count == 0) {
+                return 0;
+            }
+            // sync samples are presented in decode order
+            int low = 0;
+            int high = count - 1;
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if (timesUs[syncSample(mid)] <= timeUs) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return syncSample(low);
+        }
+
+        private int syncSample(int index) {
+            return syncSamples == null ? index : syncSamples[index];
+        }
+
+        /**
+         * Returns the data of {@code sample} as a read-only slice of the mapped file.
+         */
+        ByteBuffer getSample(int sample) {
+            ByteBuffer slice = mData.duplicate();
+            int offset = (int) offsets[sample];
+            slice.limit(offset + sizes[sample]);
+            slice.position(offset);
+            return slice.slice();
+        }
+
+        /**
+         * Points {@code view}, a duplicate of the mapping, at {@code sample} without allocating.
+         */
+        void selectSample(ByteBuffer view, int sample) {
+            int offset = (int) offsets[sample];
+            view.limit(offset + sizes[sample]);
+            view.position(offset);
+        }
+
+        ByteBuffer newView() {
+            return mData.duplicate();
+        }
+
+        /**
+         * @return heap taken by the sample table
+         */
+        long getIndexSizeBytes() {
+            return offsets.length * 8L + sizes.length * 4L + timesUs.length * 8L
+                    + (syncSamples == null ? 0 : syncSamples.length * 4L);
+        }
+    }
+
+    private final ByteBuffer mData;
+    private final List<Track> mTracks = new ArrayList<>();
+    private long mMovieTimescale = 1000;
+    private long mDurationUs;
+
+    private Mp4Demuxer(ByteBuffer data) {
+        mData = data;
+    }
+
+    /**
+     * Maps and parses {@code file}.
+     *
+     * @throws IOException if the file can not be read or is not a supported MP4 file
+     */
+    static Mp4Demuxer open(File file) throws IOException {
+        return parse(MappedFile.map(file));
+    }
+
+    /**
+     * Parses a complete MP4 file held in {@code data}.
+     */
+    static Mp4Demuxer parse(ByteBuffer data) throws IOException {
+        Mp4Demuxer demuxer = new Mp4Demuxer(data.asReadOnlyBuffer());
+        try {
+            demuxer.parseTopLevel();
+        } catch (RuntimeException e) {
+            // truncated or malformed boxes read past their limits
+            throw new IOException("Malformed MP4 file", e);
+        }
+        return demuxer;
+    }
+
+    List<Track> getTracks() {
+        return Collections.unmodifiableList(mTracks);
+    }
+
+    /**
+     * @return the first track of {@code type}, or null
+     */
+    Track getTrack(int type) {
+        for (Track track : mTracks) {
+            if (track.type == type) {
+                return track;
+            }
+        }
+        return null;
+    }
+
+    long getDurationUs() {
+        return mDurationUs;
+    }
+
+    /**
+     * @return heap taken by the sample tables of all tracks
+     */
+    long getIndexSizeBytes() {
+        long total = 0;
+        for (Track track : mTracks) {
+            total += track.getIndexSizeBytes();
+        }
+        return total;
+    }
+
+    private void parseTopLevel() throws IOException {
+        ByteBuffer buffer = mData.duplicate();
+        boolean foundMovie = false;
+        while (buffer.remaining() >= 8) {
+            int start = buffer.position();
+            long size = buffer.getInt() & 0xFFFFFFFFL;
+            int type = buffer.getInt();
+            if (size == 1) {
+                size = buffer.getLong();
+            } else if (size == 0) {
+                size = buffer.limit() - start;
+            }
+            if (size < 8 || start + size > buffer.limit()) {
+                // tolerate a truncated trailing box, usually a partly written mdat
+                break;
+            }
+            int end = (int) (start + size);
+            if (type == TYPE_MOOV) {
+                parseMovie(box(buffer, end));
+                foundMovie = true;
+            }
+            buffer.position(end);
+        }
+        if (!foundMovie) {
+            throw new IOException("No moov box");
+        }
+    }
+
+    private void parseMovie(ByteBuffer moov) throws IOException {
+        while (moov.hasRemaining()) {
+            int type = moov.getInt(moov.position() + 4);
+            int end = nextBox(moov);
+            if (type == TYPE_MVHD) {
+                int version = moov.get() & 0xFF;
+                skip(moov, 3 + (version == 1 ? 16 : 8));
+                mMovieTimescale = moov.getInt() & 0xFFFFFFFFL;
+                long duration = version == 1 ? moov.getLong() : moov.getInt() & 0xFFFFFFFFL;
+                mDurationUs = scale(duration, mMovieTimescale);
+            } else if (type == TYPE_MVEX) {
+                throw new IOException("Fragmented MP4 is not supported");
+            } else if (type == TYPE_TRAK) {
+                Track track = parseTrack(box(moov, end));
+                if (track != null) {
+                    mTracks.add(track);
+                }
+            }
+            moov.position(end);
+        }
+    }
+
+    /**
+     * @return the track, or null if it has no samples
+     */
+    private Track parseTrack(ByteBuffer trak) throws IOException {
+        Track track = new Track(mData);
+        SampleTable table = new SampleTable();
+        long emptyEditUs = 0;
+        long mediaTime = 0;
+        while (trak.hasRemaining()) {
+            int type = trak.getInt(trak.position() + 4);
+            int end = nextBox(trak);
+            if (type == TYPE_TKHD) {
+                int version = trak.get() & 0xFF;
+                skip(trak, 3 + (version == 1 ? 16 : 8));
+                track.id = trak.getInt();
+            } else if (type == TYPE_EDTS) {
+                ByteBuffer edts = box(trak, end);
+                while (edts.hasRemaining()) {
+                    int edtsType = edts.getInt(edts.position() + 4);
+                    int edtsEnd = nextBox(edts);
+                    if (edtsType == TYPE_ELST) {
+                        long[] edit = parseEditList(edts);
+                        emptyEditUs = edit[0];
+                        mediaTime = edit[1];
+                    }
+                    edts.position(edtsEnd);
+                }
+            } else if (type == TYPE_MDIA) {
+                parseMedia(box(trak, end), track, table);
+            }
+            trak.position(end);
+        }
+        if (table.sizes == null || table.sizes.length == 0) {
+            return null;
+        }
+        table.expand(track, mediaTime, emptyEditUs);
+        return track;
+    }
+
+    /**
+     * Reads the leading empty edits and the media time of the first edit that shows media,
+     * the common way encoders compensate the composition offset of B-frames.
+     *
+     * @return {empty edit duration in microseconds, media start time in the track timescale}
+     */
+    private long[] parseEditList(ByteBuffer elst) {
+        int version = elst.get() & 0xFF;
+        skip(elst, 3);
+        int count = elst.getInt();
+        long emptyUs = 0;
+        for (int i = 0; i < count; i++) {
+            long duration = version == 1 ? elst.getLong() : elst.getInt() & 0xFFFFFFFFL;
+            long mediaTime = version == 1 ? elst.getLong() : elst.getInt();
+            skip(elst, 4);
+            if (mediaTime == -1) {
+                emptyUs += scale(duration, mMovieTimescale);
+            } else {
+                return new long[]{emptyUs, mediaTime};
+            }
+        }
+        return new long[]{emptyUs, 0};
+    }
+
+    private void parseMedia(ByteBuffer mdia, Track track, SampleTable table) throws IOException {
+        while (mdia.hasRemaining()) {
+            int type = mdia.getInt(mdia.position() + 4);
+            int end = nextBox(mdia);
+            if (type == TYPE_MDHD) {
+                int version = mdia.get() & 0xFF;
+                skip(mdia, 3 + (version == 1 ? 16 : 8));
+                track.timescale = mdia.getInt();
+                long duration = version == 1 ? mdia.getLong() : mdia.getInt() & 0xFFFFFFFFL;
+                if (track.timescale <= 0) {
+                    throw new IOException("Invalid timescale in track " + track.id);
+                }
+                track.durationUs = scale(duration, track.timescale);
+            } else if (type == TYPE_HDLR) {
+                skip(mdia, 8);
+                int handler = mdia.getInt();
+                if (handler == HANDLER_VIDE) {
+                    track.type = TRACK_TYPE_VIDEO;
+                } else if (handler == HANDLER_SOUN) {
+                    track.type = TRACK_TYPE_AUDIO;
+                }
+            } else if (type == TYPE_MINF) {
+                ByteBuffer minf = box(mdia, end);
+                while (minf.hasRemaining()) {
+                    int minfType = minf.getInt(minf.position() + 4);
+                    int minfEnd = nextBox(minf);
+                    if (minfType == TYPE_STBL) {
+                        parseSampleTable(box(minf, minfEnd), track, table);
+                    }
+                    minf.position(minfEnd);
+                }
+            }
+            mdia.position(end);
+        }
+    }
+
+    private void parseSampleTable(ByteBuffer stbl, Track track, SampleTable table) {
+        while (stbl.hasRemaining()) {
+            int type = stbl.getInt(stbl.position() + 4);
+            int end = nextBox(stbl);
+            ByteBuffer box = box(stbl, end);
+            if (type == TYPE_STSD) {
+                parseSampleDescription(box, track);
+            } else if (type == TYPE_STTS) {
+                skip(box, 4);
+                int count = box.getInt();
+                table.timeCounts = new int[count];
+                table.timeDeltas = new int[count];
+                for (int i = 0; i < count; i++) {
+                    table.timeCounts[i] = box.getInt();
+                    table.timeDeltas[i] = box.getInt();
+                }
+            } else if (type == TYPE_CTTS) {
+                skip(box, 4);
+                int count = box.getInt();
+                table.offsetCounts = new int[count];
+                table.offsets = new int[count];
+                for (int i = 0; i < count; i++) {
+                    table.offsetCounts[i] = box.getInt();
+                    // signed in version 1, and in practice in version 0 as well
+                    table.offsets[i] = box.getInt();
+                }
+            } else if (type == TYPE_STSS) {
+                skip(box, 4);
+                int[] syncSamples = new int[box.getInt()];
+                for (int i = 0; i < syncSamples.length; i++) {
+                    syncSamples[i] = box.getInt() - 1;
+                }
+                track.syncSamples = syncSamples;
+            } else if (type == TYPE_STSC) {
+                skip(box, 4);
+                int count = box.getInt();
+                table.firstChunks = new int[count];
+                table.samplesPerChunk = new int[count];
+                for (int i = 0; i < count; i++) {
+                    table.firstChunks[i] = box.getInt() - 1;
+                    table.samplesPerChunk[i] = box.getInt();
+                    skip(box, 4);
+                }
+            } else if (type == TYPE_STSZ) {
+                skip(box, 4);
+                int sampleSize = box.getInt();
+                int[] sizes = new int[box.getInt()];
+                if (sampleSize != 0) {
+                    Arrays.fill(sizes, sampleSize);
+                } else {
+                    for (int i = 0; i < sizes.length; i++) {
+                        sizes[i] = box.getInt();
+                    }
+                }
+                table.sizes = sizes;
+            } else if (type == TYPE_STCO || type == TYPE_CO64) {
+                skip(box, 4);
+                long[] chunkOffsets = new long[box.getInt()];
+                for (int i = 0; i < chunkOffsets.length; i++) {
+                    chunkOffsets[i] = type == TYPE_CO64 ? box.getLong() : box.getInt() & 0xFFFFFFFFL;
+                }
+                table.chunkOffsets = chunkOffsets;
+            }
+            stbl.position(end);
+        }
+    }
+
+    /**
+     * Reads the first sample entry: codec, picture size or audio layout, and the decoder
+     * configuration box.
+     */
+    private static void parseSampleDescription(ByteBuffer stsd, Track track) {
+        skip(stsd, 8);
+        track.codec = fourccToString(stsd.getInt(stsd.position() + 4));
+        int end = nextBox(stsd);
+        // reserved and data_reference_index
+        skip(stsd, 8);
+        if (track.type == TRACK_TYPE_VIDEO) {
+            skip(stsd, 16);
+            track.width = stsd.getShort() & 0xFFFF;
+            track.height = stsd.getShort() & 0xFFFF;
+            skip(stsd, 50);
+        } else if (track.type == TRACK_TYPE_AUDIO) {
+            int version = stsd.getShort() & 0xFFFF;
+            skip(stsd, 6);
+            track.channelCount = stsd.getShort() & 0xFFFF;
+            skip(stsd, 6);
+            track.sampleRate = (stsd.getInt() >>> 16);
+            // QuickTime sound description versions append fields
+            if (version == 1) {
+                skip(stsd, 16);
+            } else if (version == 2) {
+                skip(stsd, 4);
+                track.sampleRate = (int) Math.round(Double.longBitsToDouble(stsd.getLong()));
+                track.channelCount = stsd.getInt();
+                skip(stsd, 20);
+            }
+        } else {
+            stsd.position(end);
+            return;
+        }
+        while (stsd.position() + 8 <= end) {
+            int type = stsd.getInt(stsd.position() + 4);
+            int childEnd = nextBox(stsd);
+            for (int configType : CODEC_CONFIG_TYPES) {
+                if (type == configType) {
+                    track.codecConfig = box(stsd, childEnd).slice();
+                    track.codecConfigType = fourccToString(type);
+                }
+            }
+            stsd.position(childEnd);
+        }
+        stsd.position(end);
+    }
+
+    /**
+     * Run-length coded tables of a track, expanded into per-sample arrays once complete.
+     */
+    private static final class SampleTable {
+        int[] sizes;
+        long[] chunkOffsets;
+        int[] firstChunks;
+        int[] samplesPerChunk;
+        int[] timeCounts;
+        int[] timeDeltas;
+        int[] offsetCounts;
+        int[] offsets;
+
+        void expand(Track track, long mediaTime, long emptyEditUs) throws IOException {
+            int count = sizes.length;
+            if (chunkOffsets == null || firstChunks == null || timeCounts == null) {
+                throw new IOException("Incomplete sample table in track " + track.id);
+            }
+            track.sizes = sizes;
+
+            long[] sampleOffsets = new long[count];
+            int sample = 0;
+            for (int entry = 0; entry < firstChunks.length && sample < count; entry++) {
+                int lastChunk = entry + 1 < firstChunks.length ? firstChunks[entry + 1] : chunkOffsets.length;
+                for (int chunk = firstChunks[entry]; chunk < lastChunk && sample < count; chunk++) {
+                    long offset = chunkOffsets[chunk];
+                    for (int i = 0; i < samplesPerChunk[entry] && sample < count; i++) {
+                        sampleOffsets[sample] = offset;
+                        offset += sizes[sample++];
+                    }
+                }
+            }
+            if (sample < count) {
+                throw new IOException("Chunk table covers " + sample + " of " + count + " samples");
+            }
+            track.offsets = sampleOffsets;
+
+            long[] timesUs = new long[count];
+            long decodeTime = 0;
+            int timeEntry = 0;
+            int timeLeft = timeCounts.length > 0 ? timeCounts[0] : 0;
+            int offsetEntry = 0;
+            int offsetLeft = offsetCounts != null && offsetCounts.length > 0 ? offsetCounts[0] : 0;
+            for (int i = 0; i < count; i++) {
+                long compositionOffset = 0;
+                if (offsetCounts != null) {
+                    while (offsetLeft == 0 && offsetEntry + 1 < offsetCounts.length) {
+                        offsetLeft = offsetCounts[++offsetEntry];
+                    }
+                    compositionOffset = offsets[offsetEntry];
+                    offsetLeft--;
+                }
+                timesUs[i] = emptyEditUs + scale(decodeTime + compositionOffset - mediaTime, track.timescale);
+                while (timeLeft == 0 && timeEntry + 1 < timeCounts.length) {
+                    timeLeft = timeCounts[++timeEntry];
+                }
+                decodeTime += timeDeltas.length > 0 ? timeDeltas[timeEntry] : 0;
+                timeLeft--;
+            }
+            track.timesUs = timesUs;
+        }
+    }
+
+    /**
+     * Steps over a box header at the current position, the box type is the int at
+     * {@code position() + 4} before the call.
+     *
+     * @return the end of the box
+     */
+    private static int nextBox(ByteBuffer buffer) {
+        int start = buffer.position();
+        long size = buffer.getInt() & 0xFFFFFFFFL;
+        buffer.getInt();
+        if (size == 1) {
+            size = buffer.getLong();
+        } else if (size == 0) {
+            size = buffer.limit() - start;
+        }
+        if (size < 8 || start + size > buffer.limit()) {
+            throw new IllegalArgumentException("Box at " + start + " overruns its parent");
+        }
+        return (int) (start + size);
+    }
+
+    /**
+     * @return a view of the rest of the current box, limited to {@code end}
+     */
+    private static ByteBuffer box(ByteBuffer buffer, int end) {
+        ByteBuffer box = buffer.duplicate();
+        box.limit(end);
+        return box;
+    }
+
+    private static void skip(ByteBuffer buffer, int count) {
+        buffer.position(buffer.position() + count);
+    }
+
+    private static long scale(long value, long timescale) {
+        return value * 1000000L / timescale;
+    }
+
+    static int fourcc(String type) {
+        return (type.charAt(0) << 24) | (type.charAt(1) << 16) | (type.charAt(2) << 8) | type.charAt(3);
+    }
+
+    private static String fourccToString(int type) {
+        return new String(new char[]{
+                (char) (type >>> 24), (char) ((type >>> 16) & 0xFF), (char) ((type >>> 8) & 0xFF), (char) (type & 0xFF)
+        });
+    }
+}
@@ -0,0 +1,131 @@
+package com.myth.frameplayer;
+
+import android.media.MediaFormat;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link SampleSource} reading one track of an {@link Mp4Demuxer}. Samples are copied
+ * straight from the file mapping into the codec buffer, with H.264/H.265 length prefixes
+ * rewritten to start codes on the way.
+ */
+class Mp4SampleSource implements SampleSource {
+    private static final String TAG = Mp4SampleSource.class.getSimpleName();
+
+    private final Mp4Demuxer.Track mTrack;
+    private final ByteBuffer mView;
+    private final int mNalLengthSize;
+    private int mSample;
+
+    Mp4SampleSource(Mp4Demuxer.Track track) {
+        mTrack = track;
+        mView = track.newView();
+        ByteBuffer config = track.getCodecConfig();
+        mNalLengthSize = config == null ? 0 : Mp4CodecConfig.getNalLengthSize(track.getCodecConfigType(), config);
+    }
+
+    /**
+     * Describes {@code track} for {@code MediaCodec}.
+     *
+     * @return the format, or null if the codec is not one this source can feed
+     */
+    static MediaFormat createFormat(Mp4Demuxer.Track track) {
+        String codec = track.getCodec();
+        ByteBuffer config = track.getCodecConfig();
+        if (config == null) {
+            return null;
+        }
+        MediaFormat format;
+        if ("avc1".equals(codec) || "avc3".equals(codec) || "hvc1".equals(codec) || "hev1".equals(codec)) {
+            int nalLengthSize = Mp4CodecConfig.getNalLengthSize(track.getCodecConfigType(), config);
+            if (nalLengthSize < 3) {
+                // 1 and 2 byte length fields can not be rewritten in place
+                return null;
+            }
+            boolean avc = "avcC".equals(track.getCodecConfigType());
+            format = MediaFormat.createVideoFormat(avc ? "video/avc" : "video/hevc",
+                    track.getWidth(), track.getHeight());
+            if (avc) {
+                byte[][] parameterSets = Mp4CodecConfig.getAvcParameterSets(config);
+                format.setByteBuffer("csd-0", ByteBuffer.wrap(parameterSets[0]));
+                format.setByteBuffer("csd-1", ByteBuffer.wrap(parameterSets[1]));
+            } else {
+                format.setByteBuffer("csd-0", ByteBuffer.wrap(Mp4CodecConfig.getHevcParameterSets(config)));
+            }
+            format.setInteger(MediaFormat.KEY_FRAME_RATE, Math.round(track.getFrameRate()));
+        } else if ("mp4a".equals(codec) && "esds".equals(track.getCodecConfigType())) {
+            byte[] audioSpecificConfig = Mp4CodecConfig.getDecoderSpecificInfo(config);
+            if (audioSpecificConfig == null) {
+                return null;
+            }
+            format = MediaFormat.createAudioFormat("audio/mp4a-latm",
+                    track.getSampleRate(), track.getChannelCount());
+            format.setByteBuffer("csd-0", ByteBuffer.wrap(audioSpecificConfig));
+        } else {
+            return null;
+        }
+        format.setLong(MediaFormat.KEY_DURATION, track.getDurationUs());
+        format.setInteger(MediaFormat.KEY_MAX_INPUT_SIZE, track.getMaxSampleSize());
+        return format;
+    }
+
+    @Override
+    public int readSampleData(ByteBuffer buffer, int offset) {
+        if (mSample >= mTrack.getSampleCount()) {
+            return -1;
+        }
+        mTrack.selectSample(mView, mSample);
+        int size = mView.remaining();
+        if (buffer.capacity() - offset < size) {
+            // as MediaExtractor does
+            throw new IllegalArgumentException("buffer too small for sample " + mSample);
+        }
+        buffer.clear();
+        buffer.position(offset);
+        buffer.put(mView);
+        buffer.flip();
+        buffer.position(offset);
+        if (mNalLengthSize > 0 && !Mp4CodecConfig.toAnnexB(buffer, offset, size, mNalLengthSize)) {
+            Log.w(TAG, "malformed NAL units in sample " + mSample);
+        }
+        return size;
+    }
+
+    @Override
+    public long getSampleTime() {
+        return mSample < mTrack.getSampleCount() ? mTrack.getPresentationTimeUs(mSample) : -1;
+    }
+
+    @Override
+    public int getSampleFlags() {
+        return mSample < mTrack.getSampleCount() && mTrack.isSyncSample(mSample) ? SAMPLE_FLAG_SYNC : 0;
+    }
+
+    @Override
+    public boolean advance() {
+        if (mSample < mTrack.getSampleCount()) {
+            mSample++;
+        }
+        return mSample < mTrack.getSampleCount();
+    }
+
+    @Override
+    public void seekTo(long timeUs) {
+        mSample = mTrack.getSyncSampleAtOrBefore(timeUs);
+    }
+
+    @Override
+    public boolean isSampleReady() {
+        return true;
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+    }
+
+    @Override
+    public void release() {
+        // the mapping is unmapped once the demuxer is collected
+    }
+}
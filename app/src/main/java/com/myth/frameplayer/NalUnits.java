@@ -0,0 +1,44 @@
+package com.myth.frameplayer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Looks into H.264 samples in Annex B form, the way both {@link SampleSource}s hand them to
+ * the decoder.
+ */
+final class NalUnits {
+
+    private static final int AVC_TYPE_SLICE = 1;
+    private static final int AVC_TYPE_IDR_SLICE = 5;
+
+    private NalUnits() {
+    }
+
+    /**
+     * Whether the picture in the sample is not used as a reference by any other, i.e. its
+     * first slice has {@code nal_ref_idc} 0, so it can be left out without breaking the
+     * frames after it.
+     *
+     * @return false as well when the sample holds no slice
+     */
+    static boolean isNonReferenceAvc(ByteBuffer sample, int offset, int size) {
+        int end = offset + size;
+        int zeros = 0;
+        for (int i = offset; i < end - 1; i++) {
+            int b = sample.get(i) & 0xff;
+            if (b == 0) {
+                zeros++;
+                continue;
+            }
+            if (b == 1 && zeros >= 2) {
+                int header = sample.get(i + 1) & 0xff;
+                int type = header & 0x1f;
+                if (type >= AVC_TYPE_SLICE && type <= AVC_TYPE_IDR_SLICE) {
+                    return (header & 0x60) == 0;
+                }
+            }
+            zeros = 0;
+        }
+        return false;
+    }
+}
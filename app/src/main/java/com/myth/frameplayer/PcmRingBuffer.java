@@ -0,0 +1,276 @@
+package com.myth.frameplayer;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Preallocated single-producer/single-consumer byte ring for decoded PCM.
+ * <p>
+ * The producer (audio decode thread) and the consumer (AudioTrack writer) only share two
+ * monotonically increasing volatile positions, so neither takes a lock and steady-state
+ * transfer does not allocate. A blocked side parks and is unparked by the other one.
+ * While {@link #setPaused paused} both sides park without a timeout, so a paused player costs
+ * no wakeups.
+ */
+public class PcmRingBuffer {
+
+    /**
+     * upper bound of a single park, guards against a missed unpark
+     */
+    private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final ByteBuffer mStorage;
+    private final ByteBuffer mWriteView;
+    private final ByteBuffer mReadView;
+    private final int mCapacity;
+    private final int mMask;
+
+    private volatile long mWritePosition;
+    private volatile long mReadPosition;
+    private volatile boolean mEndOfStream;
+    private volatile boolean mClosed;
+    private volatile boolean mPaused;
+
+    private volatile Thread mParkedProducer;
+    private volatile Thread mParkedConsumer;
+
+    private volatile long mUnderrunCount;
+    private volatile long mOverrunCount;
+    private volatile PlayerMetrics mMetrics;
+
+    /**
+     * @param capacity size in bytes, rounded up to a power of two
+     */
+    public PcmRingBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        int rounded = Integer.highestOneBit(capacity);
+        mCapacity = rounded < capacity ? rounded << 1 : rounded;
+        mMask = mCapacity - 1;
+        mStorage = ByteBuffer.allocateDirect(mCapacity);
+        mWriteView = mStorage.duplicate();
+        mReadView = mStorage.duplicate();
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * Returns the number of buffered bytes not yet consumed.
+     */
+    public int getFillLevel() {
+        return (int) (mWritePosition - mReadPosition);
+    }
+
+    /**
+     * Also counts underruns into {@code metrics}.
+     */
+    public void setMetrics(PlayerMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    /**
+     * Number of times the consumer found the ring empty before the end of stream.
+     */
+    public long getUnderrunCount() {
+        return mUnderrunCount;
+    }
+
+    /**
+     * Number of times the producer found the ring full and had to wait.
+     */
+    public long getOverrunCount() {
+        return mOverrunCount;
+    }
+
+    /**
+     * Copies as much of {@code src} as fits without blocking.
+     *
+     * @return number of bytes copied
+     */
+    public int write(ByteBuffer src) {
+        int total = 0;
+        int limit = src.limit();
+        while (src.hasRemaining()) {
+            long write = mWritePosition;
+            int free = mCapacity - (int) (write - mReadPosition);
+            if (free == 0) {
+                break;
+            }
+            int offset = (int) (write & mMask);
+            int chunk = Math.min(Math.min(free, mCapacity - offset), src.remaining());
+            src.limit(src.position() + chunk);
+            mWriteView.limit(offset + chunk);
+            mWriteView.position(offset);
+            mWriteView.put(src);
+            src.limit(limit);
+            mWritePosition = write + chunk;
+            total += chunk;
+        }
+        if (total > 0) {
+            unpark(mParkedConsumer);
+        }
+        return total;
+    }
+
+    /**
+     * Copies all of {@code src}, parking while the ring is full.
+     *
+     * @return false if the ring was closed before everything was written
+     */
+    public boolean writeFully(ByteBuffer src) {
+        boolean waited = false;
+        while (src.hasRemaining()) {
+            if (mClosed) {
+                return false;
+            }
+            if (write(src) == 0) {
+                if (!waited) {
+                    mOverrunCount++;
+                    waited = true;
+                }
+                mParkedProducer = Thread.currentThread();
+                if (mWritePosition - mReadPosition == mCapacity && !mClosed) {
+                    park();
+                }
+                mParkedProducer = null;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns a view of the contiguous readable region starting at the read position, at most
+     * {@code maxBytes} long, parking until data is available. The view is reused between
+     * calls and is only valid until {@link #commitRead(int)}.
+     *
+     * @return null once the stream has ended and everything was consumed, or the ring was closed
+     */
+    public ByteBuffer awaitReadable(int maxBytes) {
+        boolean counted = false;
+        while (true) {
+            if (mClosed) {
+                return null;
+            }
+            long read = mReadPosition;
+            int available = (int) (mWritePosition - read);
+            if (available > 0) {
+                int offset = (int) (read & mMask);
+                int chunk = Math.min(Math.min(available, mCapacity - offset), maxBytes);
+                mReadView.limit(offset + chunk);
+                mReadView.position(offset);
+                return mReadView;
+            }
+            if (mEndOfStream) {
+                return null;
+            }
+            if (!counted && !mPaused) {
+                mUnderrunCount++;
+                counted = true;
+                PlayerMetrics metrics = mMetrics;
+                if (metrics != null) {
+                    metrics.increment(PlayerMetrics.AUDIO_UNDERRUNS);
+                }
+            }
+            mParkedConsumer = Thread.currentThread();
+            if (mWritePosition == mReadPosition && !mEndOfStream && !mClosed) {
+                park();
+            }
+            mParkedConsumer = null;
+        }
+    }
+
+    /**
+     * Marks {@code count} bytes of the region returned by {@link #awaitReadable} as consumed.
+     */
+    public void commitRead(int count) {
+        mReadPosition += count;
+        unpark(mParkedProducer);
+    }
+
+    /**
+     * Copies up to {@code length} buffered bytes into {@code dst} without blocking.
+     */
+    public int read(byte[] dst, int offset, int length) {
+        int total = 0;
+        while (total < length) {
+            long read = mReadPosition;
+            int available = (int) (mWritePosition - read);
+            if (available == 0) {
+                break;
+            }
+            int index = (int) (read & mMask);
+            int chunk = Math.min(Math.min(available, mCapacity - index), length - total);
+            mReadView.limit(index + chunk);
+            mReadView.position(index);
+            mReadView.get(dst, offset + total, chunk);
+            mReadPosition = read + chunk;
+            total += chunk;
+        }
+        if (total > 0) {
+            unpark(mParkedProducer);
+        }
+        return total;
+    }
+
+    /**
+     * Signals that the producer will not write any more, the consumer drains what is left.
+     */
+    public void endOfStream() {
+        mEndOfStream = true;
+        unpark(mParkedConsumer);
+    }
+
+    /**
+     * Wakes both sides and makes further reads and writes fail.
+     */
+    public void close() {
+        mClosed = true;
+        unpark(mParkedConsumer);
+        unpark(mParkedProducer);
+    }
+
+    /**
+     * While paused, a blocked side parks until the other side, {@link #close()} or the end of
+     * the pause wakes it, instead of checking again every few milliseconds; running dry is
+     * not counted as an underrun. Stays set across {@link #reset()}.
+     */
+    public void setPaused(boolean paused) {
+        mPaused = paused;
+        if (!paused) {
+            unpark(mParkedConsumer);
+            unpark(mParkedProducer);
+        }
+    }
+
+    /**
+     * Empties the ring and reopens it. Must only be called while neither side is active.
+     */
+    public void reset() {
+        mReadPosition = mWritePosition;
+        mEndOfStream = false;
+        mClosed = false;
+    }
+
+    public void resetStats() {
+        mUnderrunCount = 0;
+        mOverrunCount = 0;
+    }
+
+    private void park() {
+        if (mPaused) {
+            LockSupport.park(this);
+        } else {
+            LockSupport.parkNanos(this, PARK_NANOS);
+        }
+    }
+
+    private static void unpark(Thread thread) {
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+}
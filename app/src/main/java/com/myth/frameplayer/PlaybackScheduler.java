@@ -0,0 +1,104 @@
+package com.myth.frameplayer;
+
+import android.os.Build;
+import android.os.HandlerThread;
+import android.os.Looper;
+
+/**
+ * Runs any number of {@link FramePlayer}s on a fixed set of threads, e.g. for a grid of
+ * previews.
+ * <p>
+ * Each lane is a looper thread plus a shared {@link DemuxThread}. A player attached with
+ * {@link FramePlayer#setPlaybackScheduler} goes to the lane with the fewest players and posts
+ * its frame ticks, seeks and codec callbacks to the lane's message queue, which runs them in
+ * deadline order across all players of the lane. How late each player's ticks run and the
+ * CPU time it costs show up in its {@link PlayerMetrics}.
+ */
+public class PlaybackScheduler {
+
+    /**
+     * The threads a group of players shares.
+     */
+    static final class Lane {
+        final HandlerThread thread;
+        final DemuxThread demuxThread;
+        int playerCount;
+
+        Lane(int index) {
+            thread = new HandlerThread("Playback " + index);
+            thread.start();
+            demuxThread = new DemuxThread(true);
+            demuxThread.start();
+        }
+
+        Looper getLooper() {
+            return thread.getLooper();
+        }
+    }
+
+    private final Lane[] mLanes;
+    private boolean mQuit;
+
+    /**
+     * Creates a lane per core, at most {@code maxThreads}.
+     */
+    public PlaybackScheduler(int maxThreads) {
+        if (maxThreads <= 0) {
+            throw new IllegalArgumentException("maxThreads must be positive");
+        }
+        int count = Math.min(maxThreads, Runtime.getRuntime().availableProcessors());
+        mLanes = new Lane[Math.max(1, count)];
+        for (int i = 0; i < mLanes.length; i++) {
+            mLanes[i] = new Lane(i);
+        }
+    }
+
+    /**
+     * @return the lane with the fewest players, now counting one more
+     */
+    synchronized Lane attach() {
+        if (mQuit) {
+            throw new IllegalStateException("scheduler quit");
+        }
+        Lane lane = mLanes[0];
+        for (Lane each : mLanes) {
+            if (each.playerCount < lane.playerCount) {
+                lane = each;
+            }
+        }
+        lane.playerCount++;
+        return lane;
+    }
+
+    synchronized void detach(Lane lane) {
+        lane.playerCount--;
+    }
+
+    public int getThreadCount() {
+        return mLanes.length;
+    }
+
+    public synchronized int getPlayerCount() {
+        int count = 0;
+        for (Lane lane : mLanes) {
+            count += lane.playerCount;
+        }
+        return count;
+    }
+
+    /**
+     * Stops the threads, on API 18+ once the messages already queued are handled. Players
+     * still attached stop with them, release them first.
+     */
+    public synchronized void quit() {
+        mQuit = true;
+        for (Lane lane : mLanes) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+                lane.thread.quitSafely();
+            } else {
+                lane.thread.quit();
+            }
+            lane.demuxThread.quit();
+        }
+    }
+}
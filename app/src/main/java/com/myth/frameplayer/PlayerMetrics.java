@@ -0,0 +1,198 @@
+package com.myth.frameplayer;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters and histograms of the playback pipeline, for telemetry. Recording is lock-free
+ * and allocation free from any thread; {@link #snapshot()} copies everything at once for
+ * reporting.
+ */
+public final class PlayerMetrics {
+
+    /**
+     * frames handed to the display
+     */
+    public static final int FRAMES_RENDERED = 0;
+    /**
+     * frames thrown away for being past the lateness threshold
+     */
+    public static final int FRAMES_DROPPED = 1;
+    /**
+     * frames rendered, but after their deadline
+     */
+    public static final int FRAMES_LATE = 2;
+    /**
+     * codec dequeue calls that timed out without a buffer
+     */
+    public static final int DEQUEUE_TIMEOUTS = 3;
+    /**
+     * times the AudioTrack writer ran out of decoded PCM
+     */
+    public static final int AUDIO_UNDERRUNS = 4;
+    /**
+     * frame ticks the player thread got to later than the render-ahead window, because it
+     * was busy, e.g. with other players on a {@link PlaybackScheduler}
+     */
+    public static final int MISSED_DEADLINES = 5;
+    /**
+     * nanoseconds of CPU time the player thread spent on this player
+     */
+    public static final int PLAYER_CPU_TIME = 6;
+    /**
+     * frames left out before decoding to catch up, as nothing refers to them
+     */
+    public static final int FRAMES_SKIPPED_NON_REFERENCE = 7;
+    /**
+     * frames jumped over to catch up by decoding on from a later sync sample
+     */
+    public static final int FRAMES_SKIPPED_TO_SYNC = 8;
+    /**
+     * steps and seeks merged into a later one before the player thread got to them
+     */
+    public static final int COMMANDS_COALESCED = 9;
+    private static final int COUNTER_COUNT = 10;
+
+    /**
+     * nanoseconds from queueing a video sample to its decoded frame
+     */
+    public static final int DECODE_LATENCY = 0;
+    /**
+     * nanoseconds the interval between two rendered frames was off the nominal one
+     */
+    public static final int FRAME_JITTER = 1;
+    /**
+     * nanoseconds from start() to the first frame on screen
+     */
+    public static final int TIME_TO_FIRST_FRAME = 2;
+    /**
+     * nanoseconds from resume() to the next frame on screen
+     */
+    public static final int RESUME_LATENCY = 3;
+    /**
+     * nanoseconds from prepareAsync() to the first frame on screen, ready to start
+     */
+    public static final int PREPARE_LATENCY = 4;
+    /**
+     * nanoseconds from a step or seek request to the player thread acting on it, together
+     * with the requests merged into it
+     */
+    public static final int COMMAND_LATENCY = 5;
+    private static final int HISTOGRAM_COUNT = 6;
+
+    /**
+     * Receives a snapshot every reporting interval, see
+     * {@link FramePlayer#setMetricsListener}.
+     */
+    public interface MetricsListener {
+        void onMetrics(Snapshot snapshot);
+    }
+
+    private final AtomicLongArray mCounters = new AtomicLongArray(COUNTER_COUNT);
+    private final Histogram[] mHistograms = new Histogram[HISTOGRAM_COUNT];
+
+    public PlayerMetrics() {
+        for (int i = 0; i < HISTOGRAM_COUNT; i++) {
+            mHistograms[i] = new Histogram(Histogram.DURATION_BOUNDS_NS);
+        }
+    }
+
+    public void increment(int counter) {
+        mCounters.incrementAndGet(counter);
+    }
+
+    public void add(int counter, long delta) {
+        mCounters.addAndGet(counter, delta);
+    }
+
+    /**
+     * @return the current value of one counter, without taking a whole snapshot
+     */
+    public long getCounter(int counter) {
+        return mCounters.get(counter);
+    }
+
+    public void record(int histogram, long value) {
+        mHistograms[histogram].record(value);
+    }
+
+    public void reset() {
+        for (int i = 0; i < COUNTER_COUNT; i++) {
+            mCounters.set(i, 0);
+        }
+        for (Histogram histogram : mHistograms) {
+            histogram.reset();
+        }
+    }
+
+    public Snapshot snapshot() {
+        long[] counters = new long[COUNTER_COUNT];
+        for (int i = 0; i < COUNTER_COUNT; i++) {
+            counters[i] = mCounters.get(i);
+        }
+        Histogram.Snapshot[] histograms = new Histogram.Snapshot[HISTOGRAM_COUNT];
+        for (int i = 0; i < HISTOGRAM_COUNT; i++) {
+            histograms[i] = mHistograms[i].snapshot();
+        }
+        return new Snapshot(System.nanoTime(), counters, histograms);
+    }
+
+    /**
+     * Immutable copy of the metrics at one point in time.
+     */
+    public static final class Snapshot {
+        private final long mTimeNanos;
+        private final long[] mCounters;
+        private final Histogram.Snapshot[] mHistograms;
+
+        Snapshot(long timeNanos, long[] counters, Histogram.Snapshot[] histograms) {
+            mTimeNanos = timeNanos;
+            mCounters = counters;
+            mHistograms = histograms;
+        }
+
+        /**
+         * @return {@link System#nanoTime()} when the snapshot was taken
+         */
+        public long getTimeNanos() {
+            return mTimeNanos;
+        }
+
+        /**
+         * @param counter one of {@link #FRAMES_RENDERED} to {@link #COMMANDS_COALESCED}
+         */
+        public long getCounter(int counter) {
+            return mCounters[counter];
+        }
+
+        /**
+         * @param histogram one of {@link #DECODE_LATENCY} to {@link #COMMAND_LATENCY}
+         */
+        public Histogram.Snapshot getHistogram(int histogram) {
+            return mHistograms[histogram];
+        }
+
+        @Override
+        public String toString() {
+            Histogram.Snapshot latency = mHistograms[DECODE_LATENCY];
+            Histogram.Snapshot jitter = mHistograms[FRAME_JITTER];
+            return "rendered " + mCounters[FRAMES_RENDERED]
+                    + ", dropped " + mCounters[FRAMES_DROPPED]
+                    + ", skipped " + mCounters[FRAMES_SKIPPED_NON_REFERENCE] + " non-reference/"
+                    + mCounters[FRAMES_SKIPPED_TO_SYNC] + " to sync"
+                    + ", late " + mCounters[FRAMES_LATE]
+                    + ", dequeue timeouts " + mCounters[DEQUEUE_TIMEOUTS]
+                    + ", underruns " + mCounters[AUDIO_UNDERRUNS]
+                    + ", missed deadlines " + mCounters[MISSED_DEADLINES]
+                    + ", cpu " + mCounters[PLAYER_CPU_TIME] / 1000000 + " ms"
+                    + ", decode p50/p99 " + latency.getPercentile(50) / 1000 + "/"
+                    + latency.getPercentile(99) / 1000 + " us"
+                    + ", jitter p50/p99 " + jitter.getPercentile(50) / 1000 + "/"
+                    + jitter.getPercentile(99) / 1000 + " us"
+                    + ", ttff " + mHistograms[TIME_TO_FIRST_FRAME].getMax() / 1000000 + " ms"
+                    + ", resume " + mHistograms[RESUME_LATENCY].getMax() / 1000000 + " ms"
+                    + ", prepare " + mHistograms[PREPARE_LATENCY].getMax() / 1000000 + " ms"
+                    + ", commands coalesced " + mCounters[COMMANDS_COALESCED]
+                    + ", command p99 " + mHistograms[COMMAND_LATENCY].getPercentile(99) / 1000 + " us";
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.myth.frameplayer;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Playback state of a {@link FramePlayer}, changed only by atomic transitions that are
+ * checked against the allowed ones. Threads that have nothing to do while paused wait in
+ * {@link #awaitNotPaused()} without any timeout and are woken by the next transition.
+ */
+public final class PlayerState {
+
+    /**
+     * nothing prepared, or preparing failed
+     */
+    public static final int IDLE = 0;
+    /**
+     * codecs configured for the source, not playing
+     */
+    public static final int PREPARED = 1;
+    public static final int PLAYING = 2;
+    /**
+     * the clocks stand still and the player threads are parked
+     */
+    public static final int PAUSED = 3;
+    /**
+     * playing on once the seek target is on screen
+     */
+    public static final int SEEKING = 4;
+    /**
+     * the last frame was shown, the codecs are still prepared
+     */
+    public static final int ENDED = 5;
+    /**
+     * final, the player cannot be used any more
+     */
+    public static final int RELEASED = 6;
+
+    private static final String[] NAMES = {
+            "IDLE", "PREPARED", "PLAYING", "PAUSED", "SEEKING", "ENDED", "RELEASED"
+    };
+
+    /**
+     * bit {@code to} of entry {@code from} is set when the transition is allowed
+     */
+    private static final int[] TRANSITIONS = new int[NAMES.length];
+
+    static {
+        allow(IDLE, PREPARED, RELEASED);
+        allow(PREPARED, PLAYING, IDLE, RELEASED);
+        allow(PLAYING, PAUSED, SEEKING, ENDED, PREPARED, IDLE, RELEASED);
+        allow(PAUSED, PLAYING, SEEKING, ENDED, PREPARED, IDLE, RELEASED);
+        allow(SEEKING, PLAYING, PAUSED, ENDED, PREPARED, IDLE, RELEASED);
+        // seeking after the end shows the frame, from where playback can resume
+        allow(ENDED, PAUSED, PREPARED, IDLE, RELEASED);
+    }
+
+    private static void allow(int from, int... to) {
+        for (int state : to) {
+            TRANSITIONS[from] |= 1 << state;
+        }
+    }
+
+    /**
+     * Whether a player may go from {@code from} straight to {@code to}; staying in the same
+     * state is not a transition.
+     */
+    public static boolean canMove(int from, int to) {
+        return (TRANSITIONS[from] & 1 << to) != 0;
+    }
+
+    public static String name(int state) {
+        return NAMES[state];
+    }
+
+    private final AtomicInteger mState = new AtomicInteger(IDLE);
+
+    public int get() {
+        return mState.get();
+    }
+
+    /**
+     * Moves to {@code to} from whatever the current state is, if that transition is allowed.
+     *
+     * @return false if it is not, the state is then unchanged
+     */
+    boolean moveTo(int to) {
+        while (true) {
+            int from = mState.get();
+            if (!canMove(from, to)) {
+                return false;
+            }
+            if (mState.compareAndSet(from, to)) {
+                onChanged();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Moves from {@code from} to {@code to}, unless another transition got there first.
+     */
+    boolean compareAndMove(int from, int to) {
+        if (!canMove(from, to) || !mState.compareAndSet(from, to)) {
+            return false;
+        }
+        onChanged();
+        return true;
+    }
+
+    /**
+     * Parks the calling thread while paused.
+     *
+     * @return the state that ended the wait
+     */
+    int awaitNotPaused() throws InterruptedException {
+        int state = mState.get();
+        if (state != PAUSED) {
+            return state;
+        }
+        synchronized (this) {
+            while ((state = mState.get()) == PAUSED) {
+                wait();
+            }
+        }
+        return state;
+    }
+
+    private synchronized void onChanged() {
+        notifyAll();
+    }
+
+    @Override
+    public String toString() {
+        return name(get());
+    }
+}
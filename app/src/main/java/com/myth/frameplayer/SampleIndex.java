@@ -0,0 +1,134 @@
+package com.myth.frameplayer;
+
+import java.util.Arrays;
+
+/**
+ * Presentation timestamps of every sample of a video track and of its sync samples, in
+ * presentation order. Built once per source, it turns a frame number into an exact timestamp
+ * and finds the keyframe a seek has to start decoding from.
+ */
+class SampleIndex {
+
+    private final long[] mPresentationTimesUs;
+    private final long[] mSyncTimesUs;
+
+    SampleIndex(long[] presentationTimesUs, long[] syncTimesUs) {
+        mPresentationTimesUs = presentationTimesUs;
+        mSyncTimesUs = syncTimesUs;
+    }
+
+    /**
+     * Collects samples in decode order.
+     */
+    static class Builder {
+        private long[] mTimes = new long[256];
+        private long[] mSyncTimes = new long[16];
+        private int mCount;
+        private int mSyncCount;
+
+        Builder add(long presentationTimeUs, boolean sync) {
+            if (mCount == mTimes.length) {
+                mTimes = Arrays.copyOf(mTimes, mCount * 2);
+            }
+            mTimes[mCount++] = presentationTimeUs;
+            if (sync) {
+                if (mSyncCount == mSyncTimes.length) {
+                    mSyncTimes = Arrays.copyOf(mSyncTimes, mSyncCount * 2);
+                }
+                mSyncTimes[mSyncCount++] = presentationTimeUs;
+            }
+            return this;
+        }
+
+        SampleIndex build() {
+            long[] times = Arrays.copyOf(mTimes, mCount);
+            long[] syncTimes = Arrays.copyOf(mSyncTimes, mSyncCount);
+            Arrays.sort(times);
+            Arrays.sort(syncTimes);
+            return new SampleIndex(times, syncTimes);
+        }
+    }
+
+    int getFrameCount() {
+        return mPresentationTimesUs.length;
+    }
+
+    int getSyncFrameCount() {
+        return mSyncTimesUs.length;
+    }
+
+    long getPresentationTimeUs(int frame) {
+        return mPresentationTimesUs[frame];
+    }
+
+    long getSyncTimeUs(int syncFrame) {
+        return mSyncTimesUs[syncFrame];
+    }
+
+    /**
+     * Returns the last frame presented at or before {@code timeUs}, the first frame for
+     * earlier times.
+     */
+    int frameAt(long timeUs) {
+        return Math.max(0, floor(mPresentationTimesUs, timeUs));
+    }
+
+    /**
+     * Returns the timestamp of the last sync sample at or before {@code timeUs}, the first
+     * sync sample for earlier times.
+     */
+    long syncTimeAtOrBefore(long timeUs) {
+        if (mSyncTimesUs.length == 0) {
+            return 0;
+        }
+        return mSyncTimesUs[Math.max(0, floor(mSyncTimesUs, timeUs))];
+    }
+
+    /**
+     * Returns the timestamp of the first sync sample after {@code timeUs}, or -1 if none.
+     */
+    long syncTimeAfter(long timeUs) {
+        int index = floor(mSyncTimesUs, timeUs) + 1;
+        return index < mSyncTimesUs.length ? mSyncTimesUs[index] : -1;
+    }
+
+    /**
+     * Returns the first frame of the chunk that reverse playback decodes to show the frames
+     * up to {@code endFrame}: the start of their GOP if it is at most {@code maxFrames} long,
+     * otherwise as far back as {@code maxFrames} reach, decoded from the keyframe with the
+     * frames before the chunk thrown away.
+     */
+    int reverseChunkStart(int endFrame, int maxFrames) {
+        int gopStart = frameAt(syncTimeAtOrBefore(mPresentationTimesUs[endFrame]));
+        return Math.max(gopStart, endFrame - Math.max(1, maxFrames) + 1);
+    }
+
+    /**
+     * Returns the largest number of frames between two sync samples, the worst case a seek
+     * has to decode.
+     */
+    int getMaxGopLength() {
+        int max = 0;
+        for (int i = 0; i < mSyncTimesUs.length; i++) {
+            int start = frameAt(mSyncTimesUs[i]);
+            int end = i + 1 < mSyncTimesUs.length ? frameAt(mSyncTimesUs[i + 1]) : mPresentationTimesUs.length;
+            max = Math.max(max, end - start);
+        }
+        return max;
+    }
+
+    /**
+     * @return index of the last element not greater than {@code value}, -1 if there is none
+     */
+    private static int floor(long[] sorted, long value) {
+        int index = Arrays.binarySearch(sorted, value);
+        if (index >= 0) {
+            // step over duplicates to the last equal entry
+            while (index + 1 < sorted.length && sorted[index + 1] == value) {
+                index++;
+            }
+            return index;
+        }
+        return -index - 2;
+    }
+}
@@ -0,0 +1,74 @@
+package com.myth.frameplayer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the compressed samples of one track in decode order, the part of
+ * {@code MediaExtractor} the decoders use.
+ */
+interface SampleSource {
+
+    /**
+     * same value as {@code MediaExtractor.SAMPLE_FLAG_SYNC}
+     */
+    int SAMPLE_FLAG_SYNC = 1;
+
+    /**
+     * a sample holding codec configuration instead of media, same value as
+     * {@code MediaCodec.BUFFER_FLAG_CODEC_CONFIG}
+     */
+    int SAMPLE_FLAG_CODEC_CONFIG = 2;
+
+    /**
+     * a sample only decoded for the frames that refer to it, its own frame is not shown,
+     * same value as {@code MediaCodec.BUFFER_FLAG_DECODE_ONLY}
+     */
+    int SAMPLE_FLAG_DECODE_ONLY = 32;
+
+    /**
+     * Notified when a source that was not ready has its current sample, or its end, to read.
+     */
+    interface Listener {
+        void onSampleReady();
+    }
+
+    /**
+     * Copies the current sample into {@code buffer} starting at {@code offset}.
+     *
+     * @return the sample size, or -1 after the last sample
+     */
+    int readSampleData(ByteBuffer buffer, int offset);
+
+    /**
+     * @return presentation time of the current sample, or -1 after the last sample
+     */
+    long getSampleTime();
+
+    int getSampleFlags();
+
+    /**
+     * Moves to the next sample.
+     *
+     * @return false if there are no more samples
+     */
+    boolean advance();
+
+    /**
+     * Moves to the last sync sample at or before {@code timeUs}.
+     */
+    void seekTo(long timeUs);
+
+    /**
+     * Whether the current sample, or the end, can be read without waiting. Sources reading on
+     * the calling thread always can, the others block their reads until then.
+     */
+    boolean isSampleReady();
+
+    /**
+     * Sets the listener called, from any thread, once the source is ready after
+     * {@link #isSampleReady()} returned false. Sources that are always ready never call it.
+     */
+    void setListener(Listener listener);
+
+    void release();
+}
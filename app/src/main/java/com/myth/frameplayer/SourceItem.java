@@ -0,0 +1,238 @@
+package com.myth.frameplayer;
+
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A source opened for playback or extraction, with its formats and frame index.
+ */
+final class SourceItem extends Timeline.Item {
+    private static final String TAG = SourceItem.class.getSimpleName();
+    private static final boolean VERBOSE = true;
+
+    final DataSource source;
+    final long sourceVersion;
+    final int playlistIndex;
+    final MediaFormat videoFormat;
+    final MediaFormat audioFormat;
+    final SampleIndex index;
+    /**
+     * MediaExtractor track numbers, -1 when read by Mp4Demuxer or without audio
+     */
+    final int videoTrack;
+    final int audioTrack;
+
+    SourceItem(DataSource source, long sourceVersion, int playlistIndex,
+               SampleSource videoSource, MediaFormat videoFormat, int videoTrack,
+               SampleSource audioSource, MediaFormat audioFormat, int audioTrack,
+               SampleIndex index) {
+        super(new SampleSource[]{videoSource, audioSource},
+                new byte[][]{getCodecConfig(videoFormat), null},
+                videoFormat.getLong(MediaFormat.KEY_DURATION));
+        this.source = source;
+        this.sourceVersion = sourceVersion;
+        this.playlistIndex = playlistIndex;
+        this.videoFormat = videoFormat;
+        this.audioFormat = audioFormat;
+        this.index = index;
+        this.videoTrack = videoTrack;
+        this.audioTrack = audioTrack;
+    }
+
+    /**
+     * Opens the video track and, with {@code withAudio}, the audio track if any, through
+     * {@link Mp4Demuxer} when {@code mp4Demuxer} is set and it can map and read the
+     * source, otherwise through a MediaExtractor for each. Touches no playback state, so it
+     * can run ahead on another thread.
+     *
+     * @param index      frame index of the source if known, otherwise one is built or taken
+     *                   from {@code probeCache}
+     * @param probeCache keeps what was found out about the source for the next time, or null
+     */
+    static SourceItem open(DataSource source, int playlistIndex, SampleIndex index,
+                           boolean mp4Demuxer, boolean withAudio,
+                           MediaProbeCache probeCache) throws IOException {
+        if (probeCache == null || index != null) {
+            return open(source, playlistIndex, index, null, mp4Demuxer, withAudio);
+        }
+        long startNs = System.nanoTime();
+        MediaProbeCache.Probe probe = probeCache.get(source, withAudio);
+        SourceItem item = open(source, playlistIndex, probe == null ? null : probe.index,
+                probe, mp4Demuxer, withAudio);
+        long openNanos = System.nanoTime() - startNs;
+        if (probe != null) {
+            probeCache.onHit(probe, openNanos);
+        } else {
+            probeCache.put(source, new MediaProbeCache.Probe(item.videoTrack, item.audioTrack,
+                    withAudio, MediaProbeCache.TrackFormat.from(item.videoFormat),
+                    item.audioFormat == null ? null : MediaProbeCache.TrackFormat.from(item.audioFormat),
+                    item.index, openNanos));
+        }
+        return item;
+    }
+
+    /**
+     * @param probe what is known about the source: MediaExtractor tracks are then selected and
+     *              their formats created without looking at the others
+     */
+    private static SourceItem open(DataSource source, int playlistIndex, SampleIndex index,
+                                   MediaProbeCache.Probe probe, boolean mp4Demuxer,
+                                   boolean withAudio) throws IOException {
+        long version = source.getVersion();
+        if (mp4Demuxer) {
+            try {
+                ByteBuffer data = source.map();
+                if (data == null) {
+                    throw new IOException("Can not map " + source);
+                }
+                Mp4Demuxer demuxer = Mp4Demuxer.parse(data);
+                Mp4Demuxer.Track video = demuxer.getTrack(Mp4Demuxer.TRACK_TYPE_VIDEO);
+                Mp4Demuxer.Track audio = withAudio ? demuxer.getTrack(Mp4Demuxer.TRACK_TYPE_AUDIO) : null;
+                MediaFormat videoFormat = video == null ? null : Mp4SampleSource.createFormat(video);
+                MediaFormat audioFormat = audio == null ? null : Mp4SampleSource.createFormat(audio);
+                if (videoFormat != null && (audio == null || audioFormat != null)) {
+                    SampleSource videoSource = new Mp4SampleSource(video);
+                    return new SourceItem(source, version, playlistIndex,
+                            videoSource, videoFormat, -1,
+                            audio == null ? null : new Mp4SampleSource(audio), audioFormat, -1,
+                            index != null ? index : buildSampleIndex(videoSource));
+                }
+                Log.w(TAG, "Codecs not supported by Mp4Demuxer, using MediaExtractor");
+            } catch (IOException e) {
+                Log.w(TAG, "Mp4Demuxer failed, using MediaExtractor", e);
+            }
+        }
+        boolean probed = probe != null && probe.videoTrack >= 0;
+        MediaExtractor extractor = new MediaExtractor();
+        source.setOn(extractor);
+        int trackIndex = probed ? probe.videoTrack : selectTrack(extractor);
+        if (trackIndex < 0) {
+            extractor.release();
+            throw new RuntimeException("No video track found in " + source);
+        }
+        extractor.selectTrack(trackIndex);
+        MediaFormat videoFormat = probed
+                ? probe.videoFormat.toMediaFormat() : extractor.getTrackFormat(trackIndex);
+        SampleSource videoSource = new ExtractorSampleSource(extractor);
+
+        MediaFormat audioFormat = null;
+        SampleSource audioSource = null;
+        int audioTrackIndex = -1;
+        if (withAudio && !(probed && probe.audioFormat == null)) {
+            MediaExtractor audioExtractor = new MediaExtractor();
+            source.setOn(audioExtractor);
+            audioTrackIndex = probed ? probe.audioTrack : selectAudioTrack(audioExtractor);
+            if (audioTrackIndex < 0) {
+                audioExtractor.release();
+            } else {
+                audioExtractor.selectTrack(audioTrackIndex);
+                audioFormat = probed
+                        ? probe.audioFormat.toMediaFormat() : audioExtractor.getTrackFormat(audioTrackIndex);
+                audioSource = new ExtractorSampleSource(audioExtractor);
+            }
+        }
+        return new SourceItem(source, version, playlistIndex, videoSource, videoFormat, trackIndex,
+                audioSource, audioFormat, audioTrackIndex,
+                index != null ? index : buildSampleIndex(videoSource));
+    }
+
+    /**
+     * Whether decoders configured for {@code previous} can go on with this item. Video
+     * parameter sets are sent in-band at the switch, audio must be configured the same.
+     */
+    boolean canFollow(SourceItem previous) {
+        if (!sameValue(videoFormat, previous.videoFormat, MediaFormat.KEY_MIME)
+                || !sameValue(videoFormat, previous.videoFormat, MediaFormat.KEY_WIDTH)
+                || !sameValue(videoFormat, previous.videoFormat, MediaFormat.KEY_HEIGHT)
+                || !sameValue(videoFormat, previous.videoFormat, MediaFormat.KEY_FRAME_RATE)) {
+            return false;
+        }
+        if (audioFormat == null || previous.audioFormat == null) {
+            return audioFormat == previous.audioFormat;
+        }
+        return sameValue(audioFormat, previous.audioFormat, MediaFormat.KEY_MIME)
+                && sameValue(audioFormat, previous.audioFormat, MediaFormat.KEY_SAMPLE_RATE)
+                && sameValue(audioFormat, previous.audioFormat, MediaFormat.KEY_CHANNEL_COUNT)
+                && sameValue(audioFormat, previous.audioFormat, "csd-0");
+    }
+
+    private static boolean sameValue(MediaFormat a, MediaFormat b, String key) {
+        if (!a.containsKey(key) || !b.containsKey(key)) {
+            return a.containsKey(key) == b.containsKey(key);
+        }
+        if (key.startsWith("csd-")) {
+            return a.getByteBuffer(key).equals(b.getByteBuffer(key));
+        }
+        if (MediaFormat.KEY_MIME.equals(key)) {
+            return a.getString(key).equals(b.getString(key));
+        }
+        return a.getInteger(key) == b.getInteger(key);
+    }
+
+    /**
+     * @return the csd buffers of {@code format} back to back, null if there are none
+     */
+    private static byte[] getCodecConfig(MediaFormat format) {
+        ByteBuffer csd0 = format.containsKey("csd-0") ? format.getByteBuffer("csd-0").duplicate() : null;
+        ByteBuffer csd1 = format.containsKey("csd-1") ? format.getByteBuffer("csd-1").duplicate() : null;
+        if (csd0 == null) {
+            return null;
+        }
+        byte[] config = new byte[csd0.remaining() + (csd1 == null ? 0 : csd1.remaining())];
+        csd0.get(config, 0, csd0.remaining());
+        if (csd1 != null) {
+            csd1.get(config, config.length - csd1.remaining(), csd1.remaining());
+        }
+        return config;
+    }
+
+    /**
+     * Selects the video track, if any.
+     *
+     * @return the track index, or -1 if no video track is found.
+     */
+    private static int selectTrack(MediaExtractor mMediaExtractor) {
+        // Select the first video track we find, ignore the rest.
+        int numTracks = mMediaExtractor.getTrackCount();
+        for (int i = 0; i < numTracks; i++) {
+            MediaFormat format = mMediaExtractor.getTrackFormat(i);
+            String mime = format.getString(MediaFormat.KEY_MIME);
+            if (mime.startsWith("video/")) {
+                if (VERBOSE) {
+                    Log.d(TAG, "Extractor selected track " + i + " (" + mime + "): " + format);
+                }
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    private static int selectAudioTrack(MediaExtractor mMediaExtractor) {
+        for (int i = 0; i < mMediaExtractor.getTrackCount(); i++) {
+            MediaFormat format = mMediaExtractor.getTrackFormat(i);
+            if (format.getString(MediaFormat.KEY_MIME).startsWith("audio/")) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Scans the timestamps and sync flags of the selected track and rewinds the extractor.
+     */
+    private static SampleIndex buildSampleIndex(SampleSource source) {
+        SampleIndex.Builder builder = new SampleIndex.Builder();
+        long sampleTime;
+        while ((sampleTime = source.getSampleTime()) >= 0) {
+            builder.add(sampleTime, (source.getSampleFlags() & SampleSource.SAMPLE_FLAG_SYNC) != 0);
+            source.advance();
+        }
+        source.seekTo(0);
+        return builder.build();
+    }
+}
@@ -0,0 +1,312 @@
+package com.myth.frameplayer;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Builds a scrubber strip of evenly spaced thumbnails on several decoders at once.
+ * <p>
+ * The wanted frames are split into segments that only break at sync samples, so every segment
+ * decodes on its own from its first sync sample. A pool of {@link FrameExtractor}s, one decoder
+ * each and sized by the cores and the codec's instance limit, works through the segments;
+ * frames are downscaled from YUV as they come out and handed over right away with their
+ * position in the strip.
+ */
+public class ThumbnailGenerator {
+    private static final String TAG = ThumbnailGenerator.class.getSimpleName();
+
+    /**
+     * decoder instances assumed available before API 23, which cannot tell
+     */
+    private static final int DEFAULT_CODEC_INSTANCES = 2;
+
+    /**
+     * more decoders than this only fight over the hardware decoder's memory bandwidth
+     */
+    private static final int MAX_DECODERS = 4;
+
+    /**
+     * segments per decoder, so a decoder done early can take over work from a slow one
+     */
+    private static final int SEGMENTS_PER_DECODER = 2;
+
+    /**
+     * Gets the thumbnails on the decoding threads.
+     */
+    public interface Listener {
+        /**
+         * Called as soon as a thumbnail is ready, in no particular order.
+         *
+         * @param position place of the thumbnail in the strip, in presentation order
+         */
+        void onThumbnail(int position, long presentationTimeUs, Bitmap thumbnail);
+
+        /**
+         * Called once after the last thumbnail, or when cancelled.
+         *
+         * @param count number of thumbnails generated
+         */
+        void onFinished(int count, boolean cancelled);
+    }
+
+    private final DataSource mSource;
+    private final int mThumbnailWidth;
+    private boolean mMp4DemuxerEnabled;
+    private MediaProbeCache mProbeCache;
+    private final List<FrameExtractor> mExtractors = new ArrayList<>();
+    private volatile boolean mCancelled;
+    private Thread mThread;
+
+    /**
+     * @param thumbnailWidth width of the thumbnails, the height follows the aspect ratio
+     */
+    public ThumbnailGenerator(File sourceFile, int thumbnailWidth) {
+        this(DataSource.fromFile(sourceFile), thumbnailWidth);
+    }
+
+    /**
+     * @param source read by all decoders at once, so it must allow concurrent reads
+     */
+    public ThumbnailGenerator(DataSource source, int thumbnailWidth) {
+        if (thumbnailWidth <= 0) {
+            throw new IllegalArgumentException("thumbnail width must be positive");
+        }
+        mSource = source;
+        mThumbnailWidth = thumbnailWidth;
+    }
+
+    /**
+     * Reads MP4 files with {@link Mp4Demuxer}, see {@link FramePlayer#setMp4DemuxerEnabled}.
+     */
+    public void setMp4DemuxerEnabled(boolean enabled) {
+        mMp4DemuxerEnabled = enabled;
+    }
+
+    /**
+     * Probes the file through {@code cache}, see {@link FramePlayer#setProbeCache}.
+     */
+    public void setProbeCache(MediaProbeCache cache) {
+        mProbeCache = cache;
+    }
+
+    /**
+     * Starts generating {@code count} thumbnails in the background, fewer if the clip has
+     * fewer frames.
+     */
+    public synchronized void generate(final int count, final Listener listener) {
+        if (mThread != null && mThread.isAlive()) {
+            throw new IllegalStateException("already generating");
+        }
+        mCancelled = false;
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                int generated = 0;
+                try {
+                    generated = generateAll(count, listener);
+                } catch (IOException | RuntimeException e) {
+                    Log.e(TAG, "Generating thumbnails of " + mSource + " failed", e);
+                }
+                listener.onFinished(generated, mCancelled);
+            }
+        }, "Thumbnail Generator");
+        mThread.start();
+    }
+
+    /**
+     * Stops the running generation, the decoders finish the frame at hand.
+     */
+    public void cancel() {
+        mCancelled = true;
+        synchronized (mExtractors) {
+            for (FrameExtractor extractor : mExtractors) {
+                extractor.cancel();
+            }
+        }
+    }
+
+    private int generateAll(int count, final Listener listener) throws IOException {
+        SourceItem item = SourceItem.open(mSource, 0, null, mMp4DemuxerEnabled, false,
+                mProbeCache);
+        item.release();
+        final SampleIndex index = item.index;
+        MediaFormat format = item.videoFormat;
+        final long[] frameTimesUs = thumbnailTimes(index, count);
+        if (frameTimesUs.length == 0 || mCancelled) {
+            return 0;
+        }
+        int videoWidth = format.getInteger(MediaFormat.KEY_WIDTH);
+        int videoHeight = format.getInteger(MediaFormat.KEY_HEIGHT);
+        final int thumbnailHeight = Math.max(1, mThumbnailWidth * videoHeight / videoWidth);
+        int decoders = Math.min(getDecoderCount(format.getString(MediaFormat.KEY_MIME)), frameTimesUs.length);
+        final int[] starts = splitAtSyncSamples(index, frameTimesUs, decoders * SEGMENTS_PER_DECODER);
+        Log.i(TAG, frameTimesUs.length + " thumbnails in " + starts.length + " segments on "
+                + decoders + " decoders");
+
+        final AtomicInteger generated = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(decoders);
+        for (int i = 0; i < starts.length; i++) {
+            final int start = starts[i];
+            final int end = i + 1 < starts.length ? starts[i + 1] : frameTimesUs.length;
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    long[] segment = Arrays.copyOfRange(frameTimesUs, start, end);
+                    try {
+                        generated.addAndGet(extractSegment(index, segment, frameTimesUs,
+                                thumbnailHeight, listener));
+                    } catch (IOException | RuntimeException e) {
+                        Log.w(TAG, "Segment at " + segment[0] + " us failed", e);
+                    }
+                }
+            });
+        }
+        pool.shutdown();
+        try {
+            while (!pool.awaitTermination(1, TimeUnit.SECONDS)) {
+                if (mCancelled) {
+                    cancel();
+                }
+            }
+        } catch (InterruptedException e) {
+            cancel();
+            Thread.currentThread().interrupt();
+        }
+        return generated.get();
+    }
+
+    /**
+     * Decodes the frames of one segment and passes them on as thumbnails.
+     *
+     * @return number of thumbnails generated
+     */
+    private int extractSegment(SampleIndex index, long[] segment, final long[] frameTimesUs,
+                               final int thumbnailHeight, final Listener listener) throws IOException {
+        if (mCancelled) {
+            return 0;
+        }
+        FrameExtractor extractor = new FrameExtractor(mSource);
+        extractor.setMp4DemuxerEnabled(mMp4DemuxerEnabled);
+        extractor.setSampleIndex(index);
+        synchronized (mExtractors) {
+            mExtractors.add(extractor);
+        }
+        try {
+            if (mCancelled) {
+                // cancelled before the extractor was registered to hear of it
+                return 0;
+            }
+            final int[] argb = new int[mThumbnailWidth * thumbnailHeight];
+            return extractor.extractFramesAt(segment, new FrameExtractor.FrameSink() {
+                @Override
+                public void onFrame(long presentationTimeUs, ByteBuffer frame, MediaFormat format) {
+                    createScaler(format).scale(frame, argb, mThumbnailWidth, thumbnailHeight);
+                    Bitmap thumbnail = Bitmap.createBitmap(argb, mThumbnailWidth, thumbnailHeight,
+                            Bitmap.Config.ARGB_8888);
+                    int position = Arrays.binarySearch(frameTimesUs, presentationTimeUs);
+                    listener.onThumbnail(position >= 0 ? position : -position - 1,
+                            presentationTimeUs, thumbnail);
+                }
+            });
+        } finally {
+            synchronized (mExtractors) {
+                mExtractors.remove(extractor);
+            }
+        }
+    }
+
+    private static YuvScaler createScaler(MediaFormat format) {
+        int width = format.getInteger(MediaFormat.KEY_WIDTH);
+        int height = format.getInteger(MediaFormat.KEY_HEIGHT);
+        int stride = format.containsKey("stride") ? format.getInteger("stride") : 0;
+        int sliceHeight = format.containsKey("slice-height") ? format.getInteger("slice-height") : 0;
+        // some decoders leave stride and slice height 0, meaning the plain frame size
+        stride = Math.max(stride, width);
+        sliceHeight = Math.max(sliceHeight, height);
+        if (format.containsKey("crop-right") && format.containsKey("crop-bottom")) {
+            width = format.getInteger("crop-right") + 1;
+            height = format.getInteger("crop-bottom") + 1;
+        }
+        return new YuvScaler(format.getInteger(MediaFormat.KEY_COLOR_FORMAT), width, height,
+                stride, sliceHeight);
+    }
+
+    /**
+     * @return as many decoders as there are cores, within the codec's instance limit
+     */
+    private static int getDecoderCount(String mime) {
+        int instances = DEFAULT_CODEC_INSTANCES;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            instances = getMaxCodecInstances(mime);
+        }
+        int cores = Runtime.getRuntime().availableProcessors();
+        return Math.max(1, Math.min(Math.min(cores, instances), MAX_DECODERS));
+    }
+
+    @TargetApi(Build.VERSION_CODES.M)
+    private static int getMaxCodecInstances(String mime) {
+        MediaCodecList codecList = new MediaCodecList(MediaCodecList.REGULAR_CODECS);
+        for (MediaCodecInfo info : codecList.getCodecInfos()) {
+            if (info.isEncoder()) {
+                continue;
+            }
+            for (String type : info.getSupportedTypes()) {
+                if (type.equalsIgnoreCase(mime)) {
+                    return info.getCapabilitiesForType(type).getMaxSupportedInstances();
+                }
+            }
+        }
+        return DEFAULT_CODEC_INSTANCES;
+    }
+
+    /**
+     * @return timestamps of {@code count} frames spread evenly over the clip, fewer if frames
+     * would repeat
+     */
+    static long[] thumbnailTimes(SampleIndex index, int count) {
+        int frames = index.getFrameCount();
+        if (frames == 0 || count <= 0) {
+            return new long[0];
+        }
+        long[] timesUs = new long[count];
+        for (int i = 0; i < count; i++) {
+            timesUs[i] = index.getPresentationTimeUs((int) ((long) i * frames / count));
+        }
+        return FrameExtractor.framesAt(index, timesUs);
+    }
+
+    /**
+     * Splits sorted frame timestamps into at most {@code segmentCount} runs of about equal
+     * length, breaking only where the next frame starts decoding from another sync sample.
+     *
+     * @return index in {@code frameTimesUs} where each segment starts
+     */
+    static int[] splitAtSyncSamples(SampleIndex index, long[] frameTimesUs, int segmentCount) {
+        int[] starts = new int[Math.max(1, Math.min(segmentCount, frameTimesUs.length))];
+        int targetLength = (frameTimesUs.length + starts.length - 1) / starts.length;
+        int count = 1;
+        for (int i = 1; i < frameTimesUs.length && count < starts.length; i++) {
+            if (i - starts[count - 1] >= targetLength
+                    && index.syncTimeAtOrBefore(frameTimesUs[i]) != index.syncTimeAtOrBefore(frameTimesUs[i - 1])) {
+                starts[count++] = i;
+            }
+        }
+        return Arrays.copyOf(starts, count);
+    }
+}
@@ -0,0 +1,321 @@
+package com.myth.frameplayer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Changes the speed of interleaved 16-bit PCM without changing its pitch.
+ * <p>
+ * This is the pitch-synchronous overlap-add used by Sonic: the pitch period of the signal is
+ * estimated with an AMDF search, then whole periods are cross-faded out (speed up) or repeated
+ * (slow down). All buffers are allocated up front, so {@link #write} and {@link #read} do not
+ * allocate. Not thread safe.
+ */
+public class TimeStretcher {
+
+    private static final int MIN_PITCH_HZ = 65;
+    private static final int MAX_PITCH_HZ = 400;
+
+    /**
+     * rate the pitch search runs at, higher input rates are downsampled to about this
+     */
+    private static final int AMDF_FREQUENCY = 4000;
+
+    /**
+     * input frames accepted per {@link #write} beyond what one period step needs
+     */
+    private static final int INPUT_FRAMES = 4096;
+
+    private static final int OUTPUT_FRAMES = 4096;
+
+    private final int mSampleRate;
+    private final int mChannels;
+    private final int mMinPeriod;
+    private final int mMaxPeriod;
+    private final int mMaxRequired;
+
+    private final short[] mInput;
+    private final short[] mOutput;
+    private final short[] mDownSampled;
+    private int mInputFrames;
+    private int mOutputFrames;
+    private int mOutputReadFrames;
+    private int mRemainingInputToCopy;
+    /**
+     * fractional frames carried between period steps, so rounding does not skew the speed
+     */
+    private float mCarry;
+    private boolean mDraining;
+
+    private float mSpeed = 1f;
+
+    public TimeStretcher(int sampleRate, int channels) {
+        if (sampleRate <= 0 || channels <= 0) {
+            throw new IllegalArgumentException("invalid format " + sampleRate + "Hz " + channels + "ch");
+        }
+        mSampleRate = sampleRate;
+        mChannels = channels;
+        mMinPeriod = sampleRate / MAX_PITCH_HZ;
+        mMaxPeriod = sampleRate / MIN_PITCH_HZ;
+        mMaxRequired = 2 * mMaxPeriod;
+        mInput = new short[(mMaxRequired + INPUT_FRAMES) * channels];
+        mOutput = new short[(OUTPUT_FRAMES + 2 * mMaxRequired) * channels];
+        mDownSampled = new short[mMaxRequired];
+    }
+
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    public int getChannelCount() {
+        return mChannels;
+    }
+
+    /**
+     * Sets the ratio of input duration to output duration, e.g. 2 plays twice as fast.
+     */
+    public void setSpeed(float speed) {
+        if (speed <= 0) {
+            throw new IllegalArgumentException("speed must be positive");
+        }
+        mSpeed = speed;
+    }
+
+    public float getSpeed() {
+        return mSpeed;
+    }
+
+    /**
+     * Consumes as many whole frames of little-endian PCM from {@code src} as fit.
+     *
+     * @return number of bytes consumed
+     */
+    public int write(ByteBuffer src) {
+        mDraining = false;
+        src.order(ByteOrder.LITTLE_ENDIAN);
+        int frameBytes = 2 * mChannels;
+        int frames = Math.min(src.remaining() / frameBytes, mInput.length / mChannels - mInputFrames);
+        int offset = mInputFrames * mChannels;
+        int count = frames * mChannels;
+        for (int i = 0; i < count; i++) {
+            mInput[offset + i] = src.getShort();
+        }
+        mInputFrames += frames;
+        return frames * frameBytes;
+    }
+
+    /**
+     * Stretches buffered input and copies the result into {@code dst} as little-endian PCM.
+     *
+     * @return number of bytes written
+     */
+    public int read(ByteBuffer dst) {
+        dst.order(ByteOrder.LITTLE_ENDIAN);
+        int frameBytes = 2 * mChannels;
+        int written = 0;
+        while (dst.remaining() >= frameBytes) {
+            if (mOutputReadFrames == mOutputFrames) {
+                mOutputFrames = 0;
+                mOutputReadFrames = 0;
+                process();
+                if (mOutputFrames == 0) {
+                    break;
+                }
+            }
+            int frames = Math.min(dst.remaining() / frameBytes, mOutputFrames - mOutputReadFrames);
+            int offset = mOutputReadFrames * mChannels;
+            int count = frames * mChannels;
+            for (int i = 0; i < count; i++) {
+                dst.putShort(mOutput[offset + i]);
+            }
+            mOutputReadFrames += frames;
+            written += frames * frameBytes;
+        }
+        return written;
+    }
+
+    /**
+     * Marks the end of the stream: input too short for another period step is passed through
+     * unchanged by the following {@link #read} calls. Cleared by the next {@link #write}.
+     */
+    public void flush() {
+        mDraining = true;
+    }
+
+    /**
+     * Drops all buffered input and output, e.g. after a seek.
+     */
+    public void clear() {
+        mInputFrames = 0;
+        mOutputFrames = 0;
+        mOutputReadFrames = 0;
+        mRemainingInputToCopy = 0;
+        mCarry = 0;
+        mDraining = false;
+    }
+
+    private void process() {
+        if (mInputFrames < mMaxRequired) {
+            if (mDraining && mInputFrames > 0) {
+                int frames = Math.min(mInputFrames, OUTPUT_FRAMES);
+                System.arraycopy(mInput, 0, mOutput, 0, frames * mChannels);
+                mOutputFrames = frames;
+                removeInput(frames);
+                mRemainingInputToCopy = 0;
+            }
+            return;
+        }
+        if (mSpeed > 0.99999f && mSpeed < 1.00001f) {
+            int frames = Math.min(mInputFrames, OUTPUT_FRAMES);
+            System.arraycopy(mInput, 0, mOutput, 0, frames * mChannels);
+            mOutputFrames = frames;
+            removeInput(frames);
+            return;
+        }
+        int position = 0;
+        do {
+            if (mRemainingInputToCopy > 0) {
+                position += copyInputToOutput(position);
+            } else {
+                int period = findPitchPeriod(position);
+                if (mSpeed > 1f) {
+                    int newFrames = skipPitchPeriod(position, period);
+                    position += period + newFrames;
+                } else {
+                    position += insertPitchPeriod(position, period);
+                }
+            }
+        } while (position + mMaxRequired <= mInputFrames && mOutputFrames < OUTPUT_FRAMES);
+        removeInput(position);
+    }
+
+    private void removeInput(int frames) {
+        int remaining = mInputFrames - frames;
+        if (remaining > 0) {
+            System.arraycopy(mInput, frames * mChannels, mInput, 0, remaining * mChannels);
+        }
+        mInputFrames = remaining;
+    }
+
+    private int copyInputToOutput(int position) {
+        int frames = Math.min(mMaxRequired, mRemainingInputToCopy);
+        System.arraycopy(mInput, position * mChannels, mOutput, mOutputFrames * mChannels, frames * mChannels);
+        mOutputFrames += frames;
+        mRemainingInputToCopy -= frames;
+        return frames;
+    }
+
+    /**
+     * Cross-fades one period into the next and drops the rest of it.
+     *
+     * @return number of frames output
+     */
+    private int skipPitchPeriod(int position, int period) {
+        int newFrames;
+        if (mSpeed >= 2f) {
+            newFrames = round(period / (mSpeed - 1f));
+        } else {
+            newFrames = period;
+            mRemainingInputToCopy = round(period * (2f - mSpeed) / (mSpeed - 1f));
+        }
+        overlapAdd(newFrames, mOutputFrames, position, position + period);
+        mOutputFrames += newFrames;
+        return newFrames;
+    }
+
+    /**
+     * Outputs one period and then cross-fades back into its start.
+     *
+     * @return number of input frames consumed
+     */
+    private int insertPitchPeriod(int position, int period) {
+        int newFrames;
+        if (mSpeed < 0.5f) {
+            newFrames = round(period * mSpeed / (1f - mSpeed));
+        } else {
+            newFrames = period;
+            mRemainingInputToCopy = round(period * (2f * mSpeed - 1f) / (1f - mSpeed));
+        }
+        System.arraycopy(mInput, position * mChannels, mOutput, mOutputFrames * mChannels, period * mChannels);
+        overlapAdd(newFrames, mOutputFrames + period, position + period, position);
+        mOutputFrames += period + newFrames;
+        return newFrames;
+    }
+
+    /**
+     * Truncates {@code frames}, keeping the fraction for the next step.
+     */
+    private int round(float frames) {
+        frames += mCarry;
+        int whole = (int) frames;
+        mCarry = frames - whole;
+        return whole;
+    }
+
+    private void overlapAdd(int frames, int outPosition, int rampDownPosition, int rampUpPosition) {
+        if (frames == 0) {
+            return;
+        }
+        for (int channel = 0; channel < mChannels; channel++) {
+            int o = outPosition * mChannels + channel;
+            int d = rampDownPosition * mChannels + channel;
+            int u = rampUpPosition * mChannels + channel;
+            for (int t = 0; t < frames; t++) {
+                mOutput[o] = (short) ((mInput[d] * (frames - t) + mInput[u] * t) / frames);
+                o += mChannels;
+                d += mChannels;
+                u += mChannels;
+            }
+        }
+    }
+
+    private int findPitchPeriod(int position) {
+        int skip = mSampleRate > AMDF_FREQUENCY ? mSampleRate / AMDF_FREQUENCY : 1;
+        downSample(position, skip);
+        int period = findPeriodInRange(mDownSampled, mMinPeriod / skip, mMaxPeriod / skip);
+        if (skip == 1) {
+            return period;
+        }
+        period *= skip;
+        int minPeriod = Math.max(period - (skip << 2), mMinPeriod);
+        int maxPeriod = Math.min(period + (skip << 2), mMaxPeriod);
+        downSample(position, 1);
+        return findPeriodInRange(mDownSampled, minPeriod, maxPeriod);
+    }
+
+    /**
+     * Averages {@code skip} frames over all channels into one mono sample.
+     */
+    private void downSample(int position, int skip) {
+        int samples = mMaxRequired / skip;
+        int group = skip * mChannels;
+        int index = position * mChannels;
+        for (int i = 0; i < samples; i++) {
+            int sum = 0;
+            for (int j = 0; j < group; j++) {
+                sum += mInput[index++];
+            }
+            mDownSampled[i] = (short) (sum / group);
+        }
+    }
+
+    /**
+     * Average magnitude difference function search for the best matching period.
+     */
+    private static int findPeriodInRange(short[] samples, int minPeriod, int maxPeriod) {
+        int bestPeriod = 0;
+        long minDiff = 1;
+        for (int period = Math.max(minPeriod, 1); period <= maxPeriod; period++) {
+            long diff = 0;
+            for (int i = 0; i < period; i++) {
+                diff += Math.abs(samples[i] - samples[i + period]);
+            }
+            // diff / period < minDiff / bestPeriod, without dividing
+            if (bestPeriod == 0 || diff * bestPeriod < minDiff * period) {
+                minDiff = diff;
+                bestPeriod = period;
+            }
+        }
+        return bestPeriod;
+    }
+}
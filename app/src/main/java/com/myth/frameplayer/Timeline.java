@@ -0,0 +1,502 @@
+package com.myth.frameplayer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Plays items back to back on one continuous timeline, so the decoders never see the end of
+ * a stream at a loop or playlist boundary.
+ * <p>
+ * Each {@link #getTrack track} is a {@link SampleSource} reading the samples of the current
+ * item, shifted by the item's start on the timeline. At the end of an item a track moves on to
+ * the next segment: the same item again while looping, otherwise the item queued with
+ * {@link #setNextItem}. Whichever track gets there first decides, the others follow, and
+ * samples at or past the item duration are cut so that all tracks switch at the same time.
+ * When the item changes, a track with codec configuration first returns it as a sample
+ * flagged {@link SampleSource#SAMPLE_FLAG_CODEC_CONFIG}.
+ * <p>
+ * The first item can be trimmed to a range, which then loops instead of the whole item. A
+ * trimmed segment starts reading at the sync sample before its in point, and reads on past
+ * its out point up to the next sync sample for frames that come later in decode order. The
+ * samples outside the range are flagged {@link SampleSource#SAMPLE_FLAG_DECODE_ONLY}, so the
+ * decoder is already at the in point when the segment is reached.
+ * <p>
+ * Tracks are meant to be read by a single thread, e.g. a {@link DemuxThread}, and own the
+ * sources of the items they reach. An item's sources stay open until the track is two items
+ * further, so seeks back into the previous item still work. Segments the player is done with,
+ * see {@link #discardBefore}, are dropped once all tracks are past them, so a loop does not
+ * grow the timeline without end.
+ */
+class Timeline {
+
+    /**
+     * One source on the timeline, with a {@link SampleSource} per track.
+     */
+    static class Item {
+        final SampleSource[] sources;
+        final byte[][] codecConfigs;
+        final long durationUs;
+
+        /**
+         * @param sources      the source of each track, null for tracks the item does not have
+         * @param codecConfigs configuration to send to each track's decoder before the item's
+         *                     samples when it follows another item, or null entries
+         */
+        Item(SampleSource[] sources, byte[][] codecConfigs, long durationUs) {
+            this.sources = sources;
+            this.codecConfigs = codecConfigs;
+            this.durationUs = durationUs;
+        }
+
+        void release() {
+            for (SampleSource source : sources) {
+                if (source != null) {
+                    source.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * An item placed on the timeline.
+     */
+    static final class Segment {
+        final Item item;
+        final long startUs;
+        /**
+         * the part of the item played, in the item's presentation times
+         */
+        final long rangeStartUs;
+        final long rangeEndUs;
+
+        Segment(Item item, long startUs) {
+            this(item, startUs, 0, item.durationUs);
+        }
+
+        Segment(Item item, long startUs, long rangeStartUs, long rangeEndUs) {
+            this.item = item;
+            this.startUs = startUs;
+            this.rangeEndUs = Math.max(0, Math.min(rangeEndUs, item.durationUs));
+            this.rangeStartUs = Math.max(0, Math.min(rangeStartUs, this.rangeEndUs));
+        }
+
+        /**
+         * @return what the item's presentation times are shifted by on the timeline
+         */
+        long getOffsetUs() {
+            return startUs - rangeStartUs;
+        }
+
+        long getEndUs() {
+            return startUs + rangeEndUs - rangeStartUs;
+        }
+    }
+
+    final class Track implements SampleSource {
+        /**
+         * samples read past the out point of a trimmed segment, for frames before it that
+         * come later in decode order, before the segment ends anyway
+         */
+        private static final int MAX_SAMPLES_PAST_END = 4;
+
+        private final int mIndex;
+        private int mSegmentIndex;
+        private Segment mSegment;
+        /**
+         * segments before this one hold items whose sources were released
+         */
+        private int mReleasedUpTo;
+        private boolean mConfigPending;
+        private int mSamplesPastEnd;
+        private boolean mReleased;
+
+        Track(int index) {
+            mIndex = index;
+            mSegment = segment(0);
+            if (mSegment.rangeStartUs > 0 && source() != null) {
+                source().seekTo(mSegment.rangeStartUs);
+            }
+        }
+
+        @Override
+        public int readSampleData(ByteBuffer buffer, int offset) {
+            if (!ensureSample()) {
+                return -1;
+            }
+            if (!mConfigPending) {
+                return source().readSampleData(buffer, offset);
+            }
+            byte[] config = mSegment.item.codecConfigs[mIndex];
+            if (buffer.capacity() - offset < config.length) {
+                throw new IllegalArgumentException("buffer too small for codec config");
+            }
+            buffer.clear();
+            buffer.position(offset);
+            buffer.put(config);
+            buffer.flip();
+            buffer.position(offset);
+            return config.length;
+        }
+
+        @Override
+        public long getSampleTime() {
+            if (!ensureSample()) {
+                return -1;
+            }
+            return mConfigPending ? mSegment.startUs : mSegment.getOffsetUs() + source().getSampleTime();
+        }
+
+        @Override
+        public int getSampleFlags() {
+            if (!ensureSample()) {
+                return 0;
+            }
+            if (mConfigPending) {
+                return SAMPLE_FLAG_CODEC_CONFIG;
+            }
+            long timeUs = source().getSampleTime();
+            boolean outside = timeUs < mSegment.rangeStartUs || timeUs >= mSegment.rangeEndUs;
+            return source().getSampleFlags() | (outside ? SAMPLE_FLAG_DECODE_ONLY : 0);
+        }
+
+        @Override
+        public boolean advance() {
+            if (!ensureSample()) {
+                return false;
+            }
+            if (mConfigPending) {
+                mConfigPending = false;
+            } else {
+                if (source().getSampleTime() >= mSegment.rangeEndUs) {
+                    mSamplesPastEnd++;
+                }
+                source().advance();
+            }
+            return ensureSample();
+        }
+
+        /**
+         * Seeks within the segment at {@code timeUs}, or the earliest one still open. A flushed
+         * decoder is back on the configuration of the first item, so any other item's
+         * configuration is sent again.
+         */
+        @Override
+        public void seekTo(long timeUs) {
+            int index = Math.max(segmentIndexAt(timeUs), mReleasedUpTo);
+            Segment segment = segment(index);
+            mConfigPending = segment.item != segment(0).item && segment.item.codecConfigs[mIndex] != null;
+            mSegmentIndex = index;
+            mSegment = segment;
+            mSamplesPastEnd = 0;
+            source().seekTo(Math.max(segment.rangeStartUs, timeUs - segment.getOffsetUs()));
+        }
+
+        /**
+         * Reads the item sources on the calling thread, which is the demux thread.
+         */
+        @Override
+        public boolean isSampleReady() {
+            return true;
+        }
+
+        @Override
+        public void setListener(Listener listener) {
+        }
+
+        /**
+         * Releases the sources of all items from the current one on.
+         */
+        @Override
+        public void release() {
+            if (mReleased) {
+                return;
+            }
+            mReleased = true;
+            releaseSources(mReleasedUpTo, segmentCount());
+        }
+
+        private SampleSource source() {
+            return mSegment.item.sources[mIndex];
+        }
+
+        /**
+         * Moves on through the segments until one has a sample left.
+         *
+         * @return false at the end of the timeline
+         */
+        private boolean ensureSample() {
+            if (mConfigPending) {
+                return true;
+            }
+            boolean emptySegment = false;
+            while (true) {
+                long timeUs = source().getSampleTime();
+                if (timeUs >= 0 && !endsBefore(timeUs)) {
+                    return true;
+                }
+                Segment next = nextSegment(mSegmentIndex);
+                if (next == null || emptySegment && next.item == mSegment.item) {
+                    // the end, or an item without samples looping
+                    return false;
+                }
+                enter(mSegmentIndex + 1, next);
+                emptySegment = true;
+                if (mConfigPending) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Whether the segment ends before the current sample at {@code timeUs}. Past the out
+         * point of a trimmed segment, samples other than sync samples still follow for a
+         * while: frames before the out point may come after them in decode order.
+         */
+        private boolean endsBefore(long timeUs) {
+            Segment segment = mSegment;
+            if (timeUs < segment.rangeEndUs) {
+                return false;
+            }
+            return timeUs >= segment.item.durationUs || mSamplesPastEnd >= MAX_SAMPLES_PAST_END
+                    || (source().getSampleFlags() & SAMPLE_FLAG_SYNC) != 0;
+        }
+
+        private void enter(int index, Segment segment) {
+            if (segment.item != mSegment.item) {
+                // keep the item just finished open for seeks, release the one before
+                int finishedStart = mSegmentIndex;
+                while (finishedStart > mReleasedUpTo && segment(finishedStart - 1).item == mSegment.item) {
+                    finishedStart--;
+                }
+                releaseSources(mReleasedUpTo, finishedStart);
+                mReleasedUpTo = finishedStart;
+                mConfigPending = segment.item.codecConfigs[mIndex] != null;
+            }
+            mSegmentIndex = index;
+            mSegment = segment;
+            mSamplesPastEnd = 0;
+            source().seekTo(segment.rangeStartUs);
+        }
+
+        private void releaseSources(int from, int to) {
+            Item released = null;
+            for (int i = from; i < to; i++) {
+                Item item = segment(i).item;
+                if (item != released && item.sources[mIndex] != null) {
+                    item.sources[mIndex].release();
+                }
+                released = item;
+            }
+        }
+    }
+
+    private final List<Segment> mSegments = new ArrayList<>();
+    private final List<Track> mTracks = new ArrayList<>();
+    /**
+     * segments dropped from the front of the list, segment indices count them on
+     */
+    private int mDiscarded;
+    /**
+     * segments ending at or before this may be dropped
+     */
+    private long mDiscardBeforeUs;
+    private final Item mFirstItem;
+    private long mRangeStartUs;
+    private long mRangeEndUs;
+    private boolean mLooping;
+    private Item mNextItem;
+    private boolean mEnded;
+    private boolean mReleased;
+
+    Timeline(Item first) {
+        this(first, 0, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param rangeStartUs in point of the first item, in its presentation times
+     * @param rangeEndUs   out point of the first item, past its duration for the end
+     */
+    Timeline(Item first, long rangeStartUs, long rangeEndUs) {
+        mFirstItem = first;
+        mRangeStartUs = rangeStartUs;
+        mRangeEndUs = rangeEndUs;
+        mSegments.add(newSegment(first, 0));
+    }
+
+    /**
+     * Repeats the current item instead of moving on to the next one. Applies from the next
+     * segment that is not decided yet, i.e. the one after the segment the tracks read.
+     */
+    synchronized void setLooping(boolean looping) {
+        mLooping = looping;
+    }
+
+    /**
+     * Queues the item to play when the current one ends and looping is off.
+     *
+     * @return false if the timeline already ended or has an item queued, the caller keeps
+     * ownership of {@code item} then
+     */
+    synchronized boolean setNextItem(Item item) {
+        if (mReleased || mEnded || mNextItem != null) {
+            return false;
+        }
+        mNextItem = item;
+        return true;
+    }
+
+    /**
+     * Creates the source reading track {@code index} of the items.
+     */
+    Track getTrack(int index) {
+        Track track = new Track(index);
+        synchronized (this) {
+            mTracks.add(track);
+        }
+        return track;
+    }
+
+    /**
+     * @return the segment playing at {@code timeUs}
+     */
+    synchronized Segment segmentAt(long timeUs) {
+        return segment(segmentIndexAt(timeUs));
+    }
+
+    /**
+     * Lets the segments ending at or before {@code timeUs} go, e.g. once the segment starting
+     * there is on screen. They are dropped as the tracks move on, and {@link #segmentAt} or a
+     * seek before {@code timeUs} finds the earliest segment left.
+     */
+    synchronized void discardBefore(long timeUs) {
+        mDiscardBeforeUs = Math.max(mDiscardBeforeUs, timeUs);
+    }
+
+    /**
+     * Forgets the segments after the first one, so the next pass through the timeline decides
+     * again whether to loop. The tracks are to be seeked back to the start right after.
+     *
+     * @return false, changing nothing, if another item follows the first one already
+     */
+    synchronized boolean rewind() {
+        return rewind(mRangeStartUs, mRangeEndUs);
+    }
+
+    /**
+     * Rewinds with the first item trimmed to another range, see {@link #rewind()}.
+     */
+    synchronized boolean rewind(long rangeStartUs, long rangeEndUs) {
+        for (Segment segment : mSegments) {
+            if (segment.item != mFirstItem) {
+                return false;
+            }
+        }
+        mSegments.clear();
+        mDiscarded = 0;
+        mDiscardBeforeUs = 0;
+        mRangeStartUs = rangeStartUs;
+        mRangeEndUs = rangeEndUs;
+        mSegments.add(newSegment(mFirstItem, 0));
+        mEnded = false;
+        return true;
+    }
+
+    /**
+     * Releases the queued item that no track has reached. The tracks release their own.
+     */
+    void release() {
+        Item next;
+        synchronized (this) {
+            mReleased = true;
+            next = mNextItem;
+            mNextItem = null;
+        }
+        if (next != null) {
+            next.release();
+        }
+    }
+
+    /**
+     * @return segment {@code index}, the earliest one left if it was dropped
+     */
+    private synchronized Segment segment(int index) {
+        return mSegments.get(Math.max(0, Math.min(index - mDiscarded, mSegments.size() - 1)));
+    }
+
+    private synchronized int segmentCount() {
+        return mDiscarded + mSegments.size();
+    }
+
+    private synchronized int segmentIndexAt(long timeUs) {
+        int low = 0;
+        int high = mSegments.size() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (mSegments.get(mid).startUs <= timeUs) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return mDiscarded + low;
+    }
+
+    /**
+     * @return the segment after segment {@code index}, decided now if no track got there
+     * before, or null if the timeline ends
+     */
+    private synchronized Segment nextSegment(int index) {
+        if (index + 1 < segmentCount()) {
+            return segment(index + 1);
+        }
+        if (index >= segmentCount() || mEnded) {
+            // rewound under the track, its next seek puts it back
+            return null;
+        }
+        Segment last = segment(index);
+        Item item = mLooping && last.getEndUs() > last.startUs ? last.item : mNextItem;
+        if (item == null) {
+            mEnded = true;
+            return null;
+        }
+        if (item == mNextItem) {
+            mNextItem = null;
+        }
+        Segment next = newSegment(item, last.getEndUs());
+        discardSegments();
+        mSegments.add(next);
+        return next;
+    }
+
+    /**
+     * Drops the segments at the front that end before {@link #mDiscardBeforeUs} and that
+     * every track is past. A segment whose item a track has not released yet is only dropped
+     * while the segment after it has the same item, which then stands in for it. Runs on the
+     * thread reading the tracks.
+     */
+    private void discardSegments() {
+        int reading = Integer.MAX_VALUE;
+        int released = Integer.MAX_VALUE;
+        for (Track track : mTracks) {
+            if (!track.mReleased) {
+                reading = Math.min(reading, track.mSegmentIndex);
+                released = Math.min(released, track.mReleasedUpTo);
+            }
+        }
+        while (mSegments.size() > 1 && mDiscarded < reading) {
+            Segment first = mSegments.get(0);
+            if (first.getEndUs() > mDiscardBeforeUs
+                    || mDiscarded >= released && mSegments.get(1).item != first.item) {
+                return;
+            }
+            mSegments.remove(0);
+            mDiscarded++;
+        }
+    }
+
+    private Segment newSegment(Item item, long startUs) {
+        return item == mFirstItem ? new Segment(item, startUs, mRangeStartUs, mRangeEndUs)
+                : new Segment(item, startUs);
+    }
+}
@@ -0,0 +1,77 @@
+package com.myth.frameplayer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Downscales a decoded YUV 4:2:0 frame into ARGB pixels by nearest neighbour sampling, which
+ * is plenty for thumbnails. Handles the planar (I420) and semi-planar (NV12) layouts decoders
+ * put into ByteBuffers; the BT.601 video range is assumed.
+ */
+final class YuvScaler {
+
+    /**
+     * same values as the {@code MediaCodecInfo.CodecCapabilities} color formats
+     */
+    static final int COLOR_FORMAT_YUV420_PLANAR = 19;
+    static final int COLOR_FORMAT_YUV420_PACKED_PLANAR = 20;
+
+    private final int mWidth;
+    private final int mHeight;
+    private final int mUOffset;
+    private final int mVOffset;
+    private final int mYRowStride;
+    private final int mUvRowStride;
+    private final int mUvPixelStride;
+
+    /**
+     * @param stride      bytes per luma row
+     * @param sliceHeight rows of the luma plane, the chroma planes start after them
+     */
+    YuvScaler(int colorFormat, int width, int height, int stride, int sliceHeight) {
+        mWidth = width;
+        mHeight = height;
+        mYRowStride = stride;
+        int lumaSize = stride * sliceHeight;
+        if (colorFormat == COLOR_FORMAT_YUV420_PLANAR || colorFormat == COLOR_FORMAT_YUV420_PACKED_PLANAR) {
+            mUvRowStride = stride / 2;
+            mUvPixelStride = 1;
+            mUOffset = lumaSize;
+            mVOffset = lumaSize + mUvRowStride * (sliceHeight / 2);
+        } else {
+            // semi-planar, which also covers the vendor formats that are NV12 underneath
+            mUvRowStride = stride;
+            mUvPixelStride = 2;
+            mUOffset = lumaSize;
+            mVOffset = lumaSize + 1;
+        }
+    }
+
+    /**
+     * Scales the frame starting at the position of {@code yuv} into {@code argb}, row after
+     * row of {@code outWidth} pixels.
+     */
+    void scale(ByteBuffer yuv, int[] argb, int outWidth, int outHeight) {
+        int base = yuv.position();
+        for (int y = 0; y < outHeight; y++) {
+            int srcY = y * mHeight / outHeight;
+            int yRow = base + srcY * mYRowStride;
+            int uvRow = (srcY >> 1) * mUvRowStride;
+            for (int x = 0; x < outWidth; x++) {
+                int srcX = x * mWidth / outWidth;
+                int uv = uvRow + (srcX >> 1) * mUvPixelStride;
+                int luma = (yuv.get(yRow + srcX) & 0xff) - 16;
+                int u = (yuv.get(base + mUOffset + uv) & 0xff) - 128;
+                int v = (yuv.get(base + mVOffset + uv) & 0xff) - 128;
+                int c = 298 * Math.max(0, luma);
+                int r = clamp((c + 409 * v + 128) >> 8);
+                int g = clamp((c - 100 * u - 208 * v + 128) >> 8);
+                int b = clamp((c + 516 * u + 128) >> 8);
+                argb[y * outWidth + x] = 0xff000000 | r << 16 | g << 8 | b;
+            }
+        }
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : value > 255 ? 255 : value;
+    }
+}
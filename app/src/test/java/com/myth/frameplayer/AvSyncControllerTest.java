@@ -0,0 +1,95 @@
+package com.myth.frameplayer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AvSyncControllerTest {
+
+    private static class FakeTimeSource implements FrameClock.TimeSource {
+        long now = 1000000000L;
+
+        @Override
+        public long nanoTime() {
+            return now;
+        }
+    }
+
+    private static class FakeMasterClock implements AvSyncController.MasterClock {
+        boolean valid = true;
+        long positionUs;
+
+        @Override
+        public boolean isValid() {
+            return valid;
+        }
+
+        @Override
+        public long getPositionUs() {
+            return positionUs;
+        }
+    }
+
+    private FakeTimeSource time;
+    private FrameClock clock;
+    private AvSyncController sync;
+    private FakeMasterClock audio;
+
+    @Before
+    public void setUp() {
+        time = new FakeTimeSource();
+        clock = new FrameClock(time);
+        clock.setFrameRate(30, 30);
+        clock.start(0);
+        sync = new AvSyncController(clock);
+        audio = new FakeMasterClock();
+    }
+
+    @Test
+    public void followsFrameClockWithoutAudio() {
+        time.now += 10000000L;
+        assertEquals(23333000L, sync.frameDelayNanos(33333));
+        assertEquals(0, sync.getCorrectionCount());
+    }
+
+    @Test
+    public void smallOffsetIsTolerated() {
+        sync.setMasterClock(audio);
+        time.now += 100000000L;
+        audio.positionUs = 95000;
+        assertEquals(33333000L, sync.frameDelayNanos(133333));
+        assertEquals(5000, sync.getLastOffsetUs());
+        assertEquals(0, sync.getCorrectionCount());
+    }
+
+    @Test
+    public void largeOffsetReanchorsOnAudio() {
+        sync.setMasterClock(audio);
+        time.now += 100000000L;
+        audio.positionUs = 60000;
+        assertEquals(73333000L, sync.frameDelayNanos(133333));
+        assertEquals(40000, sync.getLastOffsetUs());
+        assertEquals(1, sync.getCorrectionCount());
+    }
+
+    @Test
+    public void invalidAudioIsIgnored() {
+        sync.setMasterClock(audio);
+        audio.valid = false;
+        audio.positionUs = 500000;
+        time.now += 100000000L;
+        assertEquals(33333000L, sync.frameDelayNanos(133333));
+        assertEquals(0, sync.getCorrectionCount());
+    }
+
+    @Test
+    public void lateThreshold() {
+        sync.setLateThresholdUs(20000);
+        assertFalse(sync.isTooLate(-20000000L));
+        assertTrue(sync.isTooLate(-20000001L));
+        assertFalse(sync.isTooLate(5000000L));
+    }
+}
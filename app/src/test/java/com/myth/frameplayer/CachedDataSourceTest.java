@@ -0,0 +1,143 @@
+package com.myth.frameplayer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CachedDataSourceTest {
+
+    private static final int BLOCK_SIZE = 64;
+
+    private byte[] mData;
+    private CountingSource mUpstream;
+
+    @Before
+    public void setUp() {
+        mData = new byte[1000];
+        for (int i = 0; i < mData.length; i++) {
+            mData[i] = (byte) i;
+        }
+        mUpstream = new CountingSource(DataSource.fromBuffer(ByteBuffer.wrap(mData)));
+    }
+
+    @Test
+    public void readsAcrossBlocks() throws IOException {
+        CachedDataSource source = new CachedDataSource(mUpstream, 16 * BLOCK_SIZE, BLOCK_SIZE);
+        source.setReadAheadBlocks(0);
+        byte[] buffer = new byte[200];
+
+        assertEquals(200, source.readAt(50, buffer, 0, 200));
+        assertArrayEquals(slice(50, 200), buffer);
+        assertEquals(4, source.getCachedBlockCount());
+        assertEquals(4 * BLOCK_SIZE, source.getBytesRead());
+    }
+
+    @Test
+    public void readsShortAtEnd() throws IOException {
+        CachedDataSource source = new CachedDataSource(mUpstream, 16 * BLOCK_SIZE, BLOCK_SIZE);
+        source.setReadAheadBlocks(0);
+        byte[] buffer = new byte[100];
+
+        assertEquals(40, source.readAt(960, buffer, 0, 100));
+        assertEquals(-1, source.readAt(1000, buffer, 0, 100));
+        assertEquals(1000, source.getSize());
+    }
+
+    @Test
+    public void servesRepeatedReadsFromCache() throws IOException {
+        CachedDataSource source = new CachedDataSource(mUpstream, 16 * BLOCK_SIZE, BLOCK_SIZE);
+        source.setReadAheadBlocks(0);
+        byte[] buffer = new byte[10];
+
+        source.readAt(0, buffer, 0, 10);
+        source.readAt(10, buffer, 0, 10);
+        source.readAt(20, buffer, 0, 10);
+
+        assertArrayEquals(slice(20, 10), buffer);
+        assertEquals(1, mUpstream.reads);
+        assertEquals(1, source.getMissCount());
+        assertEquals(2, source.getHitCount());
+        assertEquals(2 / 3f, source.getHitRatio(), 1e-6);
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedBlock() throws IOException {
+        CachedDataSource source = new CachedDataSource(mUpstream, 2 * BLOCK_SIZE, BLOCK_SIZE);
+        source.setReadAheadBlocks(0);
+        byte[] buffer = new byte[1];
+
+        source.readAt(0, buffer, 0, 1);
+        source.readAt(BLOCK_SIZE, buffer, 0, 1);
+        source.readAt(0, buffer, 0, 1);
+        source.readAt(2 * BLOCK_SIZE, buffer, 0, 1);
+        assertEquals(3, mUpstream.reads);
+
+        // block 1 was evicted, block 0 was used more recently
+        source.readAt(0, buffer, 0, 1);
+        assertEquals(3, mUpstream.reads);
+        source.readAt(BLOCK_SIZE, buffer, 0, 1);
+        assertEquals(4, mUpstream.reads);
+        assertEquals(2, source.getCachedBlockCount());
+    }
+
+    @Test
+    public void readsAheadInBackground() throws Exception {
+        CachedDataSource source = new CachedDataSource(mUpstream, 16 * BLOCK_SIZE, BLOCK_SIZE);
+        source.setReadAheadBlocks(4);
+        byte[] buffer = new byte[BLOCK_SIZE];
+
+        source.readAt(0, buffer, 0, BLOCK_SIZE);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (source.getCachedBlockCount() < 5 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(5, source.getCachedBlockCount());
+
+        for (int block = 1; block <= 4; block++) {
+            source.readAt(block * BLOCK_SIZE, buffer, 0, BLOCK_SIZE);
+            assertArrayEquals(slice(block * BLOCK_SIZE, BLOCK_SIZE), buffer);
+        }
+        assertEquals(1, source.getMissCount());
+        assertTrue(source.getHitCount() >= 4);
+        source.close();
+        assertTrue(mUpstream.closed);
+    }
+
+    private byte[] slice(int offset, int length) {
+        byte[] slice = new byte[length];
+        System.arraycopy(mData, offset, slice, 0, length);
+        return slice;
+    }
+
+    private static final class CountingSource extends DataSource {
+        private final DataSource mSource;
+        volatile int reads;
+        volatile boolean closed;
+
+        CountingSource(DataSource source) {
+            mSource = source;
+        }
+
+        @Override
+        public int readAt(long position, byte[] buffer, int offset, int size) throws IOException {
+            reads++;
+            return mSource.readAt(position, buffer, offset, size);
+        }
+
+        @Override
+        public long getSize() throws IOException {
+            return mSource.getSize();
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
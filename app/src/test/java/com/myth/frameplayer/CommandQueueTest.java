@@ -0,0 +1,75 @@
+package com.myth.frameplayer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CommandQueueTest {
+
+    @Test
+    public void addsUpSteps() {
+        CommandQueue queue = new CommandQueue();
+        assertTrue(queue.step(1, 100));
+        for (int i = 0; i < 99; i++) {
+            assertFalse(queue.step(1, 200));
+        }
+        queue.step(-10, 300);
+        assertEquals(101, queue.getDepth());
+
+        CommandQueue.Command command = queue.poll();
+        assertEquals(CommandQueue.SEEK_NONE, command.seek);
+        assertEquals(90, command.delta);
+        assertEquals(101, command.requests);
+        assertEquals(100, command.queuedNanos);
+        assertEquals(100, queue.getCoalescedCount());
+        assertEquals(0, queue.getDepth());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void seekReplacesPendingRequests() {
+        CommandQueue queue = new CommandQueue();
+        queue.step(5, 0);
+        queue.seekToTime(1000000, false, 0);
+        queue.seekToFrame(40, true, 0);
+
+        CommandQueue.Command command = queue.poll();
+        assertEquals(CommandQueue.SEEK_FRAME, command.seek);
+        assertTrue(command.exact);
+        assertEquals(40, command.frame);
+        assertEquals(0, command.delta);
+    }
+
+    @Test
+    public void stepsAfterSeekStartAtItsTarget() {
+        CommandQueue queue = new CommandQueue();
+        queue.seekToTime(2000000, false, 0);
+        queue.step(1, 0);
+        queue.step(1, 0);
+
+        CommandQueue.Command command = queue.poll();
+        assertEquals(CommandQueue.SEEK_TIME, command.seek);
+        assertFalse(command.exact);
+        assertEquals(2000000, command.timeUs);
+        assertEquals(2, command.delta);
+    }
+
+    @Test
+    public void wakesAgainAfterPoll() {
+        CommandQueue queue = new CommandQueue();
+        assertTrue(queue.seekToFrame(3, true, 0));
+        assertFalse(queue.step(1, 0));
+        queue.poll();
+
+        assertTrue(queue.step(1, 0));
+        CommandQueue.Command command = queue.poll();
+        assertEquals(CommandQueue.SEEK_NONE, command.seek);
+        assertFalse(command.exact);
+        assertEquals(1, command.delta);
+        assertEquals(2, queue.getMaxDepth());
+        assertEquals(1, queue.getCoalescedCount());
+    }
+}
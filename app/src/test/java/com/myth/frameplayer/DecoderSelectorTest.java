@@ -0,0 +1,144 @@
+package com.myth.frameplayer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DecoderSelectorTest {
+
+    private static final String AVC = "video/avc";
+
+    private File mProfileFile;
+    private FakeCodecList mCodecList;
+
+    @Before
+    public void setUp() throws IOException {
+        mProfileFile = File.createTempFile("decoders", ".properties");
+        mProfileFile.delete();
+        mCodecList = new FakeCodecList(
+                new DecoderSelector.Candidate("OMX.google.h264.decoder", false, true, 0),
+                new DecoderSelector.Candidate("OMX.vendor.slow.decoder", true, true, 24),
+                new DecoderSelector.Candidate("OMX.vendor.small.decoder", true, false, 0),
+                new DecoderSelector.Candidate("OMX.vendor.fast.decoder", true, true, 120));
+    }
+
+    @After
+    public void tearDown() {
+        mProfileFile.delete();
+    }
+
+    @Test
+    public void ranksBySizeRateAndHardware() {
+        DecoderSelector selector = new DecoderSelector(mCodecList, "device", null);
+
+        assertEquals(Arrays.asList("OMX.vendor.fast.decoder", "OMX.vendor.slow.decoder",
+                "OMX.google.h264.decoder", "OMX.vendor.small.decoder"),
+                selector.select(AVC, 1920, 1080, 24));
+        // the slow decoder can not keep up, the software one may
+        assertEquals(Arrays.asList("OMX.vendor.fast.decoder", "OMX.google.h264.decoder",
+                "OMX.vendor.slow.decoder", "OMX.vendor.small.decoder"),
+                selector.select(AVC, 1920, 1080, 60));
+    }
+
+    @Test
+    public void keepsPlatformOrderOnTies() {
+        List<String> ranking = DecoderSelector.rank(Arrays.asList(
+                new DecoderSelector.Candidate("a", true, true, 0),
+                new DecoderSelector.Candidate("b", true, true, 0),
+                new DecoderSelector.Candidate("c", true, true, 0)), 30);
+
+        assertEquals(Arrays.asList("a", "b", "c"), ranking);
+    }
+
+    @Test
+    public void reusesRankingPerFormat() {
+        DecoderSelector selector = new DecoderSelector(mCodecList, "device", null);
+        selector.select(AVC, 1920, 1080, 30);
+        selector.select(AVC, 1920, 1080, 30);
+        assertEquals(1, mCodecList.mQueries);
+
+        selector.select(AVC, 1280, 720, 30);
+        assertEquals(2, mCodecList.mQueries);
+    }
+
+    @Test
+    public void fallsBackToNextDecoder() {
+        DecoderSelector selector = new DecoderSelector(mCodecList, "device", null);
+        selector.select(AVC, 1920, 1080, 24);
+
+        assertEquals(Arrays.asList("OMX.vendor.slow.decoder", "OMX.google.h264.decoder",
+                "OMX.vendor.small.decoder"),
+                selector.reportFailure(AVC, 1920, 1080, 24, "OMX.vendor.fast.decoder"));
+        assertEquals(Arrays.asList("OMX.google.h264.decoder", "OMX.vendor.small.decoder"),
+                selector.reportFailure(AVC, 1920, 1080, 24, "OMX.vendor.slow.decoder"));
+        assertEquals(Arrays.asList("OMX.google.h264.decoder", "OMX.vendor.small.decoder",
+                "OMX.vendor.fast.decoder", "OMX.vendor.slow.decoder"),
+                selector.select(AVC, 1920, 1080, 24));
+
+        selector.reportFailure(AVC, 1920, 1080, 24, "OMX.google.h264.decoder");
+        assertEquals(Collections.<String>emptyList(),
+                selector.reportFailure(AVC, 1920, 1080, 24, "OMX.vendor.small.decoder"));
+    }
+
+    @Test
+    public void storesRankingsForDevice() {
+        DecoderSelector selector = new DecoderSelector(mCodecList, "device", mProfileFile);
+        selector.select(AVC, 1920, 1080, 24);
+        selector.reportFailure(AVC, 1920, 1080, 24, "OMX.vendor.fast.decoder");
+        assertTrue(mProfileFile.isFile());
+        assertFalse(new File(mProfileFile.getPath() + ".tmp").exists());
+
+        FakeCodecList codecList = new FakeCodecList();
+        selector = new DecoderSelector(codecList, "device", mProfileFile);
+        assertEquals(Arrays.asList("OMX.vendor.slow.decoder", "OMX.google.h264.decoder",
+                "OMX.vendor.small.decoder", "OMX.vendor.fast.decoder"),
+                selector.select(AVC, 1920, 1080, 24));
+        assertEquals(0, codecList.mQueries);
+    }
+
+    @Test
+    public void ignoresRankingsOfOtherDevice() {
+        DecoderSelector selector = new DecoderSelector(mCodecList, "device", mProfileFile);
+        selector.select(AVC, 1920, 1080, 24);
+
+        FakeCodecList codecList = new FakeCodecList();
+        selector = new DecoderSelector(codecList, "updated device", mProfileFile);
+        assertEquals(Collections.<String>emptyList(), selector.select(AVC, 1920, 1080, 24));
+        assertEquals(1, codecList.mQueries);
+    }
+
+    @Test
+    public void tellsSoftwareDecoders() {
+        assertFalse(DecoderSelector.isHardware("OMX.google.h264.decoder"));
+        assertFalse(DecoderSelector.isHardware("c2.android.avc.decoder"));
+        assertFalse(DecoderSelector.isHardware("OMX.SEC.avc.sw.dec"));
+        assertTrue(DecoderSelector.isHardware("OMX.qcom.video.decoder.avc"));
+        assertTrue(DecoderSelector.isHardware("c2.exynos.h264.decoder"));
+    }
+
+    private static final class FakeCodecList implements DecoderSelector.CodecList {
+        private final List<DecoderSelector.Candidate> mCandidates;
+        private int mQueries;
+
+        FakeCodecList(DecoderSelector.Candidate... candidates) {
+            mCandidates = Arrays.asList(candidates);
+        }
+
+        @Override
+        public List<DecoderSelector.Candidate> getDecoders(String mime, int width, int height) {
+            mQueries++;
+            return new ArrayList<>(mCandidates);
+        }
+    }
+}
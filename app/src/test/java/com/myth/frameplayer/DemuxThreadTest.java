@@ -0,0 +1,167 @@
+package com.myth.frameplayer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DemuxThreadTest {
+
+    private static final long FRAME_US = 33333;
+    private static final long AUDIO_FRAME_US = 23220;
+
+    private DemuxThread demuxThread;
+    private FakeSampleSource videoUpstream;
+    private FakeSampleSource audioUpstream;
+    private DemuxThread.Track video;
+    private DemuxThread.Track audio;
+    private final ByteBuffer buffer = ByteBuffer.allocate(4096);
+
+    @Before
+    public void setUp() {
+        videoUpstream = new FakeSampleSource(300, FRAME_US, 30, 1000);
+        audioUpstream = new FakeSampleSource(430, AUDIO_FRAME_US, 1, 100);
+        demuxThread = new DemuxThread();
+        demuxThread.setReadAheadUs(200000);
+        // too small on purpose, packets have to grow
+        video = demuxThread.addTrack(videoUpstream, 256);
+        audio = demuxThread.addTrack(audioUpstream, 256);
+        demuxThread.start();
+    }
+
+    @After
+    public void tearDown() {
+        video.release();
+        audio.release();
+    }
+
+    @Test
+    public void deliversEverySampleInOrder() {
+        for (int i = 0; i < 300; i++) {
+            assertEquals(i * FRAME_US, video.getSampleTime());
+            assertEquals(i % 30 == 0 ? SampleSource.SAMPLE_FLAG_SYNC : 0, video.getSampleFlags());
+            assertEquals(1000, video.readSampleData(buffer, 0));
+            assertEquals((byte) i, buffer.get(999));
+            video.advance();
+        }
+        assertEquals(-1, video.getSampleTime());
+        assertEquals(-1, video.readSampleData(buffer, 0));
+    }
+
+    @Test
+    public void readsAheadOnlyAsFarAsConfigured() throws InterruptedException {
+        awaitIdle();
+        long videoQueued = video.getQueuedDurationUs();
+        long audioQueued = audio.getQueuedDurationUs();
+        assertTrue("video " + videoQueued, videoQueued >= 200000 && videoQueued < 200000 + FRAME_US);
+        assertTrue("audio " + audioQueued, audioQueued >= 200000 && audioQueued < 200000 + AUDIO_FRAME_US);
+
+        // consuming one sample lets the thread top the queue up again
+        video.advance();
+        awaitIdle();
+        assertEquals(videoQueued, video.getQueuedDurationUs());
+    }
+
+    @Test
+    public void seekRestartsAtSyncSample() {
+        video.advance();
+        video.seekTo(45 * FRAME_US);
+        assertEquals(30 * FRAME_US, video.getSampleTime());
+        audio.seekTo(10 * AUDIO_FRAME_US);
+        assertEquals(10 * AUDIO_FRAME_US, audio.getSampleTime());
+    }
+
+    @Test
+    public void countsStalls() {
+        videoUpstream.setReadDelayMs(5);
+        video.seekTo(0);
+        for (int i = 0; i < 5; i++) {
+            video.readSampleData(buffer, 0);
+            video.advance();
+        }
+        assertTrue(video.getStallCount() > 0);
+        assertTrue(video.getStallNanos() > 0);
+    }
+
+    @Test
+    public void callsBackOnceSampleIsReady() throws InterruptedException {
+        final CountDownLatch ready = new CountDownLatch(1);
+        video.setListener(new SampleSource.Listener() {
+            @Override
+            public void onSampleReady() {
+                ready.countDown();
+            }
+        });
+        videoUpstream.setReadDelayMs(50);
+        video.seekTo(30 * FRAME_US);
+
+        assertFalse(video.isSampleReady());
+        assertTrue(ready.await(1, TimeUnit.SECONDS));
+        assertTrue(video.isSampleReady());
+        assertEquals(30 * FRAME_US, video.getSampleTime());
+        assertEquals(1, video.getStallCount());
+        assertTrue(video.getStallNanos() > 0);
+    }
+
+    @Test
+    public void releasesUpstreamWhenAllTracksAreReleased() throws InterruptedException {
+        video.release();
+        Thread.sleep(50);
+        assertTrue(!videoUpstream.released);
+        audio.release();
+        for (int i = 0; i < 100 && !videoUpstream.released; i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(videoUpstream.released);
+        assertTrue(audioUpstream.released);
+    }
+
+    @Test
+    public void sharedThreadReleasesEachTrackAndOutlivesThem() throws InterruptedException {
+        DemuxThread shared = new DemuxThread(true);
+        FakeSampleSource first = new FakeSampleSource(100, FRAME_US, 10, 10);
+        FakeSampleSource second = new FakeSampleSource(100, FRAME_US, 10, 10);
+        DemuxThread.Track firstTrack = shared.addTrack(first, 256);
+        DemuxThread.Track secondTrack = shared.addTrack(second, 256);
+        secondTrack.setReadAheadUs(10 * FRAME_US);
+        shared.start();
+        assertEquals(0, firstTrack.getSampleTime());
+        firstTrack.release();
+        for (int i = 0; i < 100 && !first.released; i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(first.released);
+        assertTrue(!second.released);
+        assertEquals(0, secondTrack.getSampleTime());
+
+        // tracks added later are served too
+        FakeSampleSource third = new FakeSampleSource(100, FRAME_US, 10, 10);
+        DemuxThread.Track thirdTrack = shared.addTrack(third, 256);
+        secondTrack.release();
+        assertEquals(0, thirdTrack.getSampleTime());
+        shared.quit();
+        for (int i = 0; i < 100 && !third.released; i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(second.released);
+        assertTrue(third.released);
+    }
+
+    /**
+     * Waits until the demux thread stops reading.
+     */
+    private void awaitIdle() throws InterruptedException {
+        int reads;
+        do {
+            reads = videoUpstream.reads + audioUpstream.reads;
+            Thread.sleep(20);
+        } while (reads != videoUpstream.reads + audioUpstream.reads);
+    }
+}
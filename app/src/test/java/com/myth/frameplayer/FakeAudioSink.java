@@ -0,0 +1,93 @@
+package com.myth.frameplayer;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * {@link AudioSink} that discards PCM. In real time it plays {@code sampleRate} frames per
+ * second from {@link #play()} on and blocks writes once {@code bufferFrames} are waiting,
+ * like a streaming AudioTrack; otherwise every write is played at once.
+ */
+class FakeAudioSink implements AudioSink {
+
+    private static final long PARK_NANOS = 500000L;
+
+    private final int mSampleRate;
+    private final int mFrameBytes;
+    private final long mBufferFrames;
+    private final boolean mRealTime;
+    private volatile long mWrittenFrames;
+    private volatile long mFlushedFrames;
+    private volatile long mPlayStartNanos = -1;
+    private volatile long mPlayedBeforeStart;
+
+    FakeAudioSink(int sampleRate, int frameBytes, int bufferFrames, boolean realTime) {
+        mSampleRate = sampleRate;
+        mFrameBytes = frameBytes;
+        mBufferFrames = bufferFrames;
+        mRealTime = realTime;
+    }
+
+    @Override
+    public int write(ByteBuffer pcm) {
+        int size = pcm.remaining();
+        long frames = size / mFrameBytes;
+        if (mRealTime) {
+            while (mWrittenFrames - mFlushedFrames + frames - getPlaybackHeadPosition() > mBufferFrames) {
+                LockSupport.parkNanos(PARK_NANOS);
+            }
+        }
+        pcm.position(pcm.limit());
+        mWrittenFrames += frames;
+        return size;
+    }
+
+    @Override
+    public void play() {
+        if (mPlayStartNanos < 0) {
+            mPlayStartNanos = System.nanoTime();
+        }
+    }
+
+    @Override
+    public void pause() {
+        if (mPlayStartNanos >= 0) {
+            mPlayedBeforeStart = getPlaybackHeadPosition();
+            mPlayStartNanos = -1;
+        }
+    }
+
+    @Override
+    public void flush() {
+        mFlushedFrames = mWrittenFrames;
+        mPlayedBeforeStart = 0;
+    }
+
+    @Override
+    public boolean isPlaying() {
+        return mPlayStartNanos >= 0;
+    }
+
+    @Override
+    public long getPlaybackHeadPosition() {
+        long written = mWrittenFrames - mFlushedFrames;
+        if (!mRealTime) {
+            return written;
+        }
+        long played = mPlayedBeforeStart;
+        long start = mPlayStartNanos;
+        if (start >= 0) {
+            played += (System.nanoTime() - start) * mSampleRate / 1000000000L;
+        }
+        return Math.min(played, written);
+    }
+
+    long getWrittenFrames() {
+        return mWrittenFrames;
+    }
+
+    @Override
+    public void release() {
+        mPlayStartNanos = -1;
+    }
+}
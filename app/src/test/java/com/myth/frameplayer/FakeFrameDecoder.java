@@ -0,0 +1,185 @@
+package com.myth.frameplayer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * {@link FrameDecoder} that "decodes" the samples of a {@link SampleSource} by taking
+ * {@code decodeLatencyNs} per sample, on its own thread after {@link #start()} or one sample
+ * per {@link #decodeNext()} call. At most {@code maxPending} frames are queued, like the
+ * output buffers of a codec. Like B frames, every other sample after a sync sample counts as
+ * non-reference.
+ */
+class FakeFrameDecoder implements FrameDecoder, Runnable {
+
+    private final SampleSource mSource;
+    private final int mMaxPending;
+    private final ByteBuffer mBuffer = ByteBuffer.allocate(1024 * 1024);
+    private final ArrayDeque<DecodedFrame> mPending = new ArrayDeque<>();
+    private final ArrayDeque<DecodedFrame> mRecycled = new ArrayDeque<>();
+    private volatile long mDecodeLatencyNs;
+    private volatile Listener mListener;
+    private volatile boolean mRunning;
+    private boolean mEnded;
+    private volatile boolean mSkipNonReference;
+    private int mSinceSync;
+    private Thread mThread;
+    volatile long skipped;
+    volatile long rendered;
+    volatile long dropped;
+    volatile long lastRenderTimeNs;
+
+    FakeFrameDecoder(SampleSource source, int maxPending) {
+        mSource = source;
+        mMaxPending = maxPending;
+    }
+
+    void setDecodeLatencyNanos(long decodeLatencyNs) {
+        mDecodeLatencyNs = decodeLatencyNs;
+    }
+
+    void start() {
+        mRunning = true;
+        mThread = new Thread(this, "Fake Decoder");
+        mThread.start();
+    }
+
+    @Override
+    public void run() {
+        while (mRunning) {
+            synchronized (this) {
+                while (mRunning && (mEnded || mPending.size() >= mMaxPending)) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+            if (mRunning) {
+                decodeNext();
+            }
+        }
+    }
+
+    /**
+     * Decodes the next sample, or queues the end of stream frame after the last one.
+     *
+     * @return false once the end of stream is queued
+     */
+    boolean decodeNext() {
+        long latencyNs = mDecodeLatencyNs;
+        if (latencyNs > 0) {
+            long end = System.nanoTime() + latencyNs;
+            long left;
+            while ((left = end - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(left);
+            }
+        }
+        boolean wasEmpty;
+        boolean ended;
+        synchronized (this) {
+            DecodedFrame frame = mRecycled.pollFirst();
+            if (frame == null) {
+                frame = new DecodedFrame();
+            }
+            while (mSkipNonReference && mSinceSync % 2 == 1 && mSource.getSampleTime() >= 0) {
+                advance();
+                skipped++;
+            }
+            long timeUs = mSource.getSampleTime();
+            if (mSource.readSampleData(mBuffer, 0) < 0) {
+                frame.flags = FLAG_END_OF_STREAM;
+                frame.presentationTimeUs = 0;
+                mEnded = true;
+            } else {
+                frame.flags = 0;
+                frame.presentationTimeUs = timeUs;
+                advance();
+            }
+            wasEmpty = mPending.isEmpty();
+            mPending.addLast(frame);
+            ended = mEnded;
+        }
+        Listener listener = mListener;
+        if (wasEmpty && listener != null) {
+            listener.onFrameAvailable();
+        }
+        return !ended;
+    }
+
+    private void advance() {
+        mSource.advance();
+        mSinceSync = (mSource.getSampleFlags() & SampleSource.SAMPLE_FLAG_SYNC) != 0 ? 0 : mSinceSync + 1;
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    @Override
+    public synchronized void seekTo(long syncTimeUs) {
+        mRecycled.addAll(mPending);
+        mPending.clear();
+        mSource.seekTo(syncTimeUs);
+        mSinceSync = 0;
+        mEnded = false;
+        notifyAll();
+    }
+
+    @Override
+    public synchronized DecodedFrame peekFrame() {
+        return mPending.peekFirst();
+    }
+
+    @Override
+    public synchronized int getPendingCount() {
+        return mPending.size();
+    }
+
+    @Override
+    public void setSkipNonReferenceFrames(boolean skip) {
+        mSkipNonReference = skip;
+    }
+
+    @Override
+    public void releaseFrame(DecodedFrame frame, boolean render) {
+        take(frame);
+        if (render) {
+            rendered++;
+            lastRenderTimeNs = System.nanoTime();
+        } else {
+            dropped++;
+        }
+    }
+
+    @Override
+    public void releaseFrame(DecodedFrame frame, long renderTimeNs) {
+        take(frame);
+        rendered++;
+        lastRenderTimeNs = renderTimeNs;
+    }
+
+    private synchronized void take(DecodedFrame frame) {
+        mPending.remove(frame);
+        mRecycled.addLast(frame);
+        notifyAll();
+    }
+
+    @Override
+    public void release() {
+        mRunning = false;
+        synchronized (this) {
+            notifyAll();
+        }
+        if (mThread != null) {
+            try {
+                mThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
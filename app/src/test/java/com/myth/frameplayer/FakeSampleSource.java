@@ -0,0 +1,94 @@
+package com.myth.frameplayer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link SampleSource} of {@code count} samples spaced {@code intervalUs} apart with a sync
+ * sample every {@code gop}. Each sample is {@code size} bytes of its own number, optionally
+ * taking {@code readDelayMs} to read.
+ */
+class FakeSampleSource implements SampleSource {
+
+    private final int mCount;
+    private final long mIntervalUs;
+    private final int mGop;
+    private final int mSize;
+    private volatile long mReadDelayMs;
+    private int mSample;
+    volatile boolean released;
+    volatile int reads;
+
+    FakeSampleSource(int count, long intervalUs, int gop, int size) {
+        mCount = count;
+        mIntervalUs = intervalUs;
+        mGop = gop;
+        mSize = size;
+    }
+
+    void setReadDelayMs(long readDelayMs) {
+        mReadDelayMs = readDelayMs;
+    }
+
+    @Override
+    public int readSampleData(ByteBuffer buffer, int offset) {
+        if (mSample >= mCount) {
+            return -1;
+        }
+        if (buffer.capacity() - offset < mSize) {
+            throw new IllegalArgumentException("buffer too small");
+        }
+        if (mReadDelayMs > 0) {
+            try {
+                Thread.sleep(mReadDelayMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        reads++;
+        buffer.clear();
+        for (int i = 0; i < mSize; i++) {
+            buffer.put(offset + i, (byte) mSample);
+        }
+        buffer.position(offset);
+        buffer.limit(offset + mSize);
+        return mSize;
+    }
+
+    @Override
+    public long getSampleTime() {
+        return mSample < mCount ? mSample * mIntervalUs : -1;
+    }
+
+    @Override
+    public int getSampleFlags() {
+        return mSample < mCount && mSample % mGop == 0 ? SAMPLE_FLAG_SYNC : 0;
+    }
+
+    @Override
+    public boolean advance() {
+        if (mSample < mCount) {
+            mSample++;
+        }
+        return mSample < mCount;
+    }
+
+    @Override
+    public void seekTo(long timeUs) {
+        int sample = (int) Math.min(mCount - 1, Math.max(0, timeUs / mIntervalUs));
+        mSample = sample - sample % mGop;
+    }
+
+    @Override
+    public boolean isSampleReady() {
+        return true;
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+    }
+
+    @Override
+    public void release() {
+        released = true;
+    }
+}
@@ -0,0 +1,101 @@
+package com.myth.frameplayer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FrameCacheTest {
+
+    private final List<Integer> mEvicted = new ArrayList<>();
+    private FrameCache mCache;
+
+    @Before
+    public void setUp() {
+        mCache = new FrameCache(300, new FrameCache.EvictionListener() {
+            @Override
+            public void onEvicted(int handle) {
+                mEvicted.add(handle);
+            }
+        });
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        mCache.put(0, 1, 100);
+        mCache.put(33, 2, 100);
+        mCache.put(66, 3, 100);
+        assertEquals(1, mCache.get(0));
+        mCache.put(100, 4, 100);
+
+        assertFalse(mCache.contains(33));
+        assertTrue(mCache.contains(0));
+        assertEquals(3, mCache.getFrameCount());
+        assertEquals(300, mCache.getSizeBytes());
+        assertEquals(1, mEvicted.size());
+        assertEquals(2, (int) mEvicted.get(0));
+    }
+
+    @Test
+    public void reclaimHandsBackSameSizeFrame() {
+        mCache.put(0, 1, 100);
+        mCache.put(33, 2, 100);
+        mCache.put(66, 3, 100);
+
+        assertEquals(-1, mCache.reclaim(0));
+        assertEquals(1, mCache.reclaim(100));
+        assertTrue(mEvicted.isEmpty());
+        assertEquals(200, mCache.getSizeBytes());
+
+        // a larger frame needs two slots, neither is reusable
+        assertEquals(-1, mCache.reclaim(250));
+        assertEquals(2, mEvicted.size());
+        assertEquals(0, mCache.getFrameCount());
+    }
+
+    @Test
+    public void countsHitsAndMisses() {
+        mCache.put(0, 1, 100);
+        mCache.get(0);
+        mCache.get(0);
+        mCache.get(33);
+
+        assertEquals(2, mCache.getHitCount());
+        assertEquals(1, mCache.getMissCount());
+    }
+
+    @Test
+    public void dropsFramesOverBudget() {
+        mCache.put(0, 1, 400);
+        assertEquals(0, mCache.getFrameCount());
+        assertEquals(1, (int) mEvicted.get(0));
+    }
+
+    @Test
+    public void removeEvictsOneFrame() {
+        mCache.put(0, 1, 100);
+        mCache.put(33, 2, 100);
+        mCache.remove(33);
+        mCache.remove(66);
+
+        assertFalse(mCache.contains(33));
+        assertEquals(100, mCache.getSizeBytes());
+        assertEquals(1, mEvicted.size());
+        assertEquals(2, (int) mEvicted.get(0));
+    }
+
+    @Test
+    public void clearEvictsEverything() {
+        mCache.put(0, 1, 100);
+        mCache.put(33, 2, 100);
+        mCache.clear();
+
+        assertEquals(0, mCache.getSizeBytes());
+        assertEquals(2, mEvicted.size());
+    }
+}
@@ -0,0 +1,125 @@
+package com.myth.frameplayer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class FrameClockTest {
+
+    private static class FakeTimeSource implements FrameClock.TimeSource {
+        long now = 5000000000L;
+
+        @Override
+        public long nanoTime() {
+            return now;
+        }
+    }
+
+    private FakeTimeSource time;
+    private FrameClock clock;
+
+    @Before
+    public void setUp() {
+        time = new FakeTimeSource();
+        clock = new FrameClock(time);
+    }
+
+    @Test
+    public void deadlinesFollowPresentationTime() {
+        clock.setFrameRate(30, 30);
+        clock.start(0);
+        assertEquals(time.now + 33333000L, clock.deadlineNanos(33333));
+        assertEquals(time.now + 1000000000L, clock.deadlineNanos(1000000));
+    }
+
+    @Test
+    public void deadlinesScaleWithRequestedRate() {
+        clock.setFrameRate(30, 60);
+        clock.start(0);
+        assertEquals(time.now + 500000000L, clock.deadlineNanos(1000000));
+        clock.setFrameRate(30, 15);
+        assertEquals(time.now + 2000000000L, clock.deadlineNanos(1000000));
+    }
+
+    @Test
+    public void lateFrameDoesNotAccumulateDrift() {
+        clock.setFrameRate(30, 30);
+        long start = time.now;
+        clock.start(0);
+        // the frame at 100ms is presented 20ms late
+        time.now = start + 120000000L;
+        assertEquals(20000000L, clock.onFramePresented(100000));
+        // the next deadline still is relative to the anchor, so it is already 20ms closer
+        assertEquals(start + 133333000L, clock.deadlineNanos(133333));
+        assertEquals(13333000L, clock.delayNanos(133333));
+        assertEquals(20000000L, clock.getDriftNanos());
+    }
+
+    @Test
+    public void pauseShiftsDeadlines() {
+        clock.setFrameRate(25, 25);
+        long start = time.now;
+        clock.start(0);
+        time.now = start + 10000000L;
+        clock.pause();
+        time.now = start + 510000000L;
+        assertEquals(30000000L, clock.delayNanos(40000));
+        clock.resume();
+        assertEquals(start + 540000000L, clock.deadlineNanos(40000));
+    }
+
+    @Test
+    public void jitterStatistics() {
+        clock.setFrameRate(10, 10);
+        long start = time.now;
+        clock.start(0);
+        time.now = start + 2000000L;
+        clock.onFramePresented(0);
+        time.now = start + 100000000L - 4000000L;
+        clock.onFramePresented(100000);
+        assertEquals(2, clock.getFrameCount());
+        assertEquals(3000000L, clock.getMeanJitterNanos());
+        assertEquals(4000000L, clock.getMaxJitterNanos());
+        assertEquals(-4000000L, clock.getDriftNanos());
+    }
+
+    @Test
+    public void resyncsWhenFarBehind() {
+        clock.setFrameRate(30, 30);
+        long start = time.now;
+        clock.start(0);
+        time.now = start + 3000000000L;
+        clock.onFramePresented(0);
+        assertEquals(1, clock.getResyncCount());
+        assertEquals(time.now + 1000000000L, clock.deadlineNanos(1000000));
+    }
+
+    @Test
+    public void snapshotsAreConsistentWhileFramesArePresented() throws InterruptedException {
+        clock.setFrameRate(30, 30);
+        final long start = time.now;
+        clock.start(0);
+        Thread presenter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                // frame n is n ms late
+                for (int n = 1; n <= 1000; n++) {
+                    time.now = start + n * 1000000L;
+                    clock.onFramePresented(0);
+                }
+            }
+        });
+        presenter.start();
+        while (presenter.isAlive()) {
+            FrameClock.Snapshot snapshot = clock.snapshot();
+            long n = snapshot.getFrameCount();
+            assertEquals(n * 1000000L, snapshot.getMaxJitterNanos());
+            assertEquals(n * 1000000L, snapshot.getDriftNanos());
+            assertEquals(n == 0 ? 0 : (n + 1) * 500000L, snapshot.getMeanJitterNanos());
+        }
+        presenter.join();
+        assertEquals(1000, clock.snapshot().getFrameCount());
+        assertEquals(0, clock.getResyncCount());
+    }
+}
@@ -0,0 +1,51 @@
+package com.myth.frameplayer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FrameExtractorTest {
+
+    private static final long FRAME_US = 40000;
+
+    private SampleIndex index;
+
+    /**
+     * 10 frames with a keyframe every 4.
+     */
+    @Before
+    public void setUp() {
+        SampleIndex.Builder builder = new SampleIndex.Builder();
+        for (int i = 0; i < 10; i++) {
+            builder.add(i * FRAME_US, i % 4 == 0);
+        }
+        index = builder.build();
+    }
+
+    @Test
+    public void everyNthFrameIncludesTheFirst() {
+        assertArrayEquals(new long[]{0, 3 * FRAME_US, 6 * FRAME_US, 9 * FRAME_US},
+                FrameExtractor.everyNthFrame(index, 3));
+        assertArrayEquals(new long[]{0}, FrameExtractor.everyNthFrame(index, 20));
+    }
+
+    @Test
+    public void framesAtSnapsSortsAndDropsDuplicates() {
+        long[] times = {5 * FRAME_US + 10, -1, 2 * FRAME_US, 5 * FRAME_US, 99 * FRAME_US};
+        assertArrayEquals(new long[]{0, 2 * FRAME_US, 5 * FRAME_US, 9 * FRAME_US},
+                FrameExtractor.framesAt(index, times));
+    }
+
+    @Test
+    public void seeksOnlyToSkipWholeGops() {
+        // within the GOP being decoded
+        assertFalse(FrameExtractor.needsSeek(index, 3 * FRAME_US, FRAME_US));
+        // the next GOP starts before the target, skip the rest of this one
+        assertTrue(FrameExtractor.needsSeek(index, 5 * FRAME_US, FRAME_US));
+        // already decoding the target's GOP
+        assertFalse(FrameExtractor.needsSeek(index, 6 * FRAME_US, 4 * FRAME_US));
+    }
+}
@@ -0,0 +1,152 @@
+package com.myth.frameplayer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FrameNavigatorTest {
+
+    private static final long FRAME_US = 40000;
+    private static final int GOP = 30;
+
+    private SampleIndex index;
+    private FakeFrameDecoder decoder;
+    private long decodePositionUs = -1;
+    private long seekTargetUs = -1;
+    private long audioSeekUs = -1;
+    private long shownUs = -1;
+    private int seeks;
+    private boolean seekOnResume;
+
+    private final FrameNavigator.Output output = new FrameNavigator.Output() {
+        @Override
+        public void showCached(int texture, long timeUs) {
+            shownUs = timeUs;
+            seekTargetUs = -1;
+        }
+
+        @Override
+        public void seek(long timeUs) {
+            seeks++;
+            decoder.seekTo(index.syncTimeAtOrBefore(timeUs));
+            decodePositionUs = -1;
+            seekTargetUs = timeUs;
+            audioSeekUs = timeUs;
+            seekOnResume = false;
+        }
+
+        @Override
+        public void decodeTo(long timeUs) {
+            seekTargetUs = timeUs;
+            audioSeekUs = timeUs;
+            seekOnResume = false;
+        }
+
+        @Override
+        public void seekOnResume() {
+            seekOnResume = true;
+        }
+    };
+
+    @Before
+    public void setUp() {
+        SampleIndex.Builder builder = new SampleIndex.Builder();
+        for (int i = 0; i < 120; i++) {
+            builder.add(i * FRAME_US, i % GOP == 0);
+        }
+        index = builder.build();
+        decoder = new FakeFrameDecoder(new FakeSampleSource(120, FRAME_US, GOP, 4), 120);
+        // ten frames played
+        for (int i = 0; i < 10; i++) {
+            takeFrame();
+        }
+    }
+
+    @Test
+    public void scrubDuringPlaybackSeeksVideoAndAudio() {
+        FrameNavigator.show(index, 0, 75, -1, decodePositionUs, seekTargetUs, true, false, output);
+
+        assertEquals(1, seeks);
+        assertEquals(75 * FRAME_US, audioSeekUs);
+        assertEquals(75 * FRAME_US, seekTargetUs);
+        // decoding starts over at the keyframe of the target
+        assertEquals(60 * FRAME_US, takeFrame());
+    }
+
+    @Test
+    public void scrubDuringPlaybackSeeksEvenOnTheWay() {
+        FrameNavigator.show(index, 0, 20, -1, decodePositionUs, seekTargetUs, true, false, output);
+
+        assertEquals(1, seeks);
+        assertEquals(20 * FRAME_US, audioSeekUs);
+        assertEquals(0, takeFrame());
+    }
+
+    @Test
+    public void cachedFrameDuringPlaybackIsShownAndSeeks() {
+        FrameNavigator.show(index, 0, 50, 7, decodePositionUs, seekTargetUs, true, false, output);
+
+        assertEquals(50 * FRAME_US, shownUs);
+        assertEquals(1, seeks);
+        assertEquals(50 * FRAME_US, audioSeekUs);
+        assertEquals(30 * FRAME_US, takeFrame());
+    }
+
+    @Test
+    public void stepWhilePausedDecodesOnAndMovesAudio() {
+        FrameNavigator.show(index, 0, 12, -1, decodePositionUs, seekTargetUs, false, false, output);
+
+        assertEquals(0, seeks);
+        assertEquals(12 * FRAME_US, seekTargetUs);
+        assertEquals(12 * FRAME_US, audioSeekUs);
+        // the decoder was not flushed
+        assertEquals(10 * FRAME_US, takeFrame());
+    }
+
+    @Test
+    public void stepWhilePausedPastTheGopSeeks() {
+        FrameNavigator.show(index, 0, 40, -1, decodePositionUs, seekTargetUs, false, false, output);
+
+        assertEquals(1, seeks);
+        assertEquals(30 * FRAME_US, takeFrame());
+    }
+
+    @Test
+    public void cachedFrameWhilePausedSeeksOnResume() {
+        FrameNavigator.show(index, 0, 50, 7, decodePositionUs, seekTargetUs, false, false, output);
+
+        assertEquals(50 * FRAME_US, shownUs);
+        assertEquals(0, seeks);
+        assertTrue(seekOnResume);
+
+        // a later step the decoder reaches on its own leaves nothing to do on resume
+        FrameNavigator.show(index, 0, 11, -1, decodePositionUs, seekTargetUs, false, false, output);
+        assertFalse(seekOnResume);
+        assertEquals(11 * FRAME_US, audioSeekUs);
+    }
+
+    @Test
+    public void cachedFrameBackwardsIsOnlyShown() {
+        FrameNavigator.show(index, 0, 5, 7, decodePositionUs, seekTargetUs, true, true, output);
+
+        assertEquals(5 * FRAME_US, shownUs);
+        assertEquals(0, seeks);
+        assertFalse(seekOnResume);
+        assertEquals(-1, audioSeekUs);
+    }
+
+    /**
+     * Decodes the next frame and takes it from the decoder, like the player on screen.
+     */
+    private long takeFrame() {
+        decoder.decodeNext();
+        FrameDecoder.DecodedFrame frame = decoder.peekFrame();
+        long timeUs = frame.presentationTimeUs;
+        decoder.releaseFrame(frame, true);
+        decodePositionUs = timeUs;
+        return timeUs;
+    }
+}
@@ -0,0 +1,183 @@
+package com.myth.frameplayer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FrameSchedulerTest {
+
+    private static final long FRAME_US = 40000;
+    private static final long FRAME_NS = FRAME_US * 1000;
+
+    private final FakeTimeSource time = new FakeTimeSource();
+    private final PlayerMetrics metrics = new PlayerMetrics();
+    private FakeFrameDecoder decoder;
+    private FrameScheduler scheduler;
+    private long renderTimeNs = -1;
+    private long droppedUs = -1;
+    private boolean ended;
+    private int skipToSyncCalls;
+    private long skipToSyncPositionUs = -1;
+
+    @Before
+    public void setUp() {
+        createScheduler(10);
+    }
+
+    private void createScheduler(int frames) {
+        decoder = new FakeFrameDecoder(new FakeSampleSource(frames, FRAME_US, 5, 4), 4);
+        FrameClock clock = new FrameClock(time);
+        final AvSyncController sync = new AvSyncController(clock);
+        scheduler = new FrameScheduler(decoder, clock, sync, metrics, new FrameScheduler.Output() {
+            @Override
+            public void renderFrame(FrameDecoder.DecodedFrame frame, long renderTimeNs) {
+                FrameSchedulerTest.this.renderTimeNs = renderTimeNs;
+                sync.onFrameRendered(frame.presentationTimeUs);
+                decoder.releaseFrame(frame, renderTimeNs);
+            }
+
+            @Override
+            public void onFrameDropped(long presentationTimeUs) {
+                droppedUs = presentationTimeUs;
+            }
+
+            @Override
+            public void onEndOfStream(FrameDecoder.DecodedFrame frame) {
+                ended = true;
+            }
+
+            @Override
+            public int skipToSyncSample(long positionUs) {
+                skipToSyncCalls++;
+                skipToSyncPositionUs = positionUs;
+                return 7;
+            }
+        });
+    }
+
+    @Test
+    public void waitsForDecodedFrames() {
+        assertEquals(FrameScheduler.WAIT_FOR_FRAME, scheduler.tick());
+        decoder.decodeNext();
+        assertEquals(0, scheduler.tick());
+        assertEquals(1, decoder.rendered);
+        assertEquals(FrameScheduler.WAIT_FOR_FRAME, scheduler.tick());
+    }
+
+    @Test
+    public void rendersEachFrameAtItsDeadline() {
+        decoder.decodeNext();
+        decoder.decodeNext();
+        scheduler.tick();
+        assertEquals(FRAME_NS, scheduler.tick());
+        time.now += FRAME_NS;
+        assertEquals(0, scheduler.tick());
+        assertEquals(FRAME_NS, renderTimeNs);
+        assertEquals(2, decoder.rendered);
+    }
+
+    @Test
+    public void rendersAheadWithTheDeadlineAsRenderTime() {
+        scheduler.setRenderAheadNanos(FRAME_NS / 2);
+        decoder.decodeNext();
+        decoder.decodeNext();
+        scheduler.tick();
+        assertEquals(FRAME_NS / 2, scheduler.tick());
+        time.now += FRAME_NS / 2;
+        assertEquals(0, scheduler.tick());
+        assertEquals(FRAME_NS, renderTimeNs);
+        assertEquals(0, metrics.snapshot().getCounter(PlayerMetrics.FRAMES_LATE));
+    }
+
+    @Test
+    public void countsLateFramesAndJitter() {
+        decoder.decodeNext();
+        decoder.decodeNext();
+        scheduler.tick();
+        time.now += FRAME_NS + 10000000L;
+        scheduler.tick();
+        PlayerMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(1, snapshot.getCounter(PlayerMetrics.FRAMES_LATE));
+        assertEquals(1, snapshot.getHistogram(PlayerMetrics.FRAME_JITTER).getCount());
+        assertEquals(10000000L, snapshot.getHistogram(PlayerMetrics.FRAME_JITTER).getMax());
+    }
+
+    @Test
+    public void dropsFramesPastTheThreshold() {
+        decoder.decodeNext();
+        decoder.decodeNext();
+        decoder.decodeNext();
+        scheduler.tick();
+        // frame 1 is 80 ms late, frame 2 only 40 ms
+        time.now += 3 * FRAME_NS;
+        assertEquals(0, scheduler.tick());
+        assertEquals(FRAME_US, droppedUs);
+        assertEquals(1, decoder.dropped);
+        assertEquals(0, scheduler.tick());
+        assertEquals(2, decoder.rendered);
+        assertEquals(1, metrics.snapshot().getCounter(PlayerMetrics.FRAMES_DROPPED));
+    }
+
+    @Test
+    public void skipsNonReferenceFramesUntilBackOnTime() {
+        createScheduler(200);
+        for (int i = 0; i < 4; i++) {
+            decoder.decodeNext();
+        }
+        scheduler.tick();
+        // frames 1 to 3 come out hundreds of ms late
+        time.now = 10 * FRAME_NS;
+        scheduler.tick();
+        scheduler.tick();
+        assertFalse(scheduler.isSkippingNonReference());
+        scheduler.tick();
+        assertTrue(scheduler.isSkippingNonReference());
+        assertEquals(0, skipToSyncCalls);
+        for (int i = 0; i < 30; i++) {
+            decoder.decodeNext();
+            time.now = decoder.peekFrame().presentationTimeUs * 1000;
+            scheduler.tick();
+        }
+        assertTrue(decoder.skipped > 0);
+        assertFalse(scheduler.isSkippingNonReference());
+    }
+
+    @Test
+    public void skipsToTheNextSyncSampleWhenFarBehind() {
+        for (int i = 0; i < 4; i++) {
+            decoder.decodeNext();
+        }
+        scheduler.tick();
+        time.now = 20 * FRAME_NS;
+        scheduler.tick();
+        assertEquals(1, skipToSyncCalls);
+        assertEquals(20 * FRAME_US, skipToSyncPositionUs);
+        // once per jump, until a frame is rendered again
+        scheduler.tick();
+        assertEquals(1, skipToSyncCalls);
+        assertEquals(7, metrics.snapshot().getCounter(PlayerMetrics.FRAMES_SKIPPED_TO_SYNC));
+    }
+
+    @Test
+    public void reportsTheEndOfStream() {
+        while (decoder.decodeNext()) {
+            time.now += FRAME_NS;
+            scheduler.tick();
+        }
+        assertEquals(FrameScheduler.WAIT_FOR_FRAME, scheduler.tick());
+        assertTrue(ended);
+        assertEquals(10, decoder.rendered);
+    }
+
+    private static class FakeTimeSource implements FrameClock.TimeSource {
+        long now;
+
+        @Override
+        public long nanoTime() {
+            return now;
+        }
+    }
+}
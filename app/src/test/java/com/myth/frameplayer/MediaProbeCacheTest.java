@@ -0,0 +1,193 @@
+package com.myth.frameplayer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MediaProbeCacheTest {
+
+    private File mDirectory;
+    private File mCacheDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = File.createTempFile("probe", "");
+        mDirectory.delete();
+        mDirectory.mkdirs();
+        mCacheDirectory = new File(mDirectory, "cache");
+    }
+
+    @After
+    public void tearDown() {
+        delete(mDirectory);
+    }
+
+    @Test
+    public void storesFormatsAndIndex() throws IOException {
+        DataSource source = DataSource.fromFile(media("a.mp4", 100));
+        MediaProbeCache cache = new MediaProbeCache(mCacheDirectory, 1 << 20);
+        assertNull(cache.get(source, true));
+
+        cache.put(source, probe(0, 1, 10000000));
+        MediaProbeCache.Probe probe = cache.get(source, true);
+
+        assertNotNull(probe);
+        assertEquals(0, probe.videoTrack);
+        assertEquals(1, probe.audioTrack);
+        assertTrue(probe.audioProbed);
+        assertEquals(1920, probe.videoFormat.values.get("width"));
+        assertEquals(5000000L, probe.videoFormat.values.get("durationUs"));
+        assertEquals("video/avc", probe.videoFormat.values.get("mime"));
+        assertArrayEquals(new byte[]{0, 0, 0, 1, 0x67}, (byte[]) probe.videoFormat.values.get("csd-0"));
+        assertEquals("audio/mp4a-latm", probe.audioFormat.values.get("mime"));
+        assertEquals(4, probe.index.getFrameCount());
+        assertEquals(-33333, probe.index.getPresentationTimeUs(0));
+        assertEquals(66666, probe.index.getPresentationTimeUs(3));
+        assertEquals(2, probe.index.getSyncFrameCount());
+        assertEquals(33333, probe.index.getSyncTimeUs(1));
+        assertEquals(10000000, probe.probeNanos);
+    }
+
+    @Test
+    public void missesModifiedFile() throws IOException {
+        File file = media("a.mp4", 100);
+        DataSource source = DataSource.fromFile(file);
+        MediaProbeCache cache = new MediaProbeCache(mCacheDirectory, 1 << 20);
+        cache.put(source, probe(0, 1, 0));
+
+        file.setLastModified(file.lastModified() - 10000);
+        assertNull(cache.get(source, false));
+        assertEquals(0, cache.getSizeBytes());
+    }
+
+    @Test
+    public void missesResizedFile() throws IOException {
+        File file = media("a.mp4", 100);
+        long modified = file.lastModified();
+        DataSource source = DataSource.fromFile(file);
+        MediaProbeCache cache = new MediaProbeCache(mCacheDirectory, 1 << 20);
+        cache.put(source, probe(0, 1, 0));
+
+        media("a.mp4", 200);
+        file.setLastModified(modified);
+        assertNull(cache.get(source, false));
+    }
+
+    @Test
+    public void missesAudioWhenProbedWithout() throws IOException {
+        DataSource source = DataSource.fromFile(media("a.mp4", 100));
+        MediaProbeCache cache = new MediaProbeCache(mCacheDirectory, 1 << 20);
+        cache.put(source, new MediaProbeCache.Probe(0, -1, false, videoFormat(), null,
+                index(), 0));
+
+        assertNotNull(cache.get(source, false));
+        assertNull(cache.get(source, true));
+    }
+
+    @Test
+    public void countsHitsAndSavedTime() throws IOException {
+        DataSource source = DataSource.fromFile(media("a.mp4", 100));
+        MediaProbeCache cache = new MediaProbeCache(mCacheDirectory, 1 << 20);
+        assertNull(cache.get(source, true));
+        cache.put(source, probe(0, 1, 10000000));
+
+        cache.onHit(cache.get(source, true), 2000000);
+        cache.onHit(cache.get(source, true), 3000000);
+
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(2 / 3f, cache.getHitRatio(), 1e-6);
+        assertEquals(15000000, cache.getTimeSavedNanos());
+    }
+
+    @Test
+    public void ignoresSourcesOtherThanFiles() {
+        DataSource source = DataSource.fromBuffer(ByteBuffer.allocate(100));
+        MediaProbeCache cache = new MediaProbeCache(mCacheDirectory, 1 << 20);
+        cache.put(source, probe(0, 1, 0));
+
+        assertNull(cache.get(source, false));
+        assertEquals(0, cache.getSizeBytes());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedProbe() throws IOException {
+        DataSource a = DataSource.fromFile(media("a.mp4", 100));
+        DataSource b = DataSource.fromFile(media("b.mp4", 100));
+        DataSource c = DataSource.fromFile(media("c.mp4", 100));
+        MediaProbeCache cache = new MediaProbeCache(mCacheDirectory, 1 << 20);
+        cache.put(a, probe(0, 1, 0));
+        long entrySize = cache.getSizeBytes();
+        cache.clear();
+
+        cache = new MediaProbeCache(mCacheDirectory, 2 * entrySize + entrySize / 2);
+        cache.put(a, probe(0, 1, 0));
+        cache.put(b, probe(0, 1, 0));
+        long past = System.currentTimeMillis() - 60000;
+        for (File entry : mCacheDirectory.listFiles()) {
+            entry.setLastModified(past);
+        }
+        assertNotNull(cache.get(a, false));
+        cache.put(c, probe(0, 1, 0));
+
+        assertNotNull(cache.get(a, false));
+        assertNull(cache.get(b, false));
+        assertNotNull(cache.get(c, false));
+        assertFalse(cache.getSizeBytes() > 2 * entrySize + entrySize / 2);
+    }
+
+    private File media(String name, int size) throws IOException {
+        File file = new File(mDirectory, name);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[size]);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private static MediaProbeCache.Probe probe(int videoTrack, int audioTrack, long probeNanos) {
+        MediaProbeCache.TrackFormat audioFormat = new MediaProbeCache.TrackFormat();
+        audioFormat.values.put("mime", "audio/mp4a-latm");
+        audioFormat.values.put("sample-rate", 44100);
+        return new MediaProbeCache.Probe(videoTrack, audioTrack, true, videoFormat(), audioFormat,
+                index(), probeNanos);
+    }
+
+    private static MediaProbeCache.TrackFormat videoFormat() {
+        MediaProbeCache.TrackFormat format = new MediaProbeCache.TrackFormat();
+        format.values.put("mime", "video/avc");
+        format.values.put("width", 1920);
+        format.values.put("height", 1080);
+        format.values.put("durationUs", 5000000L);
+        format.values.put("csd-0", new byte[]{0, 0, 0, 1, 0x67});
+        return format;
+    }
+
+    private static SampleIndex index() {
+        return new SampleIndex(new long[]{-33333, 0, 33333, 66666}, new long[]{-33333, 33333});
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
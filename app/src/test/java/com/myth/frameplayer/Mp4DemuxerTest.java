@@ -0,0 +1,177 @@
+package com.myth.frameplayer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class Mp4DemuxerTest {
+
+    private static final int VIDEO_SAMPLES = 47;
+    private static final int AUDIO_SAMPLES = 68;
+
+    private Mp4Demuxer demuxer;
+    private Mp4Demuxer.Track video;
+    private Mp4Demuxer.Track audio;
+
+    @Before
+    public void setUp() throws IOException {
+        demuxer = Mp4Demuxer.parse(Mp4TestFile.create(VIDEO_SAMPLES, AUDIO_SAMPLES, false));
+        video = demuxer.getTrack(Mp4Demuxer.TRACK_TYPE_VIDEO);
+        audio = demuxer.getTrack(Mp4Demuxer.TRACK_TYPE_AUDIO);
+    }
+
+    @Test
+    public void trackFormats() {
+        assertEquals(2, demuxer.getTracks().size());
+        assertEquals("avc1", video.getCodec());
+        assertEquals("avcC", video.getCodecConfigType());
+        assertEquals(320, video.getWidth());
+        assertEquals(240, video.getHeight());
+        assertEquals(30f, video.getFrameRate(), 0.01f);
+        assertEquals(VIDEO_SAMPLES * 1000000L / 30, video.getDurationUs(), 1);
+
+        assertEquals("mp4a", audio.getCodec());
+        assertEquals("esds", audio.getCodecConfigType());
+        assertEquals(2, audio.getChannelCount());
+        assertEquals(Mp4TestFile.AUDIO_SAMPLE_RATE, audio.getSampleRate());
+    }
+
+    @Test
+    public void sampleTables() {
+        assertEquals(VIDEO_SAMPLES, video.getSampleCount());
+        assertEquals(AUDIO_SAMPLES, audio.getSampleCount());
+        for (int i = 0; i < VIDEO_SAMPLES; i++) {
+            assertEquals(Mp4TestFile.videoSampleSize(i), video.getSampleSize(i));
+            assertEquals(Mp4TestFile.videoTimeUs(i), video.getPresentationTimeUs(i));
+            assertEquals(i % Mp4TestFile.GOP == 0, video.isSyncSample(i));
+        }
+        for (int i = 0; i < AUDIO_SAMPLES; i++) {
+            assertEquals(Mp4TestFile.AUDIO_SAMPLE_SIZE, audio.getSampleSize(i));
+            assertEquals(i * 1024 * 1000000L / Mp4TestFile.AUDIO_SAMPLE_RATE, audio.getPresentationTimeUs(i));
+            assertTrue(audio.isSyncSample(i));
+        }
+    }
+
+    @Test
+    public void editListShiftsCompositionOffsets() {
+        assertEquals(0, video.getPresentationTimeUs(0));
+        assertEquals(66666, video.getPresentationTimeUs(1));
+        assertEquals(33333, video.getPresentationTimeUs(2));
+    }
+
+    @Test
+    public void samplesAreSlicesOfTheFile() {
+        for (int i = 0; i < VIDEO_SAMPLES; i++) {
+            ByteBuffer sample = video.getSample(i);
+            assertEquals(Mp4TestFile.videoSampleSize(i), sample.remaining());
+            assertEquals(sample.remaining() - 4, sample.getInt(0));
+            assertEquals((byte) i, sample.get(sample.limit() - 1));
+        }
+        for (int i = 0; i < AUDIO_SAMPLES; i++) {
+            ByteBuffer sample = audio.getSample(i);
+            assertEquals((byte) (0x80 | i), sample.get(0));
+            assertEquals((byte) (0x80 | i), sample.get(Mp4TestFile.AUDIO_SAMPLE_SIZE - 1));
+        }
+        assertTrue(video.getSample(0).isReadOnly());
+    }
+
+    @Test
+    public void co64MatchesStco() throws IOException {
+        Mp4Demuxer wide = Mp4Demuxer.parse(Mp4TestFile.create(VIDEO_SAMPLES, AUDIO_SAMPLES, true));
+        Mp4Demuxer.Track wideVideo = wide.getTrack(Mp4Demuxer.TRACK_TYPE_VIDEO);
+        for (int i = 0; i < VIDEO_SAMPLES; i++) {
+            // co64 offsets are 4 bytes larger each, moving moov but not mdat
+            assertEquals(video.getSampleOffset(i), wideVideo.getSampleOffset(i));
+        }
+    }
+
+    @Test
+    public void syncSampleLookup() {
+        assertEquals(0, video.getSyncSampleAtOrBefore(-1));
+        assertEquals(0, video.getSyncSampleAtOrBefore(Mp4TestFile.videoTimeUs(8)));
+        assertEquals(9, video.getSyncSampleAtOrBefore(Mp4TestFile.videoTimeUs(9)));
+        assertEquals(45, video.getSyncSampleAtOrBefore(Long.MAX_VALUE));
+        assertEquals(3, audio.getSyncSampleAtOrBefore(audio.getPresentationTimeUs(3) + 1));
+    }
+
+    @Test
+    public void codecConfig() {
+        assertEquals(4, Mp4CodecConfig.getNalLengthSize("avcC", video.getCodecConfig()));
+        byte[][] parameterSets = Mp4CodecConfig.getAvcParameterSets(video.getCodecConfig());
+        assertArrayEquals(new byte[]{0, 0, 0, 1, 0x67, 0x42, 0x00, 0x1e}, parameterSets[0]);
+        assertArrayEquals(new byte[]{0, 0, 0, 1, 0x68, (byte) 0xce}, parameterSets[1]);
+        assertArrayEquals(Mp4TestFile.AUDIO_SPECIFIC_CONFIG,
+                Mp4CodecConfig.getDecoderSpecificInfo(audio.getCodecConfig()));
+    }
+
+    @Test
+    public void annexB() {
+        ByteBuffer sample = ByteBuffer.wrap(new byte[]{0, 0, 0, 2, 9, 9, 0, 0, 0, 1, 7});
+        assertTrue(Mp4CodecConfig.toAnnexB(sample, 0, 11, 4));
+        assertArrayEquals(new byte[]{0, 0, 0, 1, 9, 9, 0, 0, 0, 1, 7}, sample.array());
+        assertFalse(Mp4CodecConfig.toAnnexB(ByteBuffer.wrap(new byte[]{0, 0, 0, 9, 1}), 0, 5, 4));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsFilesWithoutMovie() throws IOException {
+        Mp4Demuxer.parse(ByteBuffer.wrap(new byte[]{0, 0, 0, 8, 'f', 'r', 'e', 'e'}));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsTruncatedMovie() throws IOException {
+        ByteBuffer file = Mp4TestFile.create(VIDEO_SAMPLES, AUDIO_SAMPLES, false);
+        file.limit(file.limit() - 100);
+        Mp4Demuxer.parse(file.slice());
+    }
+
+    @Test
+    public void indexSize() {
+        assertEquals(VIDEO_SAMPLES * 20 + 6 * 4 + AUDIO_SAMPLES * 20, demuxer.getIndexSizeBytes());
+        assertNull(demuxer.getTrack(Mp4Demuxer.TRACK_TYPE_UNKNOWN));
+    }
+
+    @Test
+    public void readsAnHourThroughTheMapping() throws IOException {
+        int videoSamples = 30 * 3600;
+        int audioSamples = Mp4TestFile.AUDIO_SAMPLE_RATE * 3600 / 1024;
+        File file = File.createTempFile("demuxer", ".mp4");
+        try {
+            Mp4Demuxer hour = Mp4Demuxer.open(Mp4TestFile.write(file, videoSamples, audioSamples));
+            Mp4Demuxer.Track hourVideo = hour.getTrack(Mp4Demuxer.TRACK_TYPE_VIDEO);
+            Mp4Demuxer.Track hourAudio = hour.getTrack(Mp4Demuxer.TRACK_TYPE_AUDIO);
+            assertEquals(videoSamples, hourVideo.getSampleCount());
+            assertEquals(audioSamples, hourAudio.getSampleCount());
+
+            // the last byte of every sample is its number
+            long expected = 0;
+            for (int i = 0; i < videoSamples; i++) {
+                expected += (byte) i;
+            }
+            for (int i = 0; i < audioSamples; i++) {
+                expected += (byte) (0x80 | i);
+            }
+            assertEquals(expected, checksum(hourVideo) + checksum(hourAudio));
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static long checksum(Mp4Demuxer.Track track) {
+        ByteBuffer view = track.newView();
+        long checksum = 0;
+        for (int i = 0; i < track.getSampleCount(); i++) {
+            track.selectSample(view, i);
+            checksum += view.get(view.limit() - 1);
+        }
+        return checksum;
+    }
+}
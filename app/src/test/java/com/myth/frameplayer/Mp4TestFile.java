@@ -0,0 +1,238 @@
+package com.myth.frameplayer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes small MP4 files with an H.264 track and an AAC track for the demuxer tests.
+ * <p>
+ * Video runs at 30 fps (timescale 30000) in an I B P pattern shifted back by an edit list,
+ * so it presents frames 0 2 1 3 5 4 ..., with a sync sample every {@link #GOP} frames and
+ * five samples per chunk. Every video sample is a single NAL unit with a 4 byte length
+ * prefix whose payload bytes are the sample number. Audio has 1024-sample frames of
+ * {@link #AUDIO_SAMPLE_SIZE} bytes at 44.1 kHz, ten per chunk, interleaved with video.
+ */
+final class Mp4TestFile {
+
+    static final int GOP = 9;
+    static final int VIDEO_TIMESCALE = 30000;
+    static final int VIDEO_DELTA = 1000;
+    static final int AUDIO_SAMPLE_RATE = 44100;
+    static final int AUDIO_SAMPLE_SIZE = 8;
+    static final byte[] SPS = {0x67, 0x42, 0x00, 0x1e};
+    static final byte[] PPS = {0x68, (byte) 0xce};
+    static final byte[] AUDIO_SPECIFIC_CONFIG = {0x12, 0x10};
+
+    private static final int VIDEO_PER_CHUNK = 5;
+    private static final int AUDIO_PER_CHUNK = 10;
+    private static final int[] COMPOSITION_OFFSETS = {1000, 2000, 0};
+
+    private Mp4TestFile() {
+    }
+
+    static int videoSampleSize(int sample) {
+        return 20 + sample % 13;
+    }
+
+    /**
+     * @return presentation time of video sample {@code sample}, in decode order
+     */
+    static long videoTimeUs(int sample) {
+        long ticks = sample * VIDEO_DELTA + COMPOSITION_OFFSETS[sample % 3] - VIDEO_DELTA;
+        return ticks * 1000000L / VIDEO_TIMESCALE;
+    }
+
+    static ByteBuffer create(int videoSamples, int audioSamples, boolean co64) {
+        return ByteBuffer.wrap(build(videoSamples, audioSamples, co64));
+    }
+
+    static File write(File file, int videoSamples, int audioSamples) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(build(videoSamples, audioSamples, false));
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private static byte[] build(int videoSamples, int audioSamples, boolean co64) {
+        byte[] ftyp = box("ftyp", ascii("isom"), ints(512), ascii("isomavc1"));
+        int dataStart = ftyp.length + 8;
+
+        ByteArrayOutputStream mdat = new ByteArrayOutputStream();
+        int videoChunks = (videoSamples + VIDEO_PER_CHUNK - 1) / VIDEO_PER_CHUNK;
+        int audioChunks = (audioSamples + AUDIO_PER_CHUNK - 1) / AUDIO_PER_CHUNK;
+        long[] videoChunkOffsets = new long[videoChunks];
+        long[] audioChunkOffsets = new long[audioChunks];
+        int videoSample = 0;
+        int audioSample = 0;
+        for (int chunk = 0; chunk < Math.max(videoChunks, audioChunks); chunk++) {
+            if (chunk < videoChunks) {
+                videoChunkOffsets[chunk] = dataStart + mdat.size();
+                for (int i = 0; i < VIDEO_PER_CHUNK && videoSample < videoSamples; i++, videoSample++) {
+                    int size = videoSampleSize(videoSample);
+                    write(mdat, ints(size - 4));
+                    for (int j = 4; j < size; j++) {
+                        mdat.write(videoSample);
+                    }
+                }
+            }
+            if (chunk < audioChunks) {
+                audioChunkOffsets[chunk] = dataStart + mdat.size();
+                for (int i = 0; i < AUDIO_PER_CHUNK && audioSample < audioSamples; i++, audioSample++) {
+                    for (int j = 0; j < AUDIO_SAMPLE_SIZE; j++) {
+                        mdat.write(0x80 | audioSample);
+                    }
+                }
+            }
+        }
+
+        long videoDurationMs = videoSamples * 1000L * VIDEO_DELTA / VIDEO_TIMESCALE;
+        byte[] moov = box("moov",
+                fullBox("mvhd", 0, ints(0, 0, 1000, (int) videoDurationMs), new byte[80]),
+                videoTrack(videoSamples, videoChunkOffsets, co64, videoDurationMs),
+                audioTrack(audioSamples, audioChunkOffsets, co64));
+
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        write(file, ftyp);
+        write(file, ints(mdat.size() + 8));
+        write(file, ascii("mdat"));
+        write(file, mdat.toByteArray());
+        write(file, moov);
+        return file.toByteArray();
+    }
+
+    private static byte[] videoTrack(int samples, long[] chunkOffsets, boolean co64, long durationMs) {
+        byte[] avcC = box("avcC", bytes(1, 0x42, 0, 0x1e, 0xFF, 0xE1), shorts(SPS.length), SPS,
+                bytes(1), shorts(PPS.length), PPS);
+        byte[] avc1 = box("avc1", new byte[6], shorts(1), new byte[16], shorts(320, 240), new byte[50], avcC);
+
+        int[] sizes = new int[samples];
+        int[] ctts = new int[samples * 2];
+        int[] syncSamples = new int[(samples + GOP - 1) / GOP];
+        for (int i = 0; i < samples; i++) {
+            sizes[i] = videoSampleSize(i);
+            ctts[i * 2] = 1;
+            ctts[i * 2 + 1] = COMPOSITION_OFFSETS[i % 3];
+            if (i % GOP == 0) {
+                syncSamples[i / GOP] = i + 1;
+            }
+        }
+        byte[] stbl = box("stbl",
+                fullBox("stsd", 0, ints(1), avc1),
+                fullBox("stts", 0, ints(1, samples, VIDEO_DELTA)),
+                fullBox("ctts", 0, ints(samples), ints(ctts)),
+                fullBox("stss", 0, ints(syncSamples.length), ints(syncSamples)),
+                fullBox("stsc", 0, ints(1, 1, VIDEO_PER_CHUNK, 1)),
+                fullBox("stsz", 0, ints(0, samples), ints(sizes)),
+                chunkOffsetBox(chunkOffsets, co64));
+        long duration = samples * (long) VIDEO_DELTA;
+        return box("trak",
+                fullBox("tkhd", 0, ints(0, 0, 1, 0, (int) durationMs), new byte[60]),
+                box("edts", fullBox("elst", 0, ints(1, (int) durationMs, VIDEO_DELTA, 0x10000))),
+                box("mdia",
+                        fullBox("mdhd", 0, ints(0, 0, VIDEO_TIMESCALE, (int) duration, 0)),
+                        fullBox("hdlr", 0, ints(0), ascii("vide"), new byte[13]),
+                        box("minf", stbl)));
+    }
+
+    private static byte[] audioTrack(int samples, long[] chunkOffsets, boolean co64) {
+        byte[] esds = fullBox("esds", 0,
+                bytes(3, 25, 0, 2, 0),
+                bytes(4, 17, 0x40, 0x15, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0),
+                bytes(5, AUDIO_SPECIFIC_CONFIG.length), AUDIO_SPECIFIC_CONFIG,
+                bytes(6, 1, 2));
+        byte[] mp4a = box("mp4a", new byte[6], shorts(1), new byte[8], shorts(2, 16, 0, 0),
+                ints(AUDIO_SAMPLE_RATE << 16), esds);
+        int lastChunkSamples = samples - (chunkOffsets.length - 1) * AUDIO_PER_CHUNK;
+        byte[] stbl = box("stbl",
+                fullBox("stsd", 0, ints(1), mp4a),
+                fullBox("stts", 0, ints(1, samples, 1024)),
+                fullBox("stsc", 0, lastChunkSamples == AUDIO_PER_CHUNK
+                        ? ints(1, 1, AUDIO_PER_CHUNK, 1)
+                        : ints(2, 1, AUDIO_PER_CHUNK, 1, chunkOffsets.length, lastChunkSamples, 1)),
+                fullBox("stsz", 0, ints(AUDIO_SAMPLE_SIZE, samples)),
+                chunkOffsetBox(chunkOffsets, co64));
+        long duration = samples * 1024L;
+        return box("trak",
+                fullBox("tkhd", 0, ints(0, 0, 2, 0, (int) (duration * 1000 / AUDIO_SAMPLE_RATE)), new byte[60]),
+                box("mdia",
+                        fullBox("mdhd", 0, ints(0, 0, AUDIO_SAMPLE_RATE, (int) duration, 0)),
+                        fullBox("hdlr", 0, ints(0), ascii("soun"), new byte[13]),
+                        box("minf", stbl)));
+    }
+
+    private static byte[] chunkOffsetBox(long[] offsets, boolean co64) {
+        ByteBuffer buffer = ByteBuffer.allocate(4 + offsets.length * (co64 ? 8 : 4));
+        buffer.putInt(offsets.length);
+        for (long offset : offsets) {
+            if (co64) {
+                buffer.putLong(offset);
+            } else {
+                buffer.putInt((int) offset);
+            }
+        }
+        return fullBox(co64 ? "co64" : "stco", 0, buffer.array());
+    }
+
+    private static byte[] box(String type, byte[]... payloads) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int size = 8;
+        for (byte[] payload : payloads) {
+            size += payload.length;
+        }
+        write(out, ints(size));
+        write(out, ascii(type));
+        for (byte[] payload : payloads) {
+            write(out, payload);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] fullBox(String type, int version, byte[]... payloads) {
+        byte[][] withHeader = new byte[payloads.length + 1][];
+        withHeader[0] = ints(version << 24);
+        System.arraycopy(payloads, 0, withHeader, 1, payloads.length);
+        return box(type, withHeader);
+    }
+
+    private static byte[] ints(int... values) {
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * 4);
+        for (int value : values) {
+            buffer.putInt(value);
+        }
+        return buffer.array();
+    }
+
+    private static byte[] shorts(int... values) {
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * 2);
+        for (int value : values) {
+            buffer.putShort((short) value);
+        }
+        return buffer.array();
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+
+    private static byte[] ascii(String value) {
+        byte[] bytes = new byte[value.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) value.charAt(i);
+        }
+        return bytes;
+    }
+
+    private static void write(ByteArrayOutputStream out, byte[] bytes) {
+        out.write(bytes, 0, bytes.length);
+    }
+}
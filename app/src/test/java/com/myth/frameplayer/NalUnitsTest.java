@@ -0,0 +1,30 @@
+package com.myth.frameplayer;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class NalUnitsTest {
+
+    @Test
+    public void readsTheReferenceIndicatorOfTheFirstSlice() {
+        // access unit delimiter, then a non-reference slice
+        byte[] nonReference = {0, 0, 0, 1, 0x09, (byte) 0xf0, 0, 0, 1, 0x01, (byte) 0x9a};
+        // SEI, then a reference slice
+        byte[] reference = {0, 0, 0, 1, 0x06, 0x05, 0x01, 0, 0, 1, 0x41, (byte) 0x9a};
+        byte[] idr = {0, 0, 0, 1, 0x65, (byte) 0x88};
+        assertTrue(NalUnits.isNonReferenceAvc(ByteBuffer.wrap(nonReference), 0, nonReference.length));
+        assertFalse(NalUnits.isNonReferenceAvc(ByteBuffer.wrap(reference), 0, reference.length));
+        assertFalse(NalUnits.isNonReferenceAvc(ByteBuffer.wrap(idr), 0, idr.length));
+    }
+
+    @Test
+    public void samplesWithoutSlicesAreKept() {
+        byte[] parameterSets = {0, 0, 0, 1, 0x67, 0x42, 0, 0, 1, 0x68, (byte) 0xce};
+        assertFalse(NalUnits.isNonReferenceAvc(ByteBuffer.wrap(parameterSets), 0, parameterSets.length));
+        assertFalse(NalUnits.isNonReferenceAvc(ByteBuffer.wrap(new byte[8]), 0, 8));
+    }
+}
@@ -0,0 +1,124 @@
+package com.myth.frameplayer;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PcmRingBufferTest {
+
+    @Test
+    public void capacityIsRoundedToPowerOfTwo() {
+        assertEquals(1024, new PcmRingBuffer(1000).getCapacity());
+        assertEquals(4096, new PcmRingBuffer(4096).getCapacity());
+    }
+
+    @Test
+    public void writeStopsWhenFull() {
+        PcmRingBuffer ring = new PcmRingBuffer(16);
+        assertEquals(16, ring.write(ByteBuffer.wrap(new byte[20])));
+        assertEquals(16, ring.getFillLevel());
+        assertEquals(0, ring.write(ByteBuffer.wrap(new byte[1])));
+    }
+
+    @Test
+    public void readWrapsAround() {
+        PcmRingBuffer ring = new PcmRingBuffer(8);
+        byte[] out = new byte[8];
+        ring.write(ByteBuffer.wrap(new byte[]{1, 2, 3, 4, 5, 6}));
+        assertEquals(6, ring.read(out, 0, 6));
+        ring.write(ByteBuffer.wrap(new byte[]{7, 8, 9, 10, 11}));
+        assertEquals(5, ring.read(out, 0, 8));
+        assertEquals(7, out[0]);
+        assertEquals(11, out[4]);
+        assertEquals(0, ring.getFillLevel());
+    }
+
+    @Test
+    public void awaitReadableReturnsContiguousRegion() {
+        PcmRingBuffer ring = new PcmRingBuffer(8);
+        ring.write(ByteBuffer.wrap(new byte[6]));
+        ring.read(new byte[6], 0, 6);
+        ring.write(ByteBuffer.wrap(new byte[]{1, 2, 3, 4}));
+        ByteBuffer region = ring.awaitReadable(100);
+        assertEquals(2, region.remaining());
+        ring.commitRead(2);
+        region = ring.awaitReadable(100);
+        assertEquals(2, region.remaining());
+        assertEquals(3, region.get());
+        ring.commitRead(2);
+        ring.endOfStream();
+        assertNull(ring.awaitReadable(100));
+        assertEquals(0, ring.getUnderrunCount());
+    }
+
+    @Test
+    public void closeFailsBlockedWriter() {
+        PcmRingBuffer ring = new PcmRingBuffer(4);
+        ring.write(ByteBuffer.wrap(new byte[4]));
+        ring.close();
+        assertFalse(ring.writeFully(ByteBuffer.wrap(new byte[1])));
+    }
+
+    @Test
+    public void pausedConsumerParksUntilResumed() throws Exception {
+        final PcmRingBuffer ring = new PcmRingBuffer(16);
+        ring.setPaused(true);
+        final int[] available = new int[1];
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                available[0] = ring.awaitReadable(16).remaining();
+            }
+        });
+        consumer.start();
+        Thread.sleep(50);
+        assertEquals(Thread.State.WAITING, consumer.getState());
+        assertEquals(0, ring.getUnderrunCount());
+        ring.write(ByteBuffer.wrap(new byte[3]));
+        ring.setPaused(false);
+        consumer.join(1000);
+        assertFalse(consumer.isAlive());
+        assertEquals(3, available[0]);
+    }
+
+    @Test
+    public void producerAndConsumerThreads() throws Exception {
+        final PcmRingBuffer ring = new PcmRingBuffer(256);
+        final int total = 1 << 20;
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                ByteBuffer chunk = ByteBuffer.allocate(100);
+                int value = 0;
+                while (value < total) {
+                    chunk.clear();
+                    while (chunk.hasRemaining() && value < total) {
+                        chunk.put((byte) value++);
+                    }
+                    chunk.flip();
+                    ring.writeFully(chunk);
+                }
+                ring.endOfStream();
+            }
+        });
+        producer.start();
+        int expected = 0;
+        boolean ordered = true;
+        ByteBuffer region;
+        while ((region = ring.awaitReadable(77)) != null) {
+            int count = region.remaining();
+            while (region.hasRemaining()) {
+                ordered &= region.get() == (byte) expected++;
+            }
+            ring.commitRead(count);
+        }
+        producer.join();
+        assertTrue(ordered);
+        assertEquals(total, expected);
+    }
+}
@@ -0,0 +1,90 @@
+package com.myth.frameplayer;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PlayerMetricsTest {
+
+    @Test
+    public void countsValuesIntoBuckets() {
+        Histogram histogram = new Histogram(new long[]{10, 20, 40});
+        histogram.record(5);
+        histogram.record(10);
+        histogram.record(11);
+        histogram.record(40);
+        histogram.record(1000);
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(4, snapshot.getBucketCount());
+        assertEquals(2, snapshot.getBucketValue(0));
+        assertEquals(1, snapshot.getBucketValue(1));
+        assertEquals(1, snapshot.getBucketValue(2));
+        assertEquals(1, snapshot.getBucketValue(3));
+        assertEquals(Long.MAX_VALUE, snapshot.getUpperBound(3));
+        assertEquals(5, snapshot.getCount());
+        assertEquals(1066, snapshot.getSum());
+        assertEquals(1000, snapshot.getMax());
+    }
+
+    @Test
+    public void estimatesPercentilesFromBucketBounds() {
+        Histogram histogram = new Histogram(Histogram.DURATION_BOUNDS_NS);
+        for (int i = 0; i < 90; i++) {
+            histogram.record(700000L);
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(12000000L);
+        }
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(1000000L, snapshot.getPercentile(50));
+        assertEquals(1000000L, snapshot.getPercentile(90));
+        // capped at the largest value instead of the 16 ms bound
+        assertEquals(12000000L, snapshot.getPercentile(99));
+        assertEquals(0, new Histogram(Histogram.DURATION_BOUNDS_NS).snapshot().getPercentile(50));
+    }
+
+    @Test
+    public void snapshotIsNotChangedByLaterRecording() {
+        PlayerMetrics metrics = new PlayerMetrics();
+        metrics.increment(PlayerMetrics.FRAMES_RENDERED);
+        metrics.record(PlayerMetrics.DECODE_LATENCY, 3000000L);
+        PlayerMetrics.Snapshot snapshot = metrics.snapshot();
+        metrics.increment(PlayerMetrics.FRAMES_RENDERED);
+        metrics.record(PlayerMetrics.DECODE_LATENCY, 3000000L);
+        assertEquals(1, snapshot.getCounter(PlayerMetrics.FRAMES_RENDERED));
+        assertEquals(1, snapshot.getHistogram(PlayerMetrics.DECODE_LATENCY).getCount());
+
+        metrics.reset();
+        snapshot = metrics.snapshot();
+        assertEquals(0, snapshot.getCounter(PlayerMetrics.FRAMES_RENDERED));
+        assertEquals(0, snapshot.getHistogram(PlayerMetrics.DECODE_LATENCY).getMax());
+    }
+
+    @Test
+    public void recordsWithoutAllocating() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return;
+        }
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        long thread = Thread.currentThread().getId();
+        PlayerMetrics metrics = new PlayerMetrics();
+        // warm up so the measured loop runs compiled
+        record(metrics, 200000);
+        long before = allocations.getThreadAllocatedBytes(thread);
+        record(metrics, 100000);
+        long allocated = allocations.getThreadAllocatedBytes(thread) - before;
+        assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+    }
+
+    private static void record(PlayerMetrics metrics, int count) {
+        for (int i = 0; i < count; i++) {
+            metrics.increment(PlayerMetrics.FRAMES_RENDERED);
+            metrics.record(PlayerMetrics.FRAME_JITTER, i * 1000L);
+        }
+    }
+}
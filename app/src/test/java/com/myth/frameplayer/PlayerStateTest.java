@@ -0,0 +1,60 @@
+package com.myth.frameplayer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PlayerStateTest {
+
+    @Test
+    public void onlyAllowedTransitionsChangeTheState() {
+        PlayerState state = new PlayerState();
+        assertFalse(state.moveTo(PlayerState.PLAYING));
+        assertTrue(state.moveTo(PlayerState.PREPARED));
+        assertTrue(state.moveTo(PlayerState.PLAYING));
+        assertFalse(state.moveTo(PlayerState.PLAYING));
+        assertFalse(state.compareAndMove(PlayerState.SEEKING, PlayerState.PAUSED));
+        assertTrue(state.compareAndMove(PlayerState.PLAYING, PlayerState.PAUSED));
+        assertTrue(state.moveTo(PlayerState.RELEASED));
+        for (int to = PlayerState.IDLE; to <= PlayerState.RELEASED; to++) {
+            assertFalse(state.moveTo(to));
+        }
+        assertEquals("RELEASED", state.toString());
+    }
+
+    @Test
+    public void endedOnlyPlaysOnThroughPauseOrPrepare() {
+        assertFalse(PlayerState.canMove(PlayerState.ENDED, PlayerState.PLAYING));
+        assertFalse(PlayerState.canMove(PlayerState.ENDED, PlayerState.SEEKING));
+        assertTrue(PlayerState.canMove(PlayerState.ENDED, PlayerState.PAUSED));
+        assertTrue(PlayerState.canMove(PlayerState.ENDED, PlayerState.PREPARED));
+    }
+
+    @Test
+    public void pausedThreadParksUntilTheNextTransition() throws Exception {
+        final PlayerState state = new PlayerState();
+        state.moveTo(PlayerState.PREPARED);
+        state.moveTo(PlayerState.PLAYING);
+        state.moveTo(PlayerState.PAUSED);
+        final int[] woken = {-1};
+        Thread waiter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    woken[0] = state.awaitNotPaused();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        waiter.start();
+        Thread.sleep(50);
+        assertEquals(Thread.State.WAITING, waiter.getState());
+        state.moveTo(PlayerState.PLAYING);
+        waiter.join(1000);
+        assertFalse(waiter.isAlive());
+        assertEquals(PlayerState.PLAYING, woken[0]);
+    }
+}
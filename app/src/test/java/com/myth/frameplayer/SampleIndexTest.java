@@ -0,0 +1,73 @@
+package com.myth.frameplayer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class SampleIndexTest {
+
+    private SampleIndex index;
+
+    /**
+     * 30 fps with B-frames, a keyframe every 8 frames, samples added in decode order.
+     */
+    @Before
+    public void setUp() {
+        int[] decodeOrder = {0, 3, 1, 2, 6, 4, 5, 7};
+        SampleIndex.Builder builder = new SampleIndex.Builder();
+        for (int gop = 0; gop < 4; gop++) {
+            for (int frame : decodeOrder) {
+                builder.add((gop * 8 + frame) * 33333L, frame == 0);
+            }
+        }
+        index = builder.build();
+    }
+
+    @Test
+    public void presentationOrder() {
+        for (int i = 1; i < index.getFrameCount(); i++) {
+            assertEquals(true, index.getPresentationTimeUs(i) > index.getPresentationTimeUs(i - 1));
+        }
+        assertEquals(4, index.getSyncFrameCount());
+    }
+
+    @Test
+    public void frameAt() {
+        assertEquals(0, index.frameAt(-5));
+        assertEquals(0, index.frameAt(0));
+        assertEquals(0, index.frameAt(33332));
+        assertEquals(1, index.frameAt(33333));
+        assertEquals(index.getFrameCount() - 1, index.frameAt(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void syncSamples() {
+        assertEquals(0, index.syncTimeAtOrBefore(100000));
+        assertEquals(8 * 33333, index.syncTimeAtOrBefore(8 * 33333));
+        assertEquals(8 * 33333, index.syncTimeAtOrBefore(15 * 33333));
+        assertEquals(16 * 33333, index.syncTimeAfter(8 * 33333));
+        assertEquals(-1, index.syncTimeAfter(24 * 33333));
+        assertEquals(0, index.syncTimeAtOrBefore(-1));
+    }
+
+    @Test
+    public void reverseChunks() {
+        // a whole GOP when it fits
+        assertEquals(8, index.reverseChunkStart(15, 8));
+        assertEquals(8, index.reverseChunkStart(12, 30));
+        // otherwise the frames just before the end, decoded from the keyframe
+        assertEquals(12, index.reverseChunkStart(15, 4));
+        assertEquals(7, index.reverseChunkStart(7, 1));
+        assertEquals(7, index.reverseChunkStart(7, 0));
+    }
+
+    @Test
+    public void gopLength() {
+        SampleIndex.Builder builder = new SampleIndex.Builder();
+        for (int i = 0; i < 30; i++) {
+            builder.add(i * 1000, i == 0 || i == 10 || i == 25);
+        }
+        assertEquals(15, builder.build().getMaxGopLength());
+    }
+}
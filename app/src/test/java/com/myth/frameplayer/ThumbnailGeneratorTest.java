@@ -0,0 +1,50 @@
+package com.myth.frameplayer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class ThumbnailGeneratorTest {
+
+    private static final long FRAME_US = 40000;
+
+    private SampleIndex index;
+
+    /**
+     * 100 frames with a keyframe every 10.
+     */
+    @Before
+    public void setUp() {
+        SampleIndex.Builder builder = new SampleIndex.Builder();
+        for (int i = 0; i < 100; i++) {
+            builder.add(i * FRAME_US, i % 10 == 0);
+        }
+        index = builder.build();
+    }
+
+    @Test
+    public void thumbnailsSpreadEvenly() {
+        long[] times = ThumbnailGenerator.thumbnailTimes(index, 4);
+        assertArrayEquals(new long[]{0, 25 * FRAME_US, 50 * FRAME_US, 75 * FRAME_US}, times);
+        assertEquals(100, ThumbnailGenerator.thumbnailTimes(index, 500).length);
+    }
+
+    @Test
+    public void segmentsBreakOnlyBetweenGops() {
+        long[] times = ThumbnailGenerator.thumbnailTimes(index, 20);
+        int[] starts = ThumbnailGenerator.splitAtSyncSamples(index, times, 4);
+        // 5 frames per segment, moved on to the next GOP
+        assertArrayEquals(new int[]{0, 6, 12, 18}, starts);
+        for (int i = 1; i < starts.length; i++) {
+            assertEquals(0, times[starts[i]] % (10 * FRAME_US));
+        }
+    }
+
+    @Test
+    public void singleGopStaysOneSegment() {
+        long[] times = {0, FRAME_US, 2 * FRAME_US, 3 * FRAME_US};
+        assertArrayEquals(new int[]{0}, ThumbnailGenerator.splitAtSyncSamples(index, times, 4));
+    }
+}
@@ -0,0 +1,97 @@
+package com.myth.frameplayer;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.assertEquals;
+
+public class TimeStretcherTest {
+
+    private static final int SAMPLE_RATE = 44100;
+    private static final int CHANNELS = 2;
+
+    /**
+     * Interleaved stereo sine wave as little-endian PCM.
+     */
+    static ByteBuffer sine(int frequency, int frames) {
+        ByteBuffer pcm = ByteBuffer.allocate(frames * CHANNELS * 2).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < frames; i++) {
+            short sample = (short) (Math.sin(2 * Math.PI * frequency * i / SAMPLE_RATE) * 12000);
+            for (int c = 0; c < CHANNELS; c++) {
+                pcm.putShort(sample);
+            }
+        }
+        pcm.flip();
+        return pcm;
+    }
+
+    /**
+     * Runs {@code input} through a stretcher and returns the output.
+     */
+    static ByteBuffer stretch(TimeStretcher stretcher, ByteBuffer input) {
+        ByteBuffer output = ByteBuffer.allocate(input.remaining() * 40 + 65536).order(ByteOrder.LITTLE_ENDIAN);
+        while (input.hasRemaining()) {
+            stretcher.write(input);
+            stretcher.read(output);
+        }
+        stretcher.flush();
+        while (stretcher.read(output) > 0) {
+            // drain
+        }
+        output.flip();
+        return output;
+    }
+
+    private static double zeroCrossingFrequency(ByteBuffer pcm) {
+        int frames = pcm.remaining() / (CHANNELS * 2);
+        int crossings = 0;
+        short previous = pcm.getShort(0);
+        for (int i = 1; i < frames; i++) {
+            short sample = pcm.getShort(i * CHANNELS * 2);
+            if ((previous < 0) != (sample < 0)) {
+                crossings++;
+            }
+            previous = sample;
+        }
+        return crossings / 2.0 * SAMPLE_RATE / frames;
+    }
+
+    @Test
+    public void unitSpeedIsPassThrough() {
+        ByteBuffer input = sine(440, SAMPLE_RATE);
+        ByteBuffer output = stretch(new TimeStretcher(SAMPLE_RATE, CHANNELS), input.duplicate().order(ByteOrder.LITTLE_ENDIAN));
+        assertEquals(input, output);
+    }
+
+    @Test
+    public void speedUpKeepsPitch() {
+        checkSpeed(2.5f);
+        checkSpeed(1.5f);
+    }
+
+    @Test
+    public void slowDownKeepsPitch() {
+        checkSpeed(0.5f);
+        checkSpeed(0.75f);
+        checkSpeed(1f / 30);
+    }
+
+    @Test
+    public void keepsPitchAroundUnitSpeed() {
+        checkSpeed(0.8f);
+        checkSpeed(1.25f);
+        checkSpeed(2f);
+    }
+
+    private static void checkSpeed(float speed) {
+        int frames = SAMPLE_RATE * 2;
+        TimeStretcher stretcher = new TimeStretcher(SAMPLE_RATE, CHANNELS);
+        stretcher.setSpeed(speed);
+        ByteBuffer output = stretch(stretcher, sine(220, frames));
+        int outputFrames = output.remaining() / (CHANNELS * 2);
+        assertEquals(frames / speed, outputFrames, frames / speed * 0.03);
+        assertEquals(220, zeroCrossingFrequency(output), 220 * 0.03);
+    }
+}
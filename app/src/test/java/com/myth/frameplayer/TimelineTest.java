@@ -0,0 +1,254 @@
+package com.myth.frameplayer;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TimelineTest {
+
+    private static final long FRAME_US = 40000;
+    private static final byte[] CONFIG = {0, 0, 0, 1, 0x67};
+
+    private final ByteBuffer buffer = ByteBuffer.allocate(256);
+
+    private static Timeline.Item item(FakeSampleSource video, FakeSampleSource audio, long durationUs) {
+        return new Timeline.Item(new SampleSource[]{video, audio}, new byte[][]{CONFIG, null}, durationUs);
+    }
+
+    @Test
+    public void endsAfterTheItemWithoutLooping() {
+        Timeline timeline = new Timeline(item(new FakeSampleSource(10, FRAME_US, 5, 4), null, 10 * FRAME_US));
+        Timeline.Track video = timeline.getTrack(0);
+        assertEquals(10, drain(video, 100));
+        assertEquals(-1, video.getSampleTime());
+    }
+
+    @Test
+    public void loopsOnOneTimelineWithoutConfigSamples() {
+        Timeline timeline = new Timeline(item(new FakeSampleSource(10, FRAME_US, 5, 4), null, 10 * FRAME_US));
+        timeline.setLooping(true);
+        Timeline.Track video = timeline.getTrack(0);
+        for (int i = 0; i < 35; i++) {
+            assertEquals(i * FRAME_US, video.getSampleTime());
+            assertEquals(0, video.getSampleFlags() & SampleSource.SAMPLE_FLAG_CODEC_CONFIG);
+            assertEquals(4, video.readSampleData(buffer, 0));
+            assertEquals((byte) (i % 10), buffer.get(0));
+            video.advance();
+        }
+        assertEquals(3, timeline.segmentAt(35 * FRAME_US).startUs / (10 * FRAME_US));
+
+        timeline.setLooping(false);
+        // the pass under way still plays out
+        assertEquals(5, drain(video, 100));
+        assertEquals(-1, video.getSampleTime());
+    }
+
+    @Test
+    public void cutsSamplesPastTheDurationSoTracksSwitchTogether() {
+        FakeSampleSource video = new FakeSampleSource(10, FRAME_US, 5, 4);
+        // audio runs 1.5 frames longer than video
+        FakeSampleSource audio = new FakeSampleSource(23, FRAME_US / 2, 1, 2);
+        Timeline timeline = new Timeline(item(video, audio, 10 * FRAME_US));
+        timeline.setLooping(true);
+        Timeline.Track audioTrack = timeline.getTrack(1);
+        for (int i = 0; i < 20; i++) {
+            audioTrack.advance();
+        }
+        assertEquals(10 * FRAME_US, audioTrack.getSampleTime());
+        assertEquals(2, audioTrack.readSampleData(buffer, 0));
+        assertEquals(0, buffer.get(0));
+    }
+
+    @Test
+    public void movesOnToTheNextItemWithItsConfigFirst() {
+        FakeSampleSource first = new FakeSampleSource(10, FRAME_US, 5, 4);
+        FakeSampleSource second = new FakeSampleSource(6, FRAME_US, 3, 4);
+        Timeline timeline = new Timeline(item(first, null, 10 * FRAME_US));
+        assertTrue(timeline.setNextItem(item(second, null, 6 * FRAME_US)));
+        Timeline.Track video = timeline.getTrack(0);
+        assertEquals(10, drain(video, 10));
+
+        assertEquals(10 * FRAME_US, video.getSampleTime());
+        assertEquals(SampleSource.SAMPLE_FLAG_CODEC_CONFIG, video.getSampleFlags());
+        assertEquals(CONFIG.length, video.readSampleData(buffer, 0));
+        assertEquals(0x67, buffer.get(4));
+        video.advance();
+        assertEquals(10 * FRAME_US, video.getSampleTime());
+        assertEquals(SampleSource.SAMPLE_FLAG_SYNC, video.getSampleFlags());
+        assertEquals(6, drain(video, 100));
+        assertEquals(-1, video.getSampleTime());
+        // the first item stays open for seeks back into it
+        assertFalse(first.released);
+        video.release();
+        assertTrue(first.released);
+        assertTrue(second.released);
+    }
+
+    @Test
+    public void seeksWithinSegmentsAndResendsConfigAfterTheFirstItem() {
+        FakeSampleSource first = new FakeSampleSource(10, FRAME_US, 5, 4);
+        FakeSampleSource second = new FakeSampleSource(10, FRAME_US, 5, 4);
+        Timeline timeline = new Timeline(item(first, null, 10 * FRAME_US));
+        timeline.setNextItem(item(second, null, 10 * FRAME_US));
+        Timeline.Track video = timeline.getTrack(0);
+        drain(video, 12);
+
+        video.seekTo(13 * FRAME_US);
+        assertEquals(SampleSource.SAMPLE_FLAG_CODEC_CONFIG, video.getSampleFlags());
+        video.advance();
+        assertEquals(10 * FRAME_US, video.getSampleTime());
+
+        video.seekTo(7 * FRAME_US);
+        assertEquals(SampleSource.SAMPLE_FLAG_SYNC, video.getSampleFlags());
+        assertEquals(5 * FRAME_US, video.getSampleTime());
+    }
+
+    @Test
+    public void lateItemIsRefusedOnceTheTimelineEnded() {
+        Timeline timeline = new Timeline(item(new FakeSampleSource(3, FRAME_US, 3, 4), null, 3 * FRAME_US));
+        Timeline.Track video = timeline.getTrack(0);
+        drain(video, 100);
+        assertFalse(timeline.setNextItem(item(new FakeSampleSource(3, FRAME_US, 3, 4), null, 3 * FRAME_US)));
+    }
+
+    @Test
+    public void rewindForgetsLoopDecisions() {
+        FakeSampleSource first = new FakeSampleSource(4, FRAME_US, 2, 4);
+        Timeline timeline = new Timeline(item(first, null, 4 * FRAME_US));
+        timeline.setLooping(true);
+        Timeline.Track video = timeline.getTrack(0);
+        drain(video, 9);
+        timeline.setLooping(false);
+        assertTrue(timeline.rewind());
+        video.seekTo(0);
+        assertEquals(4, drain(video, 100));
+
+        FakeSampleSource second = new FakeSampleSource(4, FRAME_US, 2, 4);
+        timeline = new Timeline(item(new FakeSampleSource(4, FRAME_US, 2, 4), null, 4 * FRAME_US));
+        timeline.setNextItem(item(second, null, 4 * FRAME_US));
+        drain(timeline.getTrack(0), 5);
+        assertFalse(timeline.rewind());
+    }
+
+    @Test
+    public void trimsTheFirstItemToItsRangeWithDecodeOnlySamplesAround() {
+        FakeSampleSource video = new FakeSampleSource(20, FRAME_US, 5, 4);
+        Timeline timeline = new Timeline(item(video, null, 20 * FRAME_US), 7 * FRAME_US, 12 * FRAME_US);
+        Timeline.Track track = timeline.getTrack(0);
+
+        // from the sync sample before the in point
+        assertEquals(-2 * FRAME_US, track.getSampleTime());
+        assertEquals(SampleSource.SAMPLE_FLAG_SYNC | SampleSource.SAMPLE_FLAG_DECODE_ONLY, track.getSampleFlags());
+        track.advance();
+        assertEquals(SampleSource.SAMPLE_FLAG_DECODE_ONLY, track.getSampleFlags());
+        track.advance();
+        assertEquals(0, track.getSampleTime());
+        assertEquals(0, track.getSampleFlags());
+        assertEquals(5, drain(track, 5));
+        // past the out point up to the next sync sample
+        for (int i = 0; i < 3; i++) {
+            assertEquals((5 + i) * FRAME_US, track.getSampleTime());
+            assertEquals(SampleSource.SAMPLE_FLAG_DECODE_ONLY, track.getSampleFlags());
+            track.advance();
+        }
+        assertEquals(-1, track.getSampleTime());
+        assertEquals(5 * FRAME_US, timeline.segmentAt(0).getEndUs());
+    }
+
+    @Test
+    public void loopsTheRangeWithThePrerollBeforeTheLoopPoint() {
+        FakeSampleSource video = new FakeSampleSource(20, FRAME_US, 5, 4);
+        Timeline timeline = new Timeline(item(video, null, 20 * FRAME_US), 7 * FRAME_US, 12 * FRAME_US);
+        timeline.setLooping(true);
+        Timeline.Track track = timeline.getTrack(0);
+        assertEquals(10, drain(track, 10));
+
+        // the next pass decodes from sample 5 again, its frames before the loop point left out
+        assertEquals(3 * FRAME_US, track.getSampleTime());
+        assertEquals(SampleSource.SAMPLE_FLAG_SYNC | SampleSource.SAMPLE_FLAG_DECODE_ONLY, track.getSampleFlags());
+        assertEquals(4, track.readSampleData(buffer, 0));
+        assertEquals(5, buffer.get(0));
+        drain(track, 2);
+        assertEquals(5 * FRAME_US, track.getSampleTime());
+        assertEquals(0, track.getSampleFlags());
+        Timeline.Segment segment = timeline.segmentAt(5 * FRAME_US);
+        assertEquals(5 * FRAME_US, segment.startUs);
+        assertEquals(-2 * FRAME_US, segment.getOffsetUs());
+
+        // seeks stay within the range of the segment
+        track.seekTo(6 * FRAME_US);
+        assertEquals(3 * FRAME_US, track.getSampleTime());
+    }
+
+    @Test
+    public void rewindAppliesAnotherRange() {
+        FakeSampleSource video = new FakeSampleSource(20, FRAME_US, 5, 4);
+        Timeline timeline = new Timeline(item(video, null, 20 * FRAME_US));
+        Timeline.Track track = timeline.getTrack(0);
+        drain(track, 3);
+
+        assertTrue(timeline.rewind(10 * FRAME_US, 15 * FRAME_US));
+        track.seekTo(0);
+        assertEquals(0, track.getSampleTime());
+        assertEquals(SampleSource.SAMPLE_FLAG_SYNC, track.getSampleFlags());
+        assertEquals(5, drain(track, 100));
+    }
+
+    @Test
+    public void dropsLoopPassesThePlayerIsDoneWith() {
+        Timeline timeline = new Timeline(item(new FakeSampleSource(10, FRAME_US, 5, 4), null, 10 * FRAME_US));
+        timeline.setLooping(true);
+        Timeline.Track video = timeline.getTrack(0);
+        for (int pass = 1; pass <= 1000; pass++) {
+            drain(video, 10);
+            timeline.discardBefore(pass * 10 * FRAME_US);
+        }
+        assertEquals(1000 * 10 * FRAME_US, video.getSampleTime());
+        // only the passes from the one on screen on are left
+        assertEquals(999 * 10 * FRAME_US, timeline.segmentAt(0).startUs);
+        assertEquals(1000 * 10 * FRAME_US, timeline.segmentAt(1000 * 10 * FRAME_US).startUs);
+
+        video.seekTo(1000 * 10 * FRAME_US + 7 * FRAME_US);
+        assertEquals(1000 * 10 * FRAME_US + 5 * FRAME_US, video.getSampleTime());
+    }
+
+    @Test
+    public void keepsLoopedItemOpenUntilTheTracksMoveOn() {
+        FakeSampleSource first = new FakeSampleSource(10, FRAME_US, 5, 4);
+        FakeSampleSource second = new FakeSampleSource(10, FRAME_US, 5, 4);
+        FakeSampleSource third = new FakeSampleSource(10, FRAME_US, 5, 4);
+        Timeline timeline = new Timeline(item(first, null, 10 * FRAME_US));
+        timeline.setLooping(true);
+        Timeline.Track video = timeline.getTrack(0);
+        for (int pass = 1; pass <= 50; pass++) {
+            drain(video, 10);
+            timeline.discardBefore(pass * 10 * FRAME_US);
+        }
+        timeline.setLooping(false);
+        assertTrue(timeline.setNextItem(item(second, null, 10 * FRAME_US)));
+        drain(video, 11);
+        // the looped item stays open for seeks back into it
+        assertFalse(first.released);
+        video.seekTo(50 * 10 * FRAME_US + 2 * FRAME_US);
+        assertEquals(50 * 10 * FRAME_US, video.getSampleTime());
+
+        drain(video, 10);
+        assertTrue(timeline.setNextItem(item(third, null, 10 * FRAME_US)));
+        drain(video, 12);
+        assertTrue(first.released);
+        assertFalse(second.released);
+    }
+
+    private int drain(SampleSource source, int max) {
+        int count = 0;
+        while (count < max && source.readSampleData(buffer, 0) >= 0) {
+            source.advance();
+            count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,51 @@
+package com.myth.frameplayer;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+
+public class YuvScalerTest {
+
+    private static final int BLACK = 0xff000000;
+    private static final int WHITE = 0xffffffff;
+
+    /**
+     * A 4x4 frame, white on the left half and black on the right, with a stride of 8. The
+     * chroma is neutral, so planar and semi-planar data look the same.
+     */
+    private static ByteBuffer frame() {
+        ByteBuffer yuv = ByteBuffer.allocate(8 * 4 * 3 / 2);
+        for (int y = 0; y < 4; y++) {
+            for (int x = 0; x < 4; x++) {
+                yuv.put(y * 8 + x, (byte) (x < 2 ? 235 : 16));
+            }
+        }
+        for (int i = 0; i < 8 * 4 / 2; i++) {
+            yuv.put(8 * 4 + i, (byte) 128);
+        }
+        return yuv;
+    }
+
+    @Test
+    public void scalesSemiPlanar() {
+        int[] argb = new int[4];
+        new YuvScaler(21, 4, 4, 8, 4).scale(frame(), argb, 2, 2);
+        assertEquals(WHITE, argb[0]);
+        assertEquals(BLACK, argb[1]);
+        assertEquals(WHITE, argb[2]);
+        assertEquals(BLACK, argb[3]);
+    }
+
+    @Test
+    public void scalesPlanarFromTheBufferPosition() {
+        ByteBuffer data = ByteBuffer.allocate(64);
+        data.position(16);
+        ByteBuffer yuv = data.slice();
+        yuv.put(frame());
+        int[] argb = new int[1];
+        new YuvScaler(YuvScaler.COLOR_FORMAT_YUV420_PLANAR, 4, 4, 8, 4).scale(data, argb, 1, 1);
+        assertEquals(WHITE, argb[0]);
+    }
+}
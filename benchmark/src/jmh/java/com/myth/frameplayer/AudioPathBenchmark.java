@@ -0,0 +1,85 @@
+package com.myth.frameplayer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the audio path behind the decoder: one decoded buffer through the
+ * {@link TimeStretcher} into the {@link PcmRingBuffer}, drained by an {@link AudioSinkWriter}
+ * into a sink that plays instantly. The score is in decoded buffers, 4096 stereo frames each.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class AudioPathBenchmark {
+
+    private static final int SAMPLE_RATE = 44100;
+    private static final int CHANNELS = 2;
+    private static final int FRAME_BYTES = 2 * CHANNELS;
+    private static final int BUFFER_FRAMES = 4096;
+
+    @Param({"1.0", "1.5", "0.75"})
+    public float speed;
+
+    private final ByteBuffer mDecoded = ByteBuffer.allocate(BUFFER_FRAMES * FRAME_BYTES)
+            .order(ByteOrder.LITTLE_ENDIAN);
+    private final ByteBuffer mStretched = ByteBuffer.allocate(2 * BUFFER_FRAMES * FRAME_BYTES)
+            .order(ByteOrder.LITTLE_ENDIAN);
+    private TimeStretcher mStretcher;
+    private PcmRingBuffer mRingBuffer;
+    private AudioSinkWriter mWriter;
+
+    @Setup(Level.Trial)
+    public void fillDecoded() {
+        // a 220 Hz tone, so the pitch search has a period to find
+        for (int i = 0; i < BUFFER_FRAMES; i++) {
+            short sample = (short) (8000 * Math.sin(2 * Math.PI * 220 * i / SAMPLE_RATE));
+            for (int c = 0; c < CHANNELS; c++) {
+                mDecoded.putShort(sample);
+            }
+        }
+        mDecoded.flip();
+    }
+
+    @Setup(Level.Iteration)
+    public void start() {
+        mStretcher = new TimeStretcher(SAMPLE_RATE, CHANNELS);
+        mStretcher.setSpeed(speed);
+        mRingBuffer = new PcmRingBuffer(SAMPLE_RATE * FRAME_BYTES / 4);
+        FakeAudioSink sink = new FakeAudioSink(SAMPLE_RATE, FRAME_BYTES, SAMPLE_RATE, false);
+        sink.play();
+        mWriter = new AudioSinkWriter(sink, mRingBuffer);
+        mWriter.start();
+    }
+
+    @TearDown(Level.Iteration)
+    public void stop() {
+        mWriter.stop();
+    }
+
+    @Benchmark
+    public int decodedBuffer() {
+        mDecoded.rewind();
+        int total = 0;
+        while (mDecoded.hasRemaining()) {
+            mStretcher.write(mDecoded);
+            mStretched.clear();
+            total += mStretcher.read(mStretched);
+            mStretched.flip();
+            mRingBuffer.writeFully(mStretched);
+        }
+        return total;
+    }
+}
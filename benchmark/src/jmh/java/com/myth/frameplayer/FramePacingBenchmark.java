@@ -0,0 +1,119 @@
+package com.myth.frameplayer;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Frame pacing accuracy in real time: plays one second of 60 fps video from a decoder thread
+ * with the given per-frame latency, with the benchmark thread ticking the
+ * {@link FrameScheduler} and parking until each frame is due, as the player thread does. Late,
+ * dropped and skipped frames and the p99 jitter are reported as secondary results.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, batchSize = 1)
+@Measurement(iterations = 5, batchSize = 1)
+public class FramePacingBenchmark {
+
+    private static final long FRAME_US = 16667;
+    private static final int FRAME_COUNT = 60;
+
+    /**
+     * decode time per frame, 8 ms is comfortable at 60 fps, 20 ms is not
+     */
+    @Param({"2000", "8000", "20000"})
+    public long decodeLatencyUs;
+
+    private final PlayerMetrics mMetrics = new PlayerMetrics();
+    private FakeFrameDecoder mDecoder;
+    private FrameScheduler mScheduler;
+    private volatile boolean mEnded;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Pacing {
+        public long lateFrames;
+        public long droppedFrames;
+        public long skippedFrames;
+        public long jitterP99Us;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            lateFrames = 0;
+            droppedFrames = 0;
+            skippedFrames = 0;
+            jitterP99Us = 0;
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void start() {
+        mMetrics.reset();
+        mEnded = false;
+        mDecoder = new FakeFrameDecoder(new FakeSampleSource(FRAME_COUNT, FRAME_US, 30, 16), 4);
+        mDecoder.setDecodeLatencyNanos(decodeLatencyUs * 1000);
+        FrameClock clock = new FrameClock();
+        final AvSyncController sync = new AvSyncController(clock);
+        mScheduler = new FrameScheduler(mDecoder, clock, sync, mMetrics, new FrameScheduler.Output() {
+            @Override
+            public void renderFrame(FrameDecoder.DecodedFrame frame, long renderTimeNs) {
+                sync.onFrameRendered(frame.presentationTimeUs);
+                mDecoder.releaseFrame(frame, renderTimeNs);
+            }
+
+            @Override
+            public void onFrameDropped(long presentationTimeUs) {
+            }
+
+            @Override
+            public void onEndOfStream(FrameDecoder.DecodedFrame frame) {
+                mEnded = true;
+            }
+
+            @Override
+            public int skipToSyncSample(long positionUs) {
+                return 0;
+            }
+        });
+        mDecoder.start();
+    }
+
+    @TearDown(Level.Invocation)
+    public void stop() {
+        mDecoder.release();
+    }
+
+    @Benchmark
+    public void play(Pacing pacing) {
+        while (!mEnded) {
+            long waitNs = mScheduler.tick();
+            if (waitNs == FrameScheduler.WAIT_FOR_FRAME) {
+                // the player is woken by the decoder listener, polling is close enough here
+                LockSupport.parkNanos(100000L);
+            } else if (waitNs > 0) {
+                LockSupport.parkNanos(waitNs);
+            }
+        }
+        PlayerMetrics.Snapshot snapshot = mMetrics.snapshot();
+        pacing.lateFrames += snapshot.getCounter(PlayerMetrics.FRAMES_LATE);
+        pacing.droppedFrames += snapshot.getCounter(PlayerMetrics.FRAMES_DROPPED);
+        pacing.skippedFrames += mDecoder.skipped;
+        pacing.jitterP99Us = Math.max(pacing.jitterP99Us,
+                snapshot.getHistogram(PlayerMetrics.FRAME_JITTER).getPercentile(99) / 1000);
+    }
+}
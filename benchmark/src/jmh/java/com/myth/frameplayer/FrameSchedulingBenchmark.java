@@ -0,0 +1,92 @@
+package com.myth.frameplayer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CPU cost of scheduling one frame: {@link FrameScheduler#tick()} with its clock, sync and
+ * metrics work, on a simulated clock so nothing waits. {@link #decodeOnly} is the cost of the
+ * fake decoder alone, to subtract from the others.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FrameSchedulingBenchmark {
+
+    private static final long FRAME_US = 16667;
+
+    /**
+     * how far behind its deadline each frame is handled, past 50 ms frames get dropped
+     */
+    @Param({"0", "20000", "80000"})
+    public long latenessUs;
+
+    private final SimulatedTime mTime = new SimulatedTime();
+    private FakeFrameDecoder mDecoder;
+    private FrameScheduler mScheduler;
+
+    @Setup
+    public void setUp() {
+        mDecoder = new FakeFrameDecoder(new FakeSampleSource(Integer.MAX_VALUE, FRAME_US, 30, 16), 4);
+        FrameClock clock = new FrameClock(mTime);
+        final AvSyncController sync = new AvSyncController(clock);
+        mScheduler = new FrameScheduler(mDecoder, clock, sync, new PlayerMetrics(), new FrameScheduler.Output() {
+            @Override
+            public void renderFrame(FrameDecoder.DecodedFrame frame, long renderTimeNs) {
+                sync.onFrameRendered(frame.presentationTimeUs);
+                mDecoder.releaseFrame(frame, renderTimeNs);
+            }
+
+            @Override
+            public void onFrameDropped(long presentationTimeUs) {
+            }
+
+            @Override
+            public void onEndOfStream(FrameDecoder.DecodedFrame frame) {
+                throw new IllegalStateException("end of an endless stream");
+            }
+
+            @Override
+            public int skipToSyncSample(long positionUs) {
+                return 0;
+            }
+        });
+        // anchor the clock on the first frame, every later one is handled equally late
+        mDecoder.decodeNext();
+        mScheduler.tick();
+        mTime.now = latenessUs * 1000;
+    }
+
+    @Benchmark
+    public long tick() {
+        mDecoder.decodeNext();
+        mTime.now += FRAME_US * 1000;
+        return mScheduler.tick();
+    }
+
+    @Benchmark
+    public void decodeOnly(Blackhole blackhole) {
+        mDecoder.decodeNext();
+        FrameDecoder.DecodedFrame frame = mDecoder.peekFrame();
+        blackhole.consume(frame.presentationTimeUs);
+        mDecoder.releaseFrame(frame, true);
+    }
+
+    static final class SimulatedTime implements FrameClock.TimeSource {
+        long now;
+
+        @Override
+        public long nanoTime() {
+            return now;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.myth.frameplayer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time {@link Mp4Demuxer} takes to open an hour of 30 fps video with AAC audio, and to read
+ * every sample of it through the mapping afterwards.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class Mp4DemuxerBenchmark {
+
+    private static final int VIDEO_SAMPLES = 30 * 3600;
+    private static final int AUDIO_SAMPLES = Mp4TestFile.AUDIO_SAMPLE_RATE * 3600 / 1024;
+
+    private File mFile;
+    private Mp4Demuxer.Track mVideo;
+    private Mp4Demuxer.Track mAudio;
+
+    @Setup(Level.Trial)
+    public void writeFile() throws IOException {
+        mFile = File.createTempFile("demuxer", ".mp4");
+        Mp4TestFile.write(mFile, VIDEO_SAMPLES, AUDIO_SAMPLES);
+        Mp4Demuxer demuxer = Mp4Demuxer.open(mFile);
+        mVideo = demuxer.getTrack(Mp4Demuxer.TRACK_TYPE_VIDEO);
+        mAudio = demuxer.getTrack(Mp4Demuxer.TRACK_TYPE_AUDIO);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFile() {
+        mFile.delete();
+    }
+
+    @Benchmark
+    public Mp4Demuxer open() throws IOException {
+        return Mp4Demuxer.open(mFile);
+    }
+
+    @Benchmark
+    public long readAllSamples() {
+        return read(mVideo) + read(mAudio);
+    }
+
+    private static long read(Mp4Demuxer.Track track) {
+        ByteBuffer view = track.newView();
+        long checksum = 0;
+        for (int i = 0; i < track.getSampleCount(); i++) {
+            track.selectSample(view, i);
+            checksum += view.get(view.limit() - 1);
+        }
+        return checksum;
+    }
+}
@@ -0,0 +1,72 @@
+package com.myth.frameplayer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time {@link TimeStretcher} takes for one second of decoded audio, over the range of speeds
+ * {@link FramePlayer#setFrameInterval} can produce. Below 1000 ms the stretcher runs faster
+ * than real time on one core of the host JVM; devices are a lot slower, so look for a wide
+ * margin.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TimeStretcherBenchmark {
+
+    private static final int SAMPLE_RATE = 44100;
+    private static final int CHANNELS = 2;
+
+    @Param({"0.0333", "0.5", "0.8", "1.25", "2.0", "3.3333"})
+    public float speed;
+
+    private final ByteBuffer mInput = ByteBuffer.allocate(SAMPLE_RATE * CHANNELS * 2)
+            .order(ByteOrder.LITTLE_ENDIAN);
+    private final ByteBuffer mOutput = ByteBuffer.allocateDirect(16384)
+            .order(ByteOrder.LITTLE_ENDIAN);
+    private TimeStretcher mStretcher;
+
+    @Setup(Level.Trial)
+    public void fillInput() {
+        // a 180 Hz tone, so the pitch search has a period to find
+        for (int i = 0; i < SAMPLE_RATE; i++) {
+            short sample = (short) (12000 * Math.sin(2 * Math.PI * 180 * i / SAMPLE_RATE));
+            for (int c = 0; c < CHANNELS; c++) {
+                mInput.putShort(sample);
+            }
+        }
+        mInput.flip();
+    }
+
+    @Setup(Level.Iteration)
+    public void start() {
+        mStretcher = new TimeStretcher(SAMPLE_RATE, CHANNELS);
+        mStretcher.setSpeed(speed);
+    }
+
+    @Benchmark
+    public long oneSecond() {
+        mInput.rewind();
+        long total = 0;
+        while (mInput.hasRemaining()) {
+            mStretcher.write(mInput);
+            int read;
+            while ((read = mStretcher.read(mOutput)) > 0) {
+                total += read;
+                mOutput.clear();
+            }
+        }
+        return total;
+    }
+}